@@ -89,5 +89,14 @@ interface Backend {
     @Throws(MessagingException::class)
     fun sendMessage(message: Message)
 
+    /**
+     * Prepare for sending multiple messages with [sendMessage], e.g. by keeping the connection to the server open.
+     *
+     * Must be followed by a call to [endSendSession].
+     */
+    fun startSendSession()
+
+    fun endSendSession()
+
     fun createPusher(callback: BackendPusherCallback): BackendPusher
 }
@@ -20,8 +20,10 @@ interface BackendFolder {
     fun setStatus(status: String?)
     fun isMessagePresent(messageServerId: String): Boolean
     fun getMessageFlags(messageServerId: String): Set<Flag>
+    fun getMessageFlags(messageServerIds: Collection<String>): Map<String, Set<Flag>>
     fun setMessageFlag(messageServerId: String, flag: Flag, value: Boolean)
     fun saveMessage(message: Message, downloadState: MessageDownloadState)
+    fun saveMessages(messages: List<Message>, downloadState: MessageDownloadState)
     fun getOldestMessageDate(): Date?
     fun getFolderExtraString(name: String): String?
     fun setFolderExtraString(name: String, value: String?)
@@ -0,0 +1,44 @@
+@file:JvmName("BackendFolderExtensions")
+
+package com.fsck.k9.backend.api
+
+import com.fsck.k9.logging.Timber
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mail.MessageDownloadState
+
+/**
+ * Number of downloaded messages backends collect before saving them with [saveMessagesInBatch].
+ */
+const val SAVE_BATCH_SIZE = 25
+
+/**
+ * Save [messages] using [BackendFolder.saveMessages].
+ *
+ * If saving the batch fails, the messages are saved one by one. That way a single message that can't be saved doesn't
+ * prevent the other messages from being saved.
+ *
+ * @return The messages that were saved successfully.
+ */
+fun <T : Message> BackendFolder.saveMessagesInBatch(
+    messages: List<T>,
+    downloadState: MessageDownloadState,
+): List<T> {
+    if (messages.isEmpty()) return emptyList()
+
+    return try {
+        saveMessages(messages, downloadState)
+        messages
+    } catch (e: Exception) {
+        Timber.w(e, "Error saving batch of %d messages. Saving messages one by one.", messages.size)
+
+        messages.filter { message ->
+            try {
+                saveMessage(message, downloadState)
+                true
+            } catch (e: Exception) {
+                Timber.e(e, "Error saving message %s", message.uid)
+                false
+            }
+        }
+    }
+}
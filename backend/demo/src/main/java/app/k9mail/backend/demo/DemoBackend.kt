@@ -165,6 +165,10 @@ class DemoBackend(private val backendStorage: BackendStorage) : Backend {
         backendFolder.saveMessage(newMessage, MessageDownloadState.FULL)
     }
 
+    override fun startSendSession() = Unit
+
+    override fun endSendSession() = Unit
+
     override fun createPusher(callback: BackendPusherCallback): BackendPusher {
         throw UnsupportedOperationException("not implemented")
     }
@@ -0,0 +1,98 @@
+package com.fsck.k9.backend.imap
+
+import com.fsck.k9.logging.Timber
+import com.fsck.k9.mail.store.imap.IdleRefreshTimeoutProvider
+import java.net.ConnectException
+import java.net.NoRouteToHostException
+import java.net.SocketException
+import java.net.SocketTimeoutException
+
+internal const val MIN_IDLE_REFRESH_TIMEOUT = 2 * 60 * 1000L
+internal const val INITIAL_IDLE_REFRESH_TIMEOUT = 5 * 60 * 1000L
+internal const val REPROBE_AFTER_REFRESH_COUNT = 24
+
+/**
+ * Learns how long an IDLE connection to a server can stay silent before it is dropped, e.g. by a NAT gateway.
+ *
+ * Starts with a short timeout and increases it after every successful refresh, up to the timeout configured by the
+ * user. When an idle connection is lost, the longest timeout that worked before is used as limit. After
+ * [REPROBE_AFTER_REFRESH_COUNT] successful refreshes at the limit, longer timeouts are tried again, because the
+ * network might have changed.
+ */
+internal class AdaptiveIdleRefreshTimeout(
+    maximumTimeoutMs: Long,
+    private val logTag: String,
+) : IdleRefreshTimeoutProvider {
+    private var maximumTimeoutMs = maximumTimeoutMs
+    private var currentTimeoutMs = INITIAL_IDLE_REFRESH_TIMEOUT
+    private var learnedLimitMs = Long.MAX_VALUE
+    private var largestSuccessfulTimeoutMs = 0L
+    private var refreshCountAtLimit = 0
+
+    override val idleRefreshTimeoutMs: Long
+        @Synchronized get() = currentTimeoutMs.coerceAtMost(maximumTimeoutMs)
+
+    @Synchronized
+    fun setMaximumTimeout(timeoutMs: Long) {
+        maximumTimeoutMs = timeoutMs
+    }
+
+    @Synchronized
+    override fun onIdleRefreshed(silenceMs: Long) {
+        largestSuccessfulTimeoutMs = maxOf(largestSuccessfulTimeoutMs, silenceMs)
+
+        // Only a connection that stayed silent for the whole timeout confirms it. Connections started with an older
+        // timeout and refresh timers that fired early (e.g. to align wake-ups) don't.
+        if (silenceMs < idleRefreshTimeoutMs) return
+
+        val upperLimitMs = minOf(maximumTimeoutMs, learnedLimitMs)
+        if (currentTimeoutMs < upperLimitMs) {
+            currentTimeoutMs = minOf(upperLimitMs, currentTimeoutMs * 3 / 2)
+            Timber.v("%s: Increasing IDLE refresh timeout to %d ms", logTag, currentTimeoutMs)
+        } else if (learnedLimitMs < maximumTimeoutMs && ++refreshCountAtLimit >= REPROBE_AFTER_REFRESH_COUNT) {
+            Timber.v("%s: Probing IDLE refresh timeouts above %d ms", logTag, learnedLimitMs)
+            learnedLimitMs = Long.MAX_VALUE
+            refreshCountAtLimit = 0
+            largestSuccessfulTimeoutMs = 0L
+        }
+    }
+
+    /**
+     * Lowers the timeout if [exception] suggests that the server or a gateway dropped an idle connection.
+     *
+     * Must only be called for errors reading from an established IDLE connection, not e.g. for failures to connect or
+     * log in.
+     */
+    @Synchronized
+    fun onIdleConnectionError(exception: Exception) {
+        if (!exception.isIdleConnectionLoss()) return
+
+        val failedTimeoutMs = idleRefreshTimeoutMs
+        val limitMs = if (largestSuccessfulTimeoutMs in MIN_IDLE_REFRESH_TIMEOUT until failedTimeoutMs) {
+            largestSuccessfulTimeoutMs
+        } else {
+            failedTimeoutMs / 2
+        }
+
+        learnedLimitMs = limitMs.coerceAtLeast(MIN_IDLE_REFRESH_TIMEOUT)
+        currentTimeoutMs = learnedLimitMs
+        refreshCountAtLimit = 0
+        largestSuccessfulTimeoutMs = 0L
+
+        Timber.v(
+            "%s: IDLE connection lost after %d ms; limiting timeout to %d ms",
+            logTag,
+            failedTimeoutMs,
+            learnedLimitMs,
+        )
+    }
+
+    private fun Throwable.isIdleConnectionLoss(): Boolean {
+        return when (this) {
+            is SocketTimeoutException -> true
+            is ConnectException, is NoRouteToHostException -> false
+            is SocketException -> true
+            else -> cause?.isIdleConnectionLoss() ?: false
+        }
+    }
+}
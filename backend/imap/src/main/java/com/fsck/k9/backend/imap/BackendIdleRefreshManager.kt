@@ -1,5 +1,6 @@
 package com.fsck.k9.backend.imap
 
+import com.fsck.k9.logging.Timber
 import com.fsck.k9.mail.store.imap.IdleRefreshManager
 import com.fsck.k9.mail.store.imap.IdleRefreshTimer
 
@@ -7,17 +8,29 @@ private typealias Callback = () -> Unit
 
 private const val MIN_TIMER_DELTA = 1 * 60 * 1000L
 private const val NO_TRIGGER_TIME = 0L
+private const val WAKE_UP_STATISTICS_PERIOD = 60 * 60 * 1000L
 
 /**
  * Timer mechanism to refresh IMAP IDLE connections.
  *
- * Triggers timers early if necessary to reduce the number of times the device has to be woken up.
+ * Triggers timers early if necessary to reduce the number of times the device has to be woken up. A single instance is
+ * shared by all accounts, so the IDLE refreshes of all accounts are aligned to the same wake-ups.
  */
 class BackendIdleRefreshManager(private val alarmManager: SystemAlarmManager) : IdleRefreshManager {
     private var timers = mutableSetOf<BackendIdleRefreshTimer>()
     private var currentTriggerTime = NO_TRIGGER_TIME
     private var minTimeout = Long.MAX_VALUE
     private var minTimeoutTimestamp = 0L
+    private val wakeUpTimes = ArrayDeque<Long>()
+
+    /**
+     * The number of times the alarm woke up the device during the last hour.
+     */
+    val wakeUpsInLastHour: Int
+        @Synchronized get() {
+            removeOldWakeUps(alarmManager.now())
+            return wakeUpTimes.size
+        }
 
     @Synchronized
     override fun startTimer(timeout: Long, callback: Callback): IdleRefreshTimer {
@@ -63,13 +76,13 @@ class BackendIdleRefreshManager(private val alarmManager: SystemAlarmManager) :
 
     private fun setAlarm(triggerTime: Long) {
         currentTriggerTime = triggerTime
-        alarmManager.setAlarm(triggerTime, ::onTimeout)
+        alarmManager.setAlarm(triggerTime, ::onAlarm)
     }
 
     private fun adjustAlarm(triggerTime: Long) {
         currentTriggerTime = triggerTime
         alarmManager.cancelAlarm()
-        alarmManager.setAlarm(triggerTime, ::onTimeout)
+        alarmManager.setAlarm(triggerTime, ::onAlarm)
     }
 
     private fun cancelAlarm() {
@@ -77,6 +90,24 @@ class BackendIdleRefreshManager(private val alarmManager: SystemAlarmManager) :
         alarmManager.cancelAlarm()
     }
 
+    private fun onAlarm() {
+        synchronized(this) {
+            val now = alarmManager.now()
+            wakeUpTimes.addLast(now)
+            removeOldWakeUps(now)
+
+            Timber.v("BackendIdleRefreshManager: %d wake-ups in the last hour", wakeUpTimes.size)
+        }
+
+        onTimeout()
+    }
+
+    private fun removeOldWakeUps(now: Long) {
+        while (wakeUpTimes.isNotEmpty() && wakeUpTimes.first() <= now - WAKE_UP_STATISTICS_PERIOD) {
+            wakeUpTimes.removeFirst()
+        }
+    }
+
     private fun onTimeout() {
         val triggerTimers = synchronized(this) {
             currentTriggerTime = NO_TRIGGER_TIME
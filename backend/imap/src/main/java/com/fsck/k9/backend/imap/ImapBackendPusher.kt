@@ -17,11 +17,15 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.launch
 
-private const val IO_ERROR_TIMEOUT = 5 * 60 * 1000L
+private const val INITIAL_IO_ERROR_TIMEOUT = 2 * 60 * 1000L
 private const val UNEXPECTED_ERROR_TIMEOUT = 60 * 60 * 1000L
 
 /**
- * Manages [ImapFolderPusher] instances that listen for changes to individual folders.
+ * Listens for changes to the push folders of an account.
+ *
+ * If the server supports the NOTIFY extension, a single [ImapNotifyPusher] watches all folders using one connection.
+ * Otherwise this falls back to [ImapFolderPusher] instances that listen for changes to individual folders, one
+ * connection each. The number of those is limited by [ImapPushConfigProvider.maxPushFoldersFlow].
  */
 internal class ImapBackendPusher(
     private val imapStore: ImapStore,
@@ -31,23 +35,44 @@ internal class ImapBackendPusher(
     private val callback: BackendPusherCallback,
     private val accountName: String,
     backgroundDispatcher: CoroutineDispatcher = Dispatchers.IO,
-) : BackendPusher, ImapPusherCallback {
+) : BackendPusher, ImapPusherCallback, ImapNotifyPusherCallback {
     private val coroutineScope = CoroutineScope(backgroundDispatcher)
     private val lock = Any()
     private val pushFolders = mutableMapOf<String, ImapFolderPusher>()
     private var currentFolderServerIds: Collection<String> = emptySet()
     private val pushFolderSleeping = mutableMapOf<String, IdleRefreshTimer>()
+    private var notifyPusher: ImapNotifyPusher? = null
+    private var notifyPusherSleeping: IdleRefreshTimer? = null
+
+    // `null` until the NOTIFY pusher found out whether the server supports NOTIFY
+    @Volatile
+    private var isNotifySupported: Boolean? = null
+
+    private val adaptiveIdleRefreshTimeout = AdaptiveIdleRefreshTimeout(
+        maximumTimeoutMs = 15 * 60 * 1000L,
+        logTag = "ImapBackendPusher[$accountName]",
+    )
 
     private val idleRefreshTimeoutProvider = object : IdleRefreshTimeoutProvider {
         override val idleRefreshTimeoutMs
-            get() = currentIdleRefreshMs
+            get() = adaptiveIdleRefreshTimeout.idleRefreshTimeoutMs
+
+        override fun onIdleRefreshed(silenceMs: Long) {
+            ioErrorCount = 0
+            adaptiveIdleRefreshTimeout.onIdleRefreshed(silenceMs)
+        }
+
+        override fun onIdleConnectionLost(exception: IOException) {
+            adaptiveIdleRefreshTimeout.onIdleConnectionError(exception)
+        }
     }
 
     @Volatile
     private var currentMaxPushFolders = 0
 
+    // Number of consecutive I/O errors. Reset once an IDLE connection has been refreshed successfully.
     @Volatile
-    private var currentIdleRefreshMs = 15 * 60 * 1000L
+    private var ioErrorCount = 0
 
     override fun start() {
         coroutineScope.launch {
@@ -59,7 +84,7 @@ internal class ImapBackendPusher(
 
         coroutineScope.launch {
             pushConfigProvider.idleRefreshMinutesFlow.collect { idleRefreshMinutes ->
-                currentIdleRefreshMs = idleRefreshMinutes * 60 * 1000L
+                adaptiveIdleRefreshTimeout.setMaximumTimeout(idleRefreshMinutes * 60 * 1000L)
                 refreshFolderTimers()
             }
         }
@@ -67,6 +92,8 @@ internal class ImapBackendPusher(
 
     private fun refreshFolderTimers() {
         synchronized(lock) {
+            notifyPusher?.refresh()
+
             for (pushFolder in pushFolders.values) {
                 pushFolder.refresh()
             }
@@ -93,6 +120,12 @@ internal class ImapBackendPusher(
             folderServerIds
         }
 
+        // While support is unknown, the NOTIFY pusher is used to find out
+        if (isNotifySupported != false) {
+            updateNotifyPusher(folderServerIds, pushFolderServerIds.toSet())
+            return
+        }
+
         val stopFolderPushers: List<ImapFolderPusher>
         val startFolderPushers: List<ImapFolderPusher>
         synchronized(lock) {
@@ -130,12 +163,49 @@ internal class ImapBackendPusher(
         }
     }
 
+    private fun updateNotifyPusher(folderServerIds: Collection<String>, pushFolderServerIds: Set<String>) {
+        val stopNotifyPusher: ImapNotifyPusher?
+        val startNotifyPusher: ImapNotifyPusher?
+        synchronized(lock) {
+            currentFolderServerIds = folderServerIds
+
+            val runningNotifyPusher = notifyPusher
+            when {
+                pushFolderServerIds.isEmpty() -> {
+                    cancelNotifyRetryTimer()
+                    notifyPusher = null
+                    stopNotifyPusher = runningNotifyPusher
+                    startNotifyPusher = null
+                }
+                runningNotifyPusher != null -> {
+                    runningNotifyPusher.updateFolders(pushFolderServerIds)
+                    stopNotifyPusher = null
+                    startNotifyPusher = null
+                }
+                notifyPusherSleeping?.isWaiting == true -> {
+                    stopNotifyPusher = null
+                    startNotifyPusher = null
+                }
+                else -> {
+                    notifyPusherSleeping = null
+                    stopNotifyPusher = null
+                    startNotifyPusher = createImapNotifyPusher().also { notifyPusher = it }
+                }
+            }
+        }
+
+        stopNotifyPusher?.stop()
+        startNotifyPusher?.start(pushFolderServerIds)
+    }
+
     override fun stop() {
         Timber.v("ImapBackendPusher.stop()")
 
         coroutineScope.cancel()
 
         synchronized(lock) {
+            stopNotifyPusher()
+
             for (pushFolder in pushFolders.values) {
                 pushFolder.stop()
             }
@@ -154,6 +224,8 @@ internal class ImapBackendPusher(
         Timber.v("ImapBackendPusher.reconnect()")
 
         synchronized(lock) {
+            stopNotifyPusher()
+
             for (pushFolder in pushFolders.values) {
                 pushFolder.stop()
             }
@@ -163,6 +235,9 @@ internal class ImapBackendPusher(
                 retryTimer.cancel()
             }
             pushFolderSleeping.clear()
+
+            // The server behind the account's host name might have changed
+            isNotifySupported = null
         }
 
         imapStore.closeAllConnections()
@@ -182,7 +257,26 @@ internal class ImapBackendPusher(
         )
     }
 
+    private fun createImapNotifyPusher(): ImapNotifyPusher {
+        return ImapNotifyPusher(
+            imapStore,
+            powerManager,
+            idleRefreshManager,
+            this,
+            accountName,
+            idleRefreshTimeoutProvider,
+        )
+    }
+
+    private fun stopNotifyPusher() {
+        notifyPusher?.stop()
+        notifyPusher = null
+
+        cancelNotifyRetryTimer()
+    }
+
     override fun onPushEvent(folderServerId: String) {
+        ioErrorCount = 0
         callback.onPushEvent(folderServerId)
         idleRefreshManager.resetTimers()
     }
@@ -191,33 +285,7 @@ internal class ImapBackendPusher(
         synchronized(lock) {
             pushFolders.remove(folderServerId)
 
-            when (exception) {
-                is AuthenticationFailedException -> {
-                    Timber.v(exception, "Authentication failure when attempting to use IDLE")
-                    // TODO: This could be happening because of too many connections to the host. Ideally we'd want to
-                    //  detect this case and use a lower timeout.
-
-                    startRetryTimer(folderServerId, UNEXPECTED_ERROR_TIMEOUT)
-                }
-                is IOException -> {
-                    Timber.v(exception, "I/O error while trying to use IDLE")
-
-                    startRetryTimer(folderServerId, IO_ERROR_TIMEOUT)
-                }
-                is MessagingException -> {
-                    Timber.v(exception, "MessagingException")
-
-                    if (exception.isPermanentFailure) {
-                        startRetryTimer(folderServerId, UNEXPECTED_ERROR_TIMEOUT)
-                    } else {
-                        startRetryTimer(folderServerId, IO_ERROR_TIMEOUT)
-                    }
-                }
-                else -> {
-                    Timber.v(exception, "Unexpected error")
-                    startRetryTimer(folderServerId, UNEXPECTED_ERROR_TIMEOUT)
-                }
-            }
+            startRetryTimer(folderServerId, getRetryTimeout(exception))
 
             if (pushFolders.isEmpty()) {
                 callback.onPushError(exception)
@@ -229,6 +297,72 @@ internal class ImapBackendPusher(
         callback.onPushNotSupported()
     }
 
+    override fun onNotifyPushError(exception: Exception) {
+        synchronized(lock) {
+            notifyPusher = null
+
+            val timeout = getRetryTimeout(exception)
+            Timber.v("ImapBackendPusher for NOTIFY sleeping for %d ms", timeout)
+            notifyPusherSleeping = idleRefreshManager.startTimer(timeout, ::restartFolderPushers)
+
+            callback.onPushError(exception)
+        }
+    }
+
+    override fun onNotifySupported() {
+        isNotifySupported = true
+    }
+
+    override fun onNotifyNotSupported() {
+        Timber.v("NOTIFY not supported by server; falling back to one IDLE connection per folder")
+
+        synchronized(lock) {
+            isNotifySupported = false
+            notifyPusher = null
+        }
+
+        updateFolders()
+    }
+
+    private fun getRetryTimeout(exception: Exception): Long {
+        return when (exception) {
+            is AuthenticationFailedException -> {
+                Timber.v(exception, "Authentication failure when attempting to use IDLE")
+                // TODO: This could be happening because of too many connections to the host. Ideally we'd want to
+                //  detect this case and use a lower timeout.
+
+                UNEXPECTED_ERROR_TIMEOUT
+            }
+            is IOException -> {
+                Timber.v(exception, "I/O error while trying to use IDLE")
+                nextIoErrorTimeout()
+            }
+            is MessagingException -> {
+                Timber.v(exception, "MessagingException")
+
+                if (exception.isPermanentFailure) {
+                    UNEXPECTED_ERROR_TIMEOUT
+                } else {
+                    nextIoErrorTimeout()
+                }
+            }
+            else -> {
+                Timber.v(exception, "Unexpected error")
+                UNEXPECTED_ERROR_TIMEOUT
+            }
+        }
+    }
+
+    /**
+     * Exponential backoff for temporary errors: 2, 4, 8, ... minutes, but at most [UNEXPECTED_ERROR_TIMEOUT].
+     */
+    private fun nextIoErrorTimeout(): Long {
+        val errorCount = ++ioErrorCount
+        val factor = 1L shl (errorCount - 1).coerceAtMost(5)
+
+        return (INITIAL_IO_ERROR_TIMEOUT * factor).coerceAtMost(UNEXPECTED_ERROR_TIMEOUT)
+    }
+
     private fun startRetryTimer(folderServerId: String, timeout: Long) {
         Timber.v("ImapBackendPusher for folder %s sleeping for %d ms", folderServerId, timeout)
         pushFolderSleeping[folderServerId] = idleRefreshManager.startTimer(timeout, ::restartFolderPushers)
@@ -239,6 +373,14 @@ internal class ImapBackendPusher(
         pushFolderSleeping.remove(folderServerId)?.cancel()
     }
 
+    private fun cancelNotifyRetryTimer() {
+        notifyPusherSleeping?.let { retryTimer ->
+            Timber.v("Canceling ImapBackendPusher retry timer for NOTIFY")
+            retryTimer.cancel()
+        }
+        notifyPusherSleeping = null
+    }
+
     private fun isWaitingForRetry(folderServerId: String): Boolean {
         return pushFolderSleeping[folderServerId]?.isWaiting == true
     }
@@ -0,0 +1,128 @@
+package com.fsck.k9.backend.imap
+
+import com.fsck.k9.logging.Timber
+import com.fsck.k9.mail.power.PowerManager
+import com.fsck.k9.mail.store.imap.IdleRefreshManager
+import com.fsck.k9.mail.store.imap.IdleRefreshTimeoutProvider
+import com.fsck.k9.mail.store.imap.IdleResult
+import com.fsck.k9.mail.store.imap.ImapNotifyIdler
+import com.fsck.k9.mail.store.imap.ImapStore
+import kotlin.concurrent.thread
+
+/**
+ * Listens for changes to all push folders of an account on a single connection in a dedicated thread.
+ *
+ * Requires a server that supports the NOTIFY extension (RFC 5465). Otherwise
+ * [ImapNotifyPusherCallback.onNotifyNotSupported] is called and [ImapFolderPusher] has to be used instead.
+ */
+class ImapNotifyPusher(
+    private val imapStore: ImapStore,
+    private val powerManager: PowerManager,
+    private val idleRefreshManager: IdleRefreshManager,
+    private val callback: ImapNotifyPusherCallback,
+    private val accountName: String,
+    private val idleRefreshTimeoutProvider: IdleRefreshTimeoutProvider,
+) {
+    @Volatile
+    private var notifyIdler: ImapNotifyIdler? = null
+
+    @Volatile
+    private var folderServerIds: Set<String> = emptySet()
+
+    @Volatile
+    private var stopPushing = false
+
+    fun start(folderServerIds: Set<String>) {
+        Timber.v("Starting ImapNotifyPusher for %s: %s", accountName, folderServerIds)
+
+        this.folderServerIds = folderServerIds
+
+        thread(name = "ImapNotifyPusher-$accountName") {
+            Timber.v("Starting ImapNotifyPusher thread for %s", accountName)
+
+            runPushLoop()
+
+            Timber.v("Exiting ImapNotifyPusher thread for %s", accountName)
+        }
+    }
+
+    fun updateFolders(folderServerIds: Set<String>) {
+        if (folderServerIds == this.folderServerIds) return
+
+        Timber.v("Updating ImapNotifyPusher folders for %s: %s", accountName, folderServerIds)
+
+        this.folderServerIds = folderServerIds
+        notifyIdler?.stop()
+    }
+
+    fun refresh() {
+        Timber.v("Refreshing ImapNotifyPusher for %s", accountName)
+
+        notifyIdler?.refresh()
+    }
+
+    fun stop() {
+        Timber.v("Stopping ImapNotifyPusher for %s", accountName)
+
+        stopPushing = true
+        notifyIdler?.stop()
+    }
+
+    private fun runPushLoop() {
+        val wakeLock = powerManager.newWakeLock("ImapNotifyPusher-$accountName")
+        wakeLock.acquire()
+
+        val notifyIdler = ImapNotifyIdler.create(
+            idleRefreshManager,
+            wakeLock,
+            imapStore,
+            idleRefreshTimeoutProvider,
+        ).also {
+            notifyIdler = it
+        }
+
+        var syncedFolderServerIds = emptySet<String>()
+        try {
+            while (!stopPushing) {
+                val folderServerIds = folderServerIds
+                performInitialSync(folderServerIds - syncedFolderServerIds)
+                syncedFolderServerIds = folderServerIds
+
+                val result = notifyIdler.idle(folderServerIds)
+                if (result.idleResult != IdleResult.NOT_SUPPORTED) {
+                    callback.onNotifySupported()
+                }
+
+                when (result.idleResult) {
+                    IdleResult.SYNC -> {
+                        for (folderServerId in result.changedFolderServerIds) {
+                            callback.onPushEvent(folderServerId)
+                        }
+                    }
+                    IdleResult.STOPPED -> {
+                        // Either we were asked to stop or the set of folders changed. The loop condition decides.
+                    }
+                    IdleResult.NOT_SUPPORTED -> {
+                        stopPushing = true
+                        callback.onNotifyNotSupported()
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            Timber.v(e, "Exception in ImapNotifyPusher")
+
+            this.notifyIdler = null
+            if (!stopPushing) {
+                callback.onNotifyPushError(e)
+            }
+        }
+
+        wakeLock.release()
+    }
+
+    private fun performInitialSync(folderServerIds: Collection<String>) {
+        for (folderServerId in folderServerIds) {
+            callback.onPushEvent(folderServerId)
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.fsck.k9.backend.imap
+
+interface ImapNotifyPusherCallback {
+    fun onPushEvent(folderServerId: String)
+    fun onNotifyPushError(exception: Exception)
+    fun onNotifySupported()
+    fun onNotifyNotSupported()
+}
@@ -3,9 +3,11 @@ package com.fsck.k9.backend.imap
 import com.fsck.k9.backend.api.BackendFolder
 import com.fsck.k9.backend.api.BackendFolder.MoreMessages
 import com.fsck.k9.backend.api.BackendStorage
+import com.fsck.k9.backend.api.SAVE_BATCH_SIZE
 import com.fsck.k9.backend.api.SyncConfig
 import com.fsck.k9.backend.api.SyncConfig.ExpungePolicy
 import com.fsck.k9.backend.api.SyncListener
+import com.fsck.k9.backend.api.saveMessagesInBatch
 import com.fsck.k9.helper.ExceptionHelper
 import com.fsck.k9.logging.Timber
 import com.fsck.k9.mail.AuthenticationFailedException
@@ -20,6 +22,7 @@ import com.fsck.k9.mail.store.imap.ImapFolder
 import com.fsck.k9.mail.store.imap.ImapMessage
 import com.fsck.k9.mail.store.imap.ImapStore
 import com.fsck.k9.mail.store.imap.OpenMode
+import com.fsck.k9.mail.store.imap.QresyncResponse
 import java.util.Collections
 import java.util.Date
 import java.util.concurrent.atomic.AtomicInteger
@@ -81,12 +84,25 @@ internal class ImapSync(
                 remoteFolder.expunge()
             }
 
-            remoteFolder.open(OpenMode.READ_ONLY)
+            /*
+             * If we know the HIGHESTMODSEQ value from the last successful sync, the server can tell us which messages
+             * were changed or expunged since then (CONDSTORE/QRESYNC, RFC 7162). Then we don't have to fetch the flags
+             * of all messages in the sync window.
+             */
+            val oldUidValidity = backendFolder.getFolderExtraNumber(EXTRA_UID_VALIDITY)
+            val oldHighestModSeq = backendFolder.getFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ)?.takeIf { it > 0 }
+            var qresyncResponse = if (oldUidValidity != null && oldHighestModSeq != null) {
+                remoteFolder.openWithQresync(OpenMode.READ_ONLY, oldUidValidity, oldHighestModSeq)
+            } else {
+                remoteFolder.open(OpenMode.READ_ONLY)
+                null
+            }
 
             listener.syncAuthenticationSuccess()
 
             val uidValidity = remoteFolder.getUidValidity()
-            val oldUidValidity = backendFolder.getFolderExtraNumber(EXTRA_UID_VALIDITY)
+            val highestModSeq = remoteFolder.getHighestModSeq()
+            var changedSince = oldHighestModSeq.takeIf { highestModSeq != null }
             if (oldUidValidity == null && uidValidity != null) {
                 Timber.d("SYNC: Saving UIDVALIDITY for %s", folder)
                 backendFolder.setFolderExtraNumber(EXTRA_UID_VALIDITY, uidValidity)
@@ -95,6 +111,12 @@ internal class ImapSync(
                 backendFolder.clearAllMessages()
                 backendFolder.setFolderExtraNumber(EXTRA_UID_VALIDITY, uidValidity!!)
                 backendFolder.setFolderExtraNumber(EXTRA_HIGHEST_KNOWN_UID, 0)
+                backendFolder.setFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ, 0)
+                changedSince = null
+            }
+
+            if (changedSince == null) {
+                qresyncResponse = null
             }
 
             /*
@@ -105,6 +127,10 @@ internal class ImapSync(
             val highestKnownUid = backendFolder.getFolderExtraNumber(EXTRA_HIGHEST_KNOWN_UID) ?: 0
             var localUidMap: Map<String, Long?>? = backendFolder.getAllMessagesAndEffectiveDates()
 
+            if (qresyncResponse != null && syncConfig.syncRemoteDeletions) {
+                localUidMap = removeVanishedMessages(folder, backendFolder, localUidMap!!, qresyncResponse, listener)
+            }
+
             /*
              * Get the remote message count.
              */
@@ -207,8 +233,17 @@ internal class ImapSync(
                 remoteMessages,
                 highestKnownUid,
                 listener,
+                changedSince,
+                qresyncResponse,
             )
 
+            if (highestModSeq != null) {
+                Timber.v("SYNC: Saving HIGHESTMODSEQ %d for %s", highestModSeq, folder)
+                backendFolder.setFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ, highestModSeq)
+            } else if (oldHighestModSeq != null) {
+                backendFolder.setFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ, 0)
+            }
+
             listener.folderStatusChanged(folder)
 
             /* Notify listeners that we're finally done. */
@@ -254,6 +289,25 @@ internal class ImapSync(
         }
     }
 
+    private fun removeVanishedMessages(
+        folder: String,
+        backendFolder: BackendFolder,
+        localUidMap: Map<String, Long?>,
+        qresyncResponse: QresyncResponse,
+        listener: SyncListener,
+    ): Map<String, Long?> {
+        val vanishedMessageUids = localUidMap.keys.filter { qresyncResponse.isExpunged(it) }
+        if (vanishedMessageUids.isEmpty()) return localUidMap
+
+        Timber.d("SYNC: Removing %d messages reported as VANISHED in folder %s", vanishedMessageUids.size, folder)
+        backendFolder.destroyMessages(vanishedMessageUids)
+        for (uid in vanishedMessageUids) {
+            listener.syncRemovedMessage(folder, uid)
+        }
+
+        return localUidMap - vanishedMessageUids.toSet()
+    }
+
     fun downloadMessage(syncConfig: SyncConfig, folderServerId: String, messageServerId: String) {
         val backendFolder = backendStorage.getFolder(folderServerId)
         val remoteFolder = imapStore.getFolder(folderServerId)
@@ -268,6 +322,8 @@ internal class ImapSync(
                 listOf(remoteMessage),
                 null,
                 SimpleSyncListener(),
+                changedSince = null,
+                qresyncResponse = null,
             )
         } finally {
             remoteFolder.close()
@@ -283,6 +339,11 @@ internal class ImapSync(
      * The [BackendFolder] instance corresponding to the remote folder.
      * @param inputMessages
      * A list of messages objects that store the UIDs of which messages to download.
+     * @param changedSince
+     * The mod-sequence saved after the last successful sync. If present, only flags of messages changed since then are
+     * refreshed.
+     * @param qresyncResponse
+     * The flag changes reported when opening the folder using QRESYNC. If present, no flags are fetched at all.
      */
     private fun downloadMessages(
         syncConfig: SyncConfig,
@@ -291,6 +352,8 @@ internal class ImapSync(
         inputMessages: List<ImapMessage>,
         highestKnownUid: Long?,
         listener: SyncListener,
+        changedSince: Long?,
+        qresyncResponse: QresyncResponse?,
     ) {
         val folder = remoteFolder.serverId
 
@@ -390,7 +453,17 @@ internal class ImapSync(
          * Refresh the flags for any messages in the local store that we didn't just
          * download.
          */
-        refreshLocalMessageFlags(syncConfig, remoteFolder, backendFolder, syncFlagMessages, progress, todo, listener)
+        refreshLocalMessageFlags(
+            syncConfig,
+            remoteFolder,
+            backendFolder,
+            syncFlagMessages,
+            progress,
+            todo,
+            listener,
+            changedSince,
+            qresyncResponse,
+        )
 
         Timber.d("SYNC: Synced remote messages for folder %s, %d new messages", folder, downloadedMessageCount.get())
     }
@@ -515,33 +588,53 @@ internal class ImapSync(
 
         Timber.d("SYNC: Fetching %d small messages for folder %s", smallMessages.size, folder)
 
+        // Messages are saved in batches to avoid one database transaction per message
+        val pendingMessages = mutableListOf<ImapMessage>()
+        val pendingFirstResponses = mutableSetOf<ImapMessage>()
+
+        fun savePendingMessages() {
+            val savedMessages = backendFolder.saveMessagesInBatch(pendingMessages, MessageDownloadState.FULL)
+            for (message in savedMessages) {
+                if (message in pendingFirstResponses) {
+                    progress.incrementAndGet()
+                    downloadedMessageCount.incrementAndGet()
+                }
+
+                val messageServerId = message.uid
+                Timber.v(
+                    "About to notify listeners that we got a new small message %s:%s:%s",
+                    accountName,
+                    folder,
+                    messageServerId,
+                )
+
+                // Update the listener with what we've found
+                listener.syncProgress(folder, progress.get(), todo)
+
+                val isOldMessage = isOldMessage(messageServerId, highestKnownUid)
+                listener.syncNewMessage(folder, messageServerId, isOldMessage)
+            }
+
+            pendingMessages.clear()
+            pendingFirstResponses.clear()
+        }
+
         remoteFolder.fetch(
             smallMessages,
             fetchProfile,
             object : FetchListener {
                 override fun onFetchResponse(message: ImapMessage, isFirstResponse: Boolean) {
                     try {
-                        // Store the updated message locally
-                        backendFolder.saveMessage(message, MessageDownloadState.FULL)
-
+                        if (message !in pendingMessages) {
+                            pendingMessages.add(message)
+                        }
                         if (isFirstResponse) {
-                            progress.incrementAndGet()
-                            downloadedMessageCount.incrementAndGet()
+                            pendingFirstResponses.add(message)
                         }
 
-                        val messageServerId = message.uid
-                        Timber.v(
-                            "About to notify listeners that we got a new small message %s:%s:%s",
-                            accountName,
-                            folder,
-                            messageServerId,
-                        )
-
-                        // Update the listener with what we've found
-                        listener.syncProgress(folder, progress.get(), todo)
-
-                        val isOldMessage = isOldMessage(messageServerId, highestKnownUid)
-                        listener.syncNewMessage(folder, messageServerId, isOldMessage)
+                        if (pendingMessages.size >= SAVE_BATCH_SIZE) {
+                            savePendingMessages()
+                        }
                     } catch (e: Exception) {
                         Timber.e(e, "SYNC: fetch small messages")
                     }
@@ -550,6 +643,12 @@ internal class ImapSync(
             -1,
         )
 
+        try {
+            savePendingMessages()
+        } catch (e: Exception) {
+            Timber.e(e, "SYNC: fetch small messages")
+        }
+
         Timber.d("SYNC: Done fetching small messages for folder %s", folder)
     }
 
@@ -608,13 +707,12 @@ internal class ImapSync(
         progress: AtomicInteger,
         todo: Int,
         listener: SyncListener,
+        changedSince: Long?,
+        qresyncResponse: QresyncResponse?,
     ) {
         val folder = remoteFolder.serverId
         Timber.d("SYNC: About to sync flags for %d remote messages for folder %s", syncFlagMessages.size, folder)
 
-        val fetchProfile = FetchProfile()
-        fetchProfile.add(FetchProfile.Item.FLAGS)
-
         val undeletedMessages = mutableListOf<ImapMessage>()
         for (message in syncFlagMessages) {
             if (!message.isSet(Flag.DELETED)) {
@@ -622,12 +720,43 @@ internal class ImapSync(
             }
         }
 
-        val maxDownloadSize = syncConfig.maximumAutoDownloadMessageSize
-        remoteFolder.fetch(undeletedMessages, fetchProfile, null, maxDownloadSize)
-        for (remoteMessage in syncFlagMessages) {
-            val messageChanged = syncFlags(syncConfig, backendFolder, remoteMessage)
-            if (messageChanged) {
-                listener.syncFlagChanged(folder, remoteMessage.uid)
+        // A value of null means the flags of all messages were fetched
+        val changedMessages: Map<String, ImapMessage>? = when {
+            qresyncResponse != null -> {
+                Timber.d("SYNC: Using flag changes reported via QRESYNC for folder %s", folder)
+                qresyncResponse.changedMessages.associateBy { it.uid }
+            }
+            changedSince != null -> {
+                Timber.d("SYNC: Fetching flags changed since mod-sequence %d for folder %s", changedSince, folder)
+                val fetchedMessages = mutableMapOf<String, ImapMessage>()
+                remoteFolder.fetchChangedFlags(
+                    undeletedMessages,
+                    changedSince,
+                    object : FetchListener {
+                        override fun onFetchResponse(message: ImapMessage, isFirstResponse: Boolean) {
+                            fetchedMessages[message.uid] = message
+                        }
+                    },
+                )
+                fetchedMessages
+            }
+            else -> {
+                val fetchProfile = FetchProfile()
+                fetchProfile.add(FetchProfile.Item.FLAGS)
+
+                val maxDownloadSize = syncConfig.maximumAutoDownloadMessageSize
+                remoteFolder.fetch(undeletedMessages, fetchProfile, null, maxDownloadSize)
+                null
+            }
+        }
+
+        for (message in syncFlagMessages) {
+            val remoteMessage = if (changedMessages == null) message else changedMessages[message.uid]
+            if (remoteMessage != null) {
+                val messageChanged = syncFlags(syncConfig, backendFolder, remoteMessage)
+                if (messageChanged) {
+                    listener.syncFlagChanged(folder, remoteMessage.uid)
+                }
             }
             progress.incrementAndGet()
             listener.syncProgress(folder, progress.get(), todo)
@@ -728,5 +857,6 @@ internal class ImapSync(
     companion object {
         private const val EXTRA_UID_VALIDITY = "imapUidValidity"
         private const val EXTRA_HIGHEST_KNOWN_UID = "imapHighestKnownUid"
+        private const val EXTRA_HIGHEST_MOD_SEQ = "imapHighestModSeq"
     }
 }
@@ -0,0 +1,129 @@
+package com.fsck.k9.backend.imap
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import com.fsck.k9.mail.MessagingException
+import java.io.IOException
+import java.net.ConnectException
+import java.net.SocketException
+import java.net.SocketTimeoutException
+import org.junit.Test
+
+private const val MINUTE = 60 * 1000L
+
+class AdaptiveIdleRefreshTimeoutTest {
+    private val adaptiveTimeout = AdaptiveIdleRefreshTimeout(maximumTimeoutMs = 24 * MINUTE, logTag = "test")
+
+    @Test
+    fun `should start with initial timeout`() {
+        assertThat(adaptiveTimeout.idleRefreshTimeoutMs).isEqualTo(INITIAL_IDLE_REFRESH_TIMEOUT)
+    }
+
+    @Test
+    fun `initial timeout should not exceed maximum`() {
+        val adaptiveTimeout = AdaptiveIdleRefreshTimeout(maximumTimeoutMs = 3 * MINUTE, logTag = "test")
+
+        assertThat(adaptiveTimeout.idleRefreshTimeoutMs).isEqualTo(3 * MINUTE)
+    }
+
+    @Test
+    fun `timeout should grow up to maximum after successful refreshes`() {
+        val timeouts = List(6) { refresh() }
+
+        assertThat(timeouts).isEqualTo(
+            listOf(
+                5 * MINUTE,
+                7 * MINUTE + 30_000,
+                11 * MINUTE + 15_000,
+                16 * MINUTE + 52_500,
+                24 * MINUTE,
+                24 * MINUTE,
+            ),
+        )
+    }
+
+    @Test
+    fun `refresh of connection started with older timeout should be ignored`() {
+        refresh()
+
+        adaptiveTimeout.onIdleRefreshed(5 * MINUTE)
+
+        assertThat(adaptiveTimeout.idleRefreshTimeoutMs).isEqualTo(7 * MINUTE + 30_000)
+    }
+
+    @Test
+    fun `refresh by timer that fired early should not increase timeout`() {
+        adaptiveTimeout.onIdleRefreshed(4 * MINUTE)
+
+        assertThat(adaptiveTimeout.idleRefreshTimeoutMs).isEqualTo(INITIAL_IDLE_REFRESH_TIMEOUT)
+    }
+
+    @Test
+    fun `lost idle connection should limit timeout to longest measured silence`() {
+        adaptiveTimeout.onIdleRefreshed(4 * MINUTE)
+
+        adaptiveTimeout.onIdleConnectionError(SocketTimeoutException())
+
+        assertThat(adaptiveTimeout.idleRefreshTimeoutMs).isEqualTo(4 * MINUTE)
+    }
+
+    @Test
+    fun `lost idle connection should limit timeout to largest successful timeout`() {
+        repeat(3) { refresh() }
+
+        adaptiveTimeout.onIdleConnectionError(SocketTimeoutException())
+
+        assertThat(adaptiveTimeout.idleRefreshTimeoutMs).isEqualTo(11 * MINUTE + 15_000)
+        repeat(5) { refresh() }
+        assertThat(adaptiveTimeout.idleRefreshTimeoutMs).isEqualTo(11 * MINUTE + 15_000)
+    }
+
+    @Test
+    fun `lost idle connection without successful refresh should halve timeout`() {
+        adaptiveTimeout.onIdleConnectionError(SocketException("Connection reset"))
+
+        assertThat(adaptiveTimeout.idleRefreshTimeoutMs).isEqualTo(2 * MINUTE + 30_000)
+    }
+
+    @Test
+    fun `wrapped socket exception should count as lost idle connection`() {
+        adaptiveTimeout.onIdleConnectionError(MessagingException("Error", SocketException("Connection reset")))
+        adaptiveTimeout.onIdleConnectionError(SocketTimeoutException())
+
+        assertThat(adaptiveTimeout.idleRefreshTimeoutMs).isEqualTo(MIN_IDLE_REFRESH_TIMEOUT)
+    }
+
+    @Test
+    fun `connection errors unrelated to idle timeout should not change timeout`() {
+        adaptiveTimeout.onIdleConnectionError(ConnectException())
+        adaptiveTimeout.onIdleConnectionError(IOException("Other"))
+
+        assertThat(adaptiveTimeout.idleRefreshTimeoutMs).isEqualTo(INITIAL_IDLE_REFRESH_TIMEOUT)
+    }
+
+    @Test
+    fun `longer timeouts should be probed again after many successful refreshes at the limit`() {
+        repeat(3) { refresh() }
+        adaptiveTimeout.onIdleConnectionError(SocketTimeoutException())
+
+        repeat(REPROBE_AFTER_REFRESH_COUNT) { refresh() }
+        refresh()
+
+        assertThat(adaptiveTimeout.idleRefreshTimeoutMs).isEqualTo(16 * MINUTE + 52_500)
+    }
+
+    @Test
+    fun `lowering maximum should apply immediately`() {
+        repeat(5) { refresh() }
+
+        adaptiveTimeout.setMaximumTimeout(12 * MINUTE)
+
+        assertThat(adaptiveTimeout.idleRefreshTimeoutMs).isEqualTo(12 * MINUTE)
+    }
+
+    private fun refresh(): Long {
+        return adaptiveTimeout.idleRefreshTimeoutMs.also { timeout ->
+            adaptiveTimeout.onIdleRefreshed(timeout)
+        }
+    }
+}
@@ -136,6 +136,27 @@ class BackendIdleRefreshManagerTest {
         assertThat(alarmManager.triggerTime).isEqualTo(NO_TRIGGER_TIME)
         assertThat(callback.wasCalled).isFalse()
     }
+
+    @Test
+    fun `wake-ups in last hour`() {
+        val timeout = 20 * 60 * 1000L
+
+        repeat(4) {
+            idleRefreshManager.startTimer(timeout, RecordingCallback()::alarm)
+            alarmManager.advanceTime(timeout)
+        }
+
+        assertThat(idleRefreshManager.wakeUpsInLastHour).isEqualTo(3)
+    }
+
+    @Test
+    fun `resetting timers should not count as wake-up`() {
+        idleRefreshManager.startTimer(10 * 60 * 1000L, RecordingCallback()::alarm)
+
+        idleRefreshManager.resetTimers()
+
+        assertThat(idleRefreshManager.wakeUpsInLastHour).isEqualTo(0)
+    }
 }
 
 class RecordingCallback {
@@ -2,9 +2,12 @@ package com.fsck.k9.backend.imap
 
 import app.k9mail.backend.testing.InMemoryBackendStorage
 import assertk.assertThat
+import assertk.assertions.contains
 import assertk.assertions.containsAtLeast
+import assertk.assertions.containsExactly
 import assertk.assertions.containsExactlyInAnyOrder
 import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
 import assertk.assertions.isFalse
 import assertk.assertions.isTrue
 import com.fsck.k9.backend.api.FolderInfo
@@ -217,6 +220,68 @@ class ImapSyncTest {
         verify(syncListener).syncNewMessage(FOLDER_SERVER_ID, messageServerId = "1", isOldMessage = false)
     }
 
+    @Test
+    fun `sync with CONDSTORE should save HIGHESTMODSEQ and only fetch changed flags on next sync`() {
+        imapFolder.supportsModSeq = true
+        imapFolder.setUidValidity(1)
+        addMessageToImapFolder(uid = 1)
+        addMessageToImapFolder(uid = 2)
+
+        imapSync.sync(FOLDER_SERVER_ID, defaultSyncConfig, syncListener)
+
+        val savedModSeq = backendFolder.getFolderExtraNumber("imapHighestModSeq")
+        assertThat(savedModSeq).isEqualTo(imapFolder.getHighestModSeq())
+
+        imapFolder.setFlags(listOf(imapFolder.getMessage("2")), setOf(Flag.SEEN), true)
+
+        imapSync.sync(FOLDER_SERVER_ID, defaultSyncConfig, syncListener)
+
+        assertThat(imapFolder.changedSinceRequests).containsExactly(savedModSeq!!)
+        assertThat(backendFolder.getMessageFlags(messageServerId = "2")).contains(Flag.SEEN)
+        verify(syncListener).syncFlagChanged(FOLDER_SERVER_ID, "2")
+        verify(syncListener, never()).syncFlagChanged(FOLDER_SERVER_ID, "1")
+    }
+
+    @Test
+    fun `sync with QRESYNC should remove vanished messages and apply flag changes`() {
+        imapFolder.supportsQresync = true
+        imapFolder.setUidValidity(1)
+        addMessageToImapFolder(uid = 1)
+        addMessageToImapFolder(uid = 2)
+        addMessageToImapFolder(uid = 3)
+
+        imapSync.sync(FOLDER_SERVER_ID, defaultSyncConfig, syncListener)
+
+        val savedModSeq = backendFolder.getFolderExtraNumber("imapHighestModSeq")
+        imapFolder.removeMessage(uid = 3)
+        imapFolder.setFlags(listOf(imapFolder.getMessage("1")), setOf(Flag.FLAGGED), true)
+
+        imapSync.sync(FOLDER_SERVER_ID, defaultSyncConfig, syncListener)
+
+        assertThat(imapFolder.lastQresyncModSeq).isEqualTo(savedModSeq)
+        assertThat(imapFolder.changedSinceRequests).isEmpty()
+        assertThat(backendFolder.getMessageServerIds()).containsExactlyInAnyOrder("1", "2")
+        assertThat(backendFolder.getMessageFlags(messageServerId = "1")).contains(Flag.FLAGGED)
+        verify(syncListener).syncRemovedMessage(FOLDER_SERVER_ID, "3")
+    }
+
+    @Test
+    fun `sync with UIDVALIDITY change should reset HIGHESTMODSEQ`() {
+        imapFolder.supportsQresync = true
+        imapFolder.setUidValidity(1)
+        addMessageToImapFolder(uid = 1)
+
+        imapSync.sync(FOLDER_SERVER_ID, defaultSyncConfig, syncListener)
+
+        imapFolder.setUidValidity(2)
+
+        imapSync.sync(FOLDER_SERVER_ID, defaultSyncConfig, syncListener)
+
+        assertThat(imapFolder.changedSinceRequests).isEmpty()
+        assertThat(backendFolder.getMessageServerIds()).containsExactlyInAnyOrder("1")
+        assertThat(backendFolder.getFolderExtraNumber("imapHighestModSeq")).isEqualTo(imapFolder.getHighestModSeq())
+    }
+
     @Test
     fun `sync with multiple FETCH responses when downloading small message should report correct progress`() {
         val folderServerId = "FOLDER_TWO"
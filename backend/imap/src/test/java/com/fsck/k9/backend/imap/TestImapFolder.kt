@@ -10,6 +10,7 @@ import com.fsck.k9.mail.store.imap.FetchListener
 import com.fsck.k9.mail.store.imap.ImapFolder
 import com.fsck.k9.mail.store.imap.ImapMessage
 import com.fsck.k9.mail.store.imap.OpenMode
+import com.fsck.k9.mail.store.imap.QresyncResponse
 import com.fsck.k9.mail.store.imap.createImapMessage
 import java.util.Date
 
@@ -28,8 +29,18 @@ open class TestImapFolder(override val serverId: String) : ImapFolder {
     val isClosed: Boolean
         get() = mode == null
 
+    var supportsModSeq: Boolean = false
+    var supportsQresync: Boolean = false
+
+    var lastQresyncModSeq: Long? = null
+        private set
+    val changedSinceRequests = mutableListOf<Long>()
+
     private val messages = mutableMapOf<Long, Message>()
     private val messageFlags = mutableMapOf<Long, MutableSet<Flag>>()
+    private val messageModSeqs = mutableMapOf<Long, Long>()
+    private val expungedModSeqs = mutableMapOf<Long, Long>()
+    private var highestModSeq = 0L
     private var uidValidity: Long? = null
 
     fun addMessage(uid: Long, message: Message) {
@@ -39,6 +50,16 @@ open class TestImapFolder(override val serverId: String) : ImapFolder {
 
         messages[uid] = message
         messageFlags[uid] = mutableSetOf()
+        messageModSeqs[uid] = ++highestModSeq
+
+        messageCount = messages.size
+    }
+
+    fun removeMessage(uid: Long) {
+        messages.remove(uid)
+        messageFlags.remove(uid)
+        messageModSeqs.remove(uid)
+        expungedModSeqs[uid] = ++highestModSeq
 
         messageCount = messages.size
     }
@@ -46,6 +67,7 @@ open class TestImapFolder(override val serverId: String) : ImapFolder {
     fun removeAllMessages() {
         messages.clear()
         messageFlags.clear()
+        messageModSeqs.clear()
     }
 
     fun setUidValidity(value: Long) {
@@ -56,6 +78,22 @@ open class TestImapFolder(override val serverId: String) : ImapFolder {
         this.mode = mode
     }
 
+    override fun openWithQresync(mode: OpenMode, uidValidity: Long, highestModSeq: Long): QresyncResponse? {
+        open(mode)
+        if (!supportsQresync) return null
+
+        lastQresyncModSeq = highestModSeq
+
+        val expungedUidRanges = expungedModSeqs.filterValues { it > highestModSeq }.keys.map { it..it }
+        val changedMessages = messageModSeqs.filterValues { it > highestModSeq }.keys.map { uid ->
+            createImapMessage(uid.toString()).apply {
+                setFlags(messageFlags[uid].orEmpty(), true)
+            }
+        }
+
+        return QresyncResponse(expungedUidRanges, changedMessages)
+    }
+
     override fun close() {
         mode = null
     }
@@ -66,6 +104,8 @@ open class TestImapFolder(override val serverId: String) : ImapFolder {
 
     override fun getUidValidity() = uidValidity
 
+    override fun getHighestModSeq(): Long? = if (supportsModSeq || supportsQresync) highestModSeq else null
+
     override fun getMessage(uid: String): ImapMessage {
         return createImapMessage(uid)
     }
@@ -117,6 +157,19 @@ open class TestImapFolder(override val serverId: String) : ImapFolder {
         }
     }
 
+    override fun fetchChangedFlags(messages: List<ImapMessage>, changedSince: Long, listener: FetchListener?) {
+        changedSinceRequests.add(changedSince)
+
+        for (imapMessage in messages) {
+            val uid = imapMessage.uid.toLong()
+            val modSeq = messageModSeqs[uid] ?: continue
+            if (modSeq <= changedSince) continue
+
+            imapMessage.setFlags(messageFlags[uid].orEmpty().toSet(), true)
+            listener?.onFetchResponse(imapMessage, isFirstResponse = true)
+        }
+    }
+
     override fun fetchPart(
         message: ImapMessage,
         part: Part,
@@ -140,6 +193,9 @@ open class TestImapFolder(override val serverId: String) : ImapFolder {
     }
 
     override fun setFlagsForAllMessages(flags: Set<Flag>, value: Boolean) {
+        val modSeq = ++highestModSeq
+        messageModSeqs.replaceAll { _, _ -> modSeq }
+
         if (value) {
             for (messageFlagSet in messageFlags.values) {
                 messageFlagSet.addAll(flags)
@@ -155,6 +211,7 @@ open class TestImapFolder(override val serverId: String) : ImapFolder {
         for (message in messages) {
             val uid = message.uid.toLong()
             val messageFlagSet = messageFlags[uid] ?: error("Unknown message with UID $uid")
+            messageModSeqs[uid] = ++highestModSeq
             if (value) {
                 messageFlagSet.addAll(flags)
             } else {
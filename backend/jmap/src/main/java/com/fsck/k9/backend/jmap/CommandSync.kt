@@ -2,14 +2,20 @@ package com.fsck.k9.backend.jmap
 
 import com.fsck.k9.backend.api.BackendFolder
 import com.fsck.k9.backend.api.BackendStorage
+import com.fsck.k9.backend.api.SAVE_BATCH_SIZE
 import com.fsck.k9.backend.api.SyncConfig
 import com.fsck.k9.backend.api.SyncListener
+import com.fsck.k9.backend.api.saveMessagesInBatch
 import com.fsck.k9.logging.Timber
 import com.fsck.k9.mail.AuthenticationFailedException
 import com.fsck.k9.mail.Flag
 import com.fsck.k9.mail.MessageDownloadState
 import com.fsck.k9.mail.internet.MimeMessage
 import java.util.Date
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import okhttp3.HttpUrl
 import okhttp3.OkHttpClient
 import okhttp3.Request
@@ -21,9 +27,11 @@ import rs.ltt.jmap.client.session.Session
 import rs.ltt.jmap.common.entity.Email
 import rs.ltt.jmap.common.entity.filter.EmailFilterCondition
 import rs.ltt.jmap.common.entity.query.EmailQuery
+import rs.ltt.jmap.common.method.call.email.ChangesEmailMethodCall
 import rs.ltt.jmap.common.method.call.email.GetEmailMethodCall
 import rs.ltt.jmap.common.method.call.email.QueryChangesEmailMethodCall
 import rs.ltt.jmap.common.method.call.email.QueryEmailMethodCall
+import rs.ltt.jmap.common.method.response.email.ChangesEmailMethodResponse
 import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse
 import rs.ltt.jmap.common.method.response.email.QueryChangesEmailMethodResponse
 import rs.ltt.jmap.common.method.response.email.QueryEmailMethodResponse
@@ -34,7 +42,11 @@ class CommandSync(
     private val okHttpClient: OkHttpClient,
     private val accountId: String,
     private val httpAuthentication: HttpAuthentication,
+    private val maxConcurrentDownloads: Int = DEFAULT_MAX_CONCURRENT_DOWNLOADS,
 ) {
+    init {
+        require(maxConcurrentDownloads > 0) { "maxConcurrentDownloads must be positive" }
+    }
 
     fun sync(folderServerId: String, syncConfig: SyncConfig, listener: SyncListener) {
         try {
@@ -91,11 +103,22 @@ class CommandSync(
 
         val destroyServerIds = (cachedServerIds - remoteServerIds).toList()
         val newServerIds = remoteServerIds - cachedServerIds
-
-        handleFolderUpdates(backendFolder, folderServerId, destroyServerIds, newServerIds, queryState, listener)
+        val emailStateTracker = EmailStateTracker()
+
+        handleFolderUpdates(
+            backendFolder,
+            folderServerId,
+            destroyServerIds,
+            newServerIds,
+            queryState,
+            emailStateTracker,
+            listener,
+        )
 
         val refreshServerIds = cachedServerIds.intersect(remoteServerIds)
-        refreshMessageFlags(backendFolder, syncConfig, refreshServerIds)
+        refreshMessageFlags(backendFolder, syncConfig, refreshServerIds, emailStateTracker)
+
+        backendFolder.saveEmailState(emailStateTracker.emailState)
     }
 
     private fun createEmailQuery(folderServerId: String): EmailQuery? {
@@ -152,10 +175,64 @@ class CommandSync(
         val destroyServerIds = (removedServerIds - retainedServerIds).toList()
         val newServerIds = addedServerIds - retainedServerIds
 
-        handleFolderUpdates(backendFolder, folderServerId, destroyServerIds, newServerIds, newQueryState, listener)
+        // Only fetch flags of messages that were changed since the last sync, if the server can tell us which ones
+        val emailStateTracker = EmailStateTracker()
+        val emailChanges = backendFolder.getEmailState()?.let { emailState -> fetchEmailChanges(emailState) }
+        emailStateTracker.onEmailState(emailChanges?.newState)
+
+        handleFolderUpdates(
+            backendFolder,
+            folderServerId,
+            destroyServerIds,
+            newServerIds,
+            newQueryState,
+            emailStateTracker,
+            listener,
+        )
+
+        val remainingServerIds = cachedServerIds - destroyServerIds
+        val refreshServerIds = if (emailChanges != null) {
+            remainingServerIds.intersect(emailChanges.updatedServerIds)
+        } else {
+            remainingServerIds
+        }
+        refreshMessageFlags(backendFolder, syncConfig, refreshServerIds, emailStateTracker)
+
+        backendFolder.saveEmailState(emailStateTracker.emailState)
+    }
+
+    /**
+     * Fetches the IDs of all emails whose properties changed since [emailState] using `Email/changes`.
+     *
+     * Returns `null` if the server can't calculate the changes. Then the flags of all messages have to be refreshed.
+     */
+    private fun fetchEmailChanges(emailState: String): EmailChanges? {
+        val updatedServerIds = mutableSetOf<String>()
+        var currentState = emailState
+        do {
+            val changesEmailCall = jmapClient.call(
+                ChangesEmailMethodCall.builder()
+                    .accountId(accountId)
+                    .sinceState(currentState)
+                    .build(),
+            )
+
+            val changesEmailResponse = try {
+                changesEmailCall.getMainResponseBlocking<ChangesEmailMethodResponse>()
+            } catch (e: MethodErrorResponseException) {
+                if (e.methodErrorResponse.type == ERROR_CANNOT_CALCULATE_CHANGES) {
+                    Timber.d("Server responded with '$ERROR_CANNOT_CALCULATE_CHANGES'; refreshing all flags")
+                    return null
+                }
+
+                throw e
+            }
+
+            updatedServerIds.addAll(changesEmailResponse.updated)
+            currentState = changesEmailResponse.newState
+        } while (changesEmailResponse.isHasMoreChanges)
 
-        val refreshServerIds = cachedServerIds - destroyServerIds
-        refreshMessageFlags(backendFolder, syncConfig, refreshServerIds)
+        return EmailChanges(currentState, updatedServerIds)
     }
 
     private fun handleFolderUpdates(
@@ -164,6 +241,7 @@ class CommandSync(
         destroyServerIds: List<String>,
         newServerIds: Set<String>,
         newQueryState: String?,
+        emailStateTracker: EmailStateTracker,
         listener: SyncListener,
     ) {
         if (destroyServerIds.isNotEmpty()) {
@@ -180,34 +258,92 @@ class CommandSync(
         Timber.d("New messages on server: %s", newServerIds)
         val session = jmapClient.session.get()
         val maxObjectsInGet = session.maxObjectsInGet
-        val messageInfoList = fetchMessageInfo(session, maxObjectsInGet, newServerIds)
+        val messageInfoList = fetchMessageInfo(session, maxObjectsInGet, newServerIds, emailStateTracker)
+
+        downloadMessages(backendFolder, folderServerId, messageInfoList, listener)
+
+        backendFolder.saveQueryState(newQueryState)
+    }
+
+    /**
+     * Downloads messages using up to [maxConcurrentDownloads] parallel requests.
+     *
+     * Messages are saved in batches to avoid one database transaction per message. The next batch is already being
+     * downloaded while the current one is saved.
+     */
+    private fun downloadMessages(
+        backendFolder: BackendFolder,
+        folderServerId: String,
+        messageInfoList: List<MessageInfo>,
+        listener: SyncListener,
+    ) {
+        if (messageInfoList.isEmpty()) return
 
         val total = messageInfoList.size
-        messageInfoList.forEachIndexed { index, messageInfo ->
-            Timber.v("Downloading message %s (%s)", messageInfo.serverId, messageInfo.downloadUrl)
-            val message = downloadMessage(messageInfo.downloadUrl)
-            if (message != null) {
-                message.apply {
-                    uid = messageInfo.serverId
-                    setInternalSentDate(messageInfo.receivedAt)
-                    setFlags(messageInfo.flags, true)
+        var completed = 0
+
+        val executor = Executors.newFixedThreadPool(minOf(maxConcurrentDownloads, total))
+        try {
+            val messageInfoBatches = messageInfoList.chunked(SAVE_BATCH_SIZE)
+            var nextDownloads = executor.submitDownloads(messageInfoBatches.first())
+
+            for (batchIndex in messageInfoBatches.indices) {
+                val downloads = nextDownloads
+                messageInfoBatches.getOrNull(batchIndex + 1)?.let { nextBatch ->
+                    nextDownloads = executor.submitDownloads(nextBatch)
                 }
 
-                backendFolder.saveMessage(message, MessageDownloadState.FULL)
-            } else {
-                Timber.d("Failed to download message: %s", messageInfo.serverId)
+                val messages = downloads.mapNotNull { (messageInfo, download) ->
+                    val message = download.getOrThrow()
+                    if (message == null) {
+                        Timber.d("Failed to download message: %s", messageInfo.serverId)
+                    }
+
+                    completed++
+                    listener.syncProgress(folderServerId, completed, total)
+
+                    message?.apply {
+                        uid = messageInfo.serverId
+                        setInternalSentDate(messageInfo.receivedAt)
+                        setFlags(messageInfo.flags, true)
+                    }
+                }
+
+                backendFolder.saveMessagesInBatch(messages, MessageDownloadState.FULL)
             }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
 
-            listener.syncProgress(folderServerId, index + 1, total)
+    private fun ExecutorService.submitDownloads(
+        messageInfoBatch: List<MessageInfo>,
+    ): List<Pair<MessageInfo, Future<MimeMessage?>>> {
+        return messageInfoBatch.map { messageInfo ->
+            messageInfo to submit<MimeMessage?> {
+                Timber.v("Downloading message %s (%s)", messageInfo.serverId, messageInfo.downloadUrl)
+                downloadMessage(messageInfo.downloadUrl)
+            }
         }
+    }
 
-        backendFolder.saveQueryState(newQueryState)
+    private fun <T> Future<T>.getOrThrow(): T {
+        return try {
+            get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
     }
 
-    private fun fetchMessageInfo(session: Session, maxObjectsInGet: Int, emailIds: Set<String>): List<MessageInfo> {
+    private fun fetchMessageInfo(
+        session: Session,
+        maxObjectsInGet: Int,
+        emailIds: Set<String>,
+        emailStateTracker: EmailStateTracker,
+    ): List<MessageInfo> {
         return emailIds
             .chunked(maxObjectsInGet) { emailIdsChunk ->
-                getEmailPropertiesFromServer(emailIdsChunk, INFO_PROPERTIES)
+                getEmailPropertiesFromServer(emailIdsChunk, INFO_PROPERTIES, emailStateTracker)
             }
             .flatten()
             .map { email ->
@@ -215,7 +351,11 @@ class CommandSync(
             }
     }
 
-    private fun getEmailPropertiesFromServer(emailIdsChunk: List<String>, properties: Array<String>): List<Email> {
+    private fun getEmailPropertiesFromServer(
+        emailIdsChunk: List<String>,
+        properties: Array<String>,
+        emailStateTracker: EmailStateTracker,
+    ): List<Email> {
         val getEmailCall = jmapClient.call(
             GetEmailMethodCall.builder()
                 .accountId(accountId)
@@ -225,6 +365,8 @@ class CommandSync(
         )
 
         val getEmailResponse = getEmailCall.getMainResponseBlocking<GetEmailMethodResponse>()
+        emailStateTracker.onEmailState(getEmailResponse.state)
+
         return getEmailResponse.list.toList()
     }
 
@@ -251,7 +393,12 @@ class CommandSync(
         }
     }
 
-    private fun refreshMessageFlags(backendFolder: BackendFolder, syncConfig: SyncConfig, emailIds: Set<String>) {
+    private fun refreshMessageFlags(
+        backendFolder: BackendFolder,
+        syncConfig: SyncConfig,
+        emailIds: Set<String>,
+        emailStateTracker: EmailStateTracker,
+    ) {
         if (emailIds.isEmpty()) return
 
         Timber.v("Fetching flags for messages: %s", emailIds)
@@ -262,17 +409,24 @@ class CommandSync(
         emailIds
             .asSequence()
             .chunked(maxObjectsInGet) { emailIdsChunk ->
-                getEmailPropertiesFromServer(emailIdsChunk, FLAG_PROPERTIES)
+                getEmailPropertiesFromServer(emailIdsChunk, FLAG_PROPERTIES, emailStateTracker)
             }
-            .flatten()
-            .forEach { email ->
-                syncFlagsForMessage(backendFolder, syncConfig, email)
+            .forEach { emails ->
+                val localFlags = backendFolder.getMessageFlags(emails.map { it.id })
+                for (email in emails) {
+                    val messageLocalFlags = localFlags[email.id] ?: continue
+                    syncFlagsForMessage(backendFolder, syncConfig, email, messageLocalFlags)
+                }
             }
     }
 
-    private fun syncFlagsForMessage(backendFolder: BackendFolder, syncConfig: SyncConfig, email: Email) {
+    private fun syncFlagsForMessage(
+        backendFolder: BackendFolder,
+        syncConfig: SyncConfig,
+        email: Email,
+        localFlags: Set<Flag>,
+    ) {
         val messageServerId = email.id
-        val localFlags = backendFolder.getMessageFlags(messageServerId)
         val remoteFlags = email.keywords.toFlags()
         for (flag in syncConfig.syncFlags) {
             val flagSetOnServer = flag in remoteFlags
@@ -306,14 +460,47 @@ class CommandSync(
         setFolderExtraString(EXTRA_QUERY_STATE, queryState)
     }
 
+    private fun BackendFolder.getEmailState(): String? {
+        return getFolderExtraString(EXTRA_EMAIL_STATE)
+    }
+
+    private fun BackendFolder.saveEmailState(emailState: String?) {
+        setFolderExtraString(EXTRA_EMAIL_STATE, emailState)
+    }
+
     companion object {
+        const val DEFAULT_MAX_CONCURRENT_DOWNLOADS = 4
+
         private const val EXTRA_QUERY_STATE = "jmapQueryState"
+        private const val EXTRA_EMAIL_STATE = "jmapEmailState"
         private const val ERROR_CANNOT_CALCULATE_CHANGES = "cannotCalculateChanges"
         private val INFO_PROPERTIES = arrayOf("id", "blobId", "size", "receivedAt", "keywords")
         private val FLAG_PROPERTIES = arrayOf("id", "keywords")
     }
 }
 
+/**
+ * Remembers the oldest `Email` state seen during a sync.
+ *
+ * The flags of all synchronized messages are known to be up to date as of this state. So it's safe to use it as the
+ * starting point for `Email/changes` during the next sync.
+ */
+private class EmailStateTracker {
+    var emailState: String? = null
+        private set
+
+    fun onEmailState(state: String?) {
+        if (emailState == null) {
+            emailState = state
+        }
+    }
+}
+
+private class EmailChanges(
+    val newState: String,
+    val updatedServerIds: Set<String>,
+)
+
 private data class MessageInfo(
     val serverId: String,
     val downloadUrl: HttpUrl,
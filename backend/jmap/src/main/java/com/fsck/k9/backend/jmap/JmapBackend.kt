@@ -133,6 +133,10 @@ class JmapBackend(
         throw UnsupportedOperationException("not implemented")
     }
 
+    override fun startSendSession() = Unit
+
+    override fun endSendSession() = Unit
+
     override fun createPusher(callback: BackendPusherCallback): BackendPusher {
         throw UnsupportedOperationException("not implemented")
     }
@@ -3,7 +3,10 @@ package com.fsck.k9.backend.jmap
 import app.k9mail.backend.testing.InMemoryBackendFolder
 import app.k9mail.backend.testing.InMemoryBackendStorage
 import assertk.assertThat
+import assertk.assertions.contains
+import assertk.assertions.containsExactly
 import assertk.assertions.containsOnly
+import assertk.assertions.doesNotContain
 import assertk.assertions.isEmpty
 import assertk.assertions.isEqualTo
 import assertk.assertions.isInstanceOf
@@ -17,11 +20,16 @@ import com.fsck.k9.mail.Flag
 import com.fsck.k9.mail.FolderType
 import com.fsck.k9.mail.internet.BinaryTempFileBody
 import java.io.File
+import java.util.Collections
 import java.util.EnumSet
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 import okhttp3.HttpUrl
 import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.Dispatcher
 import okhttp3.mockwebserver.MockResponse
 import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
 import org.junit.Before
 import org.junit.Test
 import rs.ltt.jmap.client.JmapClient
@@ -236,15 +244,191 @@ class CommandSyncTest {
         syncListener.assertSyncSuccess()
     }
 
+    @Test
+    fun fullSyncShouldDownloadMessagesConcurrently() {
+        val apiResponses = ArrayDeque(
+            listOf(
+                responseBodyFromResource("/jmap_responses/session/valid_session.json"),
+                responseBodyFromResource("/jmap_responses/email/email_query_M001_and_M002.json"),
+                responseBodyFromResource("/jmap_responses/email/email_get_ids_M001_and_M002.json"),
+            ),
+        )
+        val bothDownloadsStarted = CountDownLatch(2)
+        val downloadsOverlapped = Collections.synchronizedList(mutableListOf<Boolean>())
+        val server = MockWebServer().apply {
+            dispatcher = object : Dispatcher() {
+                override fun dispatch(request: RecordedRequest): MockResponse {
+                    val path = request.requestUrl?.encodedPath.orEmpty()
+                    if (!path.startsWith("/jmap/download/")) {
+                        return synchronized(apiResponses) { apiResponses.removeFirst() }
+                    }
+
+                    bothDownloadsStarted.countDown()
+                    downloadsOverlapped.add(bothDownloadsStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+
+                    return when {
+                        "/B001/" in path -> responseBodyFromResource("/jmap_responses/blob/email/email_1.eml")
+                        "/B002/" in path -> responseBodyFromResource("/jmap_responses/blob/email/email_2.eml")
+                        else -> MockResponse().setResponseCode(404)
+                    }
+                }
+            }
+            start()
+        }
+        val command = createCommandSync(server.url("/jmap/"), maxConcurrentDownloads = 2)
+
+        command.sync(FOLDER_SERVER_ID, syncConfig, syncListener)
+
+        val backendFolder = backendStorage.getFolder(FOLDER_SERVER_ID)
+        backendFolder.assertMessages(
+            "M001" to "/jmap_responses/blob/email/email_1.eml",
+            "M002" to "/jmap_responses/blob/email/email_2.eml",
+        )
+        assertThat(downloadsOverlapped).containsExactly(true, true)
+        syncListener.assertSyncEvents(
+            SyncListenerEvent.SyncStarted(FOLDER_SERVER_ID),
+            SyncListenerEvent.SyncProgress(FOLDER_SERVER_ID, completed = 1, total = 2),
+            SyncListenerEvent.SyncProgress(FOLDER_SERVER_ID, completed = 2, total = 2),
+            SyncListenerEvent.SyncFinished(FOLDER_SERVER_ID),
+        )
+    }
+
+    @Test
+    fun deltaSyncShouldOnlyRefreshFlagsOfChangedMessages() {
+        val backendFolder = backendStorage.getFolder(FOLDER_SERVER_ID)
+        backendFolder.createMessages(
+            "M001" to "/jmap_responses/blob/email/email_1.eml",
+            "M002" to "/jmap_responses/blob/email/email_2.eml",
+        )
+        backendFolder.setMessageFlag("M002", Flag.SEEN, true)
+        backendFolder.setQueryState("50:0")
+        backendFolder.setEmailState("50")
+        val server = createMockWebServer(
+            responseBodyFromResource("/jmap_responses/session/valid_session.json"),
+            responseBodyFromResource("/jmap_responses/email/email_query_changes_empty_result.json"),
+            responseBodyFromResource("/jmap_responses/email/email_changes_M002_updated.json"),
+            responseBodyFromResource("/jmap_responses/email/email_get_keywords_M002.json"),
+        )
+        val command = createCommandSync(server.url("/jmap/"))
+
+        command.sync(FOLDER_SERVER_ID, syncConfig, syncListener)
+
+        assertThat(backendFolder.getMessageFlags("M002")).isEmpty()
+        backendFolder.assertEmailState("51")
+        syncListener.assertSyncSuccess()
+        server.skipRequests(3)
+        val emailGetRequestBody = server.takeRequest().body.readUtf8()
+        assertThat(emailGetRequestBody).contains("M002")
+        assertThat(emailGetRequestBody).doesNotContain("M001")
+    }
+
+    @Test
+    fun deltaSyncShouldRefreshAllFlagsWhenServerCannotCalculateEmailChanges() {
+        val backendFolder = backendStorage.getFolder(FOLDER_SERVER_ID)
+        backendFolder.createMessages(
+            "M001" to "/jmap_responses/blob/email/email_1.eml",
+            "M002" to "/jmap_responses/blob/email/email_2.eml",
+        )
+        backendFolder.setQueryState("50:0")
+        backendFolder.setEmailState("10")
+        val command = createCommandSync(
+            responseBodyFromResource("/jmap_responses/session/valid_session.json"),
+            responseBodyFromResource("/jmap_responses/email/email_query_changes_empty_result.json"),
+            responseBodyFromResource("/jmap_responses/email/email_changes_cannot_calculate_changes_error.json"),
+            responseBodyFromResource("/jmap_responses/email/email_get_keywords_M001_and_M002.json"),
+        )
+
+        command.sync(FOLDER_SERVER_ID, syncConfig, syncListener)
+
+        assertThat(backendFolder.getMessageFlags("M001")).isEmpty()
+        assertThat(backendFolder.getMessageFlags("M002")).containsOnly(Flag.SEEN)
+        backendFolder.assertEmailState("50")
+        syncListener.assertSyncSuccess()
+    }
+
+    @Test
+    fun deltaSyncWithEmailChangesShouldDownloadNewMessagesOnce() {
+        val backendFolder = backendStorage.getFolder(FOLDER_SERVER_ID)
+        backendFolder.createMessages(
+            "M001" to "/jmap_responses/blob/email/email_1.eml",
+            "M002" to "/jmap_responses/blob/email/email_2.eml",
+        )
+        backendFolder.setMessageFlag("M002", Flag.SEEN, true)
+        backendFolder.setQueryState("50:0")
+        backendFolder.setEmailState("50")
+        val server = createMockWebServer(
+            responseBodyFromResource("/jmap_responses/session/valid_session.json"),
+            responseBodyFromResource("/jmap_responses/email/email_query_changes_M001_deleted_M003_added.json"),
+            responseBodyFromResource("/jmap_responses/email/email_changes_M002_updated.json"),
+            responseBodyFromResource("/jmap_responses/email/email_get_ids_M003.json"),
+            responseBodyFromResource("/jmap_responses/blob/email/email_3.eml"),
+            responseBodyFromResource("/jmap_responses/email/email_get_keywords_M002.json"),
+        )
+        val command = createCommandSync(server.url("/jmap/"))
+
+        command.sync(FOLDER_SERVER_ID, syncConfig, syncListener)
+
+        backendFolder.assertMessages(
+            "M002" to "/jmap_responses/blob/email/email_2.eml",
+            "M003" to "/jmap_responses/blob/email/email_3.eml",
+        )
+        assertThat(backendFolder.getMessageFlags("M002")).isEmpty()
+        backendFolder.assertQueryState("51:0")
+        backendFolder.assertEmailState("51")
+        syncListener.assertSyncSuccess()
+        assertThat(server.requestCount).isEqualTo(6)
+    }
+
+    @Test
+    fun deltaSyncWithEmailChangesCannotCalculateChangesShouldDownloadNewMessagesOnce() {
+        val backendFolder = backendStorage.getFolder(FOLDER_SERVER_ID)
+        backendFolder.createMessages(
+            "M001" to "/jmap_responses/blob/email/email_1.eml",
+            "M002" to "/jmap_responses/blob/email/email_2.eml",
+        )
+        backendFolder.setMessageFlag("M002", Flag.SEEN, true)
+        backendFolder.setQueryState("50:0")
+        backendFolder.setEmailState("10")
+        val server = createMockWebServer(
+            responseBodyFromResource("/jmap_responses/session/valid_session.json"),
+            responseBodyFromResource("/jmap_responses/email/email_query_changes_M001_deleted_M003_added.json"),
+            responseBodyFromResource("/jmap_responses/email/email_changes_cannot_calculate_changes_error.json"),
+            responseBodyFromResource("/jmap_responses/email/email_get_ids_M003.json"),
+            responseBodyFromResource("/jmap_responses/blob/email/email_3.eml"),
+            responseBodyFromResource("/jmap_responses/email/email_get_keywords_M002.json"),
+        )
+        val command = createCommandSync(server.url("/jmap/"))
+
+        command.sync(FOLDER_SERVER_ID, syncConfig, syncListener)
+
+        backendFolder.assertMessages(
+            "M002" to "/jmap_responses/blob/email/email_2.eml",
+            "M003" to "/jmap_responses/blob/email/email_3.eml",
+        )
+        assertThat(backendFolder.getMessageFlags("M002")).isEmpty()
+        backendFolder.assertQueryState("51:0")
+        backendFolder.assertEmailState("50")
+        syncListener.assertSyncSuccess()
+        assertThat(server.requestCount).isEqualTo(6)
+    }
+
     private fun createCommandSync(vararg mockResponses: MockResponse): CommandSync {
         val server = createMockWebServer(*mockResponses)
         return createCommandSync(server.url("/jmap/"))
     }
 
-    private fun createCommandSync(baseUrl: HttpUrl): CommandSync {
+    // Responses are returned in the order they were enqueued. So by default messages are downloaded one at a time.
+    private fun createCommandSync(baseUrl: HttpUrl, maxConcurrentDownloads: Int = 1): CommandSync {
         val httpAuthentication = BasicAuthHttpAuthentication(USERNAME, PASSWORD)
         val jmapClient = JmapClient(httpAuthentication, baseUrl)
-        return CommandSync(backendStorage, jmapClient, okHttpClient, ACCOUNT_ID, httpAuthentication)
+        return CommandSync(
+            backendStorage,
+            jmapClient,
+            okHttpClient,
+            ACCOUNT_ID,
+            httpAuthentication,
+            maxConcurrentDownloads,
+        )
     }
 
     private fun createFolderInBackendStorage() {
@@ -268,10 +452,19 @@ class CommandSyncTest {
         setFolderExtraString("jmapQueryState", queryState)
     }
 
+    private fun InMemoryBackendFolder.assertEmailState(expected: String) {
+        assertThat(getFolderExtraString("jmapEmailState")).isEqualTo(expected)
+    }
+
+    private fun InMemoryBackendFolder.setEmailState(emailState: String) {
+        setFolderExtraString("jmapEmailState", emailState)
+    }
+
     companion object {
         private const val FOLDER_SERVER_ID = "id_folder"
         private const val USERNAME = "username"
         private const val PASSWORD = "password"
         private const val ACCOUNT_ID = "test@example.com"
+        private const val TIMEOUT_SECONDS = 5L
     }
 }
@@ -5,6 +5,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import com.fsck.k9.backend.api.BackendFolder;
+import com.fsck.k9.backend.api.BackendStorage;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.store.pop3.Pop3Folder;
@@ -14,11 +16,15 @@ import org.jetbrains.annotations.NotNull;
 
 
 class CommandSetFlag {
+    private final BackendStorage backendStorage;
     private final Pop3Store pop3Store;
+    private final UidlSnapshotStore uidlSnapshotStore;
 
 
-    CommandSetFlag(Pop3Store pop3Store) {
+    CommandSetFlag(BackendStorage backendStorage, Pop3Store pop3Store, UidlSnapshotStore uidlSnapshotStore) {
+        this.backendStorage = backendStorage;
         this.pop3Store = pop3Store;
+        this.uidlSnapshotStore = uidlSnapshotStore;
     }
 
     void setFlag(@NotNull String folderServerId, @NotNull List<String> messageServerIds, @NotNull Flag flag,
@@ -29,8 +35,11 @@ class CommandSetFlag {
             return;
         }
 
+        BackendFolder backendFolder = backendStorage.getFolder(folderServerId);
         try {
             remoteFolder.open();
+            uidlSnapshotStore.restoreUidlSnapshot(backendFolder, remoteFolder);
+
             List<Pop3Message> messages = new ArrayList<>();
             for (String uid : messageServerIds) {
                 messages.add(remoteFolder.getMessage(uid));
@@ -40,6 +49,9 @@ class CommandSetFlag {
                 return;
             }
             remoteFolder.setFlags(messages, Collections.singleton(flag), newState);
+
+            // Deleted messages are removed from the maildrop when the session ends. Update the snapshot accordingly.
+            uidlSnapshotStore.saveUidlSnapshot(backendFolder, remoteFolder);
         } finally {
             remoteFolder.close();
         }
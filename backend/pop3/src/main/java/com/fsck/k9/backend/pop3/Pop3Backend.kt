@@ -19,9 +19,10 @@ class Pop3Backend(
     private val pop3Store: Pop3Store,
     private val smtpTransport: SmtpTransport,
 ) : Backend {
-    private val pop3Sync: Pop3Sync = Pop3Sync(accountName, backendStorage, pop3Store)
+    private val uidlSnapshotStore = UidlSnapshotStore()
+    private val pop3Sync: Pop3Sync = Pop3Sync(accountName, backendStorage, pop3Store, uidlSnapshotStore)
     private val commandRefreshFolderList = CommandRefreshFolderList(backendStorage)
-    private val commandSetFlag = CommandSetFlag(pop3Store)
+    private val commandSetFlag = CommandSetFlag(backendStorage, pop3Store, uidlSnapshotStore)
     private val commandDownloadMessage = CommandDownloadMessage(backendStorage, pop3Store)
 
     override val supportsFlags = false
@@ -124,6 +125,14 @@ class Pop3Backend(
         smtpTransport.sendMessage(message)
     }
 
+    override fun startSendSession() {
+        smtpTransport.startSession()
+    }
+
+    override fun endSendSession() {
+        smtpTransport.endSession()
+    }
+
     override fun createPusher(callback: BackendPusherCallback): BackendPusher {
         throw UnsupportedOperationException("not implemented")
     }
@@ -3,6 +3,7 @@ package com.fsck.k9.backend.pop3;
 
 import com.fsck.k9.backend.api.BackendFolder;
 import com.fsck.k9.backend.api.BackendFolder.MoreMessages;
+import com.fsck.k9.backend.api.BackendFolderExtensions;
 import com.fsck.k9.backend.api.BackendStorage;
 import com.fsck.k9.backend.api.SyncConfig;
 import com.fsck.k9.backend.api.SyncListener;
@@ -34,12 +35,15 @@ class Pop3Sync {
     private final String accountName;
     private final BackendStorage backendStorage;
     private final Pop3Store remoteStore;
+    private final UidlSnapshotStore uidlSnapshotStore;
 
 
-    Pop3Sync(String accountName, BackendStorage backendStorage, Pop3Store pop3Store) {
+    Pop3Sync(String accountName, BackendStorage backendStorage, Pop3Store pop3Store,
+            UidlSnapshotStore uidlSnapshotStore) {
         this.accountName = accountName;
         this.backendStorage = backendStorage;
         this.remoteStore = pop3Store;
+        this.uidlSnapshotStore = uidlSnapshotStore;
     }
 
     void sync(String folder, SyncConfig syncConfig, SyncListener listener) {
@@ -97,6 +101,11 @@ class Pop3Sync {
 
             listener.syncAuthenticationSuccess();
 
+            /*
+             * Use the unique IDs seen in the previous session to avoid a full UIDL listing.
+             */
+            uidlSnapshotStore.restoreUidlSnapshot(backendFolder, remoteFolder);
+
             /*
              * Get the remote message count.
              */
@@ -193,6 +202,8 @@ class Pop3Sync {
 
             listener.folderStatusChanged(folder);
 
+            uidlSnapshotStore.saveUidlSnapshot(backendFolder, remoteFolder);
+
             /* Notify listeners that we're finally done. */
 
             backendFolder.setLastChecked(System.currentTimeMillis());
@@ -450,6 +461,39 @@ class Pop3Sync {
                 syncConfig.getMaximumAutoDownloadMessageSize());
     }
 
+    private void saveSmallMessages(BackendFolder backendFolder, String folder, List<Pop3Message> messages,
+            AtomicInteger progress, AtomicInteger newMessages, int todo, SyncListener listener) {
+        try {
+            // Store the updated messages locally
+            List<Pop3Message> savedMessages = BackendFolderExtensions.saveMessagesInBatch(backendFolder, messages,
+                    MessageDownloadState.FULL);
+
+            for (Pop3Message message : savedMessages) {
+                progress.incrementAndGet();
+
+                // Increment the number of "new messages" if the newly downloaded message is
+                // not marked as read.
+                if (!message.isSet(Flag.SEEN)) {
+                    newMessages.incrementAndGet();
+                }
+
+                String messageServerId = message.getUid();
+                Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
+                        accountName, folder, messageServerId);
+
+                // Update the listener with what we've found
+                listener.syncProgress(folder, progress.get(), todo);
+
+                boolean isOldMessage = isOldMessage(backendFolder, message);
+                listener.syncNewMessage(folder, messageServerId, isOldMessage);
+            }
+        } catch (Exception e) {
+            Timber.e(e, "SYNC: fetch small messages");
+        } finally {
+            messages.clear();
+        }
+    }
+
     private void downloadSmallMessages(
             final Pop3Folder remoteFolder,
             final BackendFolder backendFolder,
@@ -463,38 +507,23 @@ class Pop3Sync {
 
         Timber.d("SYNC: Fetching %d small messages for folder %s", smallMessages.size(), folder);
 
+        // Messages are saved in batches to avoid one database transaction per message
+        final List<Pop3Message> pendingMessages = new ArrayList<>();
         remoteFolder.fetch(smallMessages,
                 fp, new MessageRetrievalListener<Pop3Message>() {
                     @Override
                     public void messageFinished(final Pop3Message message) {
-                        try {
-
-                            // Store the updated message locally
-                            backendFolder.saveMessage(message, MessageDownloadState.FULL);
-                            progress.incrementAndGet();
-
-                            // Increment the number of "new messages" if the newly downloaded message is
-                            // not marked as read.
-                            if (!message.isSet(Flag.SEEN)) {
-                                newMessages.incrementAndGet();
-                            }
-
-                            String messageServerId = message.getUid();
-                            Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
-                                    accountName, folder, messageServerId);
-
-                            // Update the listener with what we've found
-                            listener.syncProgress(folder, progress.get(), todo);
-
-                            boolean isOldMessage = isOldMessage(backendFolder, message);
-                            listener.syncNewMessage(folder, messageServerId, isOldMessage);
-                        } catch (Exception e) {
-                            Timber.e(e, "SYNC: fetch small messages");
+                        pendingMessages.add(message);
+                        if (pendingMessages.size() >= BackendFolderExtensions.SAVE_BATCH_SIZE) {
+                            saveSmallMessages(backendFolder, folder, pendingMessages, progress, newMessages, todo,
+                                    listener);
                         }
                     }
                 },
                 -1);
 
+        saveSmallMessages(backendFolder, folder, pendingMessages, progress, newMessages, todo, listener);
+
         Timber.d("SYNC: Done fetching small messages for folder %s", folder);
     }
 
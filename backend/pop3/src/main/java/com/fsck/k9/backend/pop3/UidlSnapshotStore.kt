@@ -0,0 +1,37 @@
+package com.fsck.k9.backend.pop3
+
+import com.fsck.k9.backend.api.BackendFolder
+import com.fsck.k9.mail.store.pop3.Pop3Folder
+import com.fsck.k9.mail.store.pop3.Pop3UidlSnapshot
+
+private const val EXTRA_UIDL_SNAPSHOT = "pop3UidlSnapshot"
+
+/**
+ * Persists the unique IDs of the newest messages in the maildrop between sessions.
+ *
+ * This allows [Pop3Folder] to map message numbers to unique IDs using a couple of `UIDL n` commands instead of
+ * downloading the `UIDL` listing of the whole maildrop on every sync.
+ */
+internal class UidlSnapshotStore {
+    fun restoreUidlSnapshot(backendFolder: BackendFolder, remoteFolder: Pop3Folder) {
+        val snapshot = Pop3UidlSnapshot.parse(backendFolder.getFolderExtraString(EXTRA_UIDL_SNAPSHOT)) ?: return
+
+        remoteFolder.restoreUidlSnapshot(snapshot)
+    }
+
+    /**
+     * Needs to be called before [Pop3Folder.close].
+     */
+    fun saveUidlSnapshot(backendFolder: BackendFolder, remoteFolder: Pop3Folder) {
+        val snapshot = remoteFolder.createUidlSnapshot(MAX_UIDL_SNAPSHOT_SIZE)
+        val value = snapshot?.serialize()
+
+        if (value != backendFolder.getFolderExtraString(EXTRA_UIDL_SNAPSHOT)) {
+            backendFolder.setFolderExtraString(EXTRA_UIDL_SNAPSHOT, value)
+        }
+    }
+
+    companion object {
+        private const val MAX_UIDL_SNAPSHOT_SIZE = 5000
+    }
+}
@@ -105,6 +105,14 @@ class InMemoryBackendFolder(override var name: String, var type: FolderType) : B
         return messageFlags[messageServerId] ?: error("Message $messageServerId not found")
     }
 
+    override fun getMessageFlags(messageServerIds: Collection<String>): Map<String, Set<Flag>> {
+        return messageServerIds
+            .mapNotNull { messageServerId ->
+                messageFlags[messageServerId]?.let { flags -> messageServerId to flags.toSet() }
+            }
+            .toMap()
+    }
+
     override fun setMessageFlag(messageServerId: String, flag: Flag, value: Boolean) {
         val flags = messageFlags[messageServerId] ?: error("Message $messageServerId not found")
         if (value) {
@@ -128,6 +136,12 @@ class InMemoryBackendFolder(override var name: String, var type: FolderType) : B
         messageFlags[messageServerId] = flags
     }
 
+    override fun saveMessages(messages: List<Message>, downloadState: MessageDownloadState) {
+        for (message in messages) {
+            saveMessage(message, downloadState)
+        }
+    }
+
     override fun getOldestMessageDate(): Date? {
         throw UnsupportedOperationException("not implemented")
     }
@@ -0,0 +1,98 @@
+package app.k9mail.cli.html.cleaner
+
+import app.k9mail.html.cleaner.HtmlProcessor
+import java.io.File
+import java.io.Writer
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryType
+
+/**
+ * Measures how fast [HtmlProcessor] processes a set of HTML files and how much memory it needs to do so.
+ */
+internal class HtmlCleanerBenchmark(
+    private val htmlProcessor: HtmlProcessor,
+    private val iterations: Int,
+) {
+    fun run(files: List<File>): List<BenchmarkResult> {
+        return listOf(
+            measure("DOM", files) { file ->
+                htmlProcessor.processForDisplay(file.readText())
+            },
+            measure("streaming", files) { file ->
+                file.bufferedReader().use { reader ->
+                    htmlProcessor.processForDisplay(reader, Writer.nullWriter())
+                }
+            },
+        )
+    }
+
+    private fun measure(mode: String, files: List<File>, process: (File) -> Unit): BenchmarkResult {
+        // Warm up
+        files.forEach(process)
+
+        System.gc()
+        resetPeakHeapUsage()
+
+        var totalNanos = 0L
+        var totalAllocatedBytes = 0L
+        var maxAllocatedBytes = 0L
+        repeat(iterations) {
+            for (file in files) {
+                val allocatedBytesBefore = currentThreadAllocatedBytes()
+                val startNanos = System.nanoTime()
+
+                process(file)
+
+                totalNanos += System.nanoTime() - startNanos
+                val allocatedBytes = currentThreadAllocatedBytes() - allocatedBytesBefore
+                totalAllocatedBytes += allocatedBytes
+                maxAllocatedBytes = maxOf(maxAllocatedBytes, allocatedBytes)
+            }
+        }
+
+        return BenchmarkResult(
+            mode = mode,
+            processedBytes = files.sumOf { it.length() } * iterations,
+            processedFiles = files.size * iterations,
+            totalNanos = totalNanos,
+            totalAllocatedBytes = totalAllocatedBytes,
+            maxAllocatedBytes = maxAllocatedBytes,
+            peakHeapUsage = peakHeapUsage(),
+        )
+    }
+
+    private fun currentThreadAllocatedBytes(): Long {
+        val threadMXBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean ?: return 0L
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id)
+    }
+
+    private fun resetPeakHeapUsage() {
+        heapMemoryPools().forEach { it.resetPeakUsage() }
+    }
+
+    private fun peakHeapUsage(): Long {
+        return heapMemoryPools().sumOf { it.peakUsage.used }
+    }
+
+    private fun heapMemoryPools() = ManagementFactory.getMemoryPoolMXBeans().filter { it.type == MemoryType.HEAP }
+}
+
+internal data class BenchmarkResult(
+    val mode: String,
+    val processedBytes: Long,
+    val processedFiles: Int,
+    val totalNanos: Long,
+    val totalAllocatedBytes: Long,
+    val maxAllocatedBytes: Long,
+    val peakHeapUsage: Long,
+) {
+    val megabytesPerSecond: Double
+        get() = processedBytes / MEGABYTE / (totalNanos / 1_000_000_000.0)
+
+    val averageAllocatedBytes: Long
+        get() = totalAllocatedBytes / processedFiles
+
+    companion object {
+        const val MEGABYTE = 1024.0 * 1024.0
+    }
+}
@@ -4,12 +4,19 @@ import app.k9mail.html.cleaner.HtmlHeadProvider
 import app.k9mail.html.cleaner.HtmlProcessor
 import com.github.ajalt.clikt.core.CliktCommand
 import com.github.ajalt.clikt.core.Context
+import com.github.ajalt.clikt.core.UsageError
 import com.github.ajalt.clikt.core.main
 import com.github.ajalt.clikt.parameters.arguments.argument
 import com.github.ajalt.clikt.parameters.arguments.optional
+import com.github.ajalt.clikt.parameters.options.default
+import com.github.ajalt.clikt.parameters.options.flag
+import com.github.ajalt.clikt.parameters.options.option
 import com.github.ajalt.clikt.parameters.types.file
 import com.github.ajalt.clikt.parameters.types.inputStream
+import com.github.ajalt.clikt.parameters.types.int
 import java.io.File
+import java.io.InputStream
+import java.io.StringWriter
 import okio.buffer
 import okio.sink
 import okio.source
@@ -18,34 +25,88 @@ import okio.source
 class HtmlCleaner : CliktCommand() {
     val input by argument(help = "HTML input file (needs to be UTF-8 encoded)")
         .inputStream()
+        .optional()
 
     val output by argument(help = "Output file")
         .file(mustExist = false, canBeDir = false)
         .optional()
 
+    val streaming by option(help = "Use the streaming HTML sanitizer")
+        .flag()
+
+    val benchmarkDirectory by option(
+        "--benchmark",
+        help = "Benchmark both sanitizers using the HTML files in DIRECTORY",
+        metavar = "DIRECTORY",
+    )
+        .file(mustExist = true, canBeFile = false, canBeDir = true)
+
+    val iterations by option(help = "Number of benchmark iterations")
+        .int()
+        .default(10)
+
     override fun help(context: Context) =
         "A tool that modifies HTML to only keep allowed elements and attributes the same way that K-9 Mail does."
 
+    private val htmlProcessor = HtmlProcessor(
+        object : HtmlHeadProvider {
+            override val headHtml = """<meta name="viewport" content="width=device-width"/>"""
+        },
+    )
+
     override fun run() {
-        val html = readInput()
-        val processedHtml = cleanHtml(html)
+        benchmarkDirectory?.let { directory ->
+            runBenchmark(directory)
+            return
+        }
+
+        val input = input ?: throw UsageError("Missing argument INPUT")
+        val processedHtml = if (streaming) {
+            cleanHtmlStreaming(input)
+        } else {
+            cleanHtml(readInput(input))
+        }
         writeOutput(processedHtml)
     }
 
-    private fun readInput(): String {
+    private fun readInput(input: InputStream): String {
         return input.source().buffer().use { it.readUtf8() }
     }
 
     private fun cleanHtml(html: String): String {
-        val htmlProcessor = HtmlProcessor(
-            object : HtmlHeadProvider {
-                override val headHtml = """<meta name="viewport" content="width=device-width"/>"""
-            },
-        )
-
         return htmlProcessor.processForDisplay(html)
     }
 
+    private fun cleanHtmlStreaming(input: InputStream): String {
+        val output = StringWriter()
+        input.bufferedReader().use { reader ->
+            htmlProcessor.processForDisplay(reader, output)
+        }
+
+        return output.toString()
+    }
+
+    private fun runBenchmark(directory: File) {
+        val files = directory.listFiles { file -> file.isFile && file.extension.lowercase() in HTML_EXTENSIONS }
+            ?.sortedBy { it.name }
+            .orEmpty()
+        if (files.isEmpty()) throw UsageError("No HTML files found in $directory")
+
+        echo("Processing ${files.size} files, $iterations iterations")
+        val results = HtmlCleanerBenchmark(htmlProcessor, iterations).run(files)
+        for (result in results) {
+            echo(
+                "%-9s  %8.2f MiB/s  %8.1f KiB allocated/file (max: %.1f KiB)  %8.1f MiB peak heap".format(
+                    result.mode,
+                    result.megabytesPerSecond,
+                    result.averageAllocatedBytes / 1024.0,
+                    result.maxAllocatedBytes / 1024.0,
+                    result.peakHeapUsage / BenchmarkResult.MEGABYTE,
+                ),
+            )
+        }
+    }
+
     private fun writeOutput(data: String) {
         output?.writeOutput(data) ?: echo(data)
     }
@@ -57,4 +118,6 @@ class HtmlCleaner : CliktCommand() {
     }
 }
 
+private val HTML_EXTENSIONS = setOf("html", "htm")
+
 fun main(args: Array<String>) = HtmlCleaner().main(args)
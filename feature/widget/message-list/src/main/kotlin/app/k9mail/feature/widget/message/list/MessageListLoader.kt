@@ -46,10 +46,16 @@ internal class MessageListLoader(
 
         return if (config.showingThreadedList) {
             val (selection, selectionArgs) = buildSelection(config)
-            messageListRepository.getThreadedMessages(accountUuid, selection, selectionArgs, sortOrder, mapper)
+            messageListRepository.getThreadedMessages(
+                accountUuid,
+                selection,
+                selectionArgs,
+                sortOrder,
+                messageMapper = mapper,
+            )
         } else {
             val (selection, selectionArgs) = buildSelection(config)
-            messageListRepository.getMessages(accountUuid, selection, selectionArgs, sortOrder, mapper)
+            messageListRepository.getMessages(accountUuid, selection, selectionArgs, sortOrder, messageMapper = mapper)
         }
     }
 
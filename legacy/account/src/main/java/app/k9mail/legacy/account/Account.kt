@@ -24,24 +24,38 @@ class Account(
 
     @get:Synchronized
     @set:Synchronized
-    private var internalIncomingServerSettings: ServerSettings? = null
+    private var internalIncomingServerSettings: Lazy<ServerSettings>? = null
 
     @get:Synchronized
     @set:Synchronized
-    private var internalOutgoingServerSettings: ServerSettings? = null
+    private var internalOutgoingServerSettings: Lazy<ServerSettings>? = null
 
     var incomingServerSettings: ServerSettings
-        get() = internalIncomingServerSettings ?: error("Incoming server settings not set yet")
+        get() = internalIncomingServerSettings?.value ?: error("Incoming server settings not set yet")
         set(value) {
-            internalIncomingServerSettings = value
+            internalIncomingServerSettings = lazyOf(value)
         }
 
     var outgoingServerSettings: ServerSettings
-        get() = internalOutgoingServerSettings ?: error("Outgoing server settings not set yet")
+        get() = internalOutgoingServerSettings?.value ?: error("Outgoing server settings not set yet")
         set(value) {
-            internalOutgoingServerSettings = value
+            internalOutgoingServerSettings = lazyOf(value)
         }
 
+    /**
+     * Set the incoming server settings to the value returned by [loader] when they are first accessed.
+     */
+    fun setIncomingServerSettingsLoader(loader: () -> ServerSettings) {
+        internalIncomingServerSettings = lazy(loader)
+    }
+
+    /**
+     * Set the outgoing server settings to the value returned by [loader] when they are first accessed.
+     */
+    fun setOutgoingServerSettingsLoader(loader: () -> ServerSettings) {
+        internalOutgoingServerSettings = lazy(loader)
+    }
+
     @get:Synchronized
     @set:Synchronized
     var oAuthState: String? = null
@@ -11,6 +11,7 @@ import com.fsck.k9.controller.ControllerExtension
 import com.fsck.k9.crypto.EncryptionExtractor
 import com.fsck.k9.crypto.openpgp.OpenPgpEncryptionExtractor
 import com.fsck.k9.feature.featureLauncherModule
+import com.fsck.k9.mailstore.FulltextIndexer
 import com.fsck.k9.notification.notificationModule
 import com.fsck.k9.preferences.K9StoragePersister
 import com.fsck.k9.preferences.StoragePersister
@@ -27,7 +28,7 @@ val commonAppModule = module {
             ),
         )
     }
-    single(named("controllerExtensions")) { emptyList<ControllerExtension>() }
+    single(named("controllerExtensions")) { listOf<ControllerExtension>(get<FulltextIndexer>()) }
     single<EncryptionExtractor> { OpenPgpEncryptionExtractor.newInstance() }
     single<StoragePersister> { K9StoragePersister(get()) }
     single<FeatureFlagProvider> {
@@ -33,12 +33,12 @@ class AccountPreferenceSerializer(
     fun loadAccount(account: Account, storage: Storage) {
         val accountUuid = account.uuid
         with(account) {
-            incomingServerSettings = serverSettingsSerializer.deserialize(
-                storage.getString("$accountUuid.$INCOMING_SERVER_SETTINGS_KEY", ""),
-            )
-            outgoingServerSettings = serverSettingsSerializer.deserialize(
-                storage.getString("$accountUuid.$OUTGOING_SERVER_SETTINGS_KEY", ""),
-            )
+            // Server settings are only needed once a connection is made. Parse them on first access so loading all
+            // accounts on app start doesn't have to.
+            val incomingServerSettingsJson = storage.getString("$accountUuid.$INCOMING_SERVER_SETTINGS_KEY", "")
+            setIncomingServerSettingsLoader { serverSettingsSerializer.deserialize(incomingServerSettingsJson) }
+            val outgoingServerSettingsJson = storage.getString("$accountUuid.$OUTGOING_SERVER_SETTINGS_KEY", "")
+            setOutgoingServerSettingsLoader { serverSettingsSerializer.deserialize(outgoingServerSettingsJson) }
             oAuthState = storage.getString("$accountUuid.oAuthState", null)
             name = storage.getString("$accountUuid.description", null)
             alwaysBcc = storage.getString("$accountUuid.alwaysBcc", alwaysBcc)
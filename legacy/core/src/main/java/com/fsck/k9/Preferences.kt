@@ -44,6 +44,14 @@ class Preferences internal constructor(
 
     @GuardedBy("accountLock")
     private var newAccount: Account? = null
+
+    /**
+     * The stored settings each [Account] in [accountsMap] was last loaded from. Used to skip parsing the settings of
+     * accounts that haven't changed when reloading accounts.
+     */
+    @GuardedBy("accountLock")
+    private val loadedAccountValues = mutableMapOf<String, Map<String, String>>()
+
     private val accountsChangeListeners = CopyOnWriteArraySet<AccountsChangeListener>()
     private val accountRemovedListeners = CopyOnWriteArraySet<AccountRemovedListener>()
 
@@ -70,25 +78,44 @@ class Preferences internal constructor(
         synchronized(accountLock) {
             accountsMap = HashMap()
             accountsInOrder = LinkedList()
+            loadedAccountValues.clear()
         }
     }
 
+    /**
+     * (Re)load accounts from storage.
+     *
+     * Accounts whose stored settings haven't changed since they were last loaded are not parsed again. Unsaved changes
+     * to such [Account] instances are kept. Accounts whose stored settings have changed are reloaded from storage.
+     */
     fun loadAccounts() {
         synchronized(accountLock) {
+            val startTime = System.nanoTime()
+            val storage = storage
             val accounts = mutableMapOf<String, Account>()
             val accountsInOrder = mutableListOf<Account>()
+            var parsedAccountCount = 0
 
             val accountUuids = storage.getString("accountUuids", null)
             if (!accountUuids.isNullOrEmpty()) {
                 accountUuids.split(",").forEach { uuid ->
                     val existingAccount = accountsMap?.get(uuid)
-                    val account = existingAccount ?: Account(uuid, K9::isSensitiveDebugLoggingEnabled)
-                    accountPreferenceSerializer.loadAccount(account, storage)
-
+                    val accountValues = storage.getValuesWithKeyPrefix(uuid)
+                    val account = if (existingAccount != null && loadedAccountValues[uuid] == accountValues) {
+                        existingAccount
+                    } else {
+                        parsedAccountCount++
+                        (existingAccount ?: Account(uuid, K9::isSensitiveDebugLoggingEnabled)).also { account ->
+                            accountPreferenceSerializer.loadAccount(account, storage)
+                        }
+                    }
+
+                    loadedAccountValues[uuid] = accountValues
                     accounts[uuid] = account
                     accountsInOrder.add(account)
                 }
             }
+            loadedAccountValues.keys.retainAll(accounts.keys)
 
             newAccount?.takeIf { it.accountNumber != -1 }?.let { newAccount ->
                 accounts[newAccount.uuid] = newAccount
@@ -100,6 +127,13 @@ class Preferences internal constructor(
 
             this.accountsMap = accounts
             this.accountsInOrder = accountsInOrder
+
+            Timber.d(
+                "Loaded %d accounts (%d parsed) in %d ms",
+                accountsInOrder.size,
+                parsedAccountCount,
+                (System.nanoTime() - startTime) / 1_000_000,
+            )
         }
     }
 
@@ -192,6 +226,7 @@ class Preferences internal constructor(
         synchronized(accountLock) {
             accountsMap?.remove(account.uuid)
             accountsInOrder.remove(account)
+            loadedAccountValues.remove(account.uuid)
 
             val storageEditor = createStorageEditor()
             accountPreferenceSerializer.delete(storageEditor, storage, account)
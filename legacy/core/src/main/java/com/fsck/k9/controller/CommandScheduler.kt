@@ -0,0 +1,145 @@
+package com.fsck.k9.controller
+
+import androidx.annotation.VisibleForTesting
+import java.util.PriorityQueue
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import timber.log.Timber
+
+/**
+ * Executes [MessagingController] commands in one lane per account.
+ *
+ * Commands in the same lane run one at a time, foreground commands before background commands and otherwise in the
+ * order they were submitted. Different lanes run in parallel, limited by the number of threads of [executor]. After
+ * each command a lane goes to the back of the executor's queue, so a busy lane can't starve the others. A lane is
+ * removed once it has run all of its commands, so lanes of removed accounts don't accumulate.
+ */
+internal class CommandScheduler(
+    private val executor: ExecutorService,
+    private val clock: () -> Long = { System.nanoTime() },
+) {
+    private val lock = Any()
+    private val lanes = mutableMapOf<String, Lane>()
+    private var sequence = 0
+    private var stopped = false
+
+    fun schedule(laneId: String, description: String, isForeground: Boolean, runnable: Runnable) {
+        val lane = synchronized(lock) {
+            if (stopped) {
+                Timber.w("Scheduler stopped. Dropping command '%s'", description)
+                return
+            }
+
+            val lane = lanes.getOrPut(laneId) { Lane(laneId) }
+            lane.queue.add(Command(description, runnable, isForeground, sequence++, clock()))
+
+            if (lane.isRunning) return
+            lane.isRunning = true
+
+            lane
+        }
+
+        submitLane(lane)
+    }
+
+    @get:VisibleForTesting
+    val laneCount: Int
+        get() = synchronized(lock) { lanes.size }
+
+    fun stop(timeoutMillis: Long) {
+        synchronized(lock) {
+            stopped = true
+            lanes.values.forEach { it.queue.clear() }
+        }
+
+        executor.shutdownNow()
+        executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)
+    }
+
+    private fun submitLane(lane: Lane) {
+        try {
+            executor.execute { runNextCommand(lane) }
+        } catch (e: RejectedExecutionException) {
+            Timber.w(e, "Unable to run commands of lane %s", lane.id)
+            synchronized(lock) { lane.isRunning = false }
+        }
+    }
+
+    private fun runNextCommand(lane: Lane) {
+        val (command, waitTimeNanos) = synchronized(lock) {
+            val command = lane.queue.poll()
+            if (command == null) {
+                removeLane(lane)
+                return
+            }
+
+            command to clock() - command.enqueueTime
+        }
+
+        Timber.i(
+            "Running command '%s', seq = %s (%s priority, lane %s, waited %d ms, %d queued)",
+            command.description,
+            command.sequence,
+            if (command.isForeground) "foreground" else "background",
+            lane.id,
+            waitTimeNanos / NANOS_PER_MILLI,
+            synchronized(lock) { lane.queue.size },
+        )
+
+        try {
+            command.runnable.run()
+            Timber.i(" Command '%s' completed", command.description)
+        } catch (e: Exception) {
+            Timber.e(e, "Error running command '%s'", command.description)
+        }
+
+        val hasMoreCommands = synchronized(lock) {
+            if (lane.queue.isEmpty() || stopped) {
+                removeLane(lane)
+                false
+            } else {
+                true
+            }
+        }
+
+        if (hasMoreCommands) {
+            submitLane(lane)
+        }
+    }
+
+    // Must be called while holding `lock`
+    private fun removeLane(lane: Lane) {
+        lane.isRunning = false
+        if (lane.queue.isEmpty()) {
+            lanes.remove(lane.id)
+        }
+    }
+
+    private class Lane(val id: String) {
+        val queue = PriorityQueue<Command>()
+        var isRunning = false
+    }
+
+    private class Command(
+        val description: String,
+        val runnable: Runnable,
+        val isForeground: Boolean,
+        val sequence: Int,
+        val enqueueTime: Long,
+    ) : Comparable<Command> {
+        override fun compareTo(other: Command): Int {
+            return when {
+                isForeground && !other.isForeground -> -1
+                !isForeground && other.isForeground -> 1
+                else -> sequence.compareTo(other.sequence)
+            }
+        }
+    }
+
+    companion object {
+        const val GLOBAL_LANE = "global"
+
+        private const val NANOS_PER_MILLI = 1_000_000L
+    }
+}
@@ -1,5 +1,6 @@
 package com.fsck.k9.controller
 
+import app.k9mail.legacy.account.Account
 import app.k9mail.legacy.message.controller.MessagingListener
 import com.fsck.k9.backend.BackendManager
 
@@ -7,7 +8,7 @@ interface ControllerExtension {
     fun init(controller: MessagingController, backendManager: BackendManager, controllerInternals: ControllerInternals)
 
     interface ControllerInternals {
-        fun put(description: String, listener: MessagingListener?, runnable: Runnable)
-        fun putBackground(description: String, listener: MessagingListener?, runnable: Runnable)
+        fun put(description: String, account: Account?, listener: MessagingListener?, runnable: Runnable)
+        fun putBackground(description: String, account: Account?, listener: MessagingListener?, runnable: Runnable)
     }
 }
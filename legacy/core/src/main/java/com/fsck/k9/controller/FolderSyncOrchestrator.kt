@@ -0,0 +1,172 @@
+package com.fsck.k9.controller
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import timber.log.Timber
+
+/**
+ * Synchronizes the folders of an account concurrently.
+ *
+ * At most `connectionBudget` folders are synchronized at the same time, so the number of connections to the server
+ * stays bounded. The Inbox is synchronized first, followed by the folders that most recently received new messages.
+ * Folders are synchronized on [executor], so the account's command lane is free to run other commands in the
+ * meantime.
+ */
+internal class FolderSyncOrchestrator(
+    private val executor: ExecutorService,
+    private val clock: () -> Long = { System.currentTimeMillis() },
+) {
+    private val lastNewMessageTimes = ConcurrentHashMap<FolderKey, Long>()
+    private val accountStatistics = ConcurrentHashMap<String, AccountSyncStatistics>()
+    private val syncingAccounts = ConcurrentHashMap.newKeySet<String>()
+    private val folderSyncLocks = ConcurrentHashMap<FolderKey, Any>()
+
+    /**
+     * Starts synchronizing [folders] and returns right away. [onFinished] is called once all folders have been
+     * synchronized.
+     *
+     * If the folders of the account are still being synchronized, nothing is done and [onFinished] is called
+     * immediately.
+     */
+    fun syncFolders(
+        accountUuid: String,
+        folders: List<SyncFolder>,
+        connectionBudget: Int,
+        progressListener: ProgressListener,
+        synchronizer: FolderSynchronizer,
+        onFinished: Runnable,
+    ) {
+        require(connectionBudget > 0) { "connectionBudget must be positive" }
+        if (folders.isEmpty()) {
+            onFinished.run()
+            return
+        }
+
+        if (!syncingAccounts.add(accountUuid)) {
+            Timber.d("Folders of account %s are already being synchronized", accountUuid)
+            onFinished.run()
+            return
+        }
+
+        val startTime = clock()
+        val orderedFolders = orderFolders(accountUuid, folders)
+        val nextIndex = AtomicInteger(0)
+        val completedFolders = AtomicInteger(0)
+        val totalFolderSyncTime = AtomicLong(0)
+        val workerCount = minOf(connectionBudget, orderedFolders.size)
+        val remainingWorkers = AtomicInteger(workerCount)
+
+        val finishSync = {
+            val statistics = AccountSyncStatistics(
+                accountUuid = accountUuid,
+                folderCount = completedFolders.get(),
+                connectionBudget = workerCount,
+                wallTimeMillis = clock() - startTime,
+                totalFolderSyncTimeMillis = totalFolderSyncTime.get(),
+            )
+            accountStatistics[accountUuid] = statistics
+
+            Timber.i(
+                "Synchronized %d folders of account %s using %d connections in %d ms (sum of folder sync times: %d ms)",
+                statistics.folderCount,
+                accountUuid,
+                statistics.connectionBudget,
+                statistics.wallTimeMillis,
+                statistics.totalFolderSyncTimeMillis,
+            )
+
+            syncingAccounts.remove(accountUuid)
+            onFinished.run()
+        }
+
+        val worker = Runnable {
+            try {
+                while (!Thread.currentThread().isInterrupted) {
+                    val folder = orderedFolders.getOrNull(nextIndex.getAndIncrement()) ?: break
+
+                    val folderStartTime = clock()
+                    try {
+                        synchronizer.syncFolder(folder)
+                    } catch (e: Exception) {
+                        Timber.e(e, "Error synchronizing folder %s", folder.serverId)
+                    }
+                    val folderSyncTime = clock() - folderStartTime
+                    totalFolderSyncTime.addAndGet(folderSyncTime)
+
+                    val completed = completedFolders.incrementAndGet()
+                    Timber.d(
+                        "Synchronized folder %s in %d ms (%d/%d)",
+                        folder.serverId,
+                        folderSyncTime,
+                        completed,
+                        folders.size,
+                    )
+                    progressListener.onFolderSynchronized(folder, completed, folders.size)
+                }
+            } finally {
+                if (remainingWorkers.decrementAndGet() == 0) {
+                    finishSync()
+                }
+            }
+        }
+
+        repeat(workerCount) { executor.execute(worker) }
+    }
+
+    /**
+     * Returns the lock that is held while [folderServerId] is being synchronized.
+     *
+     * Folders are synchronized outside of the account's command lane. The lock keeps a mail check and, e.g., a manual
+     * refresh from synchronizing the same folder at the same time.
+     */
+    fun getFolderSyncLock(accountUuid: String, folderServerId: String): Any {
+        return folderSyncLocks.getOrPut(FolderKey(accountUuid, folderServerId)) { Any() }
+    }
+
+    /**
+     * Remembers that new messages were found in a folder. Such folders are synchronized earlier the next time.
+     */
+    fun onNewMessages(accountUuid: String, folderServerId: String) {
+        lastNewMessageTimes[FolderKey(accountUuid, folderServerId)] = clock()
+    }
+
+    /**
+     * Returns statistics about the most recent sync of each account.
+     */
+    fun getStatistics(): List<AccountSyncStatistics> {
+        return accountStatistics.values.toList()
+    }
+
+    private fun orderFolders(accountUuid: String, folders: List<SyncFolder>): List<SyncFolder> {
+        return folders.sortedWith(
+            compareByDescending<SyncFolder> { it.isInbox }
+                .thenByDescending { lastNewMessageTimes[FolderKey(accountUuid, it.serverId)] ?: 0L },
+        )
+    }
+
+    private data class FolderKey(val accountUuid: String, val folderServerId: String)
+
+    data class SyncFolder(
+        val databaseId: Long,
+        val serverId: String,
+        val isInbox: Boolean,
+    )
+
+    fun interface FolderSynchronizer {
+        fun syncFolder(folder: SyncFolder)
+    }
+
+    fun interface ProgressListener {
+        fun onFolderSynchronized(folder: SyncFolder, completedFolders: Int, totalFolders: Int)
+    }
+}
+
+data class AccountSyncStatistics(
+    val accountUuid: String,
+    val folderCount: Int,
+    val connectionBudget: Int,
+    val wallTimeMillis: Long,
+    val totalFolderSyncTimeMillis: Long,
+)
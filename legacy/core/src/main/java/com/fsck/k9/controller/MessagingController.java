@@ -12,21 +12,20 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.Context;
 import android.os.Process;
-import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
+import app.k9mail.core.common.mail.Protocols;
 import app.k9mail.core.featureflag.FeatureFlagProvider;
 import app.k9mail.legacy.account.Account;
 import app.k9mail.legacy.account.Account.DeletePolicy;
@@ -96,9 +95,9 @@ import static com.fsck.k9.mail.Flag.X_REMOTE_COPY_STARTED;
 
 
 /**
- * Starts a long running (application) Thread that will run through commands
- * that require remote mailbox access. This class is used to serialize and
- * prioritize these commands. Each method that will submit a command requires a
+ * Runs commands that require remote mailbox access on a small pool of
+ * background threads. Commands are serialized and prioritized per account, so
+ * a slow server only delays commands of its own account. Each method that will submit a command requires a
  * MessagingListener instance to be provided. It is expected that that listener
  * has also been added as a registered listener using addListener(). When a
  * command is to be executed, if the listener that was provided with the command
@@ -111,6 +110,8 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     public static final Set<Flag> SYNC_FLAGS = EnumSet.of(Flag.SEEN, Flag.FLAGGED, Flag.ANSWERED, Flag.FORWARDED);
 
     private static final long FOLDER_LIST_STALENESS_THRESHOLD = 30 * 60 * 1000L;
+    private static final int MAX_CONCURRENT_COMMAND_LANES = 3;
+    private static final int DEFAULT_SYNC_CONNECTION_BUDGET = 3;
 
     private final Context context;
     private final NotificationController notificationController;
@@ -123,20 +124,19 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     private final SpecialLocalFoldersCreator specialLocalFoldersCreator;
     private final LocalDeleteOperationDecider localDeleteOperationDecider;
 
-    private final Thread controllerThread;
+    private final CommandScheduler commandScheduler;
+    private final FolderSyncOrchestrator folderSyncOrchestrator;
+    private final int syncConnectionBudget;
 
-    private final BlockingQueue<Command> queuedCommands = new PriorityBlockingQueue<>();
     private final Set<MessagingListener> listeners = new CopyOnWriteArraySet<>();
     private final ExecutorService threadPool = Executors.newCachedThreadPool();
     private final MemorizingMessagingListener memorizingMessagingListener = new MemorizingMessagingListener();
+    private final PendingCommandOptimizer pendingCommandOptimizer = new PendingCommandOptimizer();
     private final DraftOperations draftOperations;
     private final NotificationOperations notificationOperations;
     private final ArchiveOperations archiveOperations;
 
 
-    private volatile boolean stopped = false;
-
-
     public static MessagingController getInstance(Context context) {
         return DI.get(MessagingController.class);
     }
@@ -148,6 +148,23 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
         SaveMessageDataCreator saveMessageDataCreator, SpecialLocalFoldersCreator specialLocalFoldersCreator,
         LocalDeleteOperationDecider localDeleteOperationDecider, List<ControllerExtension> controllerExtensions,
         FeatureFlagProvider featureFlagProvider
+    ) {
+        this(context, notificationController, notificationStrategy, localStoreProvider, backendManager, preferences,
+                messageStoreManager, saveMessageDataCreator, specialLocalFoldersCreator, localDeleteOperationDecider,
+                controllerExtensions, featureFlagProvider, DEFAULT_SYNC_CONNECTION_BUDGET);
+    }
+
+    /**
+     * @param syncConnectionBudget
+     *         The maximum number of folders of an IMAP account that are synchronized at the same time, i.e. the number
+     *         of connections a mail check may use.
+     */
+    MessagingController(Context context, NotificationController notificationController,
+        NotificationStrategy notificationStrategy, LocalStoreProvider localStoreProvider,
+        BackendManager backendManager, Preferences preferences, MessageStoreManager messageStoreManager,
+        SaveMessageDataCreator saveMessageDataCreator, SpecialLocalFoldersCreator specialLocalFoldersCreator,
+        LocalDeleteOperationDecider localDeleteOperationDecider, List<ControllerExtension> controllerExtensions,
+        FeatureFlagProvider featureFlagProvider, int syncConnectionBudget
     ) {
         this.context = context;
         this.notificationController = notificationController;
@@ -159,15 +176,12 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
         this.saveMessageDataCreator = saveMessageDataCreator;
         this.specialLocalFoldersCreator = specialLocalFoldersCreator;
         this.localDeleteOperationDecider = localDeleteOperationDecider;
+        this.syncConnectionBudget = syncConnectionBudget;
 
-        controllerThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                runInBackground();
-            }
-        });
-        controllerThread.setName("MessagingController");
-        controllerThread.start();
+        commandScheduler = new CommandScheduler(Executors.newFixedThreadPool(MAX_CONCURRENT_COMMAND_LANES,
+                createBackgroundThreadFactory("MessagingController-")));
+        folderSyncOrchestrator = new FolderSyncOrchestrator(
+                Executors.newCachedThreadPool(createBackgroundThreadFactory("FolderSync-")));
         addListener(memorizingMessagingListener);
 
         initializeControllerExtensions(controllerExtensions);
@@ -184,15 +198,15 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
 
         ControllerInternals internals = new ControllerInternals() {
             @Override
-            public void put(@NotNull String description, @Nullable MessagingListener listener,
-                    @NotNull Runnable runnable) {
-                MessagingController.this.put(description, listener, runnable);
+            public void put(@NotNull String description, @Nullable Account account,
+                    @Nullable MessagingListener listener, @NotNull Runnable runnable) {
+                MessagingController.this.put(description, account, listener, runnable);
             }
 
             @Override
-            public void putBackground(@NotNull String description, @Nullable MessagingListener listener,
-                    @NotNull Runnable runnable) {
-                MessagingController.this.putBackground(description, listener, runnable);
+            public void putBackground(@NotNull String description, @Nullable Account account,
+                    @Nullable MessagingListener listener, @NotNull Runnable runnable) {
+                MessagingController.this.putBackground(description, account, listener, runnable);
             }
         };
 
@@ -203,63 +217,44 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
 
     @VisibleForTesting
     void stop() throws InterruptedException {
-        stopped = true;
-        controllerThread.interrupt();
-        controllerThread.join(1000L);
+        commandScheduler.stop(1000L);
     }
 
-    private void runInBackground() {
-        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-        while (!stopped) {
-            String commandDescription = null;
-            try {
-                final Command command = queuedCommands.take();
-
-                if (command != null) {
-                    commandDescription = command.description;
-
-                    Timber.i("Running command '%s', seq = %s (%s priority)",
-                            command.description,
-                            command.sequence,
-                            command.isForegroundPriority ? "foreground" : "background");
-
-                    command.runnable.run();
+    private static ThreadFactory createBackgroundThreadFactory(String namePrefix) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            });
+            thread.setName(namePrefix + threadNumber.getAndIncrement());
+            return thread;
+        };
+    }
 
-                    Timber.i(" Command '%s' completed", command.description);
-                }
-            } catch (Exception e) {
-                Timber.e(e, "Error running command '%s'", commandDescription);
-            }
-        }
+    /**
+     * Returns the number of folders and the time it took to synchronize them for the last mail check of each account.
+     */
+    public List<AccountSyncStatistics> getAccountSyncStatistics() {
+        return folderSyncOrchestrator.getStatistics();
     }
 
-    private void put(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(queuedCommands, description, listener, runnable, true);
+    /**
+     * Queues a foreground command. Commands for the same account run in order; {@code null} selects the lane used
+     * for commands that aren't tied to an account.
+     */
+    private void put(String description, @Nullable Account account, MessagingListener listener,
+            Runnable runnable) {
+        commandScheduler.schedule(getLaneId(account), description, true, runnable);
     }
 
-    void putBackground(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(queuedCommands, description, listener, runnable, false);
+    void putBackground(String description, @Nullable Account account, MessagingListener listener,
+            Runnable runnable) {
+        commandScheduler.schedule(getLaneId(account), description, false, runnable);
     }
 
-    private void putCommand(BlockingQueue<Command> queue, String description, MessagingListener listener,
-            Runnable runnable, boolean isForeground) {
-        int retries = 10;
-        Exception e = null;
-        while (retries-- > 0) {
-            try {
-                Command command = new Command();
-                command.listener = listener;
-                command.runnable = runnable;
-                command.description = description;
-                command.isForegroundPriority = isForeground;
-                queue.put(command);
-                return;
-            } catch (InterruptedException ie) {
-                SystemClock.sleep(200);
-                e = ie;
-            }
-        }
-        throw new Error(e);
+    private static String getLaneId(@Nullable Account account) {
+        return account != null ? account.getUuid() : CommandScheduler.GLOBAL_LANE;
     }
 
     Backend getBackend(Account account) {
@@ -371,12 +366,12 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     }
 
     public void refreshFolderList(final Account account) {
-        put("refreshFolderList", null, () -> refreshFolderListSynchronous(account));
+        put("refreshFolderList", account, null, () -> refreshFolderListSynchronous(account));
     }
 
     public void refreshFolderListBlocking(Account account) {
         final CountDownLatch latch = new CountDownLatch(1);
-        putBackground("refreshFolderListBlocking", null, () -> {
+        putBackground("refreshFolderListBlocking", account, null, () -> {
             try {
                 refreshFolderListSynchronous(account);
             } finally {
@@ -528,7 +523,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     }
 
     public void loadMoreMessages(Account account, long folderId) {
-        putBackground("loadMoreMessages", null, () -> loadMoreMessagesSynchronous(account, folderId));
+        putBackground("loadMoreMessages", account, null, () -> loadMoreMessagesSynchronous(account, folderId));
     }
 
     public void loadMoreMessagesSynchronous(Account account, long folderId) {
@@ -551,7 +546,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
      * Start background synchronization of the specified folder.
      */
     public void synchronizeMailbox(Account account, long folderId, boolean notify, MessagingListener listener) {
-        putBackground("synchronizeMailbox", listener, () ->
+        putBackground("synchronizeMailbox", account, listener, () ->
                 synchronizeMailboxSynchronous(account, folderId, notify, listener, new NotificationState())
         );
     }
@@ -560,7 +555,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
         long folderId = getFolderId(account, folderServerId);
 
         final CountDownLatch latch = new CountDownLatch(1);
-        putBackground("synchronizeMailbox", null, () -> {
+        putBackground("synchronizeMailbox", account, null, () -> {
             try {
                 synchronizeMailboxSynchronous(account, folderId, true, null, new NotificationState());
             } finally {
@@ -611,6 +606,11 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
             commandException = e;
         }
 
+        syncFolder(account, folderId, notify, listener, backend, notificationState, commandException);
+    }
+
+    private void syncFolder(Account account, long folderId, boolean notify, MessagingListener listener,
+            Backend backend, NotificationState notificationState, @Nullable Exception commandException) {
         LocalFolder localFolder;
         try {
             LocalStore localStore = localStoreProvider.getInstance(account);
@@ -640,7 +640,9 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
         ControllerSyncListener syncListener =
                 new ControllerSyncListener(account, listener, suppressNotifications, notificationState);
 
-        backend.sync(folderServerId, syncConfig, syncListener);
+        synchronized (folderSyncOrchestrator.getFolderSyncLock(account.getUuid(), folderServerId)) {
+            backend.sync(folderServerId, syncConfig, syncListener);
+        }
 
         if (commandException != null && !syncListener.syncFailed) {
             String rootMessage = getRootCauseMessage(commandException);
@@ -699,7 +701,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     }
 
     void processPendingCommands(final Account account) {
-        putBackground("processPendingCommands", null, new Runnable() {
+        putBackground("processPendingCommands", account, null, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -719,10 +721,22 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     public void processPendingCommandsSynchronous(Account account) throws MessagingException {
         LocalStore localStore = localStoreProvider.getInstance(account);
         List<PendingCommand> commands = localStore.getPendingCommands();
+        List<PendingCommandBatch> batches = pendingCommandOptimizer.optimize(commands);
+        if (batches.size() < commands.size()) {
+            Timber.d("Merged %d pending commands into %d", commands.size(), batches.size());
+        }
 
         PendingCommand processingCommand = null;
         try {
-            for (PendingCommand command : commands) {
+            for (PendingCommandBatch batch : batches) {
+                PendingCommand command = batch.getCommand();
+                List<PendingCommand> sourceCommands = batch.getSourceCommands();
+                if (command == null) {
+                    Timber.d("Dropping %d pending commands that no longer have an effect", sourceCommands.size());
+                    localStore.removePendingCommands(sourceCommands);
+                    continue;
+                }
+
                 processingCommand = command;
                 String commandName = command.getCommandName();
                 Timber.d("Processing pending command '%s'", commandName);
@@ -735,19 +749,19 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
                 try {
                     command.execute(this, account);
 
-                    localStore.removePendingCommand(command);
+                    localStore.removePendingCommands(sourceCommands);
 
                     Timber.d("Done processing pending command '%s'", commandName);
                 } catch (MessagingException me) {
                     if (me.isPermanentFailure()) {
                         Timber.e(me, "Failure of command '%s' was permanent, removing command from queue", commandName);
-                        localStore.removePendingCommand(processingCommand);
+                        localStore.removePendingCommands(sourceCommands);
                     } else {
                         throw me;
                     }
                 } catch (Exception e) {
                     Timber.e(e, "Unexpected exception with command '%s', removing command from queue", commandName);
-                    localStore.removePendingCommand(processingCommand);
+                    localStore.removePendingCommands(sourceCommands);
 
                     if (K9.DEVELOPER_MODE) {
                         throw new AssertionError("Unexpected exception while processing pending command", e);
@@ -1056,7 +1070,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
 
         setFlagInCache(account, messageIds, flag, newState);
 
-        putBackground("setFlag", null, () ->
+        putBackground("setFlag", account, null, () ->
             setFlagSynchronous(account, messageIds, flag, newState, false)
         );
     }
@@ -1066,7 +1080,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
 
         setFlagForThreadsInCache(account, threadRootIds, flag, newState);
 
-        putBackground("setFlagForThreads", null, () ->
+        putBackground("setFlagForThreads", account, null, () ->
             setFlagSynchronous(account, threadRootIds, flag, newState, true)
         );
     }
@@ -1195,14 +1209,14 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     }
 
     public void loadMessageRemotePartial(Account account, long folderId, String uid, MessagingListener listener) {
-        put("loadMessageRemotePartial", listener, () ->
+        put("loadMessageRemotePartial", account, listener, () ->
             loadMessageRemoteSynchronous(account, folderId, uid, listener, true)
         );
     }
 
     //TODO: Fix the callback mess. See GH-782
     public void loadMessageRemote(Account account, long folderId, String uid, MessagingListener listener) {
-        put("loadMessageRemote", listener, () ->
+        put("loadMessageRemote", account, listener, () ->
             loadMessageRemoteSynchronous(account, folderId, uid, listener, false)
         );
     }
@@ -1303,7 +1317,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
             setFlagInCache(account, messageIds, Flag.SEEN, true);
         }
 
-        putBackground("markMessageAsOpened", null, () -> {
+        putBackground("markMessageAsOpened", account, null, () -> {
             markMessageAsOpenedBlocking(account, message, markMessageAsRead);
         });
     }
@@ -1331,7 +1345,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     }
 
     public void clearNewMessages(Account account) {
-        put("clearNewMessages", null, () -> clearNewMessagesBlocking(account));
+        put("clearNewMessages", account, null, () -> clearNewMessagesBlocking(account));
     }
 
     private void clearNewMessagesBlocking(Account account) {
@@ -1342,7 +1356,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     public void loadAttachment(final Account account, final LocalMessage message, final Part part,
             final MessagingListener listener) {
 
-        put("loadAttachment", listener, new Runnable() {
+        put("loadAttachment", account, listener, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -1423,7 +1437,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
      */
     public void sendPendingMessages(final Account account,
             MessagingListener listener) {
-        putBackground("sendPendingMessages", listener, new Runnable() {
+        putBackground("sendPendingMessages", account, listener, new Runnable() {
             @Override
             public void run() {
                 if (messagesPendingSend(account)) {
@@ -1506,91 +1520,97 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
 
             Backend backend = getBackend(account);
 
-            for (LocalMessage message : localMessages) {
-                if (message.isSet(Flag.DELETED)) {
-                    //FIXME: When uploading a message to the remote Sent folder the move code creates a placeholder
-                    // message in the Outbox. This code gets rid of these messages. It'd be preferable if the
-                    // placeholder message was never created, though.
-                    message.destroy();
-                    continue;
-                }
-                try {
-                    long messageId = message.getDatabaseId();
-                    OutboxState outboxState = outboxStateRepository.getOutboxState(messageId);
-
-                    SendState sendState = outboxState.getSendState();
-                    if (sendState != SendState.READY) {
-                        Timber.v("Skipping sending message %s (reason: %s - %s)", message.getUid(),
-                                sendState.getDatabaseName(), outboxState.getSendError());
-
-                        if (sendState == SendState.RETRIES_EXCEEDED) {
-                            lastFailure = new MessagingException("Retries exceeded", true);
-                        } else {
-                            lastFailure = new MessagingException(outboxState.getSendError(), true);
-                        }
+            // Send all messages over the same connection instead of connecting to the server once per message
+            backend.startSendSession();
+            try {
+                for (LocalMessage message : localMessages) {
+                    if (message.isSet(Flag.DELETED)) {
+                        //FIXME: When uploading a message to the remote Sent folder the move code creates a placeholder
+                        // message in the Outbox. This code gets rid of these messages. It'd be preferable if the
+                        // placeholder message was never created, though.
+                        message.destroy();
                         continue;
                     }
-
-                    Timber.i("Send count for message %s is %d", message.getUid(),
-                            outboxState.getNumberOfSendAttempts());
-
-                    localFolder.fetch(Collections.singletonList(message), fp, null);
                     try {
-                        if (message.getHeader(K9.IDENTITY_HEADER).length > 0 || message.isSet(Flag.DRAFT)) {
-                            Timber.v("The user has set the Outbox and Drafts folder to the same thing. " +
-                                    "This message appears to be a draft, so K-9 will not send it");
+                        long messageId = message.getDatabaseId();
+                        OutboxState outboxState = outboxStateRepository.getOutboxState(messageId);
+
+                        SendState sendState = outboxState.getSendState();
+                        if (sendState != SendState.READY) {
+                            Timber.v("Skipping sending message %s (reason: %s - %s)", message.getUid(),
+                                    sendState.getDatabaseName(), outboxState.getSendError());
+
+                            if (sendState == SendState.RETRIES_EXCEEDED) {
+                                lastFailure = new MessagingException("Retries exceeded", true);
+                            } else {
+                                lastFailure = new MessagingException(outboxState.getSendError(), true);
+                            }
                             continue;
                         }
 
-                        outboxStateRepository.incrementSendAttempts(messageId);
-                        message.setFlag(Flag.X_SEND_IN_PROGRESS, true);
+                        Timber.i("Send count for message %s is %d", message.getUid(),
+                                outboxState.getNumberOfSendAttempts());
 
-                        Timber.i("Sending message with UID %s", message.getUid());
-                        backend.sendMessage(message);
+                        localFolder.fetch(Collections.singletonList(message), fp, null);
+                        try {
+                            if (message.getHeader(K9.IDENTITY_HEADER).length > 0 || message.isSet(Flag.DRAFT)) {
+                                Timber.v("The user has set the Outbox and Drafts folder to the same thing. " +
+                                        "This message appears to be a draft, so K-9 will not send it");
+                                continue;
+                            }
 
-                        message.setFlag(Flag.X_SEND_IN_PROGRESS, false);
-                        message.setFlag(Flag.SEEN, true);
-                        progress++;
-                        for (MessagingListener l : getListeners()) {
-                            l.synchronizeMailboxProgress(account, outboxFolderId, progress, todo);
-                        }
-                        moveOrDeleteSentMessage(account, localStore, message);
+                            outboxStateRepository.incrementSendAttempts(messageId);
+                            message.setFlag(Flag.X_SEND_IN_PROGRESS, true);
 
-                        outboxStateRepository.removeOutboxState(messageId);
-                    } catch (AuthenticationFailedException e) {
-                        outboxStateRepository.decrementSendAttempts(messageId);
-                        lastFailure = e;
+                            Timber.i("Sending message with UID %s", message.getUid());
+                            backend.sendMessage(message);
 
-                        handleAuthenticationFailure(account, false);
-                        handleSendFailure(account, localFolder, message, e);
-                    } catch (CertificateValidationException e) {
-                        outboxStateRepository.decrementSendAttempts(messageId);
-                        lastFailure = e;
+                            message.setFlag(Flag.X_SEND_IN_PROGRESS, false);
+                            message.setFlag(Flag.SEEN, true);
+                            progress++;
+                            for (MessagingListener l : getListeners()) {
+                                l.synchronizeMailboxProgress(account, outboxFolderId, progress, todo);
+                            }
+                            moveOrDeleteSentMessage(account, localStore, message);
+
+                            outboxStateRepository.removeOutboxState(messageId);
+                        } catch (AuthenticationFailedException e) {
+                            outboxStateRepository.decrementSendAttempts(messageId);
+                            lastFailure = e;
+
+                            handleAuthenticationFailure(account, false);
+                            handleSendFailure(account, localFolder, message, e);
+                        } catch (CertificateValidationException e) {
+                            outboxStateRepository.decrementSendAttempts(messageId);
+                            lastFailure = e;
+
+                            notifyUserIfCertificateProblem(account, e, false);
+                            handleSendFailure(account, localFolder, message, e);
+                        } catch (MessagingException e) {
+                            lastFailure = e;
+
+                            if (e.isPermanentFailure()) {
+                                String errorMessage = e.getMessage();
+                                outboxStateRepository.setSendAttemptError(messageId, errorMessage);
+                            } else if (outboxState.getNumberOfSendAttempts() + 1 >= MAX_SEND_ATTEMPTS) {
+                                outboxStateRepository.setSendAttemptsExceeded(messageId);
+                            }
 
-                        notifyUserIfCertificateProblem(account, e, false);
-                        handleSendFailure(account, localFolder, message, e);
-                    } catch (MessagingException e) {
-                        lastFailure = e;
+                            handleSendFailure(account, localFolder, message, e);
+                        } catch (Exception e) {
+                            lastFailure = e;
 
-                        if (e.isPermanentFailure()) {
-                            String errorMessage = e.getMessage();
-                            outboxStateRepository.setSendAttemptError(messageId, errorMessage);
-                        } else if (outboxState.getNumberOfSendAttempts() + 1 >= MAX_SEND_ATTEMPTS) {
-                            outboxStateRepository.setSendAttemptsExceeded(messageId);
+                            handleSendFailure(account, localFolder, message, e);
                         }
-
-                        handleSendFailure(account, localFolder, message, e);
                     } catch (Exception e) {
                         lastFailure = e;
 
-                        handleSendFailure(account, localFolder, message, e);
+                        Timber.e(e, "Failed to fetch message for sending");
+                        notifySynchronizeMailboxFailed(account, localFolder, e);
                     }
-                } catch (Exception e) {
-                    lastFailure = e;
-
-                    Timber.e(e, "Failed to fetch message for sending");
-                    notifySynchronizeMailboxFailed(account, localFolder, e);
                 }
+            } finally {
+                backend.endSendSession();
             }
 
             if (lastFailure != null) {
@@ -1699,7 +1719,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
         actOnMessageGroup(srcAccount, srcFolderId, messageReferences, (account, messageFolder, messages) -> {
             suppressMessages(account, messages);
 
-            putBackground("moveMessages", null, () ->
+            putBackground("moveMessages", account, null, () ->
                     moveOrCopyMessageSynchronous(account, srcFolderId, messages, destFolderId, MoveOrCopyFlavor.MOVE)
             );
         });
@@ -1710,7 +1730,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
         actOnMessageGroup(srcAccount, srcFolderId, messageReferences, (account, messageFolder, messages) -> {
             suppressMessages(account, messages);
 
-            putBackground("moveMessagesInThread", null, () -> {
+            putBackground("moveMessagesInThread", account, null, () -> {
                 try {
                     List<LocalMessage> messagesInThreads = collectMessagesInThreads(account, messages);
                     moveOrCopyMessageSynchronous(account, srcFolderId, messagesInThreads, destFolderId,
@@ -1729,7 +1749,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     public void copyMessages(Account srcAccount, long srcFolderId,
             List<MessageReference> messageReferences, long destFolderId) {
         actOnMessageGroup(srcAccount, srcFolderId, messageReferences, (account, messageFolder, messages) -> {
-            putBackground("copyMessages", null, () ->
+            putBackground("copyMessages", account, null, () ->
                     moveOrCopyMessageSynchronous(srcAccount, srcFolderId, messages, destFolderId, MoveOrCopyFlavor.COPY)
             );
         });
@@ -1738,7 +1758,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     public void copyMessagesInThread(Account srcAccount, long srcFolderId,
             final List<MessageReference> messageReferences, long destFolderId) {
         actOnMessageGroup(srcAccount, srcFolderId, messageReferences, (account, messageFolder, messages) -> {
-            putBackground("copyMessagesInThread", null, () -> {
+            putBackground("copyMessagesInThread", account, null, () -> {
                 try {
                     List<LocalMessage> messagesInThreads = collectMessagesInThreads(account, messages);
                     moveOrCopyMessageSynchronous(account, srcFolderId, messagesInThreads, destFolderId,
@@ -1856,7 +1876,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     }
 
     public void moveToDraftsFolder(Account account, long folderId, List<MessageReference> messages){
-        putBackground("moveToDrafts", null, () -> moveToDraftsFolderInBackground(account, folderId, messages));
+        putBackground("moveToDrafts", account, null, () -> moveToDraftsFolderInBackground(account, folderId, messages));
     }
 
     private void moveToDraftsFolderInBackground(Account account, long folderId, List<MessageReference> messages) {
@@ -1892,7 +1912,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     }
 
     public void expunge(Account account, long folderId) {
-        putBackground("expunge", null, () -> {
+        putBackground("expunge", account, null, () -> {
             queueExpunge(account, folderId);
             processPendingCommands(account);
         });
@@ -1924,7 +1944,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     public void deleteThreads(final List<MessageReference> messages) {
         actOnMessagesGroupedByAccountAndFolder(messages, (account, messageFolder, accountMessages) -> {
             suppressMessages(account, accountMessages);
-            putBackground("deleteThreads", null, () ->
+            putBackground("deleteThreads", account, null, () ->
                 deleteThreadsSynchronous(account, messageFolder.getDatabaseId(), accountMessages, false)
             );
         });
@@ -1968,7 +1988,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     private void deleteMessages(List<MessageReference> messages, boolean skipTrashFolder) {
         actOnMessagesGroupedByAccountAndFolder(messages, (account, messageFolder, accountMessages) -> {
             suppressMessages(account, accountMessages);
-            putBackground("deleteMessages", null, () ->
+            putBackground("deleteMessages", account, null, () ->
                 deleteMessagesSynchronous(account, messageFolder.getDatabaseId(), accountMessages, skipTrashFolder)
             );
         });
@@ -2120,7 +2140,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     }
 
     public void emptyTrash(final Account account, MessagingListener listener) {
-        putBackground("emptyTrash", listener, new Runnable() {
+        putBackground("emptyTrash", account, listener, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -2159,7 +2179,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     }
 
     public void clearFolder(Account account, long folderId) {
-        putBackground("clearFolder", null, () ->
+        putBackground("clearFolder", account, null, () ->
                 clearFolderSynchronous(account, folderId)
         );
     }
@@ -2248,60 +2268,77 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
         for (MessagingListener l : getListeners(listener)) {
             l.checkMailStarted(context, account);
         }
-        putBackground("checkMail", listener, new Runnable() {
-            @Override
-            public void run() {
+        putBackground("checkMail", account, listener, () -> {
+            Timber.i("Starting mail check");
 
-                try {
-                    Timber.i("Starting mail check");
-
-                    Collection<Account> accounts;
-                    if (account != null) {
-                        accounts = new ArrayList<>(1);
-                        accounts.add(account);
-                    } else {
-                        accounts = preferences.getAccounts();
-                    }
+            Collection<Account> accounts;
+            if (account != null) {
+                accounts = Collections.singletonList(account);
+            } else {
+                accounts = preferences.getAccounts();
+            }
 
-                    for (final Account account : accounts) {
-                        checkMailForAccount(account, ignoreLastCheckedTime, notify, listener);
-                    }
+            Runnable finalizeSync = () -> {
+                Timber.i("Finished mail sync");
 
-                } catch (Exception e) {
-                    Timber.e(e, "Unable to synchronize mail");
+                if (wakeLock != null) {
+                    wakeLock.release();
                 }
-                putBackground("finalize sync", null, new Runnable() {
-                            @Override
-                            public void run() {
-
-                                Timber.i("Finished mail sync");
+                for (MessagingListener l : getListeners(listener)) {
+                    l.checkMailFinished(context, account);
+                }
+            };
 
-                                if (wakeLock != null) {
-                                    wakeLock.release();
-                                }
-                                for (MessagingListener l : getListeners(listener)) {
-                                    l.checkMailFinished(context, account);
-                                }
+            if (accounts.isEmpty()) {
+                finalizeSync.run();
+                return;
+            }
 
+            // Accounts are checked in their own lanes. The last one to finish notifies the listeners.
+            AtomicInteger remainingAccounts = new AtomicInteger(accounts.size());
+            for (Account accountToCheck : accounts) {
+                putBackground("checkMail:" + accountToCheck, accountToCheck, listener, () -> {
+                    checkMailForAccount(accountToCheck, ignoreLastCheckedTime, notify, listener, () -> {
+                        putBackground("finalize sync", accountToCheck, null, () -> {
+                            if (remainingAccounts.decrementAndGet() == 0) {
+                                finalizeSync.run();
                             }
-                        }
-                );
+                        });
+                    });
+                });
             }
         });
     }
 
 
+    /**
+     * Starts synchronizing the folders of an account. Folders are synchronized outside of the account's command lane,
+     * so this returns before the mail check is done. {@code onFinished} is called once it is.
+     */
     private void checkMailForAccount(Account account, boolean ignoreLastCheckedTime, boolean notify,
-            MessagingListener listener) {
+            MessagingListener listener, Runnable onFinished) {
         Timber.i("Synchronizing account %s", account);
 
         NotificationState notificationState = new NotificationState();
+        Runnable finishCheckMail = () -> {
+            putBackground("clear notification flag for " + account, account, null, new Runnable() {
+                        @Override
+                        public void run() {
+                            Timber.v("Clearing notification flag for %s", account);
 
-        sendPendingMessages(account, listener);
-
-        refreshFolderListIfStale(account);
+                            clearFetchingMailNotification(account);
+                        }
+                    }
+            );
+            onFinished.run();
+        };
 
+        List<LocalFolder> foldersToSync = new ArrayList<>();
         try {
+            sendPendingMessages(account, listener);
+
+            refreshFolderListIfStale(account);
+
             LocalStore localStore = localStoreProvider.getInstance(account);
             for (final LocalFolder folder : localStore.getPersonalNamespaces(false)) {
                 folder.open();
@@ -2315,34 +2352,79 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
                     // Do not sync folders that are not enabled for sync.
                     continue;
                 }
-                synchronizeFolder(account, folder, ignoreLastCheckedTime, notify, listener, notificationState);
+                foldersToSync.add(folder);
             }
-        } catch (MessagingException e) {
+        } catch (Exception e) {
             Timber.e(e, "Unable to synchronize account %s", account);
-        } finally {
-            putBackground("clear notification flag for " + account, null, new Runnable() {
-                        @Override
-                        public void run() {
-                            Timber.v("Clearing notification flag for %s", account);
+            finishCheckMail.run();
+            return;
+        }
 
-                            clearFetchingMailNotification(account);
-                        }
-                    }
-            );
+        synchronizeFolders(account, foldersToSync, ignoreLastCheckedTime, notify, listener, notificationState,
+                finishCheckMail);
+    }
+
+    /**
+     * Starts synchronizing the given folders concurrently, using at most {@link #getSyncConnectionBudget(Account)}
+     * connections. Pending commands are processed once before. {@code onFinished} is called once all folders have
+     * been synchronized.
+     */
+    private void synchronizeFolders(Account account, List<LocalFolder> folders, boolean ignoreLastCheckedTime,
+            boolean notify, MessagingListener listener, NotificationState notificationState, Runnable onFinished) {
+        if (folders.isEmpty()) {
+            onFinished.run();
+            return;
+        }
+
+        if (isAuthenticationProblem(account, true)) {
+            Timber.d("Authentication will fail. Skip synchronizing folders of account %s.", account);
+            handleAuthenticationFailure(account, true);
+            onFinished.run();
+            return;
+        }
+
+        Exception commandException = null;
+        try {
+            processPendingCommandsSynchronous(account);
+        } catch (Exception e) {
+            Timber.e(e, "Failure processing command, but allow message sync attempt");
+            commandException = e;
         }
 
+        Map<Long, LocalFolder> foldersById = new HashMap<>();
+        List<FolderSyncOrchestrator.SyncFolder> syncFolders = new ArrayList<>();
+        Long inboxFolderId = account.getInboxFolderId();
+        for (LocalFolder folder : folders) {
+            long folderId = folder.getDatabaseId();
+            foldersById.put(folderId, folder);
+            boolean isInbox = inboxFolderId != null && inboxFolderId == folderId;
+            syncFolders.add(new FolderSyncOrchestrator.SyncFolder(folderId, folder.getServerId(), isInbox));
+        }
 
+        Exception pendingCommandException = commandException;
+        folderSyncOrchestrator.syncFolders(account.getUuid(), syncFolders, getSyncConnectionBudget(account),
+                (folder, completedFolders, totalFolders) -> {
+                    for (MessagingListener l : getListeners(listener)) {
+                        l.checkMailProgress(account, completedFolders, totalFolders);
+                    }
+                },
+                folder -> synchronizeFolderInBackground(account, foldersById.get(folder.getDatabaseId()),
+                        ignoreLastCheckedTime, notify, listener, notificationState, pendingCommandException),
+                onFinished);
     }
 
-    private void synchronizeFolder(Account account, LocalFolder folder, boolean ignoreLastCheckedTime,
-            boolean notify, MessagingListener listener, NotificationState notificationState) {
-        putBackground("sync" + folder.getServerId(), null, () -> {
-            synchronizeFolderInBackground(account, folder, ignoreLastCheckedTime, notify, listener, notificationState);
-        });
+    private int getSyncConnectionBudget(Account account) {
+        // Other protocols either only sync the Inbox or don't use a connection per folder
+        if (Protocols.IMAP.equals(account.getIncomingServerSettings().type)) {
+            return syncConnectionBudget;
+        } else {
+            return 1;
+        }
     }
 
     private void synchronizeFolderInBackground(Account account, LocalFolder folder, boolean ignoreLastCheckedTime,
-            boolean notify, MessagingListener listener, NotificationState notificationState) {
+            boolean notify, MessagingListener listener, NotificationState notificationState,
+            Exception commandException) {
         Timber.v("Folder %s was last synced @ %tc", folder.getServerId(), folder.getLastChecked());
 
         if (!ignoreLastCheckedTime) {
@@ -2365,7 +2447,9 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
         try {
             showFetchingMailNotificationIfNecessary(account, folder);
             try {
-                synchronizeMailboxSynchronous(account, folder.getDatabaseId(), notify, listener, notificationState);
+                Backend backend = getBackend(account);
+                syncFolder(account, folder.getDatabaseId(), notify, listener, backend, notificationState,
+                        commandException);
             } finally {
                 showEmptyFetchingMailNotificationIfNecessary(account);
             }
@@ -2391,7 +2475,7 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
     }
 
     public void compact(Account account) {
-        putBackground("compact:" + account, null, () -> {
+        putBackground("compact:" + account, account, null, () -> {
             try {
                 MessageStore messageStore = messageStoreManager.getMessageStore(account);
                 messageStore.compact();
@@ -2422,30 +2506,8 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
         }
     }
 
-    private static AtomicInteger sequencing = new AtomicInteger(0);
-
-    private static class Command implements Comparable<Command> {
-        public Runnable runnable;
-        public MessagingListener listener;
-        public String description;
-        boolean isForegroundPriority;
-
-        int sequence = sequencing.getAndIncrement();
-
-        @Override
-        public int compareTo(@NonNull Command other) {
-            if (other.isForegroundPriority && !isForegroundPriority) {
-                return 1;
-            } else if (!other.isForegroundPriority && isForegroundPriority) {
-                return -1;
-            } else {
-                return (sequence - other.sequence);
-            }
-        }
-    }
-
     public void clearNotifications(LocalSearch search) {
-        put("clearNotifications", null, () -> {
+        put("clearNotifications", null, null, () -> {
             notificationOperations.clearNotifications(search);
         });
     }
@@ -2585,6 +2647,10 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
         @Override
         public void syncHeadersFinished(@NotNull String folderServerId, int totalMessagesInMailbox,
                 int numNewMessages) {
+            if (numNewMessages > 0) {
+                folderSyncOrchestrator.onNewMessages(account.getUuid(), folderServerId);
+            }
+
             for (MessagingListener messagingListener : getListeners(listener)) {
                 messagingListener.synchronizeMailboxHeadersFinished(account, folderServerId, totalMessagesInMailbox,
                         numNewMessages);
@@ -2609,9 +2675,8 @@ public class MessagingController implements MessagingControllerRegistry, Messagi
             if (!suppressNotifications &&
                     notificationStrategy.shouldNotifyForMessage(account, localFolder, message, isOldMessage)) {
                 // Notify with the localMessage so that we don't have to recalculate the content preview.
-                boolean silent = notificationState.wasNotified();
+                boolean silent = notificationState.getAndSetNotified();
                 notificationController.addNewMailNotification(account, message, silent);
-                notificationState.setWasNotified(true);
             }
 
             if (!message.isSet(Flag.SEEN)) {
@@ -2,5 +2,16 @@ package com.fsck.k9.controller
 
 class NotificationState {
     @get:JvmName("wasNotified")
+    @get:Synchronized
+    @set:Synchronized
     var wasNotified: Boolean = false
+
+    /**
+     * Marks this state as notified and returns whether it was notified before. Folders of an account are synchronized
+     * concurrently, so this needs to be atomic.
+     */
+    @Synchronized
+    fun getAndSetNotified(): Boolean {
+        return wasNotified.also { wasNotified = true }
+    }
 }
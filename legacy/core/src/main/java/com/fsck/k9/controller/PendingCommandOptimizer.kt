@@ -0,0 +1,230 @@
+package com.fsck.k9.controller
+
+import com.fsck.k9.controller.MessagingController.MoveOrCopyFlavor
+import com.fsck.k9.controller.MessagingControllerCommands.PendingAppend
+import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand
+import com.fsck.k9.controller.MessagingControllerCommands.PendingDelete
+import com.fsck.k9.controller.MessagingControllerCommands.PendingExpunge
+import com.fsck.k9.controller.MessagingControllerCommands.PendingMarkAllAsRead
+import com.fsck.k9.controller.MessagingControllerCommands.PendingMoveAndMarkAsRead
+import com.fsck.k9.controller.MessagingControllerCommands.PendingMoveOrCopy
+import com.fsck.k9.controller.MessagingControllerCommands.PendingReplace
+import com.fsck.k9.controller.MessagingControllerCommands.PendingSetFlag
+import com.fsck.k9.mail.Flag
+
+/**
+ * Reduces the number of server round trips needed to replay pending commands.
+ *
+ * - Set flag commands for the same folder, flag, and state are merged into one command.
+ * - Flag changes for messages that are deleted by a later command are dropped.
+ * - Delete commands for the same folder are merged into one command.
+ * - Move/copy commands with the same source folder, destination folder, and operation are merged into one command.
+ *
+ * Commands are only merged when no other command in between touches one of the involved folders. That way replaying
+ * the optimized commands has the same outcome on the server as replaying the original commands one by one.
+ */
+internal class PendingCommandOptimizer {
+    fun optimize(commands: List<PendingCommand>): List<PendingCommandBatch> {
+        val entries = mutableListOf<Entry>()
+        val openEntries = mutableListOf<Entry>()
+
+        fun closeEntries(folderIds: Set<Long>, except: (Entry) -> Boolean) {
+            openEntries.removeAll { entry -> entry.folderIds.any { it in folderIds } && !except(entry) }
+        }
+
+        fun addEntry(entry: Entry) {
+            entries.add(entry)
+            openEntries.add(entry)
+        }
+
+        for (command in commands) {
+            when (command) {
+                is PendingSetFlag -> {
+                    val folderIds = setOf(command.folderId)
+                    closeEntries(folderIds) { it is SetFlagEntry }
+
+                    val setFlagEntries = openEntries.filterIsInstance<SetFlagEntry>()
+                        .filter { it.folderId == command.folderId && it.flag == command.flag }
+
+                    // Only the last flag change of a message matters
+                    setFlagEntries
+                        .filter { it.newState != command.newState }
+                        .forEach { it.uids.removeAll(command.uids) }
+
+                    val entry = setFlagEntries.firstOrNull { it.newState == command.newState }
+                    if (entry != null) {
+                        entry.add(command, command.uids)
+                    } else {
+                        addEntry(SetFlagEntry(command))
+                    }
+                }
+                is PendingDelete -> {
+                    val folderIds = setOf(command.folderId)
+
+                    openEntries.filterIsInstance<SetFlagEntry>()
+                        .filter { it.folderId == command.folderId }
+                        .forEach { it.uids.removeAll(command.uids) }
+
+                    closeEntries(folderIds) { it is DeleteEntry }
+
+                    val entry = openEntries.filterIsInstance<DeleteEntry>()
+                        .firstOrNull { it.folderId == command.folderId }
+                    if (entry != null) {
+                        entry.add(command, command.uids)
+                    } else {
+                        addEntry(DeleteEntry(command))
+                    }
+                }
+                is PendingMoveOrCopy, is PendingMoveAndMarkAsRead -> {
+                    val moveEntry = MoveEntry.create(command)
+                    if (moveEntry == null) {
+                        closeEntries(command.folderIds) { false }
+                        entries.add(SingleCommandEntry(command))
+                    } else {
+                        closeEntries(moveEntry.folderIds) { it is MoveEntry && it.key == moveEntry.key }
+
+                        val entry = openEntries.filterIsInstance<MoveEntry>().firstOrNull { it.key == moveEntry.key }
+                        if (entry != null) {
+                            entry.add(command, moveEntry.uidMap)
+                        } else {
+                            addEntry(moveEntry)
+                        }
+                    }
+                }
+                else -> {
+                    // Commands like PendingEmptyTrash aren't associated with a folder ID and end all merging
+                    val folderIds = command.folderIds
+                    if (folderIds.isEmpty()) {
+                        openEntries.clear()
+                    } else {
+                        closeEntries(folderIds) { false }
+                    }
+                    entries.add(SingleCommandEntry(command))
+                }
+            }
+        }
+
+        return entries.map { it.toBatch() }
+    }
+
+    private val PendingCommand.folderIds: Set<Long>
+        get() = when (this) {
+            is PendingSetFlag -> setOf(folderId)
+            is PendingDelete -> setOf(folderId)
+            is PendingMoveOrCopy -> setOf(srcFolderId, destFolderId)
+            is PendingMoveAndMarkAsRead -> setOf(srcFolderId, destFolderId)
+            is PendingAppend -> setOf(folderId)
+            is PendingReplace -> setOf(folderId)
+            is PendingMarkAllAsRead -> setOf(folderId)
+            is PendingExpunge -> setOf(folderId)
+            else -> emptySet()
+        }
+
+    private sealed class Entry(firstCommand: PendingCommand) {
+        val sourceCommands = mutableListOf(firstCommand)
+        abstract val folderIds: Set<Long>
+
+        abstract fun buildCommand(): PendingCommand?
+
+        fun toBatch(): PendingCommandBatch {
+            val command = if (sourceCommands.size == 1 && !isModified()) sourceCommands.first() else buildCommand()
+            return PendingCommandBatch(command, sourceCommands.toList())
+        }
+
+        protected open fun isModified(): Boolean = false
+    }
+
+    private class SingleCommandEntry(command: PendingCommand) : Entry(command) {
+        override val folderIds: Set<Long> = emptySet()
+
+        override fun buildCommand() = sourceCommands.first()
+    }
+
+    private class SetFlagEntry(command: PendingSetFlag) : Entry(command) {
+        val folderId = command.folderId
+        val flag: Flag = command.flag
+        val newState = command.newState
+        val uids = LinkedHashSet(command.uids)
+        override val folderIds = setOf(folderId)
+
+        fun add(command: PendingSetFlag, commandUids: List<String>) {
+            sourceCommands.add(command)
+            uids.addAll(commandUids)
+        }
+
+        override fun isModified() = uids.size != (sourceCommands.first() as PendingSetFlag).uids.size
+
+        override fun buildCommand(): PendingCommand? {
+            return if (uids.isEmpty()) null else PendingSetFlag.create(folderId, newState, flag, uids.toList())
+        }
+    }
+
+    private class DeleteEntry(command: PendingDelete) : Entry(command) {
+        val folderId = command.folderId
+        val uids = LinkedHashSet(command.uids)
+        override val folderIds = setOf(folderId)
+
+        fun add(command: PendingDelete, commandUids: List<String>) {
+            sourceCommands.add(command)
+            uids.addAll(commandUids)
+        }
+
+        override fun buildCommand(): PendingCommand = PendingDelete.create(folderId, uids.toList())
+    }
+
+    private class MoveEntry(
+        command: PendingCommand,
+        val key: MoveKey,
+        val uidMap: LinkedHashMap<String, String>,
+    ) : Entry(command) {
+        override val folderIds = setOf(key.srcFolderId, key.destFolderId)
+
+        fun add(command: PendingCommand, commandUidMap: Map<String, String>) {
+            sourceCommands.add(command)
+            uidMap.putAll(commandUidMap)
+        }
+
+        override fun buildCommand(): PendingCommand {
+            return when (key.operation) {
+                MoveOrCopyFlavor.MOVE -> PendingMoveOrCopy.create(key.srcFolderId, key.destFolderId, false, uidMap)
+                MoveOrCopyFlavor.COPY -> PendingMoveOrCopy.create(key.srcFolderId, key.destFolderId, true, uidMap)
+                MoveOrCopyFlavor.MOVE_AND_MARK_AS_READ -> {
+                    PendingMoveAndMarkAsRead.create(key.srcFolderId, key.destFolderId, uidMap)
+                }
+            }
+        }
+
+        companion object {
+            fun create(command: PendingCommand): MoveEntry? {
+                return when (command) {
+                    is PendingMoveOrCopy -> {
+                        // Commands created by old versions of the app only contain a list of UIDs
+                        val uidMap = command.newUidMap ?: return null
+                        val operation = if (command.isCopy) MoveOrCopyFlavor.COPY else MoveOrCopyFlavor.MOVE
+                        val key = MoveKey(command.srcFolderId, command.destFolderId, operation)
+                        MoveEntry(command, key, LinkedHashMap(uidMap))
+                    }
+                    is PendingMoveAndMarkAsRead -> {
+                        val operation = MoveOrCopyFlavor.MOVE_AND_MARK_AS_READ
+                        val key = MoveKey(command.srcFolderId, command.destFolderId, operation)
+                        MoveEntry(command, key, LinkedHashMap(command.newUidMap))
+                    }
+                    else -> null
+                }
+            }
+        }
+    }
+
+    private data class MoveKey(val srcFolderId: Long, val destFolderId: Long, val operation: MoveOrCopyFlavor)
+}
+
+/**
+ * A command to execute and the pending commands it replaces.
+ *
+ * [command] is `null` if nothing is left to do on the server, e.g. because all affected messages were deleted by a
+ * later command. [sourceCommands] should be removed from the database once [command] has been executed.
+ */
+internal class PendingCommandBatch(
+    val command: PendingCommand?,
+    val sourceCommands: List<PendingCommand>,
+)
@@ -1,6 +1,8 @@
 package com.fsck.k9.mailstore
 
+import app.k9mail.legacy.mailstore.MessageListChange
 import app.k9mail.legacy.mailstore.MessageListChangedListener
+import app.k9mail.legacy.mailstore.MessageListPage
 import app.k9mail.legacy.mailstore.MessageListRepository
 import app.k9mail.legacy.mailstore.MessageMapper
 import app.k9mail.legacy.mailstore.MessageStoreManager
@@ -30,17 +32,25 @@ class DefaultMessageListRepository(
     }
 
     override fun notifyMessageListChanged(accountUuid: String) {
+        notifyMessageListChanged(accountUuid, MessageListChange.STRUCTURAL)
+    }
+
+    override fun notifyMessageListChanged(accountUuid: String, change: MessageListChange) {
         for (listener in globalListeners) {
-            listener.onMessageListChanged()
+            listener.onMessageListChanged(accountUuid, change)
         }
 
         for (listener in accountListeners) {
             if (listener.first == accountUuid) {
-                listener.second.onMessageListChanged()
+                listener.second.onMessageListChanged(accountUuid, change)
             }
         }
     }
 
+    override fun hasListeners(accountUuid: String): Boolean {
+        return globalListeners.isNotEmpty() || accountListeners.any { it.first == accountUuid }
+    }
+
     /**
      * Retrieve list of messages from [MessageStore] but override values with data from [MessageListCache].
      */
@@ -49,13 +59,14 @@ class DefaultMessageListRepository(
         selection: String,
         selectionArgs: Array<String>,
         sortOrder: String,
+        page: MessageListPage?,
         messageMapper: MessageMapper<T>,
     ): List<T> {
         val messageStore = messageStoreManager.getMessageStore(accountUuid)
         val cache = MessageListCache.getCache(accountUuid)
 
         val mapper = if (cache.isEmpty()) messageMapper else CacheAwareMessageMapper(cache, messageMapper)
-        return messageStore.getMessages(selection, selectionArgs, sortOrder, mapper)
+        return messageStore.getMessages(selection, selectionArgs, sortOrder, page, mapper)
     }
 
     /**
@@ -66,13 +77,14 @@ class DefaultMessageListRepository(
         selection: String,
         selectionArgs: Array<String>,
         sortOrder: String,
+        page: MessageListPage?,
         messageMapper: MessageMapper<T>,
     ): List<T> {
         val messageStore = messageStoreManager.getMessageStore(accountUuid)
         val cache = MessageListCache.getCache(accountUuid)
 
         val mapper = if (cache.isEmpty()) messageMapper else CacheAwareMessageMapper(cache, messageMapper)
-        return messageStore.getThreadedMessages(selection, selectionArgs, sortOrder, mapper)
+        return messageStore.getThreadedMessages(selection, selectionArgs, sortOrder, page, mapper)
     }
 
     /**
@@ -0,0 +1,128 @@
+package com.fsck.k9.mailstore
+
+import com.fsck.k9.mail.Flag
+import java.util.concurrent.ConcurrentHashMap
+import kotlinx.datetime.Clock
+
+/**
+ * Concurrent map of ID → flag values, used by [MessageListCache].
+ *
+ * All flag values for an ID are packed into a single immutable bitmask entry, so reads are lock-free. Entries expire
+ * after [expiryMillis] in case the database write they are waiting for never lands. The number of entries is limited
+ * to [maxSize]; when it is exceeded, expired entries and then the oldest entries are evicted.
+ */
+internal class FlagOverrideMap(
+    private val maxSize: Int = DEFAULT_MAX_SIZE,
+    private val expiryMillis: Long = DEFAULT_EXPIRY_MILLIS,
+    private val clock: Clock = Clock.System,
+) {
+    private val overridesById = ConcurrentHashMap<Long, FlagOverrides>()
+
+    init {
+        require(Flag.entries.size <= Int.SIZE_BITS) { "Too many flags to fit into a bitmask" }
+    }
+
+    fun get(id: Long, flag: Flag): Boolean? {
+        val overrides = overridesById[id] ?: return null
+        if (isExpired(overrides, now())) {
+            overridesById.remove(id, overrides)
+            return null
+        }
+
+        return overrides.get(flag)
+    }
+
+    fun set(ids: Collection<Long>, flag: Flag, value: Boolean) {
+        val now = now()
+        for (id in ids) {
+            overridesById.compute(id) { _, overrides ->
+                val current = overrides?.takeUnless { isExpired(it, now) } ?: FlagOverrides.EMPTY
+                current.with(flag, value, now)
+            }
+        }
+
+        if (overridesById.size > maxSize) {
+            evictEntries()
+        }
+    }
+
+    fun remove(ids: Collection<Long>, flag: Flag) {
+        for (id in ids) {
+            overridesById.computeIfPresent(id) { _, overrides ->
+                overrides.without(flag).takeUnless { it.isEmpty }
+            }
+        }
+    }
+
+    fun isEmpty(): Boolean = overridesById.isEmpty()
+
+    val size: Int
+        get() = overridesById.size
+
+    @Synchronized
+    private fun evictEntries() {
+        // Another thread might have already evicted entries while we were waiting for the lock
+        if (overridesById.size <= maxSize) return
+
+        val now = now()
+        overridesById.entries.removeIf { (_, overrides) -> isExpired(overrides, now) }
+
+        val excessEntries = overridesById.size - maxSize * EVICTION_TARGET_PERCENT / 100
+        if (excessEntries > 0) {
+            overridesById.entries.asSequence()
+                .map { (id, overrides) -> id to overrides.updatedAt }
+                .sortedBy { (_, updatedAt) -> updatedAt }
+                .take(excessEntries)
+                .toList()
+                .forEach { (id, _) -> overridesById.remove(id) }
+        }
+    }
+
+    private fun isExpired(overrides: FlagOverrides, now: Long): Boolean {
+        return now - overrides.updatedAt >= expiryMillis
+    }
+
+    private fun now(): Long = clock.now().toEpochMilliseconds()
+
+    /**
+     * Bit `n` of [presentMask] is set if a value for the flag with ordinal `n` is stored. The value itself is stored in
+     * bit `n` of [valueMask].
+     */
+    private class FlagOverrides(
+        private val presentMask: Int,
+        private val valueMask: Int,
+        val updatedAt: Long,
+    ) {
+        val isEmpty: Boolean
+            get() = presentMask == 0
+
+        fun get(flag: Flag): Boolean? {
+            val bit = flag.bit
+            return if ((presentMask and bit) == 0) null else (valueMask and bit) != 0
+        }
+
+        fun with(flag: Flag, value: Boolean, timestamp: Long): FlagOverrides {
+            val bit = flag.bit
+            val newValueMask = if (value) valueMask or bit else valueMask and bit.inv()
+            return FlagOverrides(presentMask or bit, newValueMask, timestamp)
+        }
+
+        fun without(flag: Flag): FlagOverrides {
+            val bit = flag.bit
+            return FlagOverrides(presentMask and bit.inv(), valueMask and bit.inv(), updatedAt)
+        }
+
+        private val Flag.bit: Int
+            get() = 1 shl ordinal
+
+        companion object {
+            val EMPTY = FlagOverrides(presentMask = 0, valueMask = 0, updatedAt = 0L)
+        }
+    }
+
+    companion object {
+        private const val DEFAULT_MAX_SIZE = 20_000
+        private const val DEFAULT_EXPIRY_MILLIS = 5 * 60 * 1000L
+        private const val EVICTION_TARGET_PERCENT = 75
+    }
+}
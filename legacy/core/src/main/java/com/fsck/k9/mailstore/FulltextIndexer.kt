@@ -0,0 +1,118 @@
+package com.fsck.k9.mailstore
+
+import androidx.annotation.VisibleForTesting
+import app.k9mail.legacy.account.Account
+import app.k9mail.legacy.account.AccountManager
+import app.k9mail.legacy.mailstore.MessageStoreManager
+import app.k9mail.legacy.message.controller.SimpleMessagingListener
+import com.fsck.k9.backend.BackendManager
+import com.fsck.k9.controller.ControllerExtension
+import com.fsck.k9.controller.ControllerExtension.ControllerInternals
+import com.fsck.k9.controller.MessagingController
+import com.fsck.k9.crypto.EncryptionExtractor
+import com.fsck.k9.message.extractors.MessageFulltextCreator
+import java.util.concurrent.ConcurrentHashMap
+import timber.log.Timber
+
+/**
+ * Adds messages to the full-text search index in the background.
+ *
+ * Saving a message only queues it for indexing. At app start and after a folder has been synchronized, this class
+ * works through the queue of the account in small batches, so other commands for the account don't have to wait for
+ * the whole queue to be processed. The queue is stored in the database, so indexing resumes where it left off after a
+ * restart.
+ */
+class FulltextIndexer(
+    private val accountManager: AccountManager,
+    private val messageStoreManager: MessageStoreManager,
+    private val localStoreProvider: LocalStoreProvider,
+    private val encryptionExtractor: EncryptionExtractor,
+    private val messageFulltextCreator: MessageFulltextCreator,
+) : ControllerExtension {
+    private val scheduledAccounts = ConcurrentHashMap.newKeySet<String>()
+    private lateinit var controllerInternals: ControllerInternals
+
+    override fun init(
+        controller: MessagingController,
+        backendManager: BackendManager,
+        controllerInternals: ControllerInternals,
+    ) {
+        this.controllerInternals = controllerInternals
+
+        controller.addListener(
+            object : SimpleMessagingListener() {
+                override fun synchronizeMailboxFinished(account: Account, folderId: Long) {
+                    scheduleIndexing(account)
+                }
+            },
+        )
+
+        // Don't wait for the next sync to index messages that were queued before the app was (re)started
+        for (account in accountManager.getAccounts()) {
+            scheduleIndexing(account)
+        }
+    }
+
+    fun scheduleIndexing(account: Account) {
+        if (scheduledAccounts.add(account.uuid)) {
+            controllerInternals.putBackground("indexMessages", account, null) {
+                indexNextBatch(account)
+            }
+        }
+    }
+
+    private fun indexNextBatch(account: Account) {
+        scheduledAccounts.remove(account.uuid)
+
+        val indexedMessageCount = try {
+            indexMessages(account, BATCH_SIZE)
+        } catch (e: Exception) {
+            Timber.e(e, "Error adding messages to full-text search index")
+            return
+        }
+
+        if (indexedMessageCount == BATCH_SIZE) {
+            scheduleIndexing(account)
+        }
+    }
+
+    /**
+     * Add up to [limit] messages waiting in the queue to the full-text search index.
+     *
+     * @return The number of messages that were processed.
+     */
+    @VisibleForTesting
+    internal fun indexMessages(account: Account, limit: Int): Int {
+        val messageStore = messageStoreManager.getMessageStore(account)
+        val messageIds = messageStore.getMessagesToIndex(limit)
+        if (messageIds.isEmpty()) return 0
+
+        val localStore = localStoreProvider.getInstance(account)
+        val entries = messageIds.associateWith { messageId ->
+            try {
+                localStore.loadLocalMessageByMessageId(messageId)?.let { message -> createFulltext(message) }
+            } catch (e: Exception) {
+                // Don't let a single broken message block the queue
+                Timber.w(e, "Error extracting text of message %d for full-text search index", messageId)
+                null
+            }
+        }
+
+        messageStore.saveFulltextEntries(entries)
+
+        return messageIds.size
+    }
+
+    private fun createFulltext(message: LocalMessage): String? {
+        val encryptionResult = encryptionExtractor.extractEncryption(message)
+        return if (encryptionResult != null) {
+            encryptionResult.textForSearchIndex
+        } else {
+            messageFulltextCreator.createFulltext(message)
+        }
+    }
+
+    companion object {
+        private const val BATCH_SIZE = 100
+    }
+}
@@ -79,6 +79,10 @@ class K9BackendFolder(
         return messageStore.getMessageFlags(folderId, messageServerId)
     }
 
+    override fun getMessageFlags(messageServerIds: Collection<String>): Map<String, Set<Flag>> {
+        return messageStore.getMessageFlags(folderId, messageServerIds)
+    }
+
     override fun setMessageFlag(messageServerId: String, flag: Flag, value: Boolean) {
         messageStore.setMessageFlag(folderId, messageServerId, flag, value)
     }
@@ -90,6 +94,15 @@ class K9BackendFolder(
         messageStore.saveRemoteMessage(folderId, message.uid, messageData)
     }
 
+    override fun saveMessages(messages: List<Message>, downloadState: MessageDownloadState) {
+        messages.forEach(::requireMessageServerId)
+
+        val messageData = messages.associate { message ->
+            message.uid to saveMessageDataCreator.createSaveMessageData(message, downloadState)
+        }
+        messageStore.saveRemoteMessages(folderId, messageData)
+    }
+
     override fun getOldestMessageDate(): Date? {
         return messageStore.getOldestMessageDate(folderId)
     }
@@ -14,7 +14,7 @@ val mailStoreModule = module {
             messageStoreManager = get(),
         )
     }
-    single { MessageViewInfoExtractorFactory(get(), get(), get()) }
+    single { MessageViewInfoExtractorFactory(get(), get(), get(), get()) }
     single<StorageFilesProviderFactory> { AndroidStorageFilesProviderFactory(context = get()) }
     single { SpecialFolderSelectionStrategy() }
     single {
@@ -36,9 +36,17 @@ val mailStoreModule = module {
         SaveMessageDataCreator(
             encryptionExtractor = get(),
             messagePreviewCreator = get(),
-            messageFulltextCreator = get(),
             attachmentCounter = get(),
         )
     }
+    single {
+        FulltextIndexer(
+            accountManager = get(),
+            messageStoreManager = get(),
+            localStoreProvider = get(),
+            encryptionExtractor = get(),
+            messageFulltextCreator = get(),
+        )
+    }
     single<MessageListRepository> { DefaultMessageListRepository(messageStoreManager = get()) }
 }
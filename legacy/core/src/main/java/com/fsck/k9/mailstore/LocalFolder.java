@@ -1069,6 +1069,7 @@ public class LocalFolder {
     void deleteFulltextIndexEntry(SQLiteDatabase db, long messageId) {
         String[] idArg = { Long.toString(messageId) };
         db.delete("messages_fulltext", "docid = ?", idArg);
+        db.delete("fulltext_queue", "message_id = ?", idArg);
     }
 
     void compactFulltextEntries(SQLiteDatabase db) {
@@ -4,6 +4,7 @@ package com.fsck.k9.mailstore;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Objects;
 
@@ -13,6 +14,7 @@ import android.database.sqlite.SQLiteDatabase;
 import androidx.annotation.VisibleForTesting;
 
 import app.k9mail.legacy.account.Account;
+import app.k9mail.legacy.mailstore.MessageListChange;
 import com.fsck.k9.K9;
 import app.k9mail.legacy.message.controller.MessageReference;
 import com.fsck.k9.mail.Address;
@@ -278,7 +280,8 @@ public class LocalMessage extends MimeMessage {
             }
         });
 
-        this.localStore.notifyChange();
+        this.localStore.notifyChange(
+                new MessageListChange(MessageListChange.Kind.FLAG, Collections.singleton(databaseId)));
     }
 
     /*
@@ -321,7 +324,8 @@ public class LocalMessage extends MimeMessage {
             }
         });
 
-        localStore.notifyChange();
+        localStore.notifyChange(
+                new MessageListChange(MessageListChange.Kind.DELETE, Collections.singleton(databaseId)));
     }
 
     public void debugClearLocalData() throws MessagingException {
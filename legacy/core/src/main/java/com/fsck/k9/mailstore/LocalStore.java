@@ -28,6 +28,7 @@ import android.text.TextUtils;
 import androidx.core.database.CursorKt;
 import app.k9mail.legacy.account.Account;
 import app.k9mail.legacy.di.DI;
+import app.k9mail.legacy.mailstore.MessageListChange;
 import app.k9mail.legacy.mailstore.MessageListRepository;
 import app.k9mail.legacy.mailstore.MoreMessages;
 import com.fsck.k9.Preferences;
@@ -187,7 +188,8 @@ public class LocalStore {
         RealMigrationsHelper migrationsHelper = new RealMigrationsHelper();
         SchemaDefinition schemaDefinition = schemaDefinitionFactory.createSchemaDefinition(migrationsHelper);
 
-        database = new LockableDatabase(context, storageFilesProvider, schemaDefinition);
+        database = new LockableDatabase(context, storageFilesProvider, schemaDefinition,
+                LockableDatabase.ExecutionMode.CONCURRENT_READS);
         database.open();
 
         Clock clock = DI.get(Clock.class);
@@ -325,6 +327,18 @@ public class LocalStore {
         });
     }
 
+    public void removePendingCommands(final List<PendingCommand> commands) throws MessagingException {
+        database.execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(final SQLiteDatabase db) {
+                for (PendingCommand command : commands) {
+                    db.delete("pending_commands", "id = ?", new String[] { Long.toString(command.databaseId) });
+                }
+                return null;
+            }
+        });
+    }
+
     public void removePendingCommands() throws MessagingException {
         database.execute(false, new DbCallback<Void>() {
             @Override
@@ -571,7 +585,7 @@ public class LocalStore {
     }
 
     @Nullable
-    private LocalMessage loadLocalMessageByMessageId(long messageId) throws MessagingException {
+    LocalMessage loadLocalMessageByMessageId(long messageId) throws MessagingException {
         Map<Long, List<String>> folderIdsAndUids = getFolderIdsAndUids(Collections.singletonList(messageId), false);
         if (folderIdsAndUids.isEmpty()) {
             return null;
@@ -705,8 +719,20 @@ public class LocalStore {
     }
 
     public void notifyChange() {
+        notifyChange(MessageListChange.STRUCTURAL);
+    }
+
+    public void notifyChange(MessageListChange change) {
+        MessageListRepository messageListRepository = DI.get(MessageListRepository.class);
+        messageListRepository.notifyMessageListChanged(account.getUuid(), change);
+    }
+
+    /**
+     * Returns {@code true} if anyone is interested in changes passed to {@link #notifyChange(MessageListChange)}.
+     */
+    public boolean hasChangeListeners() {
         MessageListRepository messageListRepository = DI.get(MessageListRepository.class);
-        messageListRepository.notifyMessageListChanged(account.getUuid());
+        return messageListRepository.hasListeners(account.getUuid());
     }
 
     /**
@@ -46,6 +46,19 @@ public class LockableDatabase {
         void doDbUpgrade(SQLiteDatabase db);
     }
 
+    public enum ExecutionMode {
+        /**
+         * Rollback journal with a single connection. Readers have to wait while a transaction is active.
+         */
+        SERIALIZED,
+
+        /**
+         * Write-ahead logging. Non-transactional callbacks that only read use one of several read-only connections
+         * and don't have to wait for an active transaction. All writes still go through a single connection.
+         */
+        CONCURRENT_READS
+    }
+
     private SQLiteDatabase mDb;
     /**
      * Reentrant read lock
@@ -75,12 +88,19 @@ public class LockableDatabase {
     private ThreadLocal<Boolean> inTransaction = new ThreadLocal<>();
 
     private SchemaDefinition mSchemaDefinition;
+    private final ExecutionMode executionMode;
 
     public LockableDatabase(Context context, StorageFilesProvider storageFilesProvider,
             SchemaDefinition schemaDefinition) {
+        this(context, storageFilesProvider, schemaDefinition, ExecutionMode.SERIALIZED);
+    }
+
+    public LockableDatabase(Context context, StorageFilesProvider storageFilesProvider,
+            SchemaDefinition schemaDefinition, ExecutionMode executionMode) {
         this.context = context;
         this.storageFilesProvider = storageFilesProvider;
         this.mSchemaDefinition = schemaDefinition;
+        this.executionMode = executionMode;
     }
 
     /**
@@ -198,8 +218,16 @@ public class LockableDatabase {
                 doOpenOrCreateDb(databaseFile);
             }
 
+            if (executionMode == ExecutionMode.CONCURRENT_READS && !mDb.enableWriteAheadLogging()) {
+                Timber.w("Unable to enable write-ahead logging for %s", databaseFile);
+            }
+
             mDb.execSQL("PRAGMA foreign_keys = ON;");
 
+            // Saving a message uses more distinct statements than fit into the default statement cache. A larger cache
+            // avoids compiling them again for every message when saving messages in a batch.
+            mDb.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+
             if (mDb.getVersion() != mSchemaDefinition.getVersion()) {
                 mSchemaDefinition.doDbUpgrade(mDb);
             }
@@ -26,7 +26,9 @@ import com.fsck.k9.mail.internet.MimeUtility;
 import com.fsck.k9.mail.internet.Viewable;
 import com.fsck.k9.mailstore.CryptoResultAnnotation.CryptoError;
 import com.fsck.k9.message.extractors.AttachmentInfoExtractor;
+import com.fsck.k9.message.html.DisplayHtmlCache;
 import com.fsck.k9.message.html.HtmlConverter;
+import com.fsck.k9.message.html.HtmlSettings;
 import app.k9mail.html.cleaner.HtmlProcessor;
 import org.openintents.openpgp.util.OpenPgpUtils;
 import timber.log.Timber;
@@ -51,13 +53,25 @@ public class MessageViewInfoExtractor {
     private final AttachmentInfoExtractor attachmentInfoExtractor;
     private final HtmlProcessor htmlProcessor;
     private final CoreResourceProvider resourceProvider;
+    @Nullable
+    private final DisplayHtmlCache displayHtmlCache;
+    @Nullable
+    private final HtmlSettings htmlSettings;
 
 
     MessageViewInfoExtractor(AttachmentInfoExtractor attachmentInfoExtractor, HtmlProcessor htmlProcessor,
             CoreResourceProvider resourceProvider) {
+        this(attachmentInfoExtractor, htmlProcessor, resourceProvider, null, null);
+    }
+
+    MessageViewInfoExtractor(AttachmentInfoExtractor attachmentInfoExtractor, HtmlProcessor htmlProcessor,
+            CoreResourceProvider resourceProvider, @Nullable DisplayHtmlCache displayHtmlCache,
+            @Nullable HtmlSettings htmlSettings) {
         this.attachmentInfoExtractor = attachmentInfoExtractor;
         this.htmlProcessor = htmlProcessor;
         this.resourceProvider = resourceProvider;
+        this.displayHtmlCache = displayHtmlCache;
+        this.htmlSettings = htmlSettings;
     }
 
     @WorkerThread
@@ -243,7 +257,7 @@ public class MessageViewInfoExtractor {
                 }
             }
 
-            String sanitizedHtml = htmlProcessor.processForDisplay(html.toString());
+            String sanitizedHtml = sanitizeHtml(html.toString());
 
             return new ViewableExtractedText(text.toString(), sanitizedHtml);
         } catch (Exception e) {
@@ -251,6 +265,14 @@ public class MessageViewInfoExtractor {
         }
     }
 
+    private String sanitizeHtml(String html) {
+        if (displayHtmlCache == null || htmlSettings == null) {
+            return htmlProcessor.processForDisplay(html);
+        }
+
+        return displayHtmlCache.getOrPut(html, htmlSettings, htmlProcessor::processForDisplay);
+    }
+
     /**
      * Use the contents of a {@link com.fsck.k9.mail.internet.Viewable} to create the HTML to be displayed.
      *
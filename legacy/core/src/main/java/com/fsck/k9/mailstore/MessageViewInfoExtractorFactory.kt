@@ -2,6 +2,7 @@ package com.fsck.k9.mailstore
 
 import com.fsck.k9.CoreResourceProvider
 import com.fsck.k9.message.extractors.AttachmentInfoExtractor
+import com.fsck.k9.message.html.DisplayHtmlCache
 import com.fsck.k9.message.html.HtmlProcessorFactory
 import com.fsck.k9.message.html.HtmlSettings
 
@@ -9,9 +10,16 @@ class MessageViewInfoExtractorFactory(
     private val attachmentInfoExtractor: AttachmentInfoExtractor,
     private val htmlProcessorFactory: HtmlProcessorFactory,
     private val resourceProvider: CoreResourceProvider,
+    private val displayHtmlCache: DisplayHtmlCache,
 ) {
     fun create(settings: HtmlSettings): MessageViewInfoExtractor {
         val htmlProcessor = htmlProcessorFactory.create(settings)
-        return MessageViewInfoExtractor(attachmentInfoExtractor, htmlProcessor, resourceProvider)
+        return MessageViewInfoExtractor(
+            attachmentInfoExtractor,
+            htmlProcessor,
+            resourceProvider,
+            displayHtmlCache,
+            settings,
+        )
     }
 }
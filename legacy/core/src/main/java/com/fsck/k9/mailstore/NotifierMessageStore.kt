@@ -1,5 +1,7 @@
 package com.fsck.k9.mailstore
 
+import app.k9mail.legacy.mailstore.MessageListChange
+import app.k9mail.legacy.mailstore.MessageListChange.Kind
 import app.k9mail.legacy.mailstore.MessageStore
 import app.k9mail.legacy.mailstore.MoreMessages
 import app.k9mail.legacy.mailstore.SaveMessageData
@@ -7,6 +9,10 @@ import com.fsck.k9.mail.Flag
 
 /**
  * [MessageStore] wrapper that triggers notifications on certain changes to the message store.
+ *
+ * Where possible the notifications include the IDs of the affected messages, so message lists can be updated
+ * incrementally. Looking up the IDs of messages identified by server ID costs an extra query, so it is skipped when
+ * nobody listens for changes.
  */
 class NotifierMessageStore(
     private val messageStore: MessageStore,
@@ -15,58 +21,78 @@ class NotifierMessageStore(
 
     override fun saveRemoteMessage(folderId: Long, messageServerId: String, messageData: SaveMessageData) {
         messageStore.saveRemoteMessage(folderId, messageServerId, messageData)
-        notifyChange()
+        notifyChange(Kind.INSERT, folderId, listOf(messageServerId))
+    }
+
+    override fun saveRemoteMessages(folderId: Long, messages: Map<String, SaveMessageData>) {
+        messageStore.saveRemoteMessages(folderId, messages)
+        notifyChange(Kind.INSERT, folderId, messages.keys)
     }
 
     override fun saveLocalMessage(folderId: Long, messageData: SaveMessageData, existingMessageId: Long?): Long {
-        return messageStore.saveLocalMessage(folderId, messageData, existingMessageId).also {
-            notifyChange()
+        return messageStore.saveLocalMessage(folderId, messageData, existingMessageId).also { messageId ->
+            notifyChange(MessageListChange(Kind.INSERT, setOfNotNull(messageId, existingMessageId)))
         }
     }
 
     override fun copyMessage(messageId: Long, destinationFolderId: Long): Long {
-        return messageStore.copyMessage(messageId, destinationFolderId).also {
-            notifyChange()
+        return messageStore.copyMessage(messageId, destinationFolderId).also { newMessageId ->
+            notifyChange(MessageListChange(Kind.INSERT, setOf(newMessageId)))
         }
     }
 
     override fun moveMessage(messageId: Long, destinationFolderId: Long): Long {
-        return messageStore.moveMessage(messageId, destinationFolderId).also {
-            notifyChange()
+        return messageStore.moveMessage(messageId, destinationFolderId).also { newMessageId ->
+            notifyChange(MessageListChange(Kind.MOVE, setOf(messageId, newMessageId)))
         }
     }
 
     override fun setFlag(messageIds: Collection<Long>, flag: Flag, set: Boolean) {
         messageStore.setFlag(messageIds, flag, set)
-        notifyChange()
+        notifyChange(MessageListChange(Kind.FLAG, messageIds.toSet()))
     }
 
     override fun setMessageFlag(folderId: Long, messageServerId: String, flag: Flag, set: Boolean) {
         messageStore.setMessageFlag(folderId, messageServerId, flag, set)
-        notifyChange()
+        notifyChange(Kind.FLAG, folderId, listOf(messageServerId))
     }
 
     override fun setNewMessageState(folderId: Long, messageServerId: String, newMessage: Boolean) {
         messageStore.setNewMessageState(folderId, messageServerId, newMessage)
-        notifyChange()
+        notifyChange(Kind.FLAG, folderId, listOf(messageServerId))
     }
 
     override fun clearNewMessageState() {
         messageStore.clearNewMessageState()
-        notifyChange()
+        notifyChange(MessageListChange.STRUCTURAL)
     }
 
     override fun destroyMessages(folderId: Long, messageServerIds: Collection<String>) {
+        if (!localStore.hasChangeListeners()) {
+            messageStore.destroyMessages(folderId, messageServerIds)
+            return
+        }
+
+        // The database IDs are no longer available after the messages have been destroyed
+        val messageIds = messageStore.getMessageIds(folderId, messageServerIds).values.toSet()
+
         messageStore.destroyMessages(folderId, messageServerIds)
-        notifyChange()
+        notifyChange(MessageListChange(Kind.DELETE, messageIds))
     }
 
     override fun setMoreMessages(folderId: Long, moreMessages: MoreMessages) {
         messageStore.setMoreMessages(folderId, moreMessages)
-        notifyChange()
+        notifyChange(MessageListChange.STRUCTURAL)
+    }
+
+    private fun notifyChange(kind: Kind, folderId: Long, messageServerIds: Collection<String>) {
+        if (!localStore.hasChangeListeners()) return
+
+        val messageIds = messageStore.getMessageIds(folderId, messageServerIds).values.toSet()
+        notifyChange(MessageListChange(kind, messageIds))
     }
 
-    private fun notifyChange() {
-        localStore.notifyChange()
+    private fun notifyChange(change: MessageListChange) {
+        localStore.notifyChange(change)
     }
 }
@@ -5,13 +5,11 @@ import com.fsck.k9.crypto.EncryptionExtractor
 import com.fsck.k9.mail.Message
 import com.fsck.k9.mail.MessageDownloadState
 import com.fsck.k9.message.extractors.AttachmentCounter
-import com.fsck.k9.message.extractors.MessageFulltextCreator
 import com.fsck.k9.message.extractors.MessagePreviewCreator
 
 class SaveMessageDataCreator(
     private val encryptionExtractor: EncryptionExtractor,
     private val messagePreviewCreator: MessagePreviewCreator,
-    private val messageFulltextCreator: MessageFulltextCreator,
     private val attachmentCounter: AttachmentCounter,
 ) {
     fun createSaveMessageData(
@@ -46,7 +44,8 @@ class SaveMessageDataCreator(
                 downloadState = downloadState,
                 attachmentCount = attachmentCounter.getAttachmentCount(message),
                 previewResult = messagePreviewCreator.createPreview(message),
-                textForSearchIndex = messageFulltextCreator.createFulltext(message),
+                // The message will be added to the full-text search index in the background by FulltextIndexer
+                textForSearchIndex = null,
                 encryptionType = null,
             )
         }
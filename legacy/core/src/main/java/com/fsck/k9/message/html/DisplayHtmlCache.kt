@@ -0,0 +1,57 @@
+package com.fsck.k9.message.html
+
+import android.util.LruCache
+import app.k9mail.legacy.account.AccountManager
+import okio.ByteString.Companion.encodeUtf8
+
+private const val DEFAULT_MAX_CACHE_SIZE = 4 * 1024 * 1024
+
+/**
+ * Caches the sanitized HTML that is displayed for a message.
+ *
+ * Sanitizing large HTML messages is expensive. Opening the same message again, e.g. when swiping back to it, can
+ * reuse the result of the last run.
+ *
+ * Entries are keyed by a digest of the unsanitized HTML and the [HtmlSettings] used to render it. So when the message
+ * body changes, e.g. because the complete message was downloaded, the old entry is simply no longer used.
+ *
+ * Entries are only kept in memory. Since the key isn't tied to a message, entries couldn't be removed from a disk
+ * cache when a message is deleted. The cache is cleared when an account is removed.
+ */
+class DisplayHtmlCache(
+    accountManager: AccountManager,
+    maxCacheSize: Int = DEFAULT_MAX_CACHE_SIZE,
+) {
+    private val cache = object : LruCache<String, String>(maxCacheSize) {
+        override fun sizeOf(key: String, value: String): Int = value.length * Char.SIZE_BYTES
+    }
+
+    init {
+        accountManager.addAccountRemovedListener {
+            clear()
+        }
+    }
+
+    /**
+     * Returns the sanitized HTML for [html] if it's in the cache. Otherwise [sanitize] is called and the result is
+     * added to the cache.
+     */
+    fun getOrPut(html: String, settings: HtmlSettings, sanitize: (String) -> String): String {
+        val key = createKey(html, settings)
+
+        cache.get(key)?.let { return it }
+
+        return sanitize(html).also { sanitizedHtml ->
+            cache.put(key, sanitizedHtml)
+        }
+    }
+
+    fun clear() {
+        cache.evictAll()
+    }
+
+    private fun createKey(html: String, settings: HtmlSettings): String {
+        val htmlDigest = html.encodeUtf8().sha256().hex()
+        return "${settings.useDarkMode}:${settings.useFixedWidthFont}:$htmlDigest"
+    }
+}
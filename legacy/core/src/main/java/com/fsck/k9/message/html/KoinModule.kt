@@ -5,4 +5,5 @@ import org.koin.dsl.module
 val htmlModule = module {
     single { HtmlProcessorFactory(displayHtmlFactory = get()) }
     single { DisplayHtmlFactory() }
+    single { DisplayHtmlCache(accountManager = get()) }
 }
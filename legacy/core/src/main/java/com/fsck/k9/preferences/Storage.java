@@ -2,12 +2,15 @@ package com.fsck.k9.preferences;
 
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import timber.log.Timber;
 
 public class Storage {
     private final Map<String, String> values;
+    private Map<String, Map<String, String>> valuesByKeyPrefix;
 
     public Storage(Map<String, String> values) {
         this.values = Collections.unmodifiableMap(values);
@@ -25,6 +28,42 @@ public class Storage {
         return values;
     }
 
+    /**
+     * Returns all values whose key starts with {@code prefix + "."}, e.g. all settings of an account.
+     *
+     * <p>{@code prefix} must not contain a dot. The values are grouped once per {@link Storage} instance, so repeated
+     * calls are cheap.</p>
+     */
+    public synchronized Map<String, String> getValuesWithKeyPrefix(String prefix) {
+        if (valuesByKeyPrefix == null) {
+            valuesByKeyPrefix = groupValuesByKeyPrefix();
+        }
+
+        Map<String, String> prefixValues = valuesByKeyPrefix.get(prefix);
+        return prefixValues != null ? prefixValues : Collections.<String, String>emptyMap();
+    }
+
+    private Map<String, Map<String, String>> groupValuesByKeyPrefix() {
+        Map<String, Map<String, String>> groupedValues = new HashMap<>();
+        for (Entry<String, String> entry : values.entrySet()) {
+            String key = entry.getKey();
+            int dotIndex = key.indexOf('.');
+            if (dotIndex == -1) {
+                continue;
+            }
+
+            String prefix = key.substring(0, dotIndex);
+            Map<String, String> prefixValues = groupedValues.get(prefix);
+            if (prefixValues == null) {
+                prefixValues = new HashMap<>();
+                groupedValues.put(prefix, prefixValues);
+            }
+            prefixValues.put(key, entry.getValue());
+        }
+
+        return groupedValues;
+    }
+
     public boolean getBoolean(String key, boolean defValue) {
         String val = values.get(key);
         if (val == null) {
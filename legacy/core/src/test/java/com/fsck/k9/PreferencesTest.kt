@@ -1,6 +1,7 @@
 package com.fsck.k9
 
 import assertk.assertThat
+import assertk.assertions.isEqualTo
 import assertk.assertions.isSameInstanceAs
 import com.fsck.k9.mail.AuthType
 import com.fsck.k9.mail.ConnectionSecurity
@@ -9,19 +10,24 @@ import com.fsck.k9.preferences.InMemoryStoragePersister
 import kotlin.test.Test
 import org.junit.Before
 import org.mockito.kotlin.any
+import org.mockito.kotlin.clearInvocations
 import org.mockito.kotlin.doReturn
 import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
 
 class PreferencesTest {
+    private val serverSettingsSerializer = mock<ServerSettingsSerializer> {
+        on { serialize(any()) } doReturn ""
+        on { deserialize(any()) } doReturn SERVER_SETTINGS
+    }
     private val preferences = Preferences(
         storagePersister = InMemoryStoragePersister(),
         localStoreProvider = mock(),
         accountPreferenceSerializer = AccountPreferenceSerializer(
             resourceProvider = mock(),
-            serverSettingsSerializer = mock {
-                on { serialize(any()) } doReturn ""
-                on { deserialize(any()) } doReturn SERVER_SETTINGS
-            },
+            serverSettingsSerializer = serverSettingsSerializer,
         ),
     )
 
@@ -43,6 +49,49 @@ class PreferencesTest {
         assertThat(firstAccountTwo).isSameInstanceAs(firstAccountOne)
     }
 
+    @Test
+    fun `loading accounts should parse server settings on first access`() {
+        createAccount(ACCOUNT_UUID_ONE)
+        createAccount(ACCOUNT_UUID_TWO)
+        preferences.clearAccounts()
+        clearInvocations(serverSettingsSerializer)
+
+        preferences.loadAccounts()
+
+        verify(serverSettingsSerializer, never()).deserialize(any())
+
+        val incomingServerSettings = preferences.getAccount(ACCOUNT_UUID_ONE)!!.incomingServerSettings
+
+        assertThat(incomingServerSettings).isEqualTo(SERVER_SETTINGS)
+        verify(serverSettingsSerializer, times(1)).deserialize(any())
+    }
+
+    @Test
+    fun `reloading accounts should keep unsaved changes of accounts that are unchanged in storage`() {
+        createAccount(ACCOUNT_UUID_ONE)
+        val account = preferences.getAccount(ACCOUNT_UUID_ONE)!!
+        account.name = "Unsaved name"
+
+        preferences.loadAccounts()
+
+        assertThat(preferences.getAccount(ACCOUNT_UUID_ONE)!!.name).isEqualTo("Unsaved name")
+    }
+
+    @Test
+    fun `reloading accounts should load accounts that changed in storage`() {
+        createAccount(ACCOUNT_UUID_ONE)
+        val account = preferences.getAccount(ACCOUNT_UUID_ONE)!!
+        account.name = "Unsaved name"
+        preferences.createStorageEditor()
+            .putString("$ACCOUNT_UUID_ONE.description", "Stored name")
+            .commit()
+
+        preferences.loadAccounts()
+
+        assertThat(preferences.getAccount(ACCOUNT_UUID_ONE)).isSameInstanceAs(account)
+        assertThat(account.name).isEqualTo("Stored name")
+    }
+
     private fun createAccount(accountUuid: String) {
         val account = preferences.newAccount(accountUuid).apply {
             // To be able to persist `Account` we need to set server settings
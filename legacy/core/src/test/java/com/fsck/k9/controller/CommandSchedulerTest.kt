@@ -0,0 +1,85 @@
+package com.fsck.k9.controller
+
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEqualTo
+import assertk.assertions.isTrue
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import org.junit.After
+import org.junit.Test
+
+private const val TIMEOUT_SECONDS = 5L
+
+class CommandSchedulerTest {
+    private val scheduler = CommandScheduler(executor = Executors.newFixedThreadPool(2))
+
+    @After
+    fun tearDown() {
+        scheduler.stop(timeoutMillis = 1000L)
+    }
+
+    @Test
+    fun `commands in the same lane should run foreground first and otherwise in submission order`() {
+        val executedCommands = Collections.synchronizedList(mutableListOf<String>())
+        val blockLane = CountDownLatch(1)
+        val done = CountDownLatch(1)
+
+        scheduler.schedule("account", "blocking", isForeground = false) { blockLane.await() }
+        scheduler.schedule("account", "background 1", isForeground = false) { executedCommands.add("background 1") }
+        scheduler.schedule("account", "foreground", isForeground = true) { executedCommands.add("foreground") }
+        scheduler.schedule("account", "background 2", isForeground = false) {
+            executedCommands.add("background 2")
+            done.countDown()
+        }
+        blockLane.countDown()
+
+        assertThat(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        assertThat(executedCommands).containsExactly("foreground", "background 1", "background 2")
+    }
+
+    @Test
+    fun `blocked lane should not delay commands of another lane`() {
+        val blockLane = CountDownLatch(1)
+        val otherLaneDone = CountDownLatch(1)
+
+        scheduler.schedule("slow", "blocking", isForeground = true) { blockLane.await() }
+        scheduler.schedule("slow", "queued", isForeground = true) {}
+        scheduler.schedule("fast", "command", isForeground = false) { otherLaneDone.countDown() }
+
+        try {
+            assertThat(otherLaneDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        } finally {
+            blockLane.countDown()
+        }
+    }
+
+    @Test
+    fun `lane should be removed after running all of its commands`() {
+        val blockLane = CountDownLatch(1)
+        val done = CountDownLatch(1)
+
+        scheduler.schedule("account", "blocking", isForeground = false) { blockLane.await() }
+        scheduler.schedule("account", "command", isForeground = false) { done.countDown() }
+        assertThat(scheduler.laneCount).isEqualTo(1)
+        blockLane.countDown()
+
+        assertThat(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        scheduler.stop(timeoutMillis = 1000L)
+        assertThat(scheduler.laneCount).isEqualTo(0)
+    }
+
+    @Test
+    fun `command scheduled after lane was removed should run`() {
+        val firstDone = CountDownLatch(1)
+        val secondDone = CountDownLatch(1)
+
+        scheduler.schedule("account", "first", isForeground = false) { firstDone.countDown() }
+        assertThat(firstDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        scheduler.schedule("account", "second", isForeground = false) { secondDone.countDown() }
+
+        assertThat(secondDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+    }
+}
@@ -0,0 +1,213 @@
+package com.fsck.k9.controller
+
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEqualTo
+import assertk.assertions.isTrue
+import assertk.assertions.single
+import com.fsck.k9.controller.FolderSyncOrchestrator.SyncFolder
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import org.junit.After
+import org.junit.Test
+
+private const val ACCOUNT_UUID = "account"
+private const val TIMEOUT_SECONDS = 5L
+
+class FolderSyncOrchestratorTest {
+    private val now = AtomicLong(0L)
+    private val executor = Executors.newCachedThreadPool()
+    private val orchestrator = FolderSyncOrchestrator(executor, clock = { now.get() })
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun `inbox should be synchronized first, followed by folders with new messages`() {
+        val syncedFolders = mutableListOf<String>()
+        orchestrator.onNewMessages(ACCOUNT_UUID, "Archive")
+        now.set(1000L)
+        orchestrator.onNewMessages(ACCOUNT_UUID, "Lists")
+
+        syncFoldersAndWait(
+            folders = listOf(folder(1, "Archive"), folder(2, "Drafts"), folder(3, "Lists"), inbox(4)),
+            connectionBudget = 1,
+            progressListener = { _, _, _ -> },
+            synchronizer = { folder -> syncedFolders.add(folder.serverId) },
+        )
+
+        assertThat(syncedFolders).containsExactly("INBOX", "Lists", "Archive", "Drafts")
+    }
+
+    @Test
+    fun `folders should be synchronized concurrently`() {
+        val allFoldersStarted = CountDownLatch(3)
+
+        syncFoldersAndWait(
+            folders = listOf(inbox(1), folder(2, "Sent"), folder(3, "Lists")),
+            connectionBudget = 3,
+            progressListener = { _, _, _ -> },
+            synchronizer = {
+                allFoldersStarted.countDown()
+                allFoldersStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            },
+        )
+
+        assertThat(allFoldersStarted.count).isEqualTo(0L)
+    }
+
+    @Test
+    fun `number of concurrent folder syncs should not exceed connection budget`() {
+        val runningSyncs = AtomicInteger(0)
+        val maxRunningSyncs = AtomicInteger(0)
+
+        syncFoldersAndWait(
+            folders = List(10) { index -> folder(index.toLong(), "Folder $index") },
+            connectionBudget = 2,
+            progressListener = { _, _, _ -> },
+            synchronizer = {
+                maxRunningSyncs.accumulateAndGet(runningSyncs.incrementAndGet()) { a, b -> maxOf(a, b) }
+                Thread.sleep(10)
+                runningSyncs.decrementAndGet()
+            },
+        )
+
+        assertThat(maxRunningSyncs.get() <= 2).isTrue()
+    }
+
+    @Test
+    fun `progress should be reported for each folder`() {
+        val progress = Collections.synchronizedList(mutableListOf<Pair<Int, Int>>())
+
+        syncFoldersAndWait(
+            folders = listOf(inbox(1), folder(2, "Sent"), folder(3, "Lists")),
+            connectionBudget = 2,
+            progressListener = { _, completed, total -> progress.add(completed to total) },
+            synchronizer = {},
+        )
+
+        assertThat(progress.sortedBy { it.first }).containsExactly(1 to 3, 2 to 3, 3 to 3)
+    }
+
+    @Test
+    fun `failing folder sync should not stop sync of other folders`() {
+        val syncedFolders = Collections.synchronizedList(mutableListOf<String>())
+
+        syncFoldersAndWait(
+            folders = listOf(inbox(1), folder(2, "Sent")),
+            connectionBudget = 1,
+            progressListener = { _, _, _ -> },
+            synchronizer = { folder ->
+                if (folder.isInbox) error("Sync failed")
+                syncedFolders.add(folder.serverId)
+            },
+        )
+
+        assertThat(syncedFolders).containsExactly("Sent")
+    }
+
+    @Test
+    fun `wall time of sync should be recorded`() {
+        syncFoldersAndWait(
+            folders = listOf(inbox(1), folder(2, "Sent")),
+            connectionBudget = 1,
+            progressListener = { _, _, _ -> },
+            synchronizer = { now.addAndGet(100L) },
+        )
+
+        assertThat(orchestrator.getStatistics()).single().isEqualTo(
+            AccountSyncStatistics(
+                accountUuid = ACCOUNT_UUID,
+                folderCount = 2,
+                connectionBudget = 1,
+                wallTimeMillis = 200L,
+                totalFolderSyncTimeMillis = 200L,
+            ),
+        )
+    }
+
+    @Test
+    fun `syncFolders() should return before folders are synchronized`() {
+        val syncStarted = CountDownLatch(1)
+        val continueSync = CountDownLatch(1)
+        val syncFinished = CountDownLatch(1)
+
+        orchestrator.syncFolders(
+            ACCOUNT_UUID,
+            folders = listOf(inbox(1)),
+            connectionBudget = 1,
+            progressListener = { _, _, _ -> },
+            synchronizer = {
+                syncStarted.countDown()
+                continueSync.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            },
+            onFinished = { syncFinished.countDown() },
+        )
+
+        assertThat(syncStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        assertThat(syncFinished.count).isEqualTo(1L)
+
+        continueSync.countDown()
+
+        assertThat(syncFinished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+    }
+
+    @Test
+    fun `syncFolders() should skip account whose folders are already being synchronized`() {
+        val continueSync = CountDownLatch(1)
+        val firstSyncFinished = CountDownLatch(1)
+        val syncedFolders = Collections.synchronizedList(mutableListOf<String>())
+        orchestrator.syncFolders(
+            ACCOUNT_UUID,
+            folders = listOf(inbox(1)),
+            connectionBudget = 1,
+            progressListener = { _, _, _ -> },
+            synchronizer = { folder ->
+                continueSync.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                syncedFolders.add(folder.serverId)
+            },
+            onFinished = { firstSyncFinished.countDown() },
+        )
+
+        syncFoldersAndWait(
+            folders = listOf(folder(2, "Sent")),
+            connectionBudget = 1,
+            progressListener = { _, _, _ -> },
+            synchronizer = { folder -> syncedFolders.add(folder.serverId) },
+        )
+        continueSync.countDown()
+
+        assertThat(firstSyncFinished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        assertThat(syncedFolders).containsExactly("INBOX")
+    }
+
+    private fun syncFoldersAndWait(
+        folders: List<SyncFolder>,
+        connectionBudget: Int,
+        progressListener: FolderSyncOrchestrator.ProgressListener,
+        synchronizer: FolderSyncOrchestrator.FolderSynchronizer,
+    ) {
+        val syncFinished = CountDownLatch(1)
+
+        orchestrator.syncFolders(
+            ACCOUNT_UUID,
+            folders,
+            connectionBudget,
+            progressListener,
+            synchronizer,
+            onFinished = { syncFinished.countDown() },
+        )
+
+        assertThat(syncFinished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+    }
+
+    private fun inbox(databaseId: Long) = SyncFolder(databaseId, "INBOX", isInbox = true)
+
+    private fun folder(databaseId: Long, serverId: String) = SyncFolder(databaseId, serverId, isInbox = false)
+}
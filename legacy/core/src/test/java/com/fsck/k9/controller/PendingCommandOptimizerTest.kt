@@ -0,0 +1,237 @@
+package com.fsck.k9.controller
+
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.hasSize
+import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand
+import com.fsck.k9.controller.MessagingControllerCommands.PendingDelete
+import com.fsck.k9.controller.MessagingControllerCommands.PendingMoveAndMarkAsRead
+import com.fsck.k9.controller.MessagingControllerCommands.PendingMoveOrCopy
+import com.fsck.k9.controller.MessagingControllerCommands.PendingSetFlag
+import org.junit.Test
+
+class PendingCommandOptimizerTest {
+    private val optimizer = PendingCommandOptimizer()
+
+    @Test
+    fun `set flag commands for the same folder, flag, and state should be merged`() {
+        val commands = commandLog(
+            """set_flag {"folderId":1,"newState":true,"flag":"SEEN","uids":["a"]}""",
+            """set_flag {"folderId":1,"newState":true,"flag":"FLAGGED","uids":["c"]}""",
+            """set_flag {"folderId":1,"newState":true,"flag":"SEEN","uids":["b"]}""",
+        )
+
+        val batches = optimizer.optimize(commands)
+
+        assertThat(batches.describe()).containsExactly(
+            "set_flag(1, SEEN, true, [a, b]) <- [1, 3]",
+            "set_flag(1, FLAGGED, true, [c]) <- [2]",
+        )
+    }
+
+    @Test
+    fun `only the last flag change of a message should be kept`() {
+        val commands = commandLog(
+            """set_flag {"folderId":1,"newState":true,"flag":"SEEN","uids":["a","b"]}""",
+            """set_flag {"folderId":1,"newState":false,"flag":"SEEN","uids":["a"]}""",
+            """set_flag {"folderId":1,"newState":true,"flag":"SEEN","uids":["c"]}""",
+        )
+
+        val batches = optimizer.optimize(commands)
+
+        assertThat(batches.describe()).containsExactly(
+            "set_flag(1, SEEN, true, [b, c]) <- [1, 3]",
+            "set_flag(1, SEEN, false, [a]) <- [2]",
+        )
+    }
+
+    @Test
+    fun `flag changes of messages that are deleted later should be dropped`() {
+        val commands = commandLog(
+            """set_flag {"folderId":1,"newState":true,"flag":"SEEN","uids":["a"]}""",
+            """set_flag {"folderId":1,"newState":true,"flag":"FLAGGED","uids":["a","b"]}""",
+            """delete {"folderId":1,"uids":["a"]}""",
+        )
+
+        val batches = optimizer.optimize(commands)
+
+        assertThat(batches.describe()).containsExactly(
+            "nothing <- [1]",
+            "set_flag(1, FLAGGED, true, [b]) <- [2]",
+            "delete(1, [a]) <- [3]",
+        )
+    }
+
+    @Test
+    fun `commands affecting the same folder should prevent merging`() {
+        val commands = commandLog(
+            """set_flag {"folderId":1,"newState":true,"flag":"SEEN","uids":["a"]}""",
+            """expunge {"folderId":1}""",
+            """set_flag {"folderId":1,"newState":true,"flag":"SEEN","uids":["b"]}""",
+        )
+
+        val batches = optimizer.optimize(commands)
+
+        assertThat(batches.describe()).containsExactly(
+            "set_flag(1, SEEN, true, [a]) <- [1]",
+            "expunge <- [2]",
+            "set_flag(1, SEEN, true, [b]) <- [3]",
+        )
+    }
+
+    @Test
+    fun `commands affecting other folders should not prevent merging`() {
+        val commands = commandLog(
+            """set_flag {"folderId":1,"newState":true,"flag":"SEEN","uids":["a"]}""",
+            """expunge {"folderId":2}""",
+            """set_flag {"folderId":1,"newState":true,"flag":"SEEN","uids":["b"]}""",
+        )
+
+        val batches = optimizer.optimize(commands)
+
+        assertThat(batches.describe()).containsExactly(
+            "set_flag(1, SEEN, true, [a, b]) <- [1, 3]",
+            "expunge <- [2]",
+        )
+    }
+
+    @Test
+    fun `moves interleaved with copies between the same folders should not be merged`() {
+        val commands = commandLog(
+            """move_or_copy {"srcFolderId":1,"destFolderId":2,"isCopy":false,"newUidMap":{"a":"K9LOCAL:1"}}""",
+            """move_or_copy {"srcFolderId":1,"destFolderId":2,"isCopy":true,"newUidMap":{"b":"K9LOCAL:2"}}""",
+            """move_or_copy {"srcFolderId":1,"destFolderId":2,"isCopy":false,"newUidMap":{"c":"K9LOCAL:3"}}""",
+        )
+
+        val batches = optimizer.optimize(commands)
+
+        assertThat(batches.describe()).containsExactly(
+            "move(1 -> 2, {a=K9LOCAL:1}) <- [1]",
+            "copy(1 -> 2, {b=K9LOCAL:2}) <- [2]",
+            "move(1 -> 2, {c=K9LOCAL:3}) <- [3]",
+        )
+    }
+
+    @Test
+    fun `consecutive moves should be merged`() {
+        val commands = commandLog(
+            """move_or_copy {"srcFolderId":1,"destFolderId":2,"isCopy":false,"newUidMap":{"a":"K9LOCAL:1"}}""",
+            """move_or_copy {"srcFolderId":1,"destFolderId":2,"isCopy":false,"newUidMap":{"b":"K9LOCAL:2"}}""",
+            """move_and_mark_as_read {"srcFolderId":3,"destFolderId":4,"newUidMap":{"c":"K9LOCAL:3"}}""",
+            """move_and_mark_as_read {"srcFolderId":3,"destFolderId":4,"newUidMap":{"d":"K9LOCAL:4"}}""",
+        )
+
+        val batches = optimizer.optimize(commands)
+
+        assertThat(batches.describe()).containsExactly(
+            "move(1 -> 2, {a=K9LOCAL:1, b=K9LOCAL:2}) <- [1, 2]",
+            "move_and_mark_as_read(3 -> 4, {c=K9LOCAL:3, d=K9LOCAL:4}) <- [3, 4]",
+        )
+    }
+
+    @Test
+    fun `moves should prevent merging flag changes in source and destination folder`() {
+        val commands = commandLog(
+            """set_flag {"folderId":2,"newState":true,"flag":"SEEN","uids":["x"]}""",
+            """move_or_copy {"srcFolderId":1,"destFolderId":2,"isCopy":false,"newUidMap":{"a":"K9LOCAL:1"}}""",
+            """set_flag {"folderId":2,"newState":true,"flag":"SEEN","uids":["y"]}""",
+        )
+
+        val batches = optimizer.optimize(commands)
+
+        assertThat(batches.describe()).containsExactly(
+            "set_flag(2, SEEN, true, [x]) <- [1]",
+            "move(1 -> 2, {a=K9LOCAL:1}) <- [2]",
+            "set_flag(2, SEEN, true, [y]) <- [3]",
+        )
+    }
+
+    @Test
+    fun `moves created by old app versions should not be merged`() {
+        val commands = commandLog(
+            """move_or_copy {"srcFolderId":1,"destFolderId":2,"isCopy":false,"uids":["a"]}""",
+            """move_or_copy {"srcFolderId":1,"destFolderId":2,"isCopy":false,"uids":["b"]}""",
+        )
+
+        val batches = optimizer.optimize(commands)
+
+        assertThat(batches.describe()).containsExactly(
+            "move_or_copy <- [1]",
+            "move_or_copy <- [2]",
+        )
+    }
+
+    @Test
+    fun `emptying the trash should prevent merging`() {
+        val commands = commandLog(
+            """delete {"folderId":1,"uids":["a"]}""",
+            """empty_trash {}""",
+            """delete {"folderId":1,"uids":["b"]}""",
+        )
+
+        val batches = optimizer.optimize(commands)
+
+        assertThat(batches.describe()).containsExactly(
+            "delete(1, [a]) <- [1]",
+            "empty_trash <- [2]",
+            "delete(1, [b]) <- [3]",
+        )
+    }
+
+    @Test
+    fun `offline session with many swipes should be replayed with few commands`() {
+        val commands = commandLog(
+            List(100) { index ->
+                """set_flag {"folderId":1,"newState":true,"flag":"SEEN","uids":["$index"]}"""
+            } + List(50) { index ->
+                """delete {"folderId":1,"uids":["${index * 2}"]}"""
+            } + List(20) { index ->
+                """move_or_copy {"srcFolderId":1,"destFolderId":2,"isCopy":false,""" +
+                    """"newUidMap":{"${index * 2 + 1}":"K9LOCAL:$index"}}"""
+            },
+        )
+
+        val batches = optimizer.optimize(commands)
+
+        assertThat(batches).hasSize(3)
+        assertThat(batches.describe().map { it.substringBefore('(') }).containsExactly("set_flag", "delete", "move")
+        assertThat((batches[0].command as PendingSetFlag).uids).hasSize(50)
+        assertThat(batches.flatMap { it.sourceCommands }.map { it.databaseId }.sorted())
+            .containsExactly(*LongArray(170) { it + 1L }.toTypedArray())
+    }
+
+    private fun commandLog(vararg entries: String): List<PendingCommand> = commandLog(entries.toList())
+
+    private fun commandLog(entries: List<String>): List<PendingCommand> {
+        val serializer = PendingCommandSerializer.getInstance()
+        return entries.mapIndexed { index, entry ->
+            val commandName = entry.substringBefore(' ')
+            val data = entry.substringAfter(' ')
+            serializer.unserialize(index + 1L, commandName, data)
+        }
+    }
+
+    private fun List<PendingCommandBatch>.describe(): List<String> {
+        return map { batch ->
+            val sourceIds = batch.sourceCommands.map { it.databaseId }
+            "${batch.command.describe()} <- $sourceIds"
+        }
+    }
+
+    private fun PendingCommand?.describe(): String {
+        return when (this) {
+            null -> "nothing"
+            is PendingSetFlag -> "set_flag($folderId, $flag, $newState, $uids)"
+            is PendingDelete -> "delete($folderId, $uids)"
+            is PendingMoveOrCopy -> {
+                if (newUidMap == null) {
+                    commandName
+                } else {
+                    "${if (isCopy) "copy" else "move"}($srcFolderId -> $destFolderId, $newUidMap)"
+                }
+            }
+            is PendingMoveAndMarkAsRead -> "move_and_mark_as_read($srcFolderId -> $destFolderId, $newUidMap)"
+            else -> commandName
+        }
+    }
+}
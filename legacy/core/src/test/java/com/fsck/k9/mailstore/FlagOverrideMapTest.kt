@@ -0,0 +1,73 @@
+package com.fsck.k9.mailstore
+
+import app.k9mail.core.testing.TestClock
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isNull
+import assertk.assertions.isTrue
+import com.fsck.k9.mail.Flag
+import kotlin.time.Duration.Companion.milliseconds
+import kotlinx.datetime.Instant
+import org.junit.Test
+
+private const val EXPIRY_MILLIS = 1000L
+
+class FlagOverrideMapTest {
+    private val clock = TestClock(Instant.fromEpochMilliseconds(0L))
+    private val flagOverrideMap = FlagOverrideMap(maxSize = 4, expiryMillis = EXPIRY_MILLIS, clock = clock)
+
+    @Test
+    fun `get() should return values of multiple flags independently`() {
+        flagOverrideMap.set(listOf(1L), Flag.SEEN, true)
+        flagOverrideMap.set(listOf(1L), Flag.FLAGGED, false)
+
+        assertThat(flagOverrideMap.get(1L, Flag.SEEN)).isEqualTo(true)
+        assertThat(flagOverrideMap.get(1L, Flag.FLAGGED)).isEqualTo(false)
+        assertThat(flagOverrideMap.get(1L, Flag.ANSWERED)).isNull()
+    }
+
+    @Test
+    fun `set() should overwrite existing value`() {
+        flagOverrideMap.set(listOf(1L), Flag.SEEN, true)
+
+        flagOverrideMap.set(listOf(1L), Flag.SEEN, false)
+
+        assertThat(flagOverrideMap.get(1L, Flag.SEEN)).isEqualTo(false)
+    }
+
+    @Test
+    fun `remove() of last flag should remove entry`() {
+        flagOverrideMap.set(listOf(1L), Flag.SEEN, true)
+        flagOverrideMap.set(listOf(1L), Flag.FLAGGED, true)
+
+        flagOverrideMap.remove(listOf(1L), Flag.SEEN)
+        assertThat(flagOverrideMap.isEmpty()).isFalse()
+
+        flagOverrideMap.remove(listOf(1L), Flag.FLAGGED)
+        assertThat(flagOverrideMap.isEmpty()).isTrue()
+    }
+
+    @Test
+    fun `get() should not return expired values`() {
+        flagOverrideMap.set(listOf(1L), Flag.SEEN, true)
+
+        clock.advanceTimeBy(EXPIRY_MILLIS.milliseconds)
+
+        assertThat(flagOverrideMap.get(1L, Flag.SEEN)).isNull()
+        assertThat(flagOverrideMap.isEmpty()).isTrue()
+    }
+
+    @Test
+    fun `set() exceeding maximum size should evict oldest entries`() {
+        for (id in 1L..5L) {
+            flagOverrideMap.set(listOf(id), Flag.SEEN, true)
+            clock.advanceTimeBy(1.milliseconds)
+        }
+
+        assertThat(flagOverrideMap.size).isEqualTo(3)
+        assertThat(flagOverrideMap.get(1L, Flag.SEEN)).isNull()
+        assertThat(flagOverrideMap.get(2L, Flag.SEEN)).isNull()
+        assertThat(flagOverrideMap.get(5L, Flag.SEEN)).isEqualTo(true)
+    }
+}
@@ -94,6 +94,26 @@ class K9BackendFolderTest : K9RobolectricTest() {
             .hasMessage("Message requires a server ID to be set")
     }
 
+    @Test
+    fun saveMessages_shouldSaveAllMessages() {
+        val messages = listOf(createMessage("msg001"), createMessage("msg002", setOf(Flag.SEEN)))
+
+        backendFolder.saveMessages(messages, MessageDownloadState.FULL)
+
+        assertThat(backendFolder.getMessageServerIds()).isEqualTo(setOf("msg001", "msg002"))
+        assertThat(backendFolder.getMessageFlags("msg002")).isEqualTo(setOf(Flag.SEEN, Flag.X_DOWNLOADED_FULL))
+    }
+
+    @Test
+    fun saveMessages_withoutServerId_shouldThrow() {
+        val messages = listOf(createMessage("msg001"), createMessage(messageServerId = null))
+
+        assertFailure {
+            backendFolder.saveMessages(messages, MessageDownloadState.FULL)
+        }.isInstanceOf<IllegalStateException>()
+            .hasMessage("Message requires a server ID to be set")
+    }
+
     fun createAccount(): Account {
         // FIXME: This is a hack to get Preferences into a state where it's safe to call newAccount()
         preferences.clearAccounts()
@@ -0,0 +1,77 @@
+package com.fsck.k9.mailstore
+
+import android.database.sqlite.SQLiteDatabase
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isTrue
+import com.fsck.k9.K9RobolectricTest
+import com.fsck.k9.mailstore.LockableDatabase.ExecutionMode
+import com.fsck.k9.mailstore.LockableDatabase.SchemaDefinition
+import java.io.File
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+import org.junit.After
+import org.junit.Test
+import org.robolectric.RuntimeEnvironment
+
+private const val TIMEOUT_SECONDS = 5L
+
+class LockableDatabaseTest : K9RobolectricTest() {
+    private val context = RuntimeEnvironment.getApplication()
+    private val storageFilesProvider = object : StorageFilesProvider {
+        override fun getDatabaseFile(): File = context.getDatabasePath("LockableDatabaseTest.db")
+        override fun getAttachmentDirectory(): File = File(context.filesDir, "LockableDatabaseTest/attachments")
+    }
+    private val schemaDefinition = object : SchemaDefinition {
+        override fun getVersion() = 1
+
+        override fun doDbUpgrade(db: SQLiteDatabase) {
+            db.execSQL("CREATE TABLE messages (id INTEGER PRIMARY KEY)")
+            db.version = 1
+        }
+    }
+    private val database = LockableDatabase(
+        context,
+        storageFilesProvider,
+        schemaDefinition,
+        ExecutionMode.CONCURRENT_READS,
+    )
+
+    @After
+    fun tearDown() {
+        database.delete()
+    }
+
+    @Test
+    fun `read should not wait for active write transaction`() {
+        database.open()
+        val writeStarted = CountDownLatch(1)
+        val readDone = CountDownLatch(1)
+        val writeCompleted = AtomicBoolean(false)
+        val writer = thread {
+            database.execute(true) { db ->
+                db.execSQL("INSERT INTO messages (id) VALUES (1)")
+                writeStarted.countDown()
+                readDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            }
+            writeCompleted.set(true)
+        }
+        assertThat(writeStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+
+        val messageCount = database.execute(false) { db ->
+            db.rawQuery("SELECT COUNT(*) FROM messages", null).use { cursor ->
+                cursor.moveToFirst()
+                cursor.getInt(0)
+            }
+        }
+        val writeCompletedBeforeRead = writeCompleted.get()
+        readDone.countDown()
+        writer.join()
+
+        assertThat(writeCompletedBeforeRead).isFalse()
+        assertThat(messageCount).isEqualTo(0)
+    }
+}
@@ -0,0 +1,98 @@
+package com.fsck.k9.mailstore
+
+import app.k9mail.legacy.mailstore.MessageListRepository
+import com.fsck.k9.mail.Flag
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.koin.core.context.startKoin
+import org.koin.core.context.stopKoin
+import org.koin.dsl.module
+import org.mockito.kotlin.mock
+
+private const val MESSAGE_COUNT = 10_000
+private const val READ_COUNT = 5_000_000
+private const val BATCH_SIZE = 500
+
+/**
+ * Benchmark for [MessageListCache.getFlagForMessage] while other threads mark messages as read in bulk.
+ *
+ * Simulates the UI thread binding message list items while background threads update and clear flag overrides. The
+ * average time per read is printed to stdout for different numbers of writer threads.
+ *
+ * Skipped unless the environment variable `MESSAGE_LIST_CACHE_BENCHMARK` is set, e.g.
+ * `MESSAGE_LIST_CACHE_BENCHMARK=1 ./gradlew :legacy:core:testDebugUnitTest --tests '*MessageListCacheBenchmark'`
+ */
+class MessageListCacheBenchmark {
+    @Before
+    fun setUp() {
+        startKoin {
+            modules(
+                module {
+                    single { mock<MessageListRepository>() }
+                },
+            )
+        }
+    }
+
+    @After
+    fun tearDown() {
+        stopKoin()
+    }
+
+    @Test
+    fun `getFlagForMessage() with concurrent writers`() {
+        assumeTrue(System.getenv("MESSAGE_LIST_CACHE_BENCHMARK") != null)
+
+        for (writerCount in listOf(0, 1, 2, 4)) {
+            val nanosPerRead = measureReads(writerCount)
+
+            println("getFlagForMessage(): %d writer threads: %.1f ns/read".format(writerCount, nanosPerRead))
+        }
+    }
+
+    private fun measureReads(writerCount: Int): Double {
+        val cache = MessageListCache.getCache(UUID.randomUUID().toString())
+        val stopWriters = AtomicBoolean(false)
+        val writersStarted = CountDownLatch(writerCount)
+
+        val writers = (1..writerCount).map { writerNumber ->
+            thread(name = "writer-$writerNumber") {
+                val random = Random(writerNumber)
+                writersStarted.countDown()
+                while (!stopWriters.get()) {
+                    val start = random.nextLong(MESSAGE_COUNT - BATCH_SIZE.toLong())
+                    val messageIds = (start until start + BATCH_SIZE).toList()
+
+                    cache.setFlagForMessages(messageIds, Flag.SEEN, true)
+                    cache.removeFlagForMessages(messageIds, Flag.SEEN)
+                }
+            }
+        }
+        writersStarted.await()
+
+        val random = Random(0)
+        var hits = 0
+        val startNanos = System.nanoTime()
+        repeat(READ_COUNT) {
+            if (cache.getFlagForMessage(random.nextLong(MESSAGE_COUNT.toLong()), Flag.SEEN) != null) {
+                hits++
+            }
+        }
+        val elapsedNanos = System.nanoTime() - startNanos
+
+        stopWriters.set(true)
+        writers.forEach { it.join() }
+
+        // Use the result so the reads can't be optimized away
+        check(hits <= READ_COUNT)
+
+        return elapsedNanos.toDouble() / READ_COUNT
+    }
+}
@@ -1,5 +1,7 @@
 package com.fsck.k9.mailstore
 
+import app.k9mail.legacy.mailstore.MessageListChange
+import app.k9mail.legacy.mailstore.MessageListChange.Kind
 import app.k9mail.legacy.mailstore.MessageListRepository
 import assertk.assertThat
 import assertk.assertions.isFalse
@@ -18,6 +20,7 @@ import org.koin.core.context.stopKoin
 import org.koin.dsl.module
 import org.mockito.kotlin.doReturn
 import org.mockito.kotlin.mock
+import org.mockito.kotlin.verify
 
 private const val MESSAGE_ID = 1L
 private const val FOLDER_ID = 2L
@@ -32,14 +35,16 @@ class MessageListCacheTest {
         on { folder } doReturn localFolder
     }
 
-    private val cache = MessageListCache.getCache(UUID.randomUUID().toString())
+    private val accountUuid = UUID.randomUUID().toString()
+    private val cache = MessageListCache.getCache(accountUuid)
+    private val messageListRepository = mock<MessageListRepository>()
 
     @Before
     fun setUp() {
         startKoin {
             modules(
                 module {
-                    single { mock<MessageListRepository>() }
+                    single { messageListRepository }
                 },
             )
         }
@@ -145,4 +150,16 @@ class MessageListCacheTest {
 
         assertThat(result).isFalse()
     }
+
+    @Test
+    fun `unhideMessages() should notify listeners`() {
+        cache.hideMessages(listOf(localMessage))
+
+        cache.unhideMessages(listOf(localMessage))
+
+        verify(messageListRepository).notifyMessageListChanged(
+            accountUuid,
+            MessageListChange(Kind.INSERT, messageIds = setOf(MESSAGE_ID)),
+        )
+    }
 }
@@ -2,6 +2,8 @@ package com.fsck.k9.mailstore
 
 import app.k9mail.legacy.mailstore.ListenableMessageStore
 import app.k9mail.legacy.mailstore.MessageDetailsAccessor
+import app.k9mail.legacy.mailstore.MessageListChange
+import app.k9mail.legacy.mailstore.MessageListChange.Kind
 import app.k9mail.legacy.mailstore.MessageListChangedListener
 import app.k9mail.legacy.mailstore.MessageListRepository
 import app.k9mail.legacy.mailstore.MessageMapper
@@ -10,6 +12,8 @@ import app.k9mail.legacy.message.extractors.PreviewResult
 import assertk.assertThat
 import assertk.assertions.containsExactly
 import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isTrue
 import com.fsck.k9.mail.Address
 import com.fsck.k9.mail.Flag
 import java.util.UUID
@@ -96,6 +100,58 @@ class MessageListRepositoryTest {
         assertThat(messageListChanged).isEqualTo(0)
     }
 
+    @Test
+    fun `listener should receive details of the change`() {
+        val receivedChanges = mutableListOf<Pair<String, MessageListChange>>()
+        val listener = object : MessageListChangedListener {
+            override fun onMessageListChanged() = error("Should not be called")
+
+            override fun onMessageListChanged(accountUuid: String, change: MessageListChange) {
+                receivedChanges.add(accountUuid to change)
+            }
+        }
+        messageListRepository.addListener(accountUuid, listener)
+        val change = MessageListChange(Kind.FLAG, messageIds = setOf(MESSAGE_ID))
+
+        messageListRepository.notifyMessageListChanged(accountUuid, change)
+
+        assertThat(receivedChanges).containsExactly(accountUuid to change)
+    }
+
+    @Test
+    fun `notifyMessageListChanged() without details should report a structural change`() {
+        val receivedChanges = mutableListOf<MessageListChange>()
+        val listener = object : MessageListChangedListener {
+            override fun onMessageListChanged() = error("Should not be called")
+
+            override fun onMessageListChanged(accountUuid: String, change: MessageListChange) {
+                receivedChanges.add(change)
+            }
+        }
+        messageListRepository.addListener(listener)
+
+        messageListRepository.notifyMessageListChanged(accountUuid)
+
+        assertThat(receivedChanges).containsExactly(MessageListChange.STRUCTURAL)
+    }
+
+    @Test
+    fun `hasListeners() should only consider listeners for the account and global listeners`() {
+        val listener = MessageListChangedListener { }
+
+        assertThat(messageListRepository.hasListeners(accountUuid)).isFalse()
+
+        messageListRepository.addListener("otherAccountUuid", listener)
+        assertThat(messageListRepository.hasListeners(accountUuid)).isFalse()
+
+        messageListRepository.addListener(accountUuid, listener)
+        assertThat(messageListRepository.hasListeners(accountUuid)).isTrue()
+
+        messageListRepository.removeListener(listener)
+        messageListRepository.addListener(listener)
+        assertThat(messageListRepository.hasListeners(accountUuid)).isTrue()
+    }
+
     @Test
     fun `notifyMessageListChanged() without any listeners should not throw`() {
         messageListRepository.notifyMessageListChanged(accountUuid)
@@ -0,0 +1,75 @@
+package com.fsck.k9.message.html
+
+import app.k9mail.core.android.testing.RobolectricTest
+import app.k9mail.legacy.account.Account
+import app.k9mail.legacy.account.AccountManager
+import app.k9mail.legacy.account.AccountRemovedListener
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import org.junit.Test
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.verify
+
+private val SETTINGS = HtmlSettings(useDarkMode = false, useFixedWidthFont = false)
+
+class DisplayHtmlCacheTest : RobolectricTest() {
+    private val accountManager = mock<AccountManager>()
+    private val cache = DisplayHtmlCache(accountManager)
+
+    private var sanitizeCount = 0
+    private val sanitize: (String) -> String = { html ->
+        sanitizeCount++
+        "sanitized: $html"
+    }
+
+    @Test
+    fun `same html should only be sanitized once`() {
+        cache.getOrPut("<p>Hello</p>", SETTINGS, sanitize)
+        val result = cache.getOrPut("<p>Hello</p>", SETTINGS, sanitize)
+
+        assertThat(result).isEqualTo("sanitized: <p>Hello</p>")
+        assertThat(sanitizeCount).isEqualTo(1)
+    }
+
+    @Test
+    fun `changed html should be sanitized again`() {
+        cache.getOrPut("<p>Hello</p>", SETTINGS, sanitize)
+        val result = cache.getOrPut("<p>Hello, world</p>", SETTINGS, sanitize)
+
+        assertThat(result).isEqualTo("sanitized: <p>Hello, world</p>")
+        assertThat(sanitizeCount).isEqualTo(2)
+    }
+
+    @Test
+    fun `different settings should be sanitized again`() {
+        cache.getOrPut("<p>Hello</p>", SETTINGS, sanitize)
+        cache.getOrPut("<p>Hello</p>", SETTINGS.copy(useDarkMode = true), sanitize)
+
+        assertThat(sanitizeCount).isEqualTo(2)
+    }
+
+    @Test
+    fun `cache should be cleared when an account is removed`() {
+        cache.getOrPut("<p>Hello</p>", SETTINGS, sanitize)
+
+        val listenerCaptor = argumentCaptor<AccountRemovedListener>()
+        verify(accountManager).addAccountRemovedListener(listenerCaptor.capture())
+        listenerCaptor.firstValue.onAccountRemoved(Account("uuid"))
+        cache.getOrPut("<p>Hello</p>", SETTINGS, sanitize)
+
+        assertThat(sanitizeCount).isEqualTo(2)
+    }
+
+    @Test
+    fun `cache should be trimmed to max size`() {
+        val cache = DisplayHtmlCache(accountManager, maxCacheSize = 100)
+
+        repeat(10) { index ->
+            cache.getOrPut("<p>${"x".repeat(20)} $index</p>", SETTINGS, sanitize)
+        }
+        cache.getOrPut("<p>${"x".repeat(20)} 0</p>", SETTINGS, sanitize)
+
+        assertThat(sanitizeCount).isEqualTo(11)
+    }
+}
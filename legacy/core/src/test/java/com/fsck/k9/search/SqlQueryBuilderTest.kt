@@ -0,0 +1,43 @@
+package com.fsck.k9.search
+
+import app.k9mail.legacy.search.ConditionsTreeNode
+import app.k9mail.legacy.search.api.SearchAttribute
+import app.k9mail.legacy.search.api.SearchCondition
+import app.k9mail.legacy.search.api.SearchField
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEqualTo
+import org.junit.Test
+
+class SqlQueryBuilderTest {
+    @Test
+    fun `message contents condition should pass search terms unchanged to full-text query`() {
+        val condition = SearchCondition(SearchField.MESSAGE_CONTENTS, SearchAttribute.CONTAINS, "apple pie")
+        val node = ConditionsTreeNode(condition)
+        val query = StringBuilder()
+        val selectionArgs = mutableListOf<String>()
+
+        SqlQueryBuilder.buildWhereClause(node, query, selectionArgs)
+
+        assertThat(query.toString()).isEqualTo(
+            "messages.id IN (SELECT docid FROM messages_fulltext WHERE fulltext MATCH ?)",
+        )
+        assertThat(selectionArgs).containsExactly("apple pie")
+    }
+
+    @Test
+    fun `message contents condition combined with other condition`() {
+        val node = ConditionsTreeNode(SearchCondition(SearchField.SUBJECT, SearchAttribute.CONTAINS, "apple"))
+            .or(SearchCondition(SearchField.MESSAGE_CONTENTS, SearchAttribute.CONTAINS, "apple"))
+        val query = StringBuilder()
+        val selectionArgs = mutableListOf<String>()
+
+        SqlQueryBuilder.buildWhereClause(node, query, selectionArgs)
+
+        assertThat(query.toString()).isEqualTo(
+            "(subject LIKE ?) OR " +
+                "(messages.id IN (SELECT docid FROM messages_fulltext WHERE fulltext MATCH ?))",
+        )
+        assertThat(selectionArgs).containsExactly("%apple%", "apple")
+    }
+}
@@ -0,0 +1,46 @@
+package app.k9mail.legacy.mailstore
+
+/**
+ * Describes a change to the messages of an account, so message lists can be updated without reloading them completely.
+ *
+ * @param messageIds Database IDs of the affected messages. For [Kind.MOVE] and [Kind.INSERT] this includes the IDs of
+ *   messages that were replaced.
+ * @param threadRootIds Database IDs of thread roots. All messages in these threads are affected.
+ */
+data class MessageListChange @JvmOverloads constructor(
+    val kind: Kind,
+    val messageIds: Set<Long> = emptySet(),
+    val threadRootIds: Set<Long> = emptySet(),
+) {
+    enum class Kind {
+        /**
+         * Messages were added, their content was replaced, or they are no longer hidden.
+         */
+        INSERT,
+
+        /**
+         * Flags of existing messages were changed.
+         */
+        FLAG,
+
+        /**
+         * Messages were removed or hidden and can no longer show up in a message list.
+         */
+        DELETE,
+
+        /**
+         * Messages were moved to another folder.
+         */
+        MOVE,
+
+        /**
+         * Any other change. Message lists need to be reloaded.
+         */
+        STRUCTURAL,
+    }
+
+    companion object {
+        @JvmField
+        val STRUCTURAL = MessageListChange(Kind.STRUCTURAL)
+    }
+}
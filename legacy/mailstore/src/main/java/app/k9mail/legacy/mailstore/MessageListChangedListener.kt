@@ -2,4 +2,12 @@ package app.k9mail.legacy.mailstore
 
 fun interface MessageListChangedListener {
     fun onMessageListChanged()
+
+    /**
+     * Called with details about the change. Listeners that don't use the details only need to implement
+     * [onMessageListChanged] without arguments.
+     */
+    fun onMessageListChanged(accountUuid: String, change: MessageListChange) {
+        onMessageListChanged()
+    }
 }
@@ -0,0 +1,43 @@
+package app.k9mail.legacy.mailstore
+
+/**
+ * Limits a message list query to a page of [limit] rows.
+ *
+ * [cursorSelection] is used for keyset pagination. It should only match rows that sort after the last row of the
+ * previous page, or be `null` for the first page. For threaded lists it is applied to the aggregated values of a
+ * thread, e.g. the date of the newest message.
+ *
+ * While the query runs, the page keeps track of the rows read from the database. This includes rows the
+ * [MessageMapper] didn't return a value for, e.g. because [MessageListRepository] hides them. Use [rowCount] and
+ * [lastRow] to decide whether there's another page and where it starts.
+ */
+class MessageListPage(
+    val limit: Int,
+    val cursorSelection: String? = null,
+) {
+    var rowCount: Int = 0
+        private set
+
+    var lastRow: MessageListPageRow? = null
+        private set
+
+    fun onRowRead(message: MessageDetailsAccessor) {
+        rowCount++
+        lastRow = MessageListPageRow(
+            id = message.id,
+            messageDate = message.messageDate,
+            internalDate = message.internalDate,
+            hasAttachments = message.hasAttachments,
+        )
+    }
+}
+
+/**
+ * The sort values of a row read for a [MessageListPage].
+ */
+data class MessageListPageRow(
+    val id: Long,
+    val messageDate: Long,
+    val internalDate: Long,
+    val hasAttachments: Boolean,
+)
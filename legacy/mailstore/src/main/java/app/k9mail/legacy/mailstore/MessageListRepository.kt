@@ -5,12 +5,19 @@ interface MessageListRepository {
     fun addListener(accountUuid: String, listener: MessageListChangedListener)
     fun removeListener(listener: MessageListChangedListener)
     fun notifyMessageListChanged(accountUuid: String)
+    fun notifyMessageListChanged(accountUuid: String, change: MessageListChange)
+
+    /**
+     * Returns `true` if there are listeners that will be notified of changes to the messages of the given account.
+     */
+    fun hasListeners(accountUuid: String): Boolean
 
     fun <T> getMessages(
         accountUuid: String,
         selection: String,
         selectionArgs: Array<String>,
         sortOrder: String,
+        page: MessageListPage? = null,
         messageMapper: MessageMapper<T>,
     ): List<T>
 
@@ -19,6 +26,7 @@ interface MessageListRepository {
         selection: String,
         selectionArgs: Array<String>,
         sortOrder: String,
+        page: MessageListPage? = null,
         messageMapper: MessageMapper<T>,
     ): List<T>
 
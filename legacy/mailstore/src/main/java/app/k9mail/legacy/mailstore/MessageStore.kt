@@ -20,6 +20,13 @@ interface MessageStore {
      */
     fun saveRemoteMessage(folderId: Long, messageServerId: String, messageData: SaveMessageData)
 
+    /**
+     * Save multiple remote messages in this store using a single transaction.
+     *
+     * @param messages Map of message server ID to message data.
+     */
+    fun saveRemoteMessages(folderId: Long, messages: Map<String, SaveMessageData>)
+
     /**
      * Save a local message in this store.
      *
@@ -101,6 +108,13 @@ interface MessageStore {
      */
     fun getMessageServerIds(messageIds: Collection<Long>): Map<Long, String>
 
+    /**
+     * Retrieve the database IDs for the given messages in a folder.
+     *
+     * @return A mapping of the message server ID to the message database ID.
+     */
+    fun getMessageIds(folderId: Long, messageServerIds: Collection<String>): Map<String, Long>
+
     /**
      * Retrieve server IDs for all remote messages in the given folder.
      */
@@ -116,6 +130,13 @@ interface MessageStore {
      */
     fun getMessageFlags(folderId: Long, messageServerId: String): Set<Flag>
 
+    /**
+     * Get the flags associated with multiple messages.
+     *
+     * Messages that don't exist in the store are not included in the result.
+     */
+    fun getMessageFlags(folderId: Long, messageServerIds: Collection<String>): Map<String, Set<Flag>>
+
     /**
      * Retrieve server IDs and dates for all remote messages in the given folder.
      */
@@ -123,21 +144,27 @@ interface MessageStore {
 
     /**
      * Retrieve list of messages.
+     *
+     * @param page If not `null`, only the messages of this page are returned.
      */
     fun <T> getMessages(
         selection: String,
         selectionArgs: Array<String>,
         sortOrder: String,
+        page: MessageListPage? = null,
         messageMapper: MessageMapper<out T?>,
     ): List<T>
 
     /**
      * Retrieve threaded list of messages.
+     *
+     * @param page If not `null`, only the threads of this page are returned.
      */
     fun <T> getThreadedMessages(
         selection: String,
         selectionArgs: Array<String>,
         sortOrder: String,
+        page: MessageListPage? = null,
         messageMapper: MessageMapper<out T?>,
     ): List<T>
 
@@ -359,6 +386,18 @@ interface MessageStore {
      */
     fun setFolderExtraNumber(folderId: Long, name: String, value: Long)
 
+    /**
+     * Retrieve the database IDs of up to [limit] messages that are waiting to be added to the full-text search index.
+     */
+    fun getMessagesToIndex(limit: Int): List<Long>
+
+    /**
+     * Update the full-text search index and remove the messages from the list of messages waiting to be indexed.
+     *
+     * @param entries Map of message database IDs to the text to index. A `null` value means there's no text to index.
+     */
+    fun saveFulltextEntries(entries: Map<Long, String?>)
+
     /**
      * Optimize the message store with the goal of using the minimal amount of disk space.
      */
@@ -27,6 +27,7 @@ public interface MessagingListener {
     void loadMessageRemoteFailed(Account account, long folderId, String uid, Throwable t);
 
     void checkMailStarted(Context context, Account account);
+    void checkMailProgress(Account account, int completedFolders, int totalFolders);
     void checkMailFinished(Context context, Account account);
 
     void folderStatusChanged(Account account, long folderId);
@@ -61,6 +61,10 @@ public abstract class SimpleMessagingListener implements MessagingListener {
     public void checkMailStarted(Context context, Account account) {
     }
 
+    @Override
+    public void checkMailProgress(Account account, int completedFolders, int totalFolders) {
+    }
+
     @Override
     public void checkMailFinished(Context context, Account account) {
     }
@@ -1,10 +1,10 @@
 package com.fsck.k9.preferences;
 
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.Map.Entry;
 
 import android.os.SystemClock;
@@ -19,7 +19,7 @@ public class K9StorageEditor implements StorageEditor {
     private K9StoragePersister storagePersister;
 
     private Map<String, String> changes = new HashMap<>();
-    private List<String> removals = new ArrayList<>();
+    private Set<String> removals = new LinkedHashSet<>();
 
 
     public K9StorageEditor(StorageUpdater storageUpdater, K9StoragePersister storagePersister) {
@@ -52,14 +52,18 @@ public class K9StorageEditor implements StorageEditor {
 
             @Override
             public void persist(StoragePersistOperations ops) {
+                // Only write keys whose values actually change. Values written by put() replace existing rows, so a
+                // key that is removed and then put again doesn't need to be deleted first.
                 for (String removeKey : removals) {
-                    ops.remove(removeKey);
+                    if (oldValues.containsKey(removeKey) && !changes.containsKey(removeKey)) {
+                        ops.remove(removeKey);
+                    }
                 }
                 for (Entry<String, String> entry : changes.entrySet()) {
                     String key = entry.getKey();
                     String newValue = entry.getValue();
                     String oldValue = oldValues.get(key);
-                    if (removals.contains(key) || !newValue.equals(oldValue)) {
+                    if (!newValue.equals(oldValue)) {
                         ops.put(key, newValue);
                     }
                 }
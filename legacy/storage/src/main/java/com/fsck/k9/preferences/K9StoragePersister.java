@@ -142,11 +142,14 @@ public class K9StoragePersister implements StoragePersister {
         long startTime = SystemClock.elapsedRealtime();
         Timber.i("Loading preferences from DB into Storage");
 
+        int valueCount = 0;
         try (SQLiteDatabase database = openDB()) {
-            return new Storage(readAllValues(database));
+            Map<String, String> values = readAllValues(database);
+            valueCount = values.size();
+            return new Storage(values);
         } finally {
             long endTime = SystemClock.elapsedRealtime();
-            Timber.i("Preferences load took %d ms", endTime - startTime);
+            Timber.i("Preferences load of %d values took %d ms", valueCount, endTime - startTime);
         }
     }
 
@@ -158,7 +161,6 @@ public class K9StoragePersister implements StoragePersister {
             while (cursor.moveToNext()) {
                 String key = cursor.getString(0);
                 String value = cursor.getString(1);
-                Timber.d("Loading key '%s', value = '%s'", key, value);
                 loadedValues.put(key, value);
             }
         } finally {
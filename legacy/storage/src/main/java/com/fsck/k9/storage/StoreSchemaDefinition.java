@@ -11,7 +11,7 @@ import timber.log.Timber;
 
 
 class StoreSchemaDefinition implements SchemaDefinition {
-    static final int DB_VERSION = 88;
+    static final int DB_VERSION = 90;
 
     private final MigrationsHelper migrationsHelper;
 
@@ -253,12 +253,86 @@ class StoreSchemaDefinition implements SchemaDefinition {
                 "BEGIN " +
                 "DELETE FROM message_parts WHERE root = OLD.message_part_id; " +
                 "DELETE FROM messages_fulltext WHERE docid = OLD.id; " +
+                "DELETE FROM fulltext_queue WHERE message_id = OLD.id; " +
                 "DELETE FROM threads WHERE message_id = OLD.id; " +
                 "END");
 
         db.execSQL("DROP TABLE IF EXISTS messages_fulltext");
         db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)");
 
+        db.execSQL("DROP TABLE IF EXISTS fulltext_queue");
+        db.execSQL("CREATE TABLE fulltext_queue (message_id INTEGER PRIMARY KEY NOT NULL)");
+
+        db.execSQL("DROP TABLE IF EXISTS folder_counts");
+        db.execSQL("CREATE TABLE folder_counts (" +
+                "folder_id INTEGER PRIMARY KEY NOT NULL, " +
+                "unread_count INTEGER NOT NULL DEFAULT 0, " +
+                "starred_count INTEGER NOT NULL DEFAULT 0" +
+                ")");
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_insert_message");
+        db.execSQL("CREATE TRIGGER folder_counts_insert_message " +
+                "AFTER INSERT ON messages " +
+                "WHEN NEW.empty IS 0 AND NEW.deleted IS 0 AND (NEW.read IS 0 OR NEW.flagged IS 1) " +
+                "BEGIN " +
+                "INSERT OR IGNORE INTO folder_counts (folder_id) " +
+                "SELECT NEW.folder_id WHERE NEW.folder_id IS NOT NULL; " +
+                "UPDATE folder_counts SET " +
+                "unread_count = unread_count + (NEW.read IS 0), " +
+                "starred_count = starred_count + (NEW.flagged IS 1) " +
+                "WHERE folder_id = NEW.folder_id; " +
+                "END");
+
+        // REPLACE doesn't fire DELETE triggers for the row it replaces
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_replace_message");
+        db.execSQL("CREATE TRIGGER folder_counts_replace_message " +
+                "BEFORE INSERT ON messages " +
+                "WHEN NEW.id IS NOT NULL " +
+                "BEGIN " +
+                "UPDATE folder_counts SET " +
+                "unread_count = unread_count - (SELECT COUNT(*) FROM messages " +
+                "WHERE id = NEW.id AND empty IS 0 AND deleted IS 0 AND read IS 0), " +
+                "starred_count = starred_count - (SELECT COUNT(*) FROM messages " +
+                "WHERE id = NEW.id AND empty IS 0 AND deleted IS 0 AND flagged IS 1) " +
+                "WHERE folder_id = (SELECT folder_id FROM messages WHERE id = NEW.id); " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_delete_message");
+        db.execSQL("CREATE TRIGGER folder_counts_delete_message " +
+                "AFTER DELETE ON messages " +
+                "WHEN OLD.empty IS 0 AND OLD.deleted IS 0 AND (OLD.read IS 0 OR OLD.flagged IS 1) " +
+                "BEGIN " +
+                "UPDATE folder_counts SET " +
+                "unread_count = unread_count - (OLD.read IS 0), " +
+                "starred_count = starred_count - (OLD.flagged IS 1) " +
+                "WHERE folder_id = OLD.folder_id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_update_message");
+        db.execSQL("CREATE TRIGGER folder_counts_update_message " +
+                "AFTER UPDATE OF folder_id, empty, deleted, read, flagged ON messages " +
+                "WHEN (OLD.empty IS 0 AND OLD.deleted IS 0 AND (OLD.read IS 0 OR OLD.flagged IS 1)) OR " +
+                "(NEW.empty IS 0 AND NEW.deleted IS 0 AND (NEW.read IS 0 OR NEW.flagged IS 1)) " +
+                "BEGIN " +
+                "UPDATE folder_counts SET " +
+                "unread_count = unread_count - (OLD.empty IS 0 AND OLD.deleted IS 0 AND OLD.read IS 0), " +
+                "starred_count = starred_count - (OLD.empty IS 0 AND OLD.deleted IS 0 AND OLD.flagged IS 1) " +
+                "WHERE folder_id = OLD.folder_id; " +
+                "INSERT OR IGNORE INTO folder_counts (folder_id) " +
+                "SELECT NEW.folder_id WHERE NEW.folder_id IS NOT NULL; " +
+                "UPDATE folder_counts SET " +
+                "unread_count = unread_count + (NEW.empty IS 0 AND NEW.deleted IS 0 AND NEW.read IS 0), " +
+                "starred_count = starred_count + (NEW.empty IS 0 AND NEW.deleted IS 0 AND NEW.flagged IS 1) " +
+                "WHERE folder_id = NEW.folder_id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_folder_counts");
+        db.execSQL("CREATE TRIGGER delete_folder_counts " +
+                "AFTER DELETE ON folders " +
+                "BEGIN " +
+                "DELETE FROM folder_counts WHERE folder_id = OLD.id; " +
+                "END");
+
         db.execSQL("DROP TABLE IF EXISTS notifications");
         db.execSQL("CREATE TABLE notifications (" +
                 "message_id INTEGER PRIMARY KEY NOT NULL REFERENCES messages(id) ON DELETE CASCADE," +
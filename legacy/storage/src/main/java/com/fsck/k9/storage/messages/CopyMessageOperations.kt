@@ -205,6 +205,11 @@ ORDER BY message_parts.seq
                 "SELECT ?, fulltext FROM messages_fulltext WHERE docid = ?",
             arrayOf(newMessageId.toString(), messageId.toString()),
         )
+        database.execSQL(
+            "INSERT OR IGNORE INTO fulltext_queue (message_id) " +
+                "SELECT ? FROM fulltext_queue WHERE message_id = ?",
+            arrayOf(newMessageId.toString(), messageId.toString()),
+        )
     }
 
     private fun readMessageToContentValues(database: SQLiteDatabase, messageId: Long): ContentValues {
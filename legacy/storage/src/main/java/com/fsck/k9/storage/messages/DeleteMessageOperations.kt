@@ -82,6 +82,7 @@ WHERE folder_id = ? AND uid = ?
 
     private fun SQLiteDatabase.deleteFulltextIndexEntry(messageId: Long) {
         delete("messages_fulltext", "docid = ?", arrayOf(messageId.toString()))
+        delete("fulltext_queue", "message_id = ?", arrayOf(messageId.toString()))
     }
 
     private fun SQLiteDatabase.convertToEmptyMessage(messageId: Long) {
@@ -0,0 +1,45 @@
+package com.fsck.k9.storage.messages
+
+import android.content.ContentValues
+import com.fsck.k9.mailstore.LockableDatabase
+
+internal class FulltextIndexOperations(private val lockableDatabase: LockableDatabase) {
+    fun getMessagesToIndex(limit: Int): List<Long> {
+        require(limit > 0) { "'limit' must be greater than 0" }
+
+        return lockableDatabase.execute(false) { database ->
+            // Index the most recent messages first; they are the most likely to be searched for.
+            database.rawQuery(
+                "SELECT message_id FROM fulltext_queue ORDER BY message_id DESC LIMIT $limit",
+                null,
+            ).use { cursor ->
+                val messageIds = mutableListOf<Long>()
+                while (cursor.moveToNext()) {
+                    messageIds.add(cursor.getLong(0))
+                }
+                messageIds
+            }
+        }
+    }
+
+    fun saveFulltextEntries(entries: Map<Long, String?>) {
+        if (entries.isEmpty()) return
+
+        lockableDatabase.execute(true) { database ->
+            for ((messageId, fulltext) in entries) {
+                val messageIdArgument = arrayOf(messageId.toString())
+                if (fulltext == null) {
+                    database.delete("messages_fulltext", "docid = ?", messageIdArgument)
+                } else {
+                    val values = ContentValues().apply {
+                        put("docid", messageId)
+                        put("fulltext", fulltext)
+                    }
+                    database.replace("messages_fulltext", null, values)
+                }
+
+                database.delete("fulltext_queue", "message_id = ?", messageIdArgument)
+            }
+        }
+    }
+}
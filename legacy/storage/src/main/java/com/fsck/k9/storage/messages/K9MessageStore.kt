@@ -3,6 +3,7 @@ package com.fsck.k9.storage.messages
 import app.k9mail.core.mail.folder.api.FolderDetails
 import app.k9mail.legacy.mailstore.CreateFolderInfo
 import app.k9mail.legacy.mailstore.FolderMapper
+import app.k9mail.legacy.mailstore.MessageListPage
 import app.k9mail.legacy.mailstore.MessageMapper
 import app.k9mail.legacy.mailstore.MessageStore
 import app.k9mail.legacy.mailstore.MoreMessages
@@ -42,12 +43,17 @@ class K9MessageStore(
     private val updateFolderOperations = UpdateFolderOperations(database)
     private val deleteFolderOperations = DeleteFolderOperations(database, attachmentFileManager)
     private val keyValueStoreOperations = KeyValueStoreOperations(database)
+    private val fulltextIndexOperations = FulltextIndexOperations(database)
     private val databaseOperations = DatabaseOperations(database, storageFilesProvider)
 
     override fun saveRemoteMessage(folderId: Long, messageServerId: String, messageData: SaveMessageData) {
         saveMessageOperations.saveRemoteMessage(folderId, messageServerId, messageData)
     }
 
+    override fun saveRemoteMessages(folderId: Long, messages: Map<String, SaveMessageData>) {
+        saveMessageOperations.saveRemoteMessages(folderId, messages)
+    }
+
     override fun saveLocalMessage(folderId: Long, messageData: SaveMessageData, existingMessageId: Long?): Long {
         return saveMessageOperations.saveLocalMessage(folderId, messageData, existingMessageId)
     }
@@ -84,6 +90,10 @@ class K9MessageStore(
         return retrieveMessageOperations.getMessageServerIds(messageIds)
     }
 
+    override fun getMessageIds(folderId: Long, messageServerIds: Collection<String>): Map<String, Long> {
+        return retrieveMessageOperations.getMessageIds(folderId, messageServerIds)
+    }
+
     override fun getMessageServerIds(folderId: Long): Set<String> {
         return retrieveMessageOperations.getMessageServerIds(folderId)
     }
@@ -96,6 +106,10 @@ class K9MessageStore(
         return retrieveMessageOperations.getMessageFlags(folderId, messageServerId)
     }
 
+    override fun getMessageFlags(folderId: Long, messageServerIds: Collection<String>): Map<String, Set<Flag>> {
+        return retrieveMessageOperations.getMessageFlags(folderId, messageServerIds)
+    }
+
     override fun getAllMessagesAndEffectiveDates(folderId: Long): Map<String, Long?> {
         return retrieveMessageOperations.getAllMessagesAndEffectiveDates(folderId)
     }
@@ -104,18 +118,26 @@ class K9MessageStore(
         selection: String,
         selectionArgs: Array<String>,
         sortOrder: String,
+        page: MessageListPage?,
         messageMapper: MessageMapper<out T?>,
     ): List<T> {
-        return retrieveMessageListOperations.getMessages(selection, selectionArgs, sortOrder, messageMapper)
+        return retrieveMessageListOperations.getMessages(selection, selectionArgs, sortOrder, page, messageMapper)
     }
 
     override fun <T> getThreadedMessages(
         selection: String,
         selectionArgs: Array<String>,
         sortOrder: String,
+        page: MessageListPage?,
         messageMapper: MessageMapper<out T?>,
     ): List<T> {
-        return retrieveMessageListOperations.getThreadedMessages(selection, selectionArgs, sortOrder, messageMapper)
+        return retrieveMessageListOperations.getThreadedMessages(
+            selection,
+            selectionArgs,
+            sortOrder,
+            page,
+            messageMapper,
+        )
     }
 
     override fun <T> getThread(threadId: Long, sortOrder: String, messageMapper: MessageMapper<out T?>): List<T> {
@@ -286,6 +308,14 @@ class K9MessageStore(
         return keyValueStoreOperations.setFolderExtraNumber(folderId, name, value)
     }
 
+    override fun getMessagesToIndex(limit: Int): List<Long> {
+        return fulltextIndexOperations.getMessagesToIndex(limit)
+    }
+
+    override fun saveFulltextEntries(entries: Map<Long, String?>) {
+        fulltextIndexOperations.saveFulltextEntries(entries)
+    }
+
     override fun compact() {
         return databaseOperations.compact()
     }
@@ -36,6 +36,11 @@ internal class MoveMessageOperations(
         }
 
         database.update("messages_fulltext", values, "docid = ?", arrayOf(messageId.toString()))
+
+        val queueValues = ContentValues().apply {
+            put("message_id", destinationMessageId)
+        }
+        database.update("fulltext_queue", queueValues, "message_id = ?", arrayOf(messageId.toString()))
     }
 
     private fun createMessageEntry(
@@ -7,6 +7,7 @@ import app.k9mail.legacy.mailstore.FolderDetailsAccessor
 import app.k9mail.legacy.mailstore.FolderMapper
 import app.k9mail.legacy.mailstore.MoreMessages
 import app.k9mail.legacy.search.ConditionsTreeNode
+import app.k9mail.legacy.search.api.SearchField
 import com.fsck.k9.mail.FolderType
 import com.fsck.k9.mailstore.FolderNotFoundException
 import com.fsck.k9.mailstore.LockableDatabase
@@ -70,20 +71,14 @@ internal class RetrieveFolderOperations(private val lockableDatabase: LockableDa
 
             val query =
                 """
-SELECT ${FOLDER_COLUMNS.joinToString()}, (
+SELECT ${FOLDER_COLUMNS.joinToString { "folders.$it" }}, CASE WHEN folders.id = ? THEN (
   SELECT COUNT(messages.id)
   FROM messages
   WHERE messages.folder_id = folders.id
     AND messages.empty = 0 AND messages.deleted = 0
-    AND (messages.read = 0 OR folders.id = ?)
-), (
-  SELECT COUNT(messages.id)
-  FROM messages
-  WHERE messages.folder_id = folders.id
-    AND messages.empty = 0 AND messages.deleted = 0
-    AND messages.flagged = 1
-)
+) ELSE IFNULL(folder_counts.unread_count, 0) END, IFNULL(folder_counts.starred_count, 0)
 FROM folders
+LEFT JOIN folder_counts ON (folder_counts.folder_id = folders.id)
 $displayModeSelection
                 """
 
@@ -150,7 +145,7 @@ $displayModeSelection
     fun getUnreadMessageCount(folderId: Long): Int {
         return lockableDatabase.execute(false) { db ->
             db.rawQuery(
-                "SELECT COUNT(id) FROM messages WHERE empty = 0 AND deleted = 0 AND read = 0 AND folder_id = ?",
+                "SELECT unread_count FROM folder_counts WHERE folder_id = ?",
                 arrayOf(folderId.toString()),
             ).use { cursor ->
                 if (cursor.moveToFirst()) cursor.getInt(0) else 0
@@ -159,11 +154,44 @@ $displayModeSelection
     }
 
     fun getUnreadMessageCount(conditions: ConditionsTreeNode?): Int {
-        return getMessageCount(condition = "messages.read = 0", conditions)
+        return if (conditions.isFolderScoped()) {
+            getFolderCountsSum(column = "unread_count", conditions)
+        } else {
+            getMessageCount(condition = "messages.read = 0", conditions)
+        }
     }
 
     fun getStarredMessageCount(conditions: ConditionsTreeNode?): Int {
-        return getMessageCount(condition = "messages.flagged = 1", conditions)
+        return if (conditions.isFolderScoped()) {
+            getFolderCountsSum(column = "starred_count", conditions)
+        } else {
+            getMessageCount(condition = "messages.flagged = 1", conditions)
+        }
+    }
+
+    // Searches that only select folders can be answered using the counts maintained in the 'folder_counts' table
+    private fun ConditionsTreeNode?.isFolderScoped(): Boolean {
+        return this == null || leafSet.all { it.condition.field in FOLDER_SEARCH_FIELDS }
+    }
+
+    private fun getFolderCountsSum(column: String, conditions: ConditionsTreeNode?): Int {
+        val whereBuilder = StringBuilder()
+        val queryArgs = mutableListOf<String>()
+        SqlQueryBuilder.buildWhereClause(conditions, whereBuilder, queryArgs)
+
+        val query =
+            """
+SELECT SUM(folder_counts.$column)
+FROM folder_counts
+JOIN folders ON (folders.id = folder_counts.folder_id)
+WHERE $whereBuilder
+            """
+
+        return lockableDatabase.execute(false) { db ->
+            db.rawQuery(query, queryArgs.toTypedArray()).use { cursor ->
+                if (cursor.moveToFirst()) cursor.getInt(0) else 0
+            }
+        }
     }
 
     private fun getMessageCount(condition: String, extraConditions: ConditionsTreeNode?): Int {
@@ -248,6 +276,10 @@ private class CursorFolderAccessor(val cursor: Cursor) : FolderDetailsAccessor {
     }
 }
 
+// Search fields that refer to the folder of a message. SqlQueryBuilder maps them to columns that exist in the
+// 'folders' or 'folder_counts' table.
+private val FOLDER_SEARCH_FIELDS = setOf(SearchField.FOLDER, SearchField.INTEGRATE, SearchField.VISIBLE)
+
 private val FOLDER_COLUMNS = arrayOf(
     "id",
     "name",
@@ -2,12 +2,12 @@ package com.fsck.k9.storage.messages
 
 import android.database.Cursor
 import app.k9mail.legacy.mailstore.MessageDetailsAccessor
+import app.k9mail.legacy.mailstore.MessageListPage
 import app.k9mail.legacy.mailstore.MessageMapper
 import app.k9mail.legacy.message.extractors.PreviewResult
 import com.fsck.k9.mail.Address
 import com.fsck.k9.mailstore.DatabasePreviewType
 import com.fsck.k9.mailstore.LockableDatabase
-import com.fsck.k9.search.SqlQueryBuilder
 
 internal class RetrieveMessageListOperations(private val lockableDatabase: LockableDatabase) {
 
@@ -15,8 +15,12 @@ internal class RetrieveMessageListOperations(private val lockableDatabase: Locka
         selection: String,
         selectionArgs: Array<String>,
         sortOrder: String,
+        page: MessageListPage? = null,
         mapper: MessageMapper<out T?>,
     ): List<T> {
+        val cursorSelection = page?.cursorSelection?.let { "AND ($it)" }.orEmpty()
+        val limit = page?.let { "LIMIT ${it.limit}" }.orEmpty()
+
         return lockableDatabase.execute(false) { database ->
             database.rawQuery(
                 """
@@ -43,14 +47,17 @@ JOIN threads ON (threads.message_id = messages.id)
 LEFT JOIN FOLDERS ON (folders.id = messages.folder_id)
 WHERE
   ($selection)
+  $cursorSelection
   AND empty = 0 AND deleted = 0
 ORDER BY $sortOrder
+$limit
                 """,
                 selectionArgs,
             ).use { cursor ->
                 val cursorMessageAccessor = CursorMessageAccessor(cursor, includesThreadCount = false)
                 buildList {
                     while (cursor.moveToNext()) {
+                        page?.onRowRead(cursorMessageAccessor)
                         val value = mapper.map(cursorMessageAccessor)
                         if (value != null) {
                             add(value)
@@ -65,72 +72,83 @@ ORDER BY $sortOrder
         selection: String,
         selectionArgs: Array<String>,
         sortOrder: String,
+        page: MessageListPage? = null,
         mapper: MessageMapper<out T?>,
     ): List<T> {
-        val orderBy = SqlQueryBuilder.addPrefixToSelection(AGGREGATED_MESSAGES_COLUMNS, "aggregated.", sortOrder)
+        val cursorSelection = page?.cursorSelection?.let { "WHERE $it" }.orEmpty()
+        val limit = page?.let { "LIMIT ${it.limit}" }.orEmpty()
 
+        // The inner query returns one row per thread. MAX(messages.id) picks the newest of the thread's messages with
+        // the latest date, so the row representing a thread (and its ID) doesn't change from one query to the next.
+        // Sorting and the page cursor are applied to these rows in the outer query. The alias "messages" allows both
+        // to refer to columns the same way as for non-threaded lists.
         return lockableDatabase.execute(false) { database ->
             database.rawQuery(
                 """
-SELECT 
-  messages.id AS id, 
-  uid, 
-  folder_id, 
-  sender_list, 
-  to_list, 
-  cc_list, 
-  aggregated.date AS date, 
-  aggregated.internal_date AS internal_date, 
-  subject, 
-  preview_type,
-  preview, 
-  aggregated.read AS read, 
-  aggregated.flagged AS flagged, 
-  aggregated.answered AS answered, 
-  aggregated.forwarded AS forwarded, 
-  aggregated.attachment_count AS attachment_count, 
-  root, 
-  aggregated.thread_count AS thread_count
-FROM (
+SELECT * FROM (
   SELECT 
-    threads.root AS thread_root,
-    MAX(date) AS date,
-    MAX(internal_date) AS internal_date,
-    MIN(read) AS read,
-    MAX(flagged) AS flagged,
-    MIN(answered) AS answered,
-    MIN(forwarded) AS forwarded,
-    SUM(attachment_count) AS attachment_count,
-    COUNT(threads.root) AS thread_count                        
-  FROM messages
-  JOIN threads ON (threads.message_id = messages.id)
-  JOIN folders ON (folders.id = messages.folder_id)
-  WHERE
-    threads.root IN (
-      SELECT threads.root 
-      FROM messages
-      JOIN threads ON (threads.message_id = messages.id)
-      WHERE messages.empty = 0 AND messages.deleted = 0
-    )
-    AND ($selection)
+    MAX(messages.id) AS id, 
+    uid, 
+    folder_id, 
+    sender_list, 
+    to_list, 
+    cc_list, 
+    aggregated.date AS date, 
+    aggregated.internal_date AS internal_date, 
+    subject, 
+    preview_type,
+    preview, 
+    aggregated.read AS read, 
+    aggregated.flagged AS flagged, 
+    aggregated.answered AS answered, 
+    aggregated.forwarded AS forwarded, 
+    aggregated.attachment_count AS attachment_count, 
+    root, 
+    aggregated.thread_count AS thread_count
+  FROM (
+    SELECT 
+      threads.root AS thread_root,
+      MAX(date) AS date,
+      MAX(internal_date) AS internal_date,
+      MIN(read) AS read,
+      MAX(flagged) AS flagged,
+      MIN(answered) AS answered,
+      MIN(forwarded) AS forwarded,
+      SUM(attachment_count) AS attachment_count,
+      COUNT(threads.root) AS thread_count                        
+    FROM messages
+    JOIN threads ON (threads.message_id = messages.id)
+    JOIN folders ON (folders.id = messages.folder_id)
+    WHERE
+      threads.root IN (
+        SELECT threads.root 
+        FROM messages
+        JOIN threads ON (threads.message_id = messages.id)
+        WHERE messages.empty = 0 AND messages.deleted = 0
+      )
+      AND ($selection)
+      AND messages.empty = 0 AND messages.deleted = 0
+    GROUP BY threads.root
+  ) aggregated
+  JOIN threads ON (threads.root = aggregated.thread_root)
+  JOIN messages ON (
+    messages.id = threads.message_id
     AND messages.empty = 0 AND messages.deleted = 0
+    AND messages.date = aggregated.date
+  )
+  JOIN folders ON (folders.id = messages.folder_id)
   GROUP BY threads.root
-) aggregated
-JOIN threads ON (threads.root = aggregated.thread_root)
-JOIN messages ON (
-  messages.id = threads.message_id
-  AND messages.empty = 0 AND messages.deleted = 0
-  AND messages.date = aggregated.date
-)
-JOIN folders ON (folders.id = messages.folder_id)
-GROUP BY threads.root
-ORDER BY $orderBy
+) messages
+$cursorSelection
+ORDER BY $sortOrder
+$limit
                 """,
                 selectionArgs,
             ).use { cursor ->
                 val cursorMessageAccessor = CursorMessageAccessor(cursor, includesThreadCount = true)
                 buildList {
                     while (cursor.moveToNext()) {
+                        page?.onRowRead(cursorMessageAccessor)
                         val value = mapper.map(cursorMessageAccessor)
                         if (value != null) {
                             add(value)
@@ -230,13 +248,3 @@ private class CursorMessageAccessor(val cursor: Cursor, val includesThreadCount:
     override val threadCount: Int
         get() = if (includesThreadCount) cursor.getInt(17) else 0
 }
-
-private val AGGREGATED_MESSAGES_COLUMNS = arrayOf(
-    "date",
-    "internal_date",
-    "attachment_count",
-    "read",
-    "flagged",
-    "answered",
-    "forwarded",
-)
@@ -47,6 +47,20 @@ internal class SaveMessageOperations(
         saveMessage(folderId, messageServerId, messageData)
     }
 
+    fun saveRemoteMessages(folderId: Long, messages: Map<String, SaveMessageData>) {
+        // Nested calls to LockableDatabase.execute() participate in this transaction
+        lockableDatabase.execute(true) { database ->
+            // Look up all thread entries referenced by this batch at once instead of once per message
+            val threadIndex = ThreadIndex(folderId)
+            val threadHeadersList = messages.values.map { it.message.toThreadHeaders() }
+            threadMessageOperations.loadThreadIndex(database, threadIndex, threadHeadersList)
+
+            for ((messageServerId, messageData) in messages) {
+                saveMessage(folderId, messageServerId, messageData, threadIndex)
+            }
+        }
+    }
+
     fun saveLocalMessage(folderId: Long, messageData: SaveMessageData, existingMessageId: Long?): Long {
         return if (existingMessageId == null) {
             saveLocalMessage(folderId, messageData)
@@ -77,12 +91,20 @@ internal class SaveMessageOperations(
         }
     }
 
-    private fun saveMessage(folderId: Long, messageServerId: String, messageData: SaveMessageData): Long {
+    private fun saveMessage(
+        folderId: Long,
+        messageServerId: String,
+        messageData: SaveMessageData,
+        threadIndex: ThreadIndex = ThreadIndex(folderId),
+    ): Long {
         return lockableDatabase.execute(true) { database ->
             val message = messageData.message
 
             val existingMessageInfo = getMessage(folderId, messageServerId)
             return@execute if (existingMessageInfo != null) {
+                // Replacing a message can change its Message-ID without going through the thread index
+                threadIndex.invalidate()
+
                 val (existingMessageId, existingRootMessagePartId) = existingMessageInfo
                 replaceMessage(
                     database,
@@ -95,7 +117,7 @@ internal class SaveMessageOperations(
 
                 existingMessageId
             } else {
-                insertMessage(database, folderId, messageServerId, message, messageData)
+                insertMessage(database, folderId, messageServerId, message, messageData, threadIndex)
             }
         }
     }
@@ -106,8 +128,14 @@ internal class SaveMessageOperations(
         messageServerId: String,
         message: Message,
         messageData: SaveMessageData,
+        threadIndex: ThreadIndex,
     ): Long {
-        val threadInfo = threadMessageOperations.doMessageThreading(database, folderId, message.toThreadHeaders())
+        val threadInfo = threadMessageOperations.doMessageThreading(
+            database,
+            folderId,
+            message.toThreadHeaders(),
+            threadIndex,
+        )
 
         val rootMessagePartId = saveMessageParts(database, message)
         val messageId = saveMessage(
@@ -119,9 +147,17 @@ internal class SaveMessageOperations(
             replaceMessageId = threadInfo?.messageId,
         )
 
-        if (threadInfo?.threadId == null) {
-            threadMessageOperations.createThreadEntry(database, messageId, threadInfo?.rootId, threadInfo?.parentId)
-        }
+        val threadId = threadInfo?.threadId
+            ?: threadMessageOperations.createThreadEntry(database, messageId, threadInfo?.rootId, threadInfo?.parentId)
+
+        threadIndex.addMessage(
+            messageIdHeader = message.messageId,
+            messageId = messageId,
+            threadId = threadId,
+            rootId = threadInfo?.rootId ?: threadId,
+            parentId = threadInfo?.parentId,
+            isEmpty = false,
+        )
 
         createOrReplaceFulltextEntry(database, messageId, messageData)
 
@@ -431,7 +467,15 @@ internal class SaveMessageOperations(
     }
 
     private fun createOrReplaceFulltextEntry(database: SQLiteDatabase, messageId: Long, messageData: SaveMessageData) {
-        val fulltext = messageData.textForSearchIndex ?: return
+        val fulltext = messageData.textForSearchIndex
+        if (fulltext == null) {
+            // Extracting the text is left to the background indexer. Until then the old entry (if any) is kept.
+            val values = ContentValues().apply {
+                put("message_id", messageId)
+            }
+            database.insertWithOnConflict("fulltext_queue", null, values, SQLiteDatabase.CONFLICT_IGNORE)
+            return
+        }
 
         val values = ContentValues().apply {
             put("docid", messageId)
@@ -439,6 +483,7 @@ internal class SaveMessageOperations(
         }
 
         database.replace("messages_fulltext", null, values)
+        database.delete("fulltext_queue", "message_id = ?", arrayOf(messageId.toString()))
     }
 
     private fun getMessage(folderId: Long, messageServerId: String): Pair<Long, Long?>? {
@@ -0,0 +1,120 @@
+package com.fsck.k9.storage.messages
+
+import android.database.sqlite.SQLiteDatabase
+
+/**
+ * In-memory index of Message-ID header → thread entries of a folder.
+ *
+ * Entries are loaded from the database when a Message-ID is first looked up, or up front for a whole batch of
+ * messages via [load]. [ThreadMessageOperations] keeps the index up to date while threading messages. Other code
+ * modifying the `messages` or `threads` tables has to call [invalidate]. An index must not outlive the database
+ * transaction it was created in.
+ */
+internal class ThreadIndex(private val folderId: Long) {
+    private val entriesByMessageIdHeader = mutableMapOf<String, MutableList<IndexedThread>>()
+
+    fun load(database: SQLiteDatabase, messageIdHeaders: Collection<String>) {
+        val missingMessageIdHeaders = messageIdHeaders.filterTo(mutableSetOf()) { it !in entriesByMessageIdHeader }
+        if (missingMessageIdHeaders.isEmpty()) return
+
+        for (messageIdHeader in missingMessageIdHeaders) {
+            entriesByMessageIdHeader[messageIdHeader] = mutableListOf()
+        }
+
+        performChunkedOperation(
+            arguments = missingMessageIdHeaders,
+            argumentTransformation = { it },
+        ) { selectionSet, selectionArguments ->
+            database.rawQuery(
+                """
+SELECT m.message_id, m.id, m.empty, t.id, t.root, t.parent
+FROM messages m
+LEFT JOIN threads t ON (t.message_id = m.id)
+WHERE m.folder_id = ? AND m.message_id $selectionSet
+ORDER BY m.id
+                """,
+                arrayOf(folderId.toString()) + selectionArguments,
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    val messageIdHeader = cursor.getString(0)
+                    val entry = IndexedThread(
+                        messageId = cursor.getLong(1),
+                        isEmpty = cursor.getInt(2) == 1,
+                        threadId = cursor.getLong(3),
+                        rootId = cursor.getLong(4),
+                        parentId = if (cursor.isNull(5)) null else cursor.getLong(5),
+                    )
+
+                    entriesByMessageIdHeader.getValue(messageIdHeader).add(entry)
+                }
+            }
+        }
+    }
+
+    fun getThreadInfo(database: SQLiteDatabase, messageIdHeader: String?, onlyEmpty: Boolean): ThreadInfo? {
+        if (messageIdHeader == null) return null
+
+        load(database, listOf(messageIdHeader))
+
+        return entriesByMessageIdHeader.getValue(messageIdHeader)
+            .firstOrNull { !onlyEmpty || it.isEmpty }
+            ?.let { entry -> ThreadInfo(entry.threadId, entry.messageId, entry.rootId, entry.parentId) }
+    }
+
+    fun getThreadRoot(threadId: Long): Long? {
+        return entriesByMessageIdHeader.values.firstNotNullOfOrNull { entries ->
+            entries.firstOrNull { it.threadId == threadId }?.rootId
+        }
+    }
+
+    /**
+     * Record a message and its thread entry. Marks the entry as non-empty if it already exists.
+     */
+    fun addMessage(
+        messageIdHeader: String?,
+        messageId: Long,
+        threadId: Long,
+        rootId: Long,
+        parentId: Long?,
+        isEmpty: Boolean,
+    ) {
+        if (messageIdHeader == null) return
+
+        // If this Message-ID hasn't been loaded yet, the next lookup will read the new row from the database
+        val entries = entriesByMessageIdHeader[messageIdHeader] ?: return
+
+        val existingEntry = entries.firstOrNull { it.messageId == messageId }
+        if (existingEntry != null) {
+            existingEntry.isEmpty = isEmpty
+        } else {
+            entries.add(IndexedThread(messageId, isEmpty, threadId, rootId, parentId))
+        }
+    }
+
+    fun updateThreadToNewRoot(oldRootId: Long, rootId: Long, parentId: Long?) {
+        for (entries in entriesByMessageIdHeader.values) {
+            for (entry in entries) {
+                if (entry.rootId == oldRootId) {
+                    entry.rootId = rootId
+                }
+
+                if (entry.threadId == oldRootId) {
+                    entry.rootId = rootId
+                    entry.parentId = parentId
+                }
+            }
+        }
+    }
+
+    fun invalidate() {
+        entriesByMessageIdHeader.clear()
+    }
+
+    private class IndexedThread(
+        val messageId: Long,
+        var isEmpty: Boolean,
+        val threadId: Long,
+        var rootId: Long,
+        var parentId: Long?,
+    )
+}
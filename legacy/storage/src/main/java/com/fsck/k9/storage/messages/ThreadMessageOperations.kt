@@ -63,10 +63,29 @@ WHERE messages.id = ?
         return database.insert("threads", null, values)
     }
 
+    /**
+     * Load the thread entries referenced by [threadHeadersList] into [threadIndex] using as few queries as possible.
+     */
+    fun loadThreadIndex(database: SQLiteDatabase, threadIndex: ThreadIndex, threadHeadersList: List<ThreadHeaders>) {
+        val messageIdHeaders = mutableSetOf<String>()
+        for (threadHeaders in threadHeadersList) {
+            threadHeaders.messageIdHeader?.let { messageIdHeaders.add(it) }
+            messageIdHeaders.addAll(threadHeaders.referencesHeader.extractMessageIdValues())
+            threadHeaders.inReplyToHeader.extractMessageIdValue()?.let { messageIdHeaders.add(it) }
+        }
+
+        threadIndex.load(database, messageIdHeaders)
+    }
+
     // TODO: Use MessageIdParser
-    fun doMessageThreading(database: SQLiteDatabase, folderId: Long, threadHeaders: ThreadHeaders): ThreadInfo? {
+    fun doMessageThreading(
+        database: SQLiteDatabase,
+        folderId: Long,
+        threadHeaders: ThreadHeaders,
+        threadIndex: ThreadIndex = ThreadIndex(folderId),
+    ): ThreadInfo? {
         val messageIdHeader = threadHeaders.messageIdHeader
-        val msgThreadInfo = getThreadInfo(database, folderId, messageIdHeader, onlyEmpty = true)
+        val msgThreadInfo = threadIndex.getThreadInfo(database, messageIdHeader, onlyEmpty = true)
 
         val references = threadHeaders.referencesHeader.extractMessageIdValues()
         val inReplyTo = threadHeaders.inReplyToHeader.extractMessageIdValue()
@@ -85,9 +104,9 @@ WHERE messages.id = ?
         var rootId: Long? = null
         var parentId: Long? = null
         for (reference in messageIdValues) {
-            val threadInfo = getThreadInfo(database, folderId, reference, onlyEmpty = false)
+            val threadInfo = threadIndex.getThreadInfo(database, reference, onlyEmpty = false)
             if (threadInfo == null) {
-                parentId = createEmptyMessage(database, folderId, reference, rootId, parentId)
+                parentId = createEmptyMessage(database, threadIndex, folderId, reference, rootId, parentId)
                 if (rootId == null) {
                     rootId = parentId
                 }
@@ -96,7 +115,7 @@ WHERE messages.id = ?
                     rootId = threadInfo.rootId
                 } else if (threadInfo.rootId != rootId) {
                     // Merge this thread into our thread
-                    updateThreadToNewRoot(database, threadInfo.rootId, rootId, parentId)
+                    updateThreadToNewRoot(database, threadIndex, threadInfo.rootId, rootId, parentId)
                 }
                 parentId = threadInfo.threadId
             }
@@ -104,17 +123,23 @@ WHERE messages.id = ?
 
         msgThreadInfo?.threadId?.let { threadId ->
             // msgThreadInfo.rootId might be outdated. Fetch current value.
-            val oldRootId = getThreadRoot(database, threadId)
+            val oldRootId = threadIndex.getThreadRoot(threadId) ?: getThreadRoot(database, threadId)
             if (oldRootId != rootId) {
                 // Connect the existing thread to the newly created thread
-                updateThreadToNewRoot(database, oldRootId, rootId!!, parentId)
+                updateThreadToNewRoot(database, threadIndex, oldRootId, rootId!!, parentId)
             }
         }
 
         return ThreadInfo(msgThreadInfo?.threadId, msgThreadInfo?.messageId, rootId!!, parentId)
     }
 
-    private fun updateThreadToNewRoot(database: SQLiteDatabase, oldRootId: Long, rootId: Long, parentId: Long?) {
+    private fun updateThreadToNewRoot(
+        database: SQLiteDatabase,
+        threadIndex: ThreadIndex,
+        oldRootId: Long,
+        rootId: Long,
+        parentId: Long?,
+    ) {
         // Let all children know who's the new root
         val values = ContentValues()
         values.put("root", rootId)
@@ -123,10 +148,13 @@ WHERE messages.id = ?
         // Connect the message to the current parent
         values.put("parent", parentId)
         database.update("threads", values, "id = ?", arrayOf(oldRootId.toString()))
+
+        threadIndex.updateThreadToNewRoot(oldRootId, rootId, parentId)
     }
 
     private fun createEmptyMessage(
         database: SQLiteDatabase,
+        threadIndex: ThreadIndex,
         folderId: Long,
         messageIdHeader: String,
         rootId: Long?,
@@ -144,39 +172,12 @@ WHERE messages.id = ?
             put("root", rootId)
             put("parent", parentId)
         }
-        return database.insert("threads", null, threadValues)
-    }
+        val threadId = database.insert("threads", null, threadValues)
 
-    private fun getThreadInfo(
-        db: SQLiteDatabase,
-        folderId: Long,
-        messageIdHeader: String?,
-        onlyEmpty: Boolean,
-    ): ThreadInfo? {
-        if (messageIdHeader == null) return null
+        // The 'set_thread_root' trigger sets 'root' to the thread ID if no root was specified
+        threadIndex.addMessage(messageIdHeader, messageId, threadId, rootId ?: threadId, parentId, isEmpty = true)
 
-        return db.rawQuery(
-            """
-SELECT t.id, t.message_id, t.root, t.parent 
-FROM messages m 
-LEFT JOIN threads t ON (t.message_id = m.id) 
-WHERE m.folder_id = ? AND m.message_id = ? 
-${if (onlyEmpty) "AND m.empty = 1 " else ""}
-ORDER BY m.id 
-LIMIT 1
-            """,
-            arrayOf(folderId.toString(), messageIdHeader),
-        ).use { cursor ->
-            if (cursor.moveToFirst()) {
-                val threadId = cursor.getLong(0)
-                val messageId = cursor.getLong(1)
-                val rootId = cursor.getLong(2)
-                val parentId = if (cursor.isNull(3)) null else cursor.getLong(3)
-                ThreadInfo(threadId, messageId, rootId, parentId)
-            } else {
-                null
-            }
-        }
+        return threadId
     }
 
     private fun getThreadRoot(database: SQLiteDatabase, threadId: Long): Long {
@@ -0,0 +1,44 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+
+/**
+ * Add the 'fulltext_queue' table used by the background indexer.
+ *
+ * Existing entries in 'messages_fulltext' are kept, so search keeps working right after the upgrade. Messages that
+ * don't have an entry yet are queued for indexing.
+ */
+internal class MigrationTo89(private val db: SQLiteDatabase) {
+    fun createFulltextQueue() {
+        createFulltextQueueTable()
+        updateDeleteMessageTrigger()
+        queueUnindexedMessages()
+    }
+
+    private fun createFulltextQueueTable() {
+        db.execSQL("DROP TABLE IF EXISTS fulltext_queue")
+        db.execSQL("CREATE TABLE fulltext_queue (message_id INTEGER PRIMARY KEY NOT NULL)")
+    }
+
+    private fun updateDeleteMessageTrigger() {
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message")
+        db.execSQL(
+            "CREATE TRIGGER delete_message " +
+                "BEFORE DELETE ON messages " +
+                "BEGIN " +
+                "DELETE FROM message_parts WHERE root = OLD.message_part_id; " +
+                "DELETE FROM messages_fulltext WHERE docid = OLD.id; " +
+                "DELETE FROM fulltext_queue WHERE message_id = OLD.id; " +
+                "DELETE FROM threads WHERE message_id = OLD.id; " +
+                "END",
+        )
+    }
+
+    private fun queueUnindexedMessages() {
+        db.execSQL(
+            "INSERT INTO fulltext_queue (message_id) " +
+                "SELECT id FROM messages " +
+                "WHERE empty = 0 AND deleted = 0 AND id NOT IN (SELECT docid FROM messages_fulltext)",
+        )
+    }
+}
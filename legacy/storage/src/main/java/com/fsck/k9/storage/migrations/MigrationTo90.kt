@@ -0,0 +1,114 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+
+/**
+ * Add the 'folder_counts' table that contains the number of unread and starred messages per folder.
+ *
+ * The counts are kept up to date by triggers on the 'messages' table. This way the message counts displayed in the
+ * drawer or in widgets don't require counting all messages.
+ */
+internal class MigrationTo90(private val db: SQLiteDatabase) {
+    fun addFolderCountsTable() {
+        createFolderCountsTable()
+        createTriggers()
+        populateFolderCountsTable()
+    }
+
+    private fun createFolderCountsTable() {
+        db.execSQL("DROP TABLE IF EXISTS folder_counts")
+        db.execSQL(
+            "CREATE TABLE folder_counts (" +
+                "folder_id INTEGER PRIMARY KEY NOT NULL, " +
+                "unread_count INTEGER NOT NULL DEFAULT 0, " +
+                "starred_count INTEGER NOT NULL DEFAULT 0" +
+                ")",
+        )
+    }
+
+    private fun createTriggers() {
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_insert_message")
+        db.execSQL(
+            "CREATE TRIGGER folder_counts_insert_message " +
+                "AFTER INSERT ON messages " +
+                "WHEN NEW.empty IS 0 AND NEW.deleted IS 0 AND (NEW.read IS 0 OR NEW.flagged IS 1) " +
+                "BEGIN " +
+                "INSERT OR IGNORE INTO folder_counts (folder_id) " +
+                "SELECT NEW.folder_id WHERE NEW.folder_id IS NOT NULL; " +
+                "UPDATE folder_counts SET " +
+                "unread_count = unread_count + (NEW.read IS 0), " +
+                "starred_count = starred_count + (NEW.flagged IS 1) " +
+                "WHERE folder_id = NEW.folder_id; " +
+                "END",
+        )
+
+        // With 'recursive_triggers' disabled, REPLACE deletes the existing row without firing DELETE triggers. So the
+        // counts of a message that is about to be replaced have to be subtracted before it is inserted again.
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_replace_message")
+        db.execSQL(
+            "CREATE TRIGGER folder_counts_replace_message " +
+                "BEFORE INSERT ON messages " +
+                "WHEN NEW.id IS NOT NULL " +
+                "BEGIN " +
+                "UPDATE folder_counts SET " +
+                "unread_count = unread_count - (SELECT COUNT(*) FROM messages " +
+                "WHERE id = NEW.id AND empty IS 0 AND deleted IS 0 AND read IS 0), " +
+                "starred_count = starred_count - (SELECT COUNT(*) FROM messages " +
+                "WHERE id = NEW.id AND empty IS 0 AND deleted IS 0 AND flagged IS 1) " +
+                "WHERE folder_id = (SELECT folder_id FROM messages WHERE id = NEW.id); " +
+                "END",
+        )
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_delete_message")
+        db.execSQL(
+            "CREATE TRIGGER folder_counts_delete_message " +
+                "AFTER DELETE ON messages " +
+                "WHEN OLD.empty IS 0 AND OLD.deleted IS 0 AND (OLD.read IS 0 OR OLD.flagged IS 1) " +
+                "BEGIN " +
+                "UPDATE folder_counts SET " +
+                "unread_count = unread_count - (OLD.read IS 0), " +
+                "starred_count = starred_count - (OLD.flagged IS 1) " +
+                "WHERE folder_id = OLD.folder_id; " +
+                "END",
+        )
+
+        db.execSQL("DROP TRIGGER IF EXISTS folder_counts_update_message")
+        db.execSQL(
+            "CREATE TRIGGER folder_counts_update_message " +
+                "AFTER UPDATE OF folder_id, empty, deleted, read, flagged ON messages " +
+                "WHEN (OLD.empty IS 0 AND OLD.deleted IS 0 AND (OLD.read IS 0 OR OLD.flagged IS 1)) OR " +
+                "(NEW.empty IS 0 AND NEW.deleted IS 0 AND (NEW.read IS 0 OR NEW.flagged IS 1)) " +
+                "BEGIN " +
+                "UPDATE folder_counts SET " +
+                "unread_count = unread_count - (OLD.empty IS 0 AND OLD.deleted IS 0 AND OLD.read IS 0), " +
+                "starred_count = starred_count - (OLD.empty IS 0 AND OLD.deleted IS 0 AND OLD.flagged IS 1) " +
+                "WHERE folder_id = OLD.folder_id; " +
+                "INSERT OR IGNORE INTO folder_counts (folder_id) " +
+                "SELECT NEW.folder_id WHERE NEW.folder_id IS NOT NULL; " +
+                "UPDATE folder_counts SET " +
+                "unread_count = unread_count + (NEW.empty IS 0 AND NEW.deleted IS 0 AND NEW.read IS 0), " +
+                "starred_count = starred_count + (NEW.empty IS 0 AND NEW.deleted IS 0 AND NEW.flagged IS 1) " +
+                "WHERE folder_id = NEW.folder_id; " +
+                "END",
+        )
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_folder_counts")
+        db.execSQL(
+            "CREATE TRIGGER delete_folder_counts " +
+                "AFTER DELETE ON folders " +
+                "BEGIN " +
+                "DELETE FROM folder_counts WHERE folder_id = OLD.id; " +
+                "END",
+        )
+    }
+
+    private fun populateFolderCountsTable() {
+        db.execSQL(
+            "INSERT INTO folder_counts (folder_id, unread_count, starred_count) " +
+                "SELECT folder_id, SUM(read IS 0), SUM(flagged IS 1) " +
+                "FROM messages " +
+                "WHERE empty IS 0 AND deleted IS 0 AND folder_id IN (SELECT id FROM folders) " +
+                "GROUP BY folder_id",
+        )
+    }
+}
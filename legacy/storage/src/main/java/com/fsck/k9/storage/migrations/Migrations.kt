@@ -35,5 +35,7 @@ object Migrations {
         if (oldVersion < 86) MigrationTo86(db, migrationsHelper).addFoldersPushEnabledColumn()
         if (oldVersion < 87) MigrationTo87(db, migrationsHelper).addFoldersSyncEnabledColumn()
         if (oldVersion < 88) MigrationTo88(db, migrationsHelper).addFoldersVisibleColumn()
+        if (oldVersion < 89) MigrationTo89(db).createFulltextQueue()
+        if (oldVersion < 90) MigrationTo90(db).addFolderCountsTable()
     }
 }
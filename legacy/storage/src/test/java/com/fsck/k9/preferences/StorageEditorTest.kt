@@ -139,8 +139,6 @@ class StorageEditorTest : K9RobolectricTest() {
 
         assertThat(success).isTrue()
         assertThat(newValues).isEqualTo(mapOf("storage-key" to "storage-value"))
-        verify(storagePersisterOps).remove("storage-key")
-        verify(storagePersisterOps).put("storage-key", "storage-value")
         verifyNoMoreInteractions(storagePersisterOps)
     }
 
@@ -153,7 +151,20 @@ class StorageEditorTest : K9RobolectricTest() {
 
         assertThat(success).isTrue()
         assertThat(newValues).isEqualTo(mapOf("storage-key" to "storage-value"))
-        verify(storagePersisterOps).remove("x")
+        verifyNoMoreInteractions(storagePersisterOps)
+    }
+
+    @Test
+    fun putString_removedOther() {
+        prepareStoragePersisterMock()
+
+        editor.remove("storage-key")
+        editor.putString("storage-key", "other-value")
+        val success = editor.commit()
+
+        assertThat(success).isTrue()
+        assertThat(newValues).isEqualTo(mapOf("storage-key" to "other-value"))
+        verify(storagePersisterOps).put("storage-key", "other-value")
         verifyNoMoreInteractions(storagePersisterOps)
     }
 
@@ -0,0 +1,76 @@
+package com.fsck.k9.storage.messages
+
+import android.database.sqlite.SQLiteDatabase
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEmpty
+import com.fsck.k9.storage.RobolectricTest
+import org.junit.Test
+
+class FulltextIndexOperationsTest : RobolectricTest() {
+    private val sqliteDatabase = createDatabase()
+    private val lockableDatabase = createLockableDatabaseMock(sqliteDatabase)
+    private val fulltextIndexOperations = FulltextIndexOperations(lockableDatabase)
+
+    @Test
+    fun `get messages to index should return most recent messages first`() {
+        sqliteDatabase.queueForIndexing(1L, 2L, 3L)
+
+        val result = fulltextIndexOperations.getMessagesToIndex(limit = 2)
+
+        assertThat(result).containsExactly(3L, 2L)
+    }
+
+    @Test
+    fun `get messages to index with empty queue`() {
+        val result = fulltextIndexOperations.getMessagesToIndex(limit = 10)
+
+        assertThat(result).isEmpty()
+    }
+
+    @Test
+    fun `save fulltext entries should update index and remove messages from queue`() {
+        sqliteDatabase.queueForIndexing(1L, 2L, 3L)
+
+        fulltextIndexOperations.saveFulltextEntries(mapOf(1L to "Wurstsalat", 2L to null))
+
+        assertThat(sqliteDatabase.readQueuedMessageIds()).containsExactly(3L)
+        assertThat(sqliteDatabase.searchFulltext("wurst*")).containsExactly(1L)
+    }
+
+    @Test
+    fun `save fulltext entries with null value should remove existing entry`() {
+        fulltextIndexOperations.saveFulltextEntries(mapOf(1L to "Wurstsalat"))
+
+        fulltextIndexOperations.saveFulltextEntries(mapOf(1L to null))
+
+        assertThat(sqliteDatabase.searchFulltext("Wurstsalat")).isEmpty()
+        assertThat(sqliteDatabase.readQueuedMessageIds()).isEmpty()
+    }
+
+    private fun SQLiteDatabase.queueForIndexing(vararg messageIds: Long) {
+        for (messageId in messageIds) {
+            execSQL("INSERT INTO fulltext_queue (message_id) VALUES (?)", arrayOf(messageId))
+        }
+    }
+
+    private fun SQLiteDatabase.readQueuedMessageIds(): List<Long> {
+        return rawQuery("SELECT message_id FROM fulltext_queue ORDER BY message_id", null).use { cursor ->
+            buildList {
+                while (cursor.moveToNext()) {
+                    add(cursor.getLong(0))
+                }
+            }
+        }
+    }
+
+    private fun SQLiteDatabase.searchFulltext(query: String): List<Long> {
+        return rawQuery("SELECT docid FROM messages_fulltext WHERE fulltext MATCH ?", arrayOf(query)).use { cursor ->
+            buildList {
+                while (cursor.moveToNext()) {
+                    add(cursor.getLong(0))
+                }
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.fsck.k9.storage.messages
 
+import app.k9mail.legacy.mailstore.MessageListPage
+import app.k9mail.legacy.mailstore.MessageListPageRow
 import app.k9mail.legacy.mailstore.MessageMapper
 import app.k9mail.legacy.message.extractors.PreviewResult.PreviewType
 import assertk.assertThat
@@ -477,12 +479,115 @@ class RetrieveMessageListOperationsTest : RobolectricTest() {
         assertThat(result).containsExactly(messageId2, messageId3)
     }
 
+    @Test
+    fun `getMessages() with page should continue after cursor`() {
+        val folderId = sqliteDatabase.createFolder()
+        val messageIds = (1..5).map { index ->
+            sqliteDatabase.createMessage(folderId, uid = "uid$index", date = index * 1000L).also { messageId ->
+                sqliteDatabase.createThread(messageId)
+            }
+        }
+
+        val firstPage = retrieveMessageListOperations.getMessages(
+            selection = "folder_id = ?",
+            selectionArgs = arrayOf(folderId.toString()),
+            sortOrder = "date DESC, id DESC",
+            page = MessageListPage(limit = 2),
+        ) { message -> message.id }
+        val secondPage = retrieveMessageListOperations.getMessages(
+            selection = "folder_id = ?",
+            selectionArgs = arrayOf(folderId.toString()),
+            sortOrder = "date DESC, id DESC",
+            page = MessageListPage(limit = 2, cursorSelection = "date < 4000"),
+        ) { message -> message.id }
+
+        assertThat(firstPage).containsExactly(messageIds[4], messageIds[3])
+        assertThat(secondPage).containsExactly(messageIds[2], messageIds[1])
+    }
+
+    @Test
+    fun `getThreadedMessages() with page should apply cursor to aggregated values`() {
+        val folderId = sqliteDatabase.createFolder()
+        val messageId1 = sqliteDatabase.createMessage(folderId, uid = "uid1", date = 1000L)
+        val threadId1 = sqliteDatabase.createThread(messageId1)
+        val messageId2 = sqliteDatabase.createMessage(folderId, uid = "uid2", date = 2000L)
+        sqliteDatabase.createThread(messageId2)
+        val messageId3 = sqliteDatabase.createMessage(folderId, uid = "uid3", date = 3000L)
+        sqliteDatabase.createThread(messageId3, root = threadId1)
+
+        val result = retrieveMessageListOperations.getThreadedMessages(
+            selection = "folder_id = ?",
+            selectionArgs = arrayOf(folderId.toString()),
+            sortOrder = "date DESC, id DESC",
+            page = MessageListPage(limit = 1, cursorSelection = "date < 3000"),
+        ) { message -> message.id }
+
+        assertThat(result).containsExactly(messageId2)
+    }
+
+    @Test
+    fun `getThreadedMessages() with page should not repeat thread with multiple latest messages`() {
+        val folderId = sqliteDatabase.createFolder()
+        val messageId1 = sqliteDatabase.createMessage(folderId, uid = "uid1", date = 2000L)
+        val threadId1 = sqliteDatabase.createThread(messageId1)
+        val messageId2 = sqliteDatabase.createMessage(folderId, uid = "uid2", date = 2000L)
+        sqliteDatabase.createThread(messageId2, root = threadId1)
+        val messageId3 = sqliteDatabase.createMessage(folderId, uid = "uid3", date = 1000L)
+        sqliteDatabase.createThread(messageId3)
+        val firstPage = MessageListPage(limit = 1)
+
+        val firstResult = retrieveMessageListOperations.getThreadedMessages(
+            selection = "folder_id = ?",
+            selectionArgs = arrayOf(folderId.toString()),
+            sortOrder = "date DESC, id DESC",
+            page = firstPage,
+        ) { message -> message.id }
+        val lastRow = firstPage.lastRow!!
+        val secondResult = retrieveMessageListOperations.getThreadedMessages(
+            selection = "folder_id = ?",
+            selectionArgs = arrayOf(folderId.toString()),
+            sortOrder = "date DESC, id DESC",
+            page = MessageListPage(
+                limit = 1,
+                cursorSelection = "(date < ${lastRow.messageDate}) OR " +
+                    "(date = ${lastRow.messageDate} AND messages.id < ${lastRow.id})",
+            ),
+        ) { message -> message.id }
+
+        assertThat(firstResult).containsExactly(messageId2)
+        assertThat(secondResult).containsExactly(messageId3)
+    }
+
+    @Test
+    fun `getMessages() with page should record rows the mapper didn't return a value for`() {
+        val folderId = sqliteDatabase.createFolder()
+        val messageIds = (1..3).map { index ->
+            sqliteDatabase.createMessage(folderId, uid = "uid$index", date = index * 1000L).also { messageId ->
+                sqliteDatabase.createThread(messageId)
+            }
+        }
+        val page = MessageListPage(limit = 3)
+
+        val result = retrieveMessageListOperations.getMessages(
+            selection = "folder_id = ?",
+            selectionArgs = arrayOf(folderId.toString()),
+            sortOrder = "date DESC, id DESC",
+            page = page,
+        ) { message -> message.id.takeIf { it == messageIds[2] } }
+
+        assertThat(result).containsExactly(messageIds[2])
+        assertThat(page.rowCount).isEqualTo(3)
+        assertThat(page.lastRow).isEqualTo(
+            MessageListPageRow(id = messageIds[0], messageDate = 1000L, internalDate = 0L, hasAttachments = false),
+        )
+    }
+
     private fun <T> getMessagesFromFolder(folderId: Long, mapper: MessageMapper<T?>): List<T> {
         return retrieveMessageListOperations.getMessages(
             selection = "folder_id = ?",
             selectionArgs = arrayOf(folderId.toString()),
             sortOrder = "date DESC, id DESC",
-            mapper,
+            mapper = mapper,
         )
     }
 
@@ -491,7 +596,7 @@ class RetrieveMessageListOperationsTest : RobolectricTest() {
             selection = "folder_id = ?",
             selectionArgs = arrayOf(folderId.toString()),
             sortOrder = "date DESC, id DESC",
-            mapper,
+            mapper = mapper,
         )
     }
 }
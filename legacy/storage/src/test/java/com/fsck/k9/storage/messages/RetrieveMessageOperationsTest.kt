@@ -56,6 +56,26 @@ class RetrieveMessageOperationsTest : RobolectricTest() {
         )
     }
 
+    @Test
+    fun `get message ids`() {
+        val messageId1 = sqliteDatabase.createMessage(folderId = 1, uid = "uid1")
+        val messageId2 = sqliteDatabase.createMessage(folderId = 1, uid = "uid2")
+        sqliteDatabase.createMessage(folderId = 1, uid = "uid3")
+        sqliteDatabase.createMessage(folderId = 2, uid = "uid2")
+
+        val serverIdToDatabaseIdMapping = retrieveMessageOperations.getMessageIds(
+            folderId = 1,
+            messageServerIds = listOf("uid1", "uid2", "uid4"),
+        )
+
+        assertThat(serverIdToDatabaseIdMapping).isEqualTo(
+            mapOf(
+                "uid1" to messageId1,
+                "uid2" to messageId2,
+            ),
+        )
+    }
+
     @Test
     fun `get all message server ids`() {
         sqliteDatabase.createMessage(folderId = 1, uid = "uid1")
@@ -132,6 +152,27 @@ class RetrieveMessageOperationsTest : RobolectricTest() {
         assertThat(flags).isEmpty()
     }
 
+    @Test
+    fun `get flags of multiple messages`() {
+        sqliteDatabase.createMessage(folderId = 1, uid = "uid1", flags = "DRAFT", read = true)
+        sqliteDatabase.createMessage(folderId = 1, uid = "uid2", flags = "", flagged = true)
+        sqliteDatabase.createMessage(folderId = 1, uid = "uid3", flags = "")
+        sqliteDatabase.createMessage(folderId = 2, uid = "uid4", flags = "", read = true)
+
+        val result = retrieveMessageOperations.getMessageFlags(
+            folderId = 1,
+            messageServerIds = listOf("uid1", "uid2", "uid3", "uid4", "uid5"),
+        )
+
+        assertThat(result).isEqualTo(
+            mapOf(
+                "uid1" to setOf(Flag.DRAFT, Flag.SEEN),
+                "uid2" to setOf(Flag.FLAGGED),
+                "uid3" to emptySet(),
+            ),
+        )
+    }
+
     @Test
     fun `get all message server ids and dates`() {
         sqliteDatabase.createMessage(folderId = 1, uid = "uid1", date = 23)
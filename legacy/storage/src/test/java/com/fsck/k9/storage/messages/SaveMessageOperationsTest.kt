@@ -305,6 +305,40 @@ class SaveMessageOperationsTest : RobolectricTest() {
         assertThat(message3.uid).isEqualTo("uid1")
     }
 
+    @Test
+    fun `save multiple messages in one batch`() {
+        val firstMessageData = buildMessage {
+            header("Subject", "Hello")
+            header("Message-ID", "<msg0001@domain.example>")
+
+            textBody("first")
+        }.toSaveMessageData()
+        val replyMessageData = buildMessage {
+            header("Subject", "Re: Hello")
+            header("Message-ID", "<msg0002@domain.example>")
+            header("In-Reply-To", "<msg0001@domain.example>")
+
+            textBody("reply")
+        }.toSaveMessageData()
+
+        saveMessageOperations.saveRemoteMessages(
+            folderId = 1,
+            messages = mapOf("uid1" to firstMessageData, "uid2" to replyMessageData),
+        )
+
+        val messages = sqliteDatabase.readMessages()
+        assertThat(messages).hasSize(2)
+        val firstMessage = messages.first { it.uid == "uid1" }
+        val replyMessage = messages.first { it.uid == "uid2" }
+
+        val threads = sqliteDatabase.readThreads()
+        assertThat(threads).hasSize(2)
+        val firstThread = threads.first { it.messageId == firstMessage.id }
+        val replyThread = threads.first { it.messageId == replyMessage.id }
+        assertThat(replyThread.parent).isEqualTo(firstThread.id)
+        assertThat(replyThread.root).isEqualTo(firstThread.id)
+    }
+
     @Test
     fun `save message with server ID already existing in MessageStore should replace that message`() {
         val existingMessageData = buildMessage {
@@ -263,4 +263,50 @@ class ThreadMessageOperationsTest : RobolectricTest() {
             ),
         )
     }
+
+    @Test
+    fun `thread reply and its parent with shared thread index`() {
+        val replyThreadHeaders = ThreadHeaders(
+            messageIdHeader = "<msg002@domain.example>",
+            inReplyToHeader = "<msg001@domain.example>",
+            referencesHeader = null,
+        )
+        val parentThreadHeaders = ThreadHeaders(
+            messageIdHeader = "<msg001@domain.example>",
+            inReplyToHeader = null,
+            referencesHeader = null,
+        )
+        val threadIndex = ThreadIndex(folderId = 1)
+        threadMessageOperations.loadThreadIndex(
+            sqliteDatabase,
+            threadIndex,
+            listOf(replyThreadHeaders, parentThreadHeaders),
+        )
+
+        threadMessageOperations.doMessageThreading(sqliteDatabase, folderId = 1, replyThreadHeaders, threadIndex)
+        val threadInfo = threadMessageOperations.doMessageThreading(
+            sqliteDatabase,
+            folderId = 1,
+            parentThreadHeaders,
+            threadIndex,
+        )
+
+        val threads = sqliteDatabase.readThreads()
+        assertThat(threads).hasSize(1)
+        val rootThread = threads.first()
+
+        val messages = sqliteDatabase.readMessages()
+        assertThat(messages).hasSize(1)
+        val emptyMessage = messages.first()
+        assertThat(emptyMessage.messageId).isEqualTo("<msg001@domain.example>")
+
+        assertThat(threadInfo).isEqualTo(
+            ThreadInfo(
+                threadId = rootThread.id,
+                messageId = emptyMessage.id,
+                rootId = rootThread.id!!,
+                parentId = null,
+            ),
+        )
+    }
 }
@@ -0,0 +1,139 @@
+package com.fsck.k9.storage.messages
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import com.fsck.k9.storage.RobolectricTest
+import kotlin.random.Random
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+private const val FOLDER_ID = 1L
+private const val MESSAGE_COUNT = 20_000
+private const val MESSAGES_PER_THREAD = 20
+private const val MAX_REFERENCES = 10
+
+/**
+ * Benchmark for [ThreadMessageOperations.doMessageThreading].
+ *
+ * Threads [MESSAGE_COUNT] messages of a synthetic mailing list archive, once message by message and once in batches
+ * sharing a [ThreadIndex]. Messages arrive slightly out of order, so some replies are saved before their parents. The
+ * time spent is printed to stdout.
+ *
+ * Skipped unless the environment variable `THREADING_BENCHMARK` is set, e.g.
+ * `THREADING_BENCHMARK=1 ./gradlew :legacy:storage:testDebugUnitTest --tests '*ThreadingBenchmark'`
+ */
+class ThreadingBenchmark : RobolectricTest() {
+    private val threadMessageOperations = ThreadMessageOperations()
+    private val corpus = createMailingListCorpus()
+
+    @Test
+    fun `thread synthetic mailing list`() {
+        assumeTrue(System.getenv("THREADING_BENCHMARK") != null)
+
+        for (batchSize in listOf(1, 25, 500)) {
+            val elapsedMillis = measureThreading(batchSize)
+
+            println(
+                "doMessageThreading(): %d messages, batch size %d: %d ms".format(
+                    MESSAGE_COUNT,
+                    batchSize,
+                    elapsedMillis,
+                ),
+            )
+        }
+    }
+
+    private fun measureThreading(batchSize: Int): Long {
+        val database = createDatabase()
+
+        val startNanos = System.nanoTime()
+        for (batch in corpus.chunked(batchSize)) {
+            database.beginTransaction()
+            try {
+                val threadIndex = ThreadIndex(FOLDER_ID)
+                if (batchSize > 1) {
+                    threadMessageOperations.loadThreadIndex(database, threadIndex, batch)
+                }
+
+                for (threadHeaders in batch) {
+                    saveMessage(database, threadHeaders, threadIndex)
+                }
+
+                database.setTransactionSuccessful()
+            } finally {
+                database.endTransaction()
+            }
+        }
+        val elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000
+
+        val threadCount = database.rawQuery("SELECT COUNT(DISTINCT root) FROM threads", null).use { cursor ->
+            cursor.moveToFirst()
+            cursor.getInt(0)
+        }
+        check(threadCount == MESSAGE_COUNT / MESSAGES_PER_THREAD) { "Unexpected number of threads: $threadCount" }
+
+        database.close()
+        return elapsedMillis
+    }
+
+    // Mirrors what SaveMessageOperations.insertMessage() does, minus writing message parts
+    private fun saveMessage(database: SQLiteDatabase, threadHeaders: ThreadHeaders, threadIndex: ThreadIndex) {
+        val threadInfo = threadMessageOperations.doMessageThreading(database, FOLDER_ID, threadHeaders, threadIndex)
+
+        val messageId = threadInfo?.messageId?.also { emptyMessageId ->
+            val values = ContentValues().apply { put("empty", 0) }
+            database.update("messages", values, "id = ?", arrayOf(emptyMessageId.toString()))
+        } ?: database.createMessage(
+            folderId = FOLDER_ID,
+            empty = false,
+            messageIdHeader = threadHeaders.messageIdHeader,
+        )
+
+        val threadId = threadInfo?.threadId
+            ?: threadMessageOperations.createThreadEntry(database, messageId, threadInfo?.rootId, threadInfo?.parentId)
+
+        threadIndex.addMessage(
+            messageIdHeader = threadHeaders.messageIdHeader,
+            messageId = messageId,
+            threadId = threadId,
+            rootId = threadInfo?.rootId ?: threadId,
+            parentId = threadInfo?.parentId,
+            isEmpty = false,
+        )
+    }
+
+    private fun createMailingListCorpus(): List<ThreadHeaders> {
+        val random = Random(seed = 42)
+        val threadCount = MESSAGE_COUNT / MESSAGES_PER_THREAD
+
+        // Every reply references a random earlier message of its thread, like a mailing list discussion
+        val threads = (0 until threadCount).map { threadNumber ->
+            val messageIds = (0 until MESSAGES_PER_THREAD).map { "<thread$threadNumber.msg$it@lists.domain.example>" }
+            val references = mutableMapOf<String, List<String>>()
+
+            messageIds.mapIndexed { index, messageIdHeader ->
+                val parentReferences = if (index == 0) {
+                    emptyList()
+                } else {
+                    val parent = messageIds[random.nextInt(index)]
+                    references.getValue(parent) + parent
+                }
+                references[messageIdHeader] = parentReferences
+
+                ThreadHeaders(
+                    messageIdHeader = messageIdHeader,
+                    inReplyToHeader = parentReferences.lastOrNull(),
+                    referencesHeader = parentReferences.takeLast(MAX_REFERENCES).joinToString(" ").ifEmpty { null },
+                )
+            }
+        }
+
+        // Interleave threads in the order the messages were posted, with some messages arriving late
+        return threads.flatMap { threadMessages ->
+            threadMessages.mapIndexed { messageNumber, threadHeaders ->
+                val arrival = messageNumber * threadCount + random.nextInt(threadCount * 2)
+                arrival to threadHeaders
+            }
+        }.sortedBy { (arrival, _) -> arrival }.map { (_, threadHeaders) -> threadHeaders }
+    }
+}
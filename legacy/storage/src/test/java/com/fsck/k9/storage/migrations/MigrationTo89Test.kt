@@ -0,0 +1,100 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEmpty
+import kotlin.test.Test
+import org.junit.After
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class MigrationTo89Test {
+    private val database = createDatabaseVersion88()
+    private val migration = MigrationTo89(database)
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun `should queue regular messages for indexing`() {
+        database.insertMessage(id = 1, empty = false, deleted = false)
+        database.insertMessage(id = 2, empty = true, deleted = false)
+        database.insertMessage(id = 3, empty = false, deleted = true)
+        database.insertMessage(id = 4, empty = false, deleted = false)
+
+        migration.createFulltextQueue()
+
+        assertThat(database.readQueuedMessageIds()).containsExactly(1L, 4L)
+    }
+
+    @Test
+    fun `should keep existing fulltext entries and not queue indexed messages`() {
+        database.insertMessage(id = 1, empty = false, deleted = false)
+        database.insertMessage(id = 2, empty = false, deleted = false)
+        database.execSQL("INSERT INTO messages_fulltext (docid, fulltext) VALUES (1, 'Wurstsalat')")
+
+        migration.createFulltextQueue()
+
+        assertThat(database.searchFulltext("Wurstsalat")).containsExactly(1L)
+        assertThat(database.readQueuedMessageIds()).containsExactly(2L)
+    }
+
+    @Test
+    fun `deleting a message should remove it from the queue`() {
+        database.insertMessage(id = 1, empty = false, deleted = false)
+        migration.createFulltextQueue()
+
+        database.execSQL("DELETE FROM messages WHERE id = 1")
+
+        assertThat(database.readQueuedMessageIds()).isEmpty()
+    }
+
+    private fun createDatabaseVersion88(): SQLiteDatabase {
+        return SQLiteDatabase.create(null).apply {
+            execSQL(
+                """
+                CREATE TABLE messages (
+                    id INTEGER PRIMARY KEY,
+                    deleted INTEGER default 0,
+                    message_part_id INTEGER,
+                    empty INTEGER default 0
+                )
+                """.trimIndent(),
+            )
+            execSQL("CREATE TABLE message_parts (id INTEGER PRIMARY KEY, root INTEGER)")
+            execSQL("CREATE TABLE threads (id INTEGER PRIMARY KEY, message_id INTEGER)")
+            execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)")
+        }
+    }
+
+    private fun SQLiteDatabase.insertMessage(id: Long, empty: Boolean, deleted: Boolean) {
+        execSQL(
+            "INSERT INTO messages (id, empty, deleted) VALUES (?, ?, ?)",
+            arrayOf(id, if (empty) 1 else 0, if (deleted) 1 else 0),
+        )
+    }
+
+    private fun SQLiteDatabase.readQueuedMessageIds(): List<Long> {
+        return rawQuery("SELECT message_id FROM fulltext_queue ORDER BY message_id", null).use { cursor ->
+            buildList {
+                while (cursor.moveToNext()) {
+                    add(cursor.getLong(0))
+                }
+            }
+        }
+    }
+
+    private fun SQLiteDatabase.searchFulltext(query: String): List<Long> {
+        return rawQuery("SELECT docid FROM messages_fulltext WHERE fulltext MATCH ?", arrayOf(query)).use { cursor ->
+            buildList {
+                while (cursor.moveToNext()) {
+                    add(cursor.getLong(0))
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.fsck.k9.storage.migrations
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEmpty
+import kotlin.test.Test
+import org.junit.After
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class MigrationTo90Test {
+    private val database = createDatabaseVersion89()
+    private val migration = MigrationTo90(database)
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun `should count unread and starred messages of existing folders`() {
+        database.insertFolder(id = 1)
+        database.insertFolder(id = 2)
+        database.insertMessage(id = 1, folderId = 1, read = false, flagged = false)
+        database.insertMessage(id = 2, folderId = 1, read = false, flagged = true)
+        database.insertMessage(id = 3, folderId = 1, read = true, flagged = false)
+        database.insertMessage(id = 4, folderId = 1, read = false, flagged = true, empty = true)
+        database.insertMessage(id = 5, folderId = 1, read = false, flagged = true, deleted = true)
+        database.insertMessage(id = 6, folderId = 2, read = true, flagged = true)
+        database.insertMessage(id = 7, folderId = 3, read = false, flagged = false)
+
+        migration.addFolderCountsTable()
+
+        assertThat(database.readFolderCounts()).containsExactly(
+            FolderCounts(folderId = 1, unreadCount = 2, starredCount = 1),
+            FolderCounts(folderId = 2, unreadCount = 0, starredCount = 1),
+        )
+    }
+
+    @Test
+    fun `inserting and deleting messages should update counts`() {
+        database.insertFolder(id = 1)
+        migration.addFolderCountsTable()
+
+        database.insertMessage(id = 1, folderId = 1, read = false, flagged = true)
+        database.insertMessage(id = 2, folderId = 1, read = false, flagged = false)
+        database.insertMessage(id = 3, folderId = 1, read = true, flagged = false)
+        database.execSQL("DELETE FROM messages WHERE id IN (1, 3)")
+
+        assertThat(database.readFolderCounts()).containsExactly(
+            FolderCounts(folderId = 1, unreadCount = 1, starredCount = 0),
+        )
+    }
+
+    @Test
+    fun `changing flags should update counts`() {
+        database.insertFolder(id = 1)
+        database.insertMessage(id = 1, folderId = 1, read = false, flagged = false)
+        database.insertMessage(id = 2, folderId = 1, read = false, flagged = false)
+        migration.addFolderCountsTable()
+
+        database.execSQL("UPDATE messages SET read = 1 WHERE id = 1")
+        database.execSQL("UPDATE messages SET flagged = 1 WHERE id = 2")
+
+        assertThat(database.readFolderCounts()).containsExactly(
+            FolderCounts(folderId = 1, unreadCount = 1, starredCount = 1),
+        )
+    }
+
+    @Test
+    fun `marking a message as deleted should update counts`() {
+        database.insertFolder(id = 1)
+        database.insertMessage(id = 1, folderId = 1, read = false, flagged = true)
+        migration.addFolderCountsTable()
+
+        database.execSQL("UPDATE messages SET deleted = 1 WHERE id = 1")
+
+        assertThat(database.readFolderCounts()).containsExactly(
+            FolderCounts(folderId = 1, unreadCount = 0, starredCount = 0),
+        )
+    }
+
+    @Test
+    fun `moving a message to another folder should update counts of both folders`() {
+        database.insertFolder(id = 1)
+        database.insertFolder(id = 2)
+        database.insertMessage(id = 1, folderId = 1, read = false, flagged = true)
+        migration.addFolderCountsTable()
+
+        database.execSQL("UPDATE messages SET folder_id = 2 WHERE id = 1")
+
+        assertThat(database.readFolderCounts()).containsExactly(
+            FolderCounts(folderId = 1, unreadCount = 0, starredCount = 0),
+            FolderCounts(folderId = 2, unreadCount = 1, starredCount = 1),
+        )
+    }
+
+    @Test
+    fun `replacing a message should not count it twice`() {
+        database.insertFolder(id = 1)
+        database.insertMessage(id = 1, folderId = 1, read = false, flagged = true)
+        migration.addFolderCountsTable()
+
+        // Like SaveMessageOperations when a message is downloaded again or fills an empty thread placeholder
+        database.replaceMessage(id = 1, folderId = 1, read = false, flagged = true)
+        database.replaceMessage(id = 1, folderId = 1, read = false, flagged = true)
+
+        assertThat(database.readFolderCounts()).containsExactly(
+            FolderCounts(folderId = 1, unreadCount = 1, starredCount = 1),
+        )
+    }
+
+    @Test
+    fun `replacing a message with an empty message should update counts`() {
+        database.insertFolder(id = 1)
+        database.insertMessage(id = 1, folderId = 1, read = false, flagged = true)
+        migration.addFolderCountsTable()
+
+        // Like LocalFolder.destroyMessage() when the message has children in the thread structure
+        database.replace(
+            "messages",
+            null,
+            ContentValues().apply {
+                put("id", 1L)
+                put("folder_id", 1L)
+                put("deleted", 0)
+                put("empty", 1)
+            },
+        )
+
+        assertThat(database.readFolderCounts()).containsExactly(
+            FolderCounts(folderId = 1, unreadCount = 0, starredCount = 0),
+        )
+    }
+
+    @Test
+    fun `replacing an empty message should update counts`() {
+        database.insertFolder(id = 1)
+        database.insertMessage(id = 1, folderId = 1, read = false, flagged = false, empty = true)
+        migration.addFolderCountsTable()
+
+        database.replaceMessage(id = 1, folderId = 1, read = false, flagged = false)
+
+        assertThat(database.readFolderCounts()).containsExactly(
+            FolderCounts(folderId = 1, unreadCount = 1, starredCount = 0),
+        )
+    }
+
+    @Test
+    fun `deleting a folder should remove its counts`() {
+        database.insertFolder(id = 1)
+        database.insertMessage(id = 1, folderId = 1, read = false, flagged = false)
+        migration.addFolderCountsTable()
+
+        database.execSQL("DELETE FROM folders WHERE id = 1")
+
+        assertThat(database.readFolderCounts()).isEmpty()
+    }
+
+    private fun createDatabaseVersion89(): SQLiteDatabase {
+        return SQLiteDatabase.create(null).apply {
+            execSQL("CREATE TABLE folders (id INTEGER PRIMARY KEY)")
+            execSQL(
+                """
+                CREATE TABLE messages (
+                    id INTEGER PRIMARY KEY,
+                    deleted INTEGER default 0,
+                    folder_id INTEGER,
+                    empty INTEGER default 0,
+                    read INTEGER default 0,
+                    flagged INTEGER default 0
+                )
+                """.trimIndent(),
+            )
+        }
+    }
+
+    private fun SQLiteDatabase.insertFolder(id: Long) {
+        execSQL("INSERT INTO folders (id) VALUES (?)", arrayOf(id))
+    }
+
+    @Suppress("LongParameterList")
+    private fun SQLiteDatabase.insertMessage(
+        id: Long,
+        folderId: Long,
+        read: Boolean,
+        flagged: Boolean,
+        empty: Boolean = false,
+        deleted: Boolean = false,
+    ) {
+        execSQL(
+            "INSERT INTO messages (id, folder_id, read, flagged, empty, deleted) VALUES (?, ?, ?, ?, ?, ?)",
+            arrayOf(id, folderId, read.toInt(), flagged.toInt(), empty.toInt(), deleted.toInt()),
+        )
+    }
+
+    private fun SQLiteDatabase.replaceMessage(id: Long, folderId: Long, read: Boolean, flagged: Boolean) {
+        replace(
+            "messages",
+            null,
+            ContentValues().apply {
+                put("id", id)
+                put("folder_id", folderId)
+                put("read", read.toInt())
+                put("flagged", flagged.toInt())
+            },
+        )
+    }
+
+    private fun SQLiteDatabase.readFolderCounts(): List<FolderCounts> {
+        return rawQuery("SELECT folder_id, unread_count, starred_count FROM folder_counts ORDER BY folder_id", null)
+            .use { cursor ->
+                buildList {
+                    while (cursor.moveToNext()) {
+                        add(FolderCounts(cursor.getLong(0), cursor.getInt(1), cursor.getInt(2)))
+                    }
+                }
+            }
+    }
+
+    private fun Boolean.toInt() = if (this) 1 else 0
+
+    private data class FolderCounts(val folderId: Long, val unreadCount: Int, val starredCount: Int)
+}
@@ -0,0 +1,78 @@
+package com.fsck.k9.ui.messagelist
+
+import app.k9mail.legacy.account.Account.SortType
+import app.k9mail.legacy.mailstore.MessageListPage
+import app.k9mail.legacy.mailstore.MessageListPageRow
+import com.fsck.k9.mailstore.MessageColumns
+
+/**
+ * Returns a sequence that loads a list one page of [pageSize] rows at a time.
+ *
+ * The cursor of the next page is built from the last row read from the database, not from the last item returned by
+ * [loadPage]. The mapper might drop rows (e.g. hidden messages), so only a page with fewer than [pageSize] rows means
+ * we've reached the end of the list.
+ */
+internal fun <T> loadPaged(
+    pageSize: Int,
+    loadPage: (MessageListPage) -> List<T>,
+    buildCursorSelection: (MessageListPageRow) -> String,
+): Sequence<T> = sequence {
+    var page = MessageListPage(limit = pageSize)
+    while (true) {
+        yieldAll(loadPage(page))
+
+        val lastRow = page.lastRow
+        if (page.rowCount < pageSize || lastRow == null) break
+
+        page = MessageListPage(limit = pageSize, cursorSelection = buildCursorSelection(lastRow))
+    }
+}
+
+/**
+ * Build a selection that matches the rows sorted after [lastRow] by the sort order for [sortType].
+ *
+ * The values are numbers taken from the database, so they are embedded into the selection directly. This way they
+ * are compared as numbers even when the left-hand side is an expression without type affinity.
+ */
+internal fun buildCursorSelection(
+    sortType: SortType,
+    sortAscending: Boolean,
+    sortDateAscending: Boolean,
+    lastRow: MessageListPageRow,
+): String {
+    val dateSortKey = SortKey("IFNULL(${MessageColumns.DATE}, 0)", sortDateAscending, lastRow.messageDate)
+    val sortKeys = when (sortType) {
+        SortType.SORT_DATE -> {
+            listOf(dateSortKey.copy(ascending = sortAscending))
+        }
+        SortType.SORT_ARRIVAL -> {
+            val internalDate = "IFNULL(${MessageColumns.INTERNAL_DATE}, 0)"
+            listOf(SortKey(internalDate, sortAscending, lastRow.internalDate))
+        }
+        SortType.SORT_ATTACHMENT -> {
+            val hasNoAttachments = if (lastRow.hasAttachments) 0L else 1L
+            val attachmentSortKey = SortKey(
+                expression = "(${MessageColumns.ATTACHMENT_COUNT} < 1)",
+                ascending = sortAscending,
+                value = hasNoAttachments,
+            )
+            listOf(attachmentSortKey, dateSortKey)
+        }
+        else -> error("Keyset pagination not supported for sort type $sortType")
+    } + SortKey("messages.${MessageColumns.ID}", ascending = false, lastRow.id)
+
+    // (key1 > value1) OR (key1 = value1 AND key2 > value2) OR ...
+    return sortKeys.indices.joinToString(separator = " OR ") { index ->
+        val equalKeys = sortKeys.take(index).map { "${it.expression} = ${it.value}" }
+        val sortKey = sortKeys[index]
+        val operator = if (sortKey.ascending) ">" else "<"
+
+        (equalKeys + "${sortKey.expression} $operator ${sortKey.value}").joinToString(
+            separator = " AND ",
+            prefix = "(",
+            postfix = ")",
+        )
+    }
+}
+
+private data class SortKey(val expression: String, val ascending: Boolean, val value: Long)
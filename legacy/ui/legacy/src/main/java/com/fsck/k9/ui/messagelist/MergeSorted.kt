@@ -0,0 +1,34 @@
+package com.fsck.k9.ui.messagelist
+
+import java.util.PriorityQueue
+
+/**
+ * Merges [sequences] that are each sorted according to [comparator] into one sorted sequence.
+ *
+ * The input sequences are consumed lazily. Taking `n` elements from the result only evaluates `n` elements plus one
+ * element per input sequence.
+ */
+internal fun <T> mergeSorted(sequences: List<Sequence<T>>, comparator: Comparator<in T>): Sequence<T> = sequence {
+    val queue = PriorityQueue<PeekingIterator<T>>(sequences.size.coerceAtLeast(1)) { a, b ->
+        comparator.compare(a.head, b.head)
+    }
+
+    for (sequence in sequences) {
+        val iterator = sequence.iterator()
+        if (iterator.hasNext()) {
+            queue.add(PeekingIterator(iterator.next(), iterator))
+        }
+    }
+
+    while (queue.isNotEmpty()) {
+        val source = queue.poll()!!
+        yield(source.head)
+
+        if (source.iterator.hasNext()) {
+            source.head = source.iterator.next()
+            queue.add(source)
+        }
+    }
+}
+
+private class PeekingIterator<T>(var head: T, val iterator: Iterator<T>)
@@ -129,6 +129,8 @@ class MessageListFragment :
     private var isSingleFolderMode = false
     private var isRemoteSearch = false
     private var initialMessageListLoad = true
+    private var hasMoreItems = false
+    private var isSelectAllPending = false
 
     private val isUnifiedInbox: Boolean
         get() = localSearch.id == SearchAccount.UNIFIED_INBOX
@@ -347,6 +349,18 @@ class MessageListFragment :
         itemTouchHelper.attachToRecyclerView(recyclerView)
 
         recyclerView.adapter = adapter
+        recyclerView.addOnScrollListener(
+            object : RecyclerView.OnScrollListener() {
+                override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                    if (dy <= 0) return
+
+                    val layoutManager = recyclerView.layoutManager as LinearLayoutManager
+                    if (layoutManager.findLastVisibleItemPosition() >= adapter.itemCount - PREFETCH_DISTANCE) {
+                        viewModel.loadMoreItems()
+                    }
+                }
+            },
+        )
 
         this.recyclerView = recyclerView
         this.itemTouchHelper = itemTouchHelper
@@ -402,6 +416,8 @@ class MessageListFragment :
     }
 
     private fun loadMessageList() {
+        isSelectAllPending = false
+
         val config = MessageListConfig(
             localSearch,
             showingThreadedList,
@@ -895,6 +911,9 @@ class MessageListFragment :
 
         val footerText = if (initialMessageListLoad) {
             null
+        } else if (hasMoreItems) {
+            // Only offer to load more messages from the server once all local messages are displayed
+            null
         } else if (localSearch.isManualSearch || currentFolder == null || account == null) {
             null
         } else if (currentFolder.loading) {
@@ -920,6 +939,13 @@ class MessageListFragment :
             return
         }
 
+        if (hasMoreItems) {
+            // Load the rest of the message list first, so all messages are selected. See setMessageList().
+            isSelectAllPending = true
+            viewModel.loadAllItems()
+            return
+        }
+
         adapter.selectAll()
 
         if (actionMode == null) {
@@ -1465,11 +1491,17 @@ class MessageListFragment :
         invalidateMenu()
 
         initialMessageListLoad = false
+        hasMoreItems = messageListInfo.hasMoreItems
 
         currentFolder?.let { currentFolder ->
             currentFolder.moreMessages = messageListInfo.hasMoreMessages
             updateFooterText()
         }
+
+        if (isSelectAllPending && !hasMoreItems) {
+            isSelectAllPending = false
+            selectAll()
+        }
     }
 
     private fun resetActionMode() {
@@ -2085,6 +2117,9 @@ class MessageListFragment :
         private const val STATE_ACTIVE_MESSAGE = "activeMessage"
         private const val STATE_REMOTE_SEARCH_PERFORMED = "remoteSearchPerformed"
 
+        // Load more items of the message list when the user scrolled this close to the end of the list
+        private const val PREFETCH_DISTANCE = 25
+
         fun newInstance(search: LocalSearch, isThreadDisplay: Boolean, threadedList: Boolean): MessageListFragment {
             return MessageListFragment().apply {
                 arguments = bundleOf(
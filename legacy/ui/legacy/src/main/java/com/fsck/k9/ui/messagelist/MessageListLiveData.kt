@@ -2,14 +2,25 @@ package com.fsck.k9.ui.messagelist
 
 import androidx.lifecycle.LiveData
 import app.k9mail.legacy.account.AccountManager
+import app.k9mail.legacy.mailstore.MessageListChange
+import app.k9mail.legacy.mailstore.MessageListChange.Kind
 import app.k9mail.legacy.mailstore.MessageListChangedListener
 import app.k9mail.legacy.mailstore.MessageListRepository
 import com.fsck.k9.search.getAccountUuids
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 
+/**
+ * Loads a window of the message list. The window starts with [INITIAL_WINDOW_SIZE] items and grows when
+ * [loadMoreItems] is called. [loadAllItems] grows it to the whole list.
+ *
+ * Changes to individual messages are applied to the current list. The whole window is only reloaded when a change
+ * can't be applied incrementally.
+ */
 class MessageListLiveData(
     private val messageListLoader: MessageListLoader,
     private val accountManager: AccountManager,
@@ -17,20 +28,106 @@ class MessageListLiveData(
     private val coroutineScope: CoroutineScope,
     val config: MessageListConfig,
 ) : LiveData<MessageListInfo>() {
+    @Volatile
+    private var windowSize = INITIAL_WINDOW_SIZE
 
-    private val messageListChangedListener = MessageListChangedListener {
-        loadMessageListAsync()
+    private var isGrowingWindow = false
+
+    // Updates are applied one after another so a change is never overwritten by an older full reload
+    private val updateMutex = Mutex()
+
+    private val pendingChanges = mutableListOf<AccountChange>()
+    private var isFullReloadPending = false
+
+    private val messageListChangedListener = object : MessageListChangedListener {
+        override fun onMessageListChanged() {
+            loadMessageListAsync()
+        }
+
+        override fun onMessageListChanged(accountUuid: String, change: MessageListChange) {
+            if (change.kind == Kind.STRUCTURAL) {
+                loadMessageListAsync()
+            } else {
+                synchronized(pendingChanges) {
+                    pendingChanges.add(AccountChange(accountUuid, change))
+                }
+                updateMessageListAsync()
+            }
+        }
     }
 
     private fun loadMessageListAsync() {
+        synchronized(pendingChanges) {
+            isFullReloadPending = true
+        }
+        updateMessageListAsync()
+    }
+
+    private fun updateMessageListAsync() {
         coroutineScope.launch(Dispatchers.Main) {
-            val messageList = withContext(Dispatchers.IO) {
-                messageListLoader.getMessageList(config)
+            updateMutex.withLock {
+                val (isFullReload, changes) = takePendingUpdate() ?: return@withLock
+                val currentMessageList = value
+                val windowSize = windowSize
+
+                val messageList = withContext(Dispatchers.IO) {
+                    if (isFullReload || currentMessageList == null) {
+                        messageListLoader.getMessageList(config, windowSize)
+                    } else {
+                        applyChanges(currentMessageList, windowSize, changes)
+                            ?: messageListLoader.getMessageList(config, windowSize)
+                    }
+                }
+
+                if (isFullReload) {
+                    isGrowingWindow = false
+                }
+                value = messageList
             }
-            value = messageList
         }
     }
 
+    /**
+     * Returns the changes that haven't been applied yet, or `null` if an earlier update already took care of them.
+     */
+    private fun takePendingUpdate(): PendingUpdate? {
+        return synchronized(pendingChanges) {
+            if (!isFullReloadPending && pendingChanges.isEmpty()) return null
+
+            PendingUpdate(isFullReloadPending, pendingChanges.coalesce()).also {
+                isFullReloadPending = false
+                pendingChanges.clear()
+            }
+        }
+    }
+
+    private fun applyChanges(
+        messageList: MessageListInfo,
+        windowSize: Int,
+        changes: List<AccountChange>,
+    ): MessageListInfo? {
+        return changes.fold(messageList) { currentMessageList, (accountUuid, change) ->
+            messageListLoader.applyMessageListChange(config, currentMessageList, windowSize, accountUuid, change)
+                ?: return null
+        }
+    }
+
+    fun loadMoreItems() {
+        if (isGrowingWindow || value?.hasMoreItems != true) return
+
+        isGrowingWindow = true
+        windowSize += WINDOW_SIZE_INCREMENT
+        loadMessageListAsync()
+    }
+
+    fun loadAllItems() {
+        if (windowSize == MAX_WINDOW_SIZE || value?.hasMoreItems != true) return
+
+        isGrowingWindow = true
+        windowSize = MAX_WINDOW_SIZE
+        loadMessageListAsync()
+    }
+
     override fun onActive() {
         super.onActive()
 
@@ -52,4 +149,40 @@ class MessageListLiveData(
             }
         }
     }
+
+    companion object {
+        private const val INITIAL_WINDOW_SIZE = 100
+        private const val WINDOW_SIZE_INCREMENT = 100
+
+        // MessageListLoader loads one item more than the window size to find out whether there are more items
+        private const val MAX_WINDOW_SIZE = Int.MAX_VALUE - 1
+    }
+}
+
+private data class AccountChange(val accountUuid: String, val change: MessageListChange)
+
+private data class PendingUpdate(val isFullReload: Boolean, val changes: List<AccountChange>)
+
+/**
+ * Combines consecutive changes of the same kind to the same account, e.g. during a sync, into a single change.
+ */
+private fun List<AccountChange>.coalesce(): List<AccountChange> {
+    return fold(mutableListOf<AccountChange>()) { result, accountChange ->
+        val last = result.lastOrNull()
+        if (last != null && last.accountUuid == accountChange.accountUuid &&
+            last.change.kind == accountChange.change.kind
+        ) {
+            result[result.lastIndex] = AccountChange(
+                accountUuid = last.accountUuid,
+                change = MessageListChange(
+                    kind = last.change.kind,
+                    messageIds = last.change.messageIds + accountChange.change.messageIds,
+                    threadRootIds = last.change.threadRootIds + accountChange.change.threadRootIds,
+                ),
+            )
+        } else {
+            result.add(accountChange)
+        }
+        result
+    }
 }
@@ -2,6 +2,9 @@ package com.fsck.k9.ui.messagelist
 
 import app.k9mail.legacy.account.Account
 import app.k9mail.legacy.account.Account.SortType
+import app.k9mail.legacy.mailstore.MessageListChange
+import app.k9mail.legacy.mailstore.MessageListChange.Kind
+import app.k9mail.legacy.mailstore.MessageListPage
 import app.k9mail.legacy.mailstore.MessageListRepository
 import app.k9mail.legacy.search.LocalSearch
 import app.k9mail.legacy.search.api.SearchField
@@ -20,9 +23,12 @@ class MessageListLoader(
     private val messageHelper: MessageHelper,
 ) {
 
-    fun getMessageList(config: MessageListConfig): MessageListInfo {
+    /**
+     * Load the first [windowSize] items of the message list.
+     */
+    fun getMessageList(config: MessageListConfig, windowSize: Int): MessageListInfo {
         return try {
-            getMessageListInfo(config)
+            getMessageListInfo(config, windowSize)
         } catch (e: Exception) {
             Timber.e(e, "Error while fetching message list")
 
@@ -31,20 +37,160 @@ class MessageListLoader(
         }
     }
 
-    private fun getMessageListInfo(config: MessageListConfig): MessageListInfo {
+    private fun getMessageListInfo(config: MessageListConfig, windowSize: Int): MessageListInfo {
         val accounts = config.search.getAccounts(preferences)
-        val messageListItems = accounts
-            .flatMap { account ->
-                loadMessageListForAccount(account, config)
-            }
-            .sortedWith(config)
+        val comparator = buildComparator(config)
+
+        val messageListItemSequence = if (supportsKeysetPagination(config)) {
+            val accountSequences = accounts.map { account -> loadPagedMessageListForAccount(account, config) }
+            mergeSorted(accountSequences, comparator)
+        } else {
+            accounts
+                .flatMap { account ->
+                    loadMessageListForAccount(account, config)
+                }
+                .sortedWith(comparator)
+                .asSequence()
+        }
+
+        // Load one extra item to find out whether there are more items than fit into the window
+        val messageListItems = messageListItemSequence.take(windowSize + 1).toList()
+        val hasMoreItems = messageListItems.size > windowSize
 
         val hasMoreMessages = loadHasMoreMessages(accounts, config.search.folderIds)
 
-        return MessageListInfo(messageListItems, hasMoreMessages)
+        return MessageListInfo(messageListItems.take(windowSize), hasMoreMessages, hasMoreItems)
+    }
+
+    /**
+     * Update [messageListInfo] by only reloading the messages affected by [change].
+     *
+     * Returns `null` if the change can't be applied incrementally and the whole message list needs to be reloaded.
+     */
+    fun applyMessageListChange(
+        config: MessageListConfig,
+        messageListInfo: MessageListInfo,
+        windowSize: Int,
+        accountUuid: String,
+        change: MessageListChange,
+    ): MessageListInfo? {
+        if (!supportsIncrementalUpdate(config, change)) return null
+
+        return try {
+            applyMessageListChangeOrThrow(config, messageListInfo, windowSize, accountUuid, change)
+        } catch (e: Exception) {
+            Timber.e(e, "Error while updating message list")
+            null
+        }
+    }
+
+    /**
+     * Items in a threaded list summarize whole threads, so a single changed message can change which message
+     * represents a thread. Those lists are always reloaded.
+     */
+    private fun supportsIncrementalUpdate(config: MessageListConfig, change: MessageListChange): Boolean {
+        val changedIdCount = change.messageIds.size + change.threadRootIds.size
+        return change.kind != Kind.STRUCTURAL &&
+            changedIdCount in 1..MAX_INCREMENTAL_UPDATE_SIZE &&
+            !config.showingThreadedList &&
+            getThreadId(config.search) == null
+    }
+
+    private fun applyMessageListChangeOrThrow(
+        config: MessageListConfig,
+        messageListInfo: MessageListInfo,
+        windowSize: Int,
+        accountUuid: String,
+        change: MessageListChange,
+    ): MessageListInfo? {
+        val account = preferences.getAccount(accountUuid) ?: return null
+
+        // Deleted messages can't match the search anymore. So there's nothing to load.
+        val changedItems = if (change.kind == Kind.DELETE) {
+            emptyList()
+        } else {
+            loadChangedMessageListItems(account, config, change)
+        }
+
+        val currentItems = messageListInfo.messageListItems
+        val remainingItems = currentItems.filterNot { item ->
+            item.account.uuid == accountUuid &&
+                (item.databaseId in change.messageIds || item.threadRoot in change.threadRootIds)
+        }
+
+        // When only a part of the list was loaded, items that sort after the last loaded item belong to the part that
+        // hasn't been loaded yet.
+        val comparator = buildComparator(config)
+        val lastItem = currentItems.lastOrNull()
+        val isInLoadedPart = { item: MessageListItem ->
+            !messageListInfo.hasMoreItems || lastItem == null || comparator.compare(item, lastItem) < 0
+        }
+        val addedItems = changedItems.filter(isInLoadedPart).sortedWith(comparator)
+
+        val messageListItems = mergeSorted(listOf(remainingItems.asSequence(), addedItems.asSequence()), comparator)
+            .take(windowSize + 1)
+            .toList()
+        val hasMoreItems = messageListInfo.hasMoreItems || messageListItems.size > windowSize
+
+        return messageListInfo.copy(
+            messageListItems = messageListItems.take(windowSize),
+            hasMoreItems = hasMoreItems,
+        )
+    }
+
+    private fun loadChangedMessageListItems(
+        account: Account,
+        config: MessageListConfig,
+        change: MessageListChange,
+    ): List<MessageListItem> {
+        val (selection, selectionArgs) = buildSelection(account, config)
+        val changeSelection = buildList {
+            if (change.messageIds.isNotEmpty()) {
+                add("messages.${MessageColumns.ID} IN (${change.messageIds.joinToString()})")
+            }
+            if (change.threadRootIds.isNotEmpty()) {
+                add("threads.root IN (${change.threadRootIds.joinToString()})")
+            }
+        }.joinToString(separator = " OR ")
+
+        return messageListRepository.getMessages(
+            accountUuid = account.uuid,
+            selection = "($selection) AND ($changeSelection)",
+            selectionArgs = selectionArgs,
+            sortOrder = buildSortOrder(config),
+            messageMapper = MessageListItemMapper(messageHelper, account),
+        )
     }
 
-    private fun loadMessageListForAccount(account: Account, config: MessageListConfig): List<MessageListItem> {
+    /**
+     * Keyset pagination requires that the database sorts exactly like [buildComparator] and that the values used for
+     * sorting are not changed by [MessageListRepository] (e.g. pending flag changes).
+     */
+    private fun supportsKeysetPagination(config: MessageListConfig): Boolean {
+        return getThreadId(config.search) == null && when (config.sortType) {
+            SortType.SORT_DATE, SortType.SORT_ARRIVAL, SortType.SORT_ATTACHMENT -> true
+            SortType.SORT_SUBJECT, SortType.SORT_SENDER, SortType.SORT_UNREAD, SortType.SORT_FLAGGED -> false
+        }
+    }
+
+    /**
+     * Returns a sequence that loads the message list of [account] one page at a time.
+     */
+    private fun loadPagedMessageListForAccount(account: Account, config: MessageListConfig): Sequence<MessageListItem> {
+        return loadPaged(
+            pageSize = PAGE_SIZE,
+            loadPage = { page -> loadMessageListForAccount(account, config, page) },
+            buildCursorSelection = { lastRow ->
+                buildCursorSelection(config.sortType, config.sortAscending, config.sortDateAscending, lastRow)
+            },
+        )
+    }
+
+    private fun loadMessageListForAccount(
+        account: Account,
+        config: MessageListConfig,
+        page: MessageListPage? = null,
+    ): List<MessageListItem> {
         val accountUuid = account.uuid
         val threadId = getThreadId(config.search)
         val sortOrder = buildSortOrder(config)
@@ -56,11 +202,18 @@ class MessageListLoader(
             }
             config.showingThreadedList -> {
                 val (selection, selectionArgs) = buildSelection(account, config)
-                messageListRepository.getThreadedMessages(accountUuid, selection, selectionArgs, sortOrder, mapper)
+                messageListRepository.getThreadedMessages(
+                    accountUuid,
+                    selection,
+                    selectionArgs,
+                    sortOrder,
+                    page,
+                    mapper,
+                )
             }
             else -> {
                 val (selection, selectionArgs) = buildSelection(account, config)
-                messageListRepository.getMessages(accountUuid, selection, selectionArgs, sortOrder, mapper)
+                messageListRepository.getMessages(accountUuid, selection, selectionArgs, sortOrder, page, mapper)
             }
         }
     }
@@ -119,8 +272,8 @@ class MessageListLoader(
         return "$sortColumn$sortDirection, $secondarySort${MessageColumns.ID} DESC"
     }
 
-    private fun List<MessageListItem>.sortedWith(config: MessageListConfig): List<MessageListItem> {
-        val comparator = when (config.sortType) {
+    private fun buildComparator(config: MessageListConfig): Comparator<MessageListItem> {
+        return when (config.sortType) {
             SortType.SORT_DATE -> {
                 compareBy(config.sortAscending) { it.messageDate }
             }
@@ -150,8 +303,6 @@ class MessageListLoader(
                     .thenByDate(config)
             }
         }.thenByDescending { it.databaseId }
-
-        return this.sortedWith(comparator)
     }
 
     private fun loadHasMoreMessages(accounts: List<Account>, folderIds: List<Long>): Boolean {
@@ -166,6 +317,13 @@ class MessageListLoader(
             false
         }
     }
+
+    companion object {
+        private const val PAGE_SIZE = 50
+
+        // Larger changes are cheaper to handle by reloading the message list
+        private const val MAX_INCREMENTAL_UPDATE_SIZE = 100
+    }
 }
 
 private inline fun <T> compareBy(sortAscending: Boolean, crossinline selector: (T) -> Comparable<*>?): Comparator<T> {
@@ -192,4 +350,12 @@ private fun Comparator<MessageListItem>.thenByDate(config: MessageListConfig): C
     }
 }
 
-data class MessageListInfo(val messageListItems: List<MessageListItem>, val hasMoreMessages: Boolean)
+/**
+ * @param hasMoreMessages `true` if more messages can be downloaded from the server.
+ * @param hasMoreItems `true` if there are more items in the local message list than were loaded.
+ */
+data class MessageListInfo(
+    val messageListItems: List<MessageListItem>,
+    val hasMoreMessages: Boolean,
+    val hasMoreItems: Boolean = false,
+)
@@ -30,6 +30,14 @@ class MessageListViewModel(private val messageListLiveDataFactory: MessageListLi
         }
     }
 
+    fun loadMoreItems() {
+        currentMessageListLiveData?.loadMoreItems()
+    }
+
+    fun loadAllItems() {
+        currentMessageListLiveData?.loadAllItems()
+    }
+
     private fun removeCurrentMessageListLiveData() {
         currentMessageListLiveData?.let {
             currentMessageListLiveData = null
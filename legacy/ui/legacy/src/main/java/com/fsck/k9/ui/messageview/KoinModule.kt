@@ -4,4 +4,12 @@ import org.koin.dsl.module
 
 val messageViewUiModule = module {
     factory { createMessageViewRecipientFormatter(contactNameProvider = get(), resources = get()) }
+    factory {
+        MessageViewPrefetcher(
+            accountManager = get(),
+            messagingController = get(),
+            messageViewInfoExtractorFactory = get(),
+            htmlSettingsProvider = get(),
+        )
+    }
 }
@@ -6,6 +6,7 @@ import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import androidx.fragment.app.Fragment
+import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.DiffUtil
 import androidx.viewpager2.adapter.FragmentStateAdapter
 import androidx.viewpager2.widget.MarginPageTransformer
@@ -15,6 +16,9 @@ import com.fsck.k9.ui.R
 import com.fsck.k9.ui.base.extensions.withArguments
 import com.fsck.k9.ui.messagelist.MessageListItem
 import com.fsck.k9.ui.messagelist.MessageListViewModel
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import org.koin.android.ext.android.inject
 
 /**
  * A fragment that uses [ViewPager2] to allow the user to swipe between messages.
@@ -22,6 +26,8 @@ import com.fsck.k9.ui.messagelist.MessageListViewModel
  * Individual messages are displayed using a [MessageViewFragment].
  */
 class MessageViewContainerFragment : Fragment() {
+    private val messageViewPrefetcher: MessageViewPrefetcher by inject()
+
     var isActive: Boolean = false
         set(value) {
             field = value
@@ -39,6 +45,8 @@ class MessageViewContainerFragment : Fragment() {
     private lateinit var viewPager: ViewPager2
     private lateinit var adapter: MessageViewContainerAdapter
 
+    private var prefetchJob: Job? = null
+
     private val messageViewFragment: MessageViewFragment
         get() {
             check(isResumed)
@@ -159,6 +167,21 @@ class MessageViewContainerFragment : Fragment() {
         messageReference = newMessageReference
         activeMessageReference = newMessageReference
         fragmentListener.setActiveMessage(newMessageReference)
+
+        prefetchNeighbors(position)
+    }
+
+    // Render the messages the user is likely to swipe to next in the background
+    private fun prefetchNeighbors(position: Int) {
+        val messageReferences = listOfNotNull(
+            adapter.getMessageReference(position + 1),
+            adapter.getMessageReference(position - 1),
+        )
+
+        prefetchJob?.cancel()
+        prefetchJob = lifecycleScope.launch {
+            messageViewPrefetcher.prefetch(messageReferences)
+        }
     }
 
     fun showPreviousMessage(): Boolean {
@@ -0,0 +1,44 @@
+package com.fsck.k9.ui.messageview
+
+import app.k9mail.legacy.account.AccountManager
+import app.k9mail.legacy.message.controller.MessageReference
+import com.fsck.k9.controller.MessagingController
+import com.fsck.k9.mailstore.MessageViewInfoExtractorFactory
+import com.fsck.k9.ui.helper.HtmlSettingsProvider
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.withContext
+import timber.log.Timber
+
+/**
+ * Renders messages the user is likely to open next, e.g. the neighbors of the displayed message, so their sanitized
+ * HTML is already in [com.fsck.k9.message.html.DisplayHtmlCache] when they are displayed.
+ */
+class MessageViewPrefetcher(
+    private val accountManager: AccountManager,
+    private val messagingController: MessagingController,
+    private val messageViewInfoExtractorFactory: MessageViewInfoExtractorFactory,
+    private val htmlSettingsProvider: HtmlSettingsProvider,
+) {
+    suspend fun prefetch(messageReferences: List<MessageReference>) = withContext(Dispatchers.IO) {
+        val messageViewInfoExtractor = messageViewInfoExtractorFactory.create(htmlSettingsProvider.createForMessageView())
+
+        for (messageReference in messageReferences) {
+            ensureActive()
+
+            try {
+                val account = accountManager.getAccount(messageReference.accountUuid) ?: continue
+                val message = messagingController.loadMessage(
+                    account,
+                    messageReference.folderId,
+                    messageReference.uid,
+                )
+
+                // Encrypted messages need user interaction to be decrypted. There's nothing to prefetch.
+                messageViewInfoExtractor.extractMessageForView(message, null, false)
+            } catch (e: Exception) {
+                Timber.d(e, "Error prefetching message %s", messageReference)
+            }
+        }
+    }
+}
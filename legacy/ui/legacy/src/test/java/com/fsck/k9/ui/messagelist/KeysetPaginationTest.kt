@@ -0,0 +1,146 @@
+package com.fsck.k9.ui.messagelist
+
+import app.k9mail.legacy.account.Account.SortType
+import app.k9mail.legacy.mailstore.MessageDetailsAccessor
+import app.k9mail.legacy.mailstore.MessageListPage
+import app.k9mail.legacy.mailstore.MessageListPageRow
+import app.k9mail.legacy.message.extractors.PreviewResult
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
+import com.fsck.k9.mail.Address
+import org.junit.Test
+
+class KeysetPaginationTest {
+    @Test
+    fun `cursor selection for date sort`() {
+        val lastRow = MessageListPageRow(id = 42, messageDate = 1000, internalDate = 2000, hasAttachments = false)
+
+        val selection = buildCursorSelection(
+            sortType = SortType.SORT_DATE,
+            sortAscending = false,
+            sortDateAscending = true,
+            lastRow = lastRow,
+        )
+
+        assertThat(selection).isEqualTo(
+            "(IFNULL(date, 0) < 1000) OR (IFNULL(date, 0) = 1000 AND messages.id < 42)",
+        )
+    }
+
+    @Test
+    fun `cursor selection for ascending arrival sort`() {
+        val lastRow = MessageListPageRow(id = 42, messageDate = 1000, internalDate = 2000, hasAttachments = false)
+
+        val selection = buildCursorSelection(
+            sortType = SortType.SORT_ARRIVAL,
+            sortAscending = true,
+            sortDateAscending = false,
+            lastRow = lastRow,
+        )
+
+        assertThat(selection).isEqualTo(
+            "(IFNULL(internal_date, 0) > 2000) OR (IFNULL(internal_date, 0) = 2000 AND messages.id < 42)",
+        )
+    }
+
+    @Test
+    fun `cursor selection for attachment sort`() {
+        val lastRow = MessageListPageRow(id = 42, messageDate = 1000, internalDate = 2000, hasAttachments = true)
+
+        val selection = buildCursorSelection(
+            sortType = SortType.SORT_ATTACHMENT,
+            sortAscending = true,
+            sortDateAscending = false,
+            lastRow = lastRow,
+        )
+
+        assertThat(selection).isEqualTo(
+            "((attachment_count < 1) > 0) OR " +
+                "((attachment_count < 1) = 0 AND IFNULL(date, 0) < 1000) OR " +
+                "((attachment_count < 1) = 0 AND IFNULL(date, 0) = 1000 AND messages.id < 42)",
+        )
+    }
+
+    @Test
+    fun `load all pages`() {
+        val database = FakeDatabase(rowIds = (1L..7L).toList())
+
+        val result = loadPaged(pageSize = 3, loadPage = database::loadPage, buildCursorSelection = { it.id.toString() })
+            .toList()
+
+        assertThat(result).containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L)
+        assertThat(database.cursors).containsExactly(null, "3", "6")
+    }
+
+    @Test
+    fun `page containing only hidden rows should not end the list`() {
+        val database = FakeDatabase(rowIds = (1L..7L).toList(), hiddenIds = setOf(3L, 4L, 5L, 6L))
+
+        val result = loadPaged(pageSize = 3, loadPage = database::loadPage, buildCursorSelection = { it.id.toString() })
+            .toList()
+
+        assertThat(result).containsExactly(1L, 2L, 7L)
+        assertThat(database.cursors).containsExactly(null, "3", "6")
+    }
+
+    @Test
+    fun `full last page should load one more empty page`() {
+        val database = FakeDatabase(rowIds = (1L..6L).toList())
+
+        val result = loadPaged(pageSize = 3, loadPage = database::loadPage, buildCursorSelection = { it.id.toString() })
+            .toList()
+
+        assertThat(result).containsExactly(1L, 2L, 3L, 4L, 5L, 6L)
+        assertThat(database.cursors).containsExactly(null, "3", "6")
+    }
+
+    @Test
+    fun `empty list`() {
+        val database = FakeDatabase(rowIds = emptyList())
+
+        val result = loadPaged(pageSize = 3, loadPage = database::loadPage, buildCursorSelection = { it.id.toString() })
+            .toList()
+
+        assertThat(result).isEmpty()
+        assertThat(database.cursors).containsExactly(null)
+    }
+}
+
+/**
+ * Returns rows sorted by ID. The cursor selection is the ID of the last row of the previous page. Hidden rows are read
+ * from the "database" but not returned, like [CacheAwareMessageMapper] does.
+ */
+private class FakeDatabase(private val rowIds: List<Long>, private val hiddenIds: Set<Long> = emptySet()) {
+    val cursors = mutableListOf<String?>()
+
+    fun loadPage(page: MessageListPage): List<Long> {
+        cursors.add(page.cursorSelection)
+
+        val lastId = page.cursorSelection?.toLong() ?: 0L
+        return rowIds.filter { it > lastId }
+            .take(page.limit)
+            .onEach { id -> page.onRowRead(FakeMessageDetailsAccessor(id)) }
+            .filterNot { it in hiddenIds }
+    }
+}
+
+private class FakeMessageDetailsAccessor(override val id: Long) : MessageDetailsAccessor {
+    override val messageServerId = "irrelevant"
+    override val folderId = 1L
+    override val fromAddresses = emptyList<Address>()
+    override val toAddresses = emptyList<Address>()
+    override val ccAddresses = emptyList<Address>()
+    override val messageDate = 0L
+    override val internalDate = 0L
+    override val subject = "irrelevant"
+    override val preview = PreviewResult.error()
+    override val isRead = false
+    override val isStarred = false
+    override val isAnswered = false
+    override val isForwarded = false
+    override val hasAttachments = false
+    override val threadRoot = 0L
+    override val threadCount = 0
+}
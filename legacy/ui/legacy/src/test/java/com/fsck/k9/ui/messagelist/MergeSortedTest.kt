@@ -0,0 +1,43 @@
+package com.fsck.k9.ui.messagelist
+
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
+import org.junit.Test
+
+class MergeSortedTest {
+    @Test
+    fun `merge sorted sequences`() {
+        val sequences = listOf(
+            sequenceOf(9, 5, 1),
+            sequenceOf(8, 7, 2),
+            emptySequence(),
+            sequenceOf(6, 4, 3),
+        )
+
+        val result = mergeSorted(sequences, reverseOrder()).toList()
+
+        assertThat(result).containsExactly(9, 8, 7, 6, 5, 4, 3, 2, 1)
+    }
+
+    @Test
+    fun `merge without sequences`() {
+        val result = mergeSorted(emptyList<Sequence<Int>>(), naturalOrder()).toList()
+
+        assertThat(result).isEmpty()
+    }
+
+    @Test
+    fun `taking elements should only evaluate what is needed`() {
+        var evaluatedCount = 0
+        val sequences = List(3) { sequenceIndex ->
+            generateSequence(sequenceIndex) { it + 3 }.onEach { evaluatedCount++ }
+        }
+
+        val result = mergeSorted(sequences, naturalOrder()).take(10).toList()
+
+        assertThat(result).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)
+        assertThat(evaluatedCount).isEqualTo(12)
+    }
+}
@@ -1,9 +1,11 @@
 package app.k9mail.html.cleaner
 
+import java.io.Reader
 import org.jsoup.nodes.Document
 
 class HtmlProcessor(private val htmlHeadProvider: HtmlHeadProvider) {
     private val htmlSanitizer = HtmlSanitizer()
+    private val streamingHtmlSanitizer = StreamingHtmlSanitizer()
 
     fun processForDisplay(html: String): String {
         return htmlSanitizer.sanitize(html)
@@ -11,6 +13,14 @@ class HtmlProcessor(private val htmlHeadProvider: HtmlHeadProvider) {
             .toCompactString()
     }
 
+    /**
+     * Like [processForDisplay], but writes the result to [output] while [input] is being parsed. Use this for large
+     * HTML documents to avoid keeping the whole document in memory multiple times.
+     */
+    fun processForDisplay(input: Reader, output: Appendable) {
+        streamingHtmlSanitizer.sanitize(input, output, htmlHeadProvider.headHtml)
+    }
+
     private fun Document.addCustomHeadContents() = apply {
         head().append(htmlHeadProvider.headHtml)
     }
@@ -0,0 +1,243 @@
+package app.k9mail.html.cleaner
+
+import java.io.Reader
+import org.jsoup.nodes.Attributes
+import org.jsoup.nodes.DataNode
+import org.jsoup.nodes.Document
+import org.jsoup.nodes.Element
+import org.jsoup.nodes.Entities
+import org.jsoup.nodes.Node
+import org.jsoup.nodes.TextNode
+import org.jsoup.parser.Parser
+import org.jsoup.parser.StreamParser
+import org.jsoup.select.NodeTraversor
+import org.jsoup.select.NodeVisitor
+
+/**
+ * Sanitizes HTML like [HtmlSanitizer], but writes the cleaned HTML to the output while the input is still being parsed.
+ *
+ * [HtmlSanitizer] keeps the complete parsed document, the complete cleaned document and the serialized result in
+ * memory at the same time. This class uses jsoup's [StreamParser] and writes each element as soon as the parser has
+ * completed it. Afterwards the element is removed from the parsed document. So apart from the output only the
+ * currently open elements and the `<head>` section are kept in memory.
+ *
+ * The same allowlist is used, so the output is the same as that of [HtmlSanitizer] serialized without pretty printing.
+ * Exceptions are changes the HTML parser makes to content that has already been written, e.g. attributes of a second
+ * `<body>` tag or text that is moved in front of a table. Such content is written where it was found.
+ */
+internal class StreamingHtmlSanitizer {
+    private val safelist = createBodySafelist()
+    private val headCleaner = HeadCleaner()
+
+    /**
+     * Reads HTML from [input] and writes the sanitized HTML to [output].
+     *
+     * @param headHtml HTML that is added to the end of the `<head>` section.
+     */
+    fun sanitize(input: Reader, output: Appendable, headHtml: String = "") {
+        StreamParser(Parser.htmlParser()).use { streamParser ->
+            streamParser.parse(input, "")
+
+            val document = streamParser.document()
+            document.outputSettings().prettyPrint(false)
+
+            val writer = SanitizingWriter(document, output, headHtml)
+            for (element in streamParser.iterator()) {
+                writer.onElementCompleted(element)
+            }
+
+            writer.finish()
+        }
+    }
+
+    private inner class SanitizingWriter(
+        private val document: Document,
+        private val output: Appendable,
+        private val headHtml: String,
+    ) {
+        // Elements of the body (starting with <body> itself) whose start tag has been processed
+        private val openElements = ArrayList<Element>()
+        private var isFinished = false
+
+        fun onElementCompleted(element: Element) {
+            if (isFinished) return
+
+            if (element.isDocumentBody()) {
+                finishBody(element)
+            } else {
+                val path = pathFromBody(element) ?: return
+                writeBodyElement(path)
+            }
+        }
+
+        fun finish() {
+            if (!isFinished) {
+                finishBody(document.body())
+            }
+        }
+
+        private fun writeBodyElement(path: List<Element>) {
+            openBodyIfNecessary(path.first())
+
+            // The parser completes elements in document order, so all open elements should be ancestors
+            var commonDepth = 0
+            while (commonDepth < openElements.size && commonDepth < path.size &&
+                openElements[commonDepth] === path[commonDepth]
+            ) {
+                commonDepth++
+            }
+            while (openElements.size > commonDepth) {
+                closeElement(openElements.removeAt(openElements.lastIndex))
+            }
+
+            for (index in 1 until path.size) {
+                writeChildrenBefore(path[index - 1], path[index])
+                if (index >= openElements.size) {
+                    openElement(path[index])
+                    openElements.add(path[index])
+                }
+            }
+
+            val element = openElements.removeAt(openElements.lastIndex)
+            closeElement(element)
+            element.remove()
+        }
+
+        private fun finishBody(body: Element) {
+            openBodyIfNecessary(body)
+
+            while (openElements.size > 1) {
+                closeElement(openElements.removeAt(openElements.lastIndex))
+            }
+            writeChildrenBefore(body, null)
+
+            output.append("</body></html>")
+            isFinished = true
+        }
+
+        private fun openBodyIfNecessary(body: Element) {
+            if (openElements.isNotEmpty()) return
+
+            writeDocumentStart()
+
+            val bodyAttributes = Attributes()
+            for (attribute in body.attributes()) {
+                if (attribute.key !in ALLOWED_BODY_ATTRIBUTES) continue
+
+                if (attribute.hasDeclaredValue()) {
+                    bodyAttributes.put(attribute.key, attribute.value)
+                } else {
+                    bodyAttributes.put(attribute.key, true)
+                }
+            }
+            output.append("<body").append(bodyAttributes.html()).append('>')
+
+            openElements.add(body)
+        }
+
+        // The <head> section is complete once the parser has started with the body
+        private fun writeDocumentStart() {
+            document.documentType()?.let { documentType ->
+                output.append(documentType.outerHtml())
+            }
+
+            val cleanedDocument = Document.createShell("")
+            cleanedDocument.outputSettings().prettyPrint(false)
+            headCleaner.clean(document, cleanedDocument)
+            cleanedDocument.head().append(headHtml)
+
+            output.append("<html>").append(cleanedDocument.head().outerHtml())
+        }
+
+        /**
+         * Writes and removes the children of [parent] that come before [child]. Usually these are text nodes, because
+         * child elements have already been written when they were completed.
+         */
+        private fun writeChildrenBefore(parent: Element, child: Element?) {
+            while (true) {
+                val node = parent.firstChild()
+                if (node == null || node === child) break
+
+                if (node is Element) {
+                    writeElementWithChildren(node)
+                } else {
+                    writeLeafNode(node)
+                }
+                node.remove()
+            }
+        }
+
+        private fun writeElementWithChildren(element: Element) {
+            NodeTraversor.traverse(
+                object : NodeVisitor {
+                    override fun head(node: Node, depth: Int) {
+                        if (node is Element) openElement(node) else writeLeafNode(node)
+                    }
+
+                    override fun tail(node: Node, depth: Int) {
+                        if (node is Element) writeEndTag(node)
+                    }
+                },
+                element,
+            )
+        }
+
+        private fun writeLeafNode(node: Node) {
+            if (node is TextNode) {
+                output.append(Entities.escape(node.wholeText, document.outputSettings()))
+            } else if (node is DataNode && isSafeTag(node.parent())) {
+                output.append(node.wholeData)
+            }
+        }
+
+        private fun openElement(element: Element) {
+            if (!safelist.isSafeTag(element.normalName())) return
+
+            val tagName = element.tagName()
+            val safeAttributes = Attributes()
+            for (attribute in element.attributes()) {
+                if (safelist.isSafeAttribute(tagName, element, attribute)) {
+                    safeAttributes.put(attribute)
+                }
+            }
+            safeAttributes.addAll(safelist.getEnforcedAttributes(tagName))
+
+            output.append('<').append(tagName).append(safeAttributes.html()).append('>')
+        }
+
+        private fun closeElement(element: Element) {
+            writeChildrenBefore(element, null)
+            writeEndTag(element)
+        }
+
+        private fun writeEndTag(element: Element) {
+            if (!safelist.isSafeTag(element.normalName()) || element.tag().isEmpty) return
+
+            output.append("</").append(element.tagName()).append('>')
+        }
+
+        private fun isSafeTag(node: Node?): Boolean {
+            return node != null && safelist.isSafeTag(node.normalName())
+        }
+
+        private fun pathFromBody(element: Element): List<Element>? {
+            val path = ArrayList<Element>()
+            var current: Element? = element
+            while (current != null) {
+                path.add(current)
+                if (current.isDocumentBody()) {
+                    path.reverse()
+                    return path
+                }
+                current = current.parent()
+            }
+
+            return null
+        }
+
+        // Don't use Document.body(). It creates a <body> element if the parser hasn't done so yet.
+        private fun Element.isDocumentBody(): Boolean {
+            return normalName() == "body" && parent()?.parent() === document
+        }
+    }
+}
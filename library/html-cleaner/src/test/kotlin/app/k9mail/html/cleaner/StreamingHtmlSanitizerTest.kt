@@ -0,0 +1,136 @@
+package app.k9mail.html.cleaner
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import java.io.StringReader
+import org.junit.Test
+
+/**
+ * Compares the output of [StreamingHtmlSanitizer] with that of [HtmlSanitizer].
+ */
+class StreamingHtmlSanitizerTest {
+    private val htmlSanitizer = HtmlSanitizer()
+    private val streamingHtmlSanitizer = StreamingHtmlSanitizer()
+
+    @Test
+    fun `meta refresh`() {
+        assertSameOutput(
+            """<html><head><meta http-equiv="refresh" content="1; URL=http://example.com/"></head>""" +
+                """<body>Message</body></html>""",
+        )
+        assertSameOutput(
+            """<html><head></head><meta http-equiv="refresh" content="1; URL=http://example.com/">""" +
+                """<body>Message</body></html>""",
+        )
+        assertSameOutput(
+            """<html><head></head><body><meta http-equiv="Refresh" content="1">Message</body></html>""",
+        )
+    }
+
+    @Test
+    fun `allowed and disallowed elements in head`() {
+        assertSameOutput(
+            """<html><head><title>Title</title><base href="http://example.com/"><meta charset="utf-8">""" +
+                """<style>p { color: red; }</style><script>alert(1)</script><link rel="stylesheet" href="a.css">""" +
+                """</head><body>text</body></html>""",
+        )
+    }
+
+    @Test
+    fun `doctype and xml declaration`() {
+        assertSameOutput("""<!doctype html><html><head></head><body>text</body></html>""")
+        assertSameOutput(
+            """<!DOCTYPE HTML PUBLIC "-//W3C//DTD HTML 4.01//EN" "http://www.w3.org/TR/html4/strict.dtd">""" +
+                """<html><head></head><body>text</body></html>""",
+        )
+        assertSameOutput("""<?xml version="1.0" encoding="UTF-8"?><html><head></head><body></body></html>""")
+    }
+
+    @Test
+    fun `body attributes`() {
+        assertSameOutput(
+            """<html><body style="color: #fff" onload="alert()" class="body" id bgcolor="#000">text</body></html>""",
+        )
+    }
+
+    @Test
+    fun `tables`() {
+        assertSameOutput("<html><head></head><body><table><tr><td></td><td></td></tr></table></body></html>")
+        assertSameOutput(
+            """<table border="1" onclick="x()"><tr><td><!==><!==>Shutdown:</td><td dir="rtl">Ok</td></tr>""" +
+                """<tr><th colspan="2" style="color: red">Header</th></tr></table>""",
+        )
+    }
+
+    @Test
+    fun `text, comments and entities`() {
+        assertSameOutput("""one &amp; two &lt;three&gt; &nbsp; "four" <!-- comment --> five""")
+        assertSameOutput("""<p>one<br>two<hr>three<hr />four</p><p>five""")
+        assertSameOutput("""<textarea>&lt;b&gt;</textarea><div>a &copy; b</div>""")
+    }
+
+    @Test
+    fun `disallowed elements are unwrapped or removed`() {
+        assertSameOutput(
+            """<div><iframe src="http://example.com/"></iframe><form action="x"><input name="a">""" +
+                """<span onclick="x()">span</span></form><script>alert(1)</script><object>obj</object></div>""",
+        )
+        assertSameOutput("""<custom-element>custom</custom-element><noscript>no script</noscript>""")
+    }
+
+    @Test
+    fun `links and images`() {
+        assertSameOutput(
+            """<a href="http://example.com/">HTTP</a><a href="mailto:user@example.com">Mailto</a>""" +
+                """<a href="unknown:foobar">Unknown</a><a href="relative.html">Relative</a><a name="anchor"></a>""" +
+                """<img src="cid:part1" alt="cid"><img src="http://example.com/a.png" usemap="#map">""" +
+                """<img src="javascript:alert(1)"><img src="relative.png">""" +
+                """<map name="map"><area shape="rect" coords="0,0,1,1" href="https://example.com/"></map>""",
+        )
+    }
+
+    @Test
+    fun `style element in body`() {
+        assertSameOutput("""<html><head></head><body><style>.test { color: #000 }</style><p>text</p></body></html>""")
+    }
+
+    @Test
+    fun `misnested and unclosed tags`() {
+        assertSameOutput("""<p>one<p>two<div>three<b>bold<i>both</b>italic</i></div><ul><li>a<li>b</ul>""")
+        assertSameOutput("""<b><p>one</b>two</p><font color="red" face="Arial">font<center>center""")
+        assertSameOutput("""<div><div><div>deep""")
+    }
+
+    @Test
+    fun `content after body`() {
+        assertSameOutput("""<html><body><p>one</p></body></html><p>two</p>trailing""")
+    }
+
+    @Test
+    fun `large newsletter`() {
+        val html = buildString {
+            append("<!DOCTYPE html><html><head><style>td { padding: 0 }</style></head>")
+            append("""<body bgcolor="#ffffff"><center><table width="600" cellpadding="0">""")
+            repeat(200) { index ->
+                append("""<tr><td align="left" onmouseover="track($index)">""")
+                append("""<a href="https://example.com/$index"><img src="https://example.com/$index.png"></a>""")
+                append("""<font face="Arial">Article $index &amp; more</font><!-- tracking $index -->""")
+                append("""<script>track($index)</script><p style="margin: 0">Text $index</p></td></tr>""")
+            }
+            append("</table></center></body></html>")
+        }
+
+        assertSameOutput(html)
+    }
+
+    private fun assertSameOutput(html: String) {
+        val expected = htmlSanitizer.sanitize(html).apply {
+            outputSettings().prettyPrint(false).indentAmount(0)
+        }.html()
+
+        val output = StringBuilder()
+        streamingHtmlSanitizer.sanitize(StringReader(html), output)
+
+        assertThat(output.toString()).isEqualTo(expected)
+    }
+}
@@ -1,6 +1,8 @@
 package com.fsck.k9.mail.internet;
 
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -12,6 +14,7 @@ import java.io.OutputStream;
 import com.fsck.k9.logging.Timber;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.filter.Base64OutputStream;
+import okio.Buffer;
 import org.apache.commons.io.IOUtils;
 import org.apache.james.mime4j.codec.QuotedPrintableOutputStream;
 import org.apache.james.mime4j.util.MimeUtil;
@@ -22,11 +25,24 @@ import org.apache.james.mime4j.util.MimeUtil;
  * the user to write to the temp file. After the write the body is available via getInputStream
  * and writeTo one time. After writeTo is called, or the InputStream returned from
  * getInputStream is closed the file is deleted and the Body should be considered disposed of.
+ *
+ * <p>
+ * Bodies no larger than {@link #IN_MEMORY_THRESHOLD} are kept in memory and only written to a temp file when
+ * {@link #getFile()} is called. Most parts of a typical message are small, so this avoids creating a file for each of
+ * them.
+ * </p>
  */
 public class BinaryTempFileBody implements RawDataBody, SizeAware {
+    /**
+     * Bodies up to this size are kept in memory. Message stores keep bodies of this size in the database, so they
+     * don't need a file either.
+     */
+    public static final int IN_MEMORY_THRESHOLD = 16 * 1024;
+
     private static File mTempDirectory;
 
     private File mFile;
+    private byte[] mData;
 
     String mEncoding = null;
 
@@ -54,8 +70,7 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
         }
 
         try {
-            File newFile = File.createTempFile("body", null, mTempDirectory);
-            final OutputStream out = new FileOutputStream(newFile);
+            final OutputStream out = getOutputStream();
             try {
                 OutputStream wrappedOut;
                 if (MimeUtil.ENC_QUOTED_PRINTABLE.equals(encoding)) {
@@ -77,7 +92,6 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
                 IOUtils.closeQuietly(out);
             }
 
-            mFile = newFile;
             mEncoding = encoding;
         } catch (IOException e) {
             throw new MessagingException("Unable to convert body", e);
@@ -92,21 +106,31 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
         mEncoding = encoding;
     }
 
+    /**
+     * Returns a stream to write the body to. The body contents are replaced when the stream is closed.
+     */
     public OutputStream getOutputStream() throws IOException {
-        mFile = File.createTempFile("body", null, mTempDirectory);
-        mFile.deleteOnExit();
-        return new FileOutputStream(mFile);
+        return new SpoolingOutputStream();
     }
 
     public InputStream getInputStream() throws MessagingException {
+        if (mData != null) {
+            return new ByteArrayInputStream(mData);
+        }
+
         try {
-            return new BinaryTempFileBodyInputStream(new FileInputStream(mFile));
+            return new BinaryTempFileBodyInputStream(new FileInputStream(mFile), mFile);
         } catch (IOException ioe) {
             throw new MessagingException("Unable to open body", ioe);
         }
     }
 
     public void writeTo(OutputStream out) throws IOException, MessagingException {
+        if (mData != null) {
+            out.write(mData);
+            return;
+        }
+
         InputStream in = getInputStream();
         try {
             IOUtils.copy(in, out);
@@ -117,16 +141,108 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
 
     @Override
     public long getSize() {
-        return mFile.length();
+        return mData != null ? mData.length : mFile.length();
     }
 
-    public File getFile() {
+    /**
+     * Returns the file containing the body. A body that is kept in memory is written to a temp file first.
+     */
+    public File getFile() throws IOException {
+        if (mData != null) {
+            File file = createTempFile();
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(mData);
+            } finally {
+                out.close();
+            }
+
+            mFile = file;
+            mData = null;
+        }
+
         return mFile;
     }
 
-    class BinaryTempFileBodyInputStream extends FilterInputStream {
-        public BinaryTempFileBodyInputStream(InputStream in) {
+    private static File createTempFile() throws IOException {
+        File file = File.createTempFile("body", null, mTempDirectory);
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Collects the written data in memory and switches to a temp file once {@link #IN_MEMORY_THRESHOLD} is exceeded.
+     *
+     * <p>
+     * The memory buffer is made of pooled segments, so writing many small bodies doesn't allocate a new array for each
+     * write.
+     * </p>
+     */
+    private class SpoolingOutputStream extends OutputStream {
+        private final Buffer buffer = new Buffer();
+        private File file;
+        private OutputStream fileOutputStream;
+        private boolean closed = false;
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            if (fileOutputStream != null) {
+                fileOutputStream.write(oneByte);
+            } else {
+                buffer.writeByte(oneByte);
+                switchToFileIfThresholdExceeded();
+            }
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            if (fileOutputStream != null) {
+                fileOutputStream.write(data, offset, length);
+            } else {
+                buffer.write(data, offset, length);
+                switchToFileIfThresholdExceeded();
+            }
+        }
+
+        private void switchToFileIfThresholdExceeded() throws IOException {
+            if (buffer.size() > IN_MEMORY_THRESHOLD) {
+                file = createTempFile();
+                fileOutputStream = new BufferedOutputStream(new FileOutputStream(file));
+                buffer.writeTo(fileOutputStream);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (fileOutputStream != null) {
+                fileOutputStream.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (fileOutputStream != null) {
+                fileOutputStream.close();
+                mFile = file;
+                mData = null;
+            } else {
+                mData = buffer.readByteArray();
+                mFile = null;
+            }
+        }
+    }
+
+    public static class BinaryTempFileBodyInputStream extends FilterInputStream {
+        private final File file;
+
+        BinaryTempFileBodyInputStream(InputStream in, File file) {
             super(in);
+            this.file = file;
         }
 
         @Override
@@ -134,10 +250,10 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
             try {
                 super.close();
             } finally {
-                Timber.d("Deleting temporary binary file: %s", mFile.getName());
-                boolean fileSuccessfullyDeleted = mFile.delete();
+                Timber.d("Deleting temporary binary file: %s", file.getName());
+                boolean fileSuccessfullyDeleted = file.delete();
                 if (!fileSuccessfullyDeleted) {
-                    Timber.i("Failed to delete temporary binary file: %s", mFile.getName());
+                    Timber.i("Failed to delete temporary binary file: %s", file.getName());
                 }
             }
         }
@@ -0,0 +1,101 @@
+package com.fsck.k9.mail.internet
+
+import assertk.assertThat
+import assertk.assertions.exists
+import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isNotNull
+import java.io.File
+import java.nio.file.Files
+import okio.Buffer
+import org.apache.james.mime4j.util.MimeUtil
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+class BinaryTempFileBodyTest {
+    private lateinit var tempDirectory: File
+
+    @Before
+    fun setUp() {
+        tempDirectory = Files.createTempDirectory("BinaryTempFileBodyTest").toFile()
+        BinaryTempFileBody.setTempDirectory(tempDirectory)
+    }
+
+    @After
+    fun tearDown() {
+        tempDirectory.deleteRecursively()
+    }
+
+    @Test
+    fun `small body should be kept in memory`() {
+        val data = ByteArray(BinaryTempFileBody.IN_MEMORY_THRESHOLD) { it.toByte() }
+
+        val body = createBody(data)
+
+        assertThat(tempDirectory.listFiles()!!).isEmpty()
+        assertThat(body.size).isEqualTo(data.size.toLong())
+        assertThat(body.readBytes()).isEqualTo(data)
+        assertThat(body.writeToByteArray()).isEqualTo(data)
+    }
+
+    @Test
+    fun `large body should be written to temp file`() {
+        val data = ByteArray(BinaryTempFileBody.IN_MEMORY_THRESHOLD + 1) { it.toByte() }
+
+        val body = createBody(data)
+
+        assertThat(tempDirectory.listFiles()!!.size).isEqualTo(1)
+        assertThat(body.size).isEqualTo(data.size.toLong())
+        assertThat(body.readBytes()).isEqualTo(data)
+    }
+
+    @Test
+    fun `closing input stream of large body should delete temp file`() {
+        val body = createBody(ByteArray(BinaryTempFileBody.IN_MEMORY_THRESHOLD + 1))
+        val file = body.file
+
+        body.inputStream.close()
+
+        assertThat(file.exists()).isFalse()
+    }
+
+    @Test
+    fun `getFile() with small body should write temp file`() {
+        val data = "Hello, world!".toByteArray()
+        val body = createBody(data)
+
+        val file = body.file
+
+        assertThat(file).isNotNull().exists()
+        assertThat(file.readBytes()).isEqualTo(data)
+        assertThat(body.readBytes()).isEqualTo(data)
+    }
+
+    @Test
+    fun `setEncoding() should encode body`() {
+        val body = createBody("Hello, world!".toByteArray(), MimeUtil.ENC_8BIT)
+
+        body.setEncoding(MimeUtil.ENC_BASE64)
+
+        assertThat(body.encoding).isEqualTo(MimeUtil.ENC_BASE64)
+        assertThat(String(body.readBytes())).isEqualTo("SGVsbG8sIHdvcmxkIQ==")
+    }
+
+    private fun createBody(data: ByteArray, encoding: String = MimeUtil.ENC_BINARY): BinaryTempFileBody {
+        return BinaryTempFileBody(encoding).apply {
+            outputStream.use { it.write(data) }
+        }
+    }
+
+    private fun BinaryTempFileBody.readBytes(): ByteArray {
+        return inputStream.use { it.readBytes() }
+    }
+
+    private fun BinaryTempFileBody.writeToByteArray(): ByteArray {
+        val buffer = Buffer()
+        writeTo(buffer.outputStream())
+        return buffer.readByteArray()
+    }
+}
@@ -0,0 +1,153 @@
+package com.fsck.k9.mail.internet
+
+import com.fsck.k9.mail.Body
+import com.fsck.k9.mail.Multipart
+import com.fsck.k9.mail.Part
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.nio.file.Files
+import java.util.Base64
+import kotlin.random.Random
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+private const val MESSAGE_COUNT = 200
+private const val WARMUP_ITERATIONS = 5
+private const val MEASURED_ITERATIONS = 20
+
+/**
+ * Microbenchmark for [MimeMessage.parse].
+ *
+ * Parses a corpus of [MESSAGE_COUNT] generated messages, a mix of plain text, multipart/alternative, and messages with
+ * attachments of various sizes. Throughput and the number of temp files created per iteration are printed to stdout.
+ *
+ * Skipped unless the environment variable `MIME_PARSE_BENCHMARK` is set, e.g.
+ * `MIME_PARSE_BENCHMARK=1 ./gradlew :mail:common:test --tests '*MimeMessageParseBenchmark'`
+ */
+class MimeMessageParseBenchmark {
+    @Test
+    fun `parse message corpus`() {
+        assumeTrue(System.getenv("MIME_PARSE_BENCHMARK") != null)
+
+        val tempDirectory = Files.createTempDirectory("MimeMessageParseBenchmark").toFile()
+        BinaryTempFileBody.setTempDirectory(tempDirectory)
+        try {
+            val corpus = createCorpus()
+            val corpusSize = corpus.sumOf { it.size.toLong() }
+
+            repeat(WARMUP_ITERATIONS) { parseCorpus(corpus, tempDirectory) }
+
+            var totalNanos = 0L
+            var totalFilesCreated = 0
+            repeat(MEASURED_ITERATIONS) {
+                val startNanos = System.nanoTime()
+
+                totalFilesCreated += parseCorpus(corpus, tempDirectory)
+
+                totalNanos += System.nanoTime() - startNanos
+            }
+
+            val nanosPerIteration = totalNanos / MEASURED_ITERATIONS
+            println(
+                "MimeMessage.parse: %d messages (%d KiB), %.2f ms/iteration, %.1f MiB/s, %d temp files/iteration"
+                    .format(
+                        MESSAGE_COUNT,
+                        corpusSize / 1024,
+                        nanosPerIteration / 1_000_000.0,
+                        corpusSize / 1024.0 / 1024.0 / (nanosPerIteration / 1_000_000_000.0),
+                        totalFilesCreated / MEASURED_ITERATIONS,
+                    ),
+            )
+        } finally {
+            tempDirectory.deleteRecursively()
+        }
+    }
+
+    /**
+     * Parses all messages, reads every body like a message store would, and returns the number of temp files created.
+     */
+    private fun parseCorpus(corpus: List<ByteArray>, tempDirectory: File): Int {
+        var filesCreated = 0
+        for (messageData in corpus) {
+            val message = MimeMessage.parseMimeMessage(ByteArrayInputStream(messageData), false)
+            filesCreated += tempDirectory.listFiles()!!.size
+
+            message.forEachBody { body ->
+                body.inputStream.use { it.skip(Long.MAX_VALUE) }
+            }
+            tempDirectory.listFiles()!!.forEach { it.delete() }
+        }
+
+        return filesCreated
+    }
+
+    private fun Part.forEachBody(block: (Body) -> Unit) {
+        when (val body = body) {
+            is Multipart -> body.bodyParts.forEach { it.forEachBody(block) }
+            null -> Unit
+            else -> block(body)
+        }
+    }
+
+    private fun createCorpus(): List<ByteArray> {
+        val random = Random(42)
+        return List(MESSAGE_COUNT) { messageNumber ->
+            when (messageNumber % 4) {
+                0 -> plainTextMessage(messageNumber)
+                1, 2 -> alternativeMessage(messageNumber)
+                else -> attachmentMessage(messageNumber, attachmentSize = random.nextInt(1024, 512 * 1024), random)
+            }.toByteArray()
+        }
+    }
+
+    private fun headers(messageNumber: Int, contentType: String): String {
+        return "From: Alice <alice@example.org>\r\n" +
+            "To: Bob <bob@example.org>\r\n" +
+            "Subject: Message $messageNumber\r\n" +
+            "Date: Sat, 17 Oct 2026 10:00:00 +0000\r\n" +
+            "Message-ID: <message$messageNumber@example.org>\r\n" +
+            "MIME-Version: 1.0\r\n" +
+            "Content-Type: $contentType\r\n"
+    }
+
+    private fun text(messageNumber: Int): String {
+        return "This is message $messageNumber.\r\n".repeat(40)
+    }
+
+    private fun plainTextMessage(messageNumber: Int): String {
+        return headers(messageNumber, "text/plain; charset=UTF-8") +
+            "\r\n" +
+            text(messageNumber)
+    }
+
+    private fun alternativeMessage(messageNumber: Int): String {
+        return headers(messageNumber, "multipart/alternative; boundary=\"alt\"") +
+            "\r\n" +
+            "--alt\r\n" +
+            "Content-Type: text/plain; charset=UTF-8\r\n" +
+            "\r\n" +
+            text(messageNumber) +
+            "--alt\r\n" +
+            "Content-Type: text/html; charset=UTF-8\r\n" +
+            "\r\n" +
+            "<html><body><p>${text(messageNumber)}</p></body></html>\r\n" +
+            "--alt--\r\n"
+    }
+
+    private fun attachmentMessage(messageNumber: Int, attachmentSize: Int, random: Random): String {
+        val attachment = Base64.getMimeEncoder().encodeToString(random.nextBytes(attachmentSize))
+
+        return headers(messageNumber, "multipart/mixed; boundary=\"mixed\"") +
+            "\r\n" +
+            "--mixed\r\n" +
+            "Content-Type: text/plain; charset=UTF-8\r\n" +
+            "\r\n" +
+            text(messageNumber) +
+            "--mixed\r\n" +
+            "Content-Type: application/octet-stream; name=\"attachment.bin\"\r\n" +
+            "Content-Transfer-Encoding: base64\r\n" +
+            "\r\n" +
+            attachment + "\r\n" +
+            "--mixed--\r\n"
+    }
+}
@@ -4,6 +4,8 @@ package com.fsck.k9.mail.store.imap;
 class Capabilities {
     public static final String IDLE = "IDLE";
     public static final String CONDSTORE = "CONDSTORE";
+    public static final String QRESYNC = "QRESYNC";
+    public static final String ENABLE = "ENABLE";
     public static final String SASL_IR = "SASL-IR";
     public static final String AUTH_XOAUTH2 = "AUTH=XOAUTH2";
     public static final String AUTH_OAUTHBEARER = "AUTH=OAUTHBEARER";
@@ -19,4 +21,6 @@ class Capabilities {
     public static final String UID_PLUS = "UIDPLUS";
     public static final String LIST_EXTENDED = "LIST-EXTENDED";
     public static final String MOVE = "MOVE";
+    public static final String NOTIFY = "NOTIFY";
+    public static final String UNSELECT = "UNSELECT";
 }
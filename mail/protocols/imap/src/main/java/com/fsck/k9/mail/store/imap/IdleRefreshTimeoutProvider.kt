@@ -1,5 +1,20 @@
 package com.fsck.k9.mail.store.imap
 
+import java.io.IOException
+
 interface IdleRefreshTimeoutProvider {
     val idleRefreshTimeoutMs: Long
+
+    /**
+     * Called when an IDLE connection has been refreshed successfully after nothing was received from the server for
+     * [silenceMs].
+     *
+     * The refresh timer might fire before [idleRefreshTimeoutMs] has passed, so [silenceMs] can be shorter.
+     */
+    fun onIdleRefreshed(silenceMs: Long) = Unit
+
+    /**
+     * Called when reading from an established IDLE connection failed with [exception].
+     */
+    fun onIdleConnectionLost(exception: IOException) = Unit
 }
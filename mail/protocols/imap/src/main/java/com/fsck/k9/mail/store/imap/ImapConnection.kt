@@ -13,6 +13,20 @@ internal interface ImapConnection {
     val isUidPlusCapable: Boolean
     val isIdleCapable: Boolean
 
+    /**
+     * `true` if the server supports the CONDSTORE extension (RFC 7162).
+     */
+    @get:Throws(IOException::class, MessagingException::class)
+    val isCondstoreCapable: Boolean
+
+    /**
+     * `true` if the QRESYNC extension (RFC 7162) was enabled for this connection.
+     *
+     * Note: When QRESYNC is enabled the server sends `VANISHED` instead of `EXPUNGE` responses.
+     */
+    @get:Throws(IOException::class, MessagingException::class)
+    val isQresyncEnabled: Boolean
+
     @Throws(IOException::class, MessagingException::class)
     fun open()
 
@@ -6,5 +6,40 @@ internal interface ImapConnectionManager {
     @Throws(MessagingException::class)
     fun getConnection(): ImapConnection
 
+    /**
+     * Returns an idle connection that still has the folder [serverId] selected in [mode], or `null` if there is none.
+     */
+    fun getSelectedConnection(serverId: String, mode: OpenMode): SelectedConnection? = null
+
+    /**
+     * Returns [connection] to the pool without any folder affinity.
+     */
     fun releaseConnection(connection: ImapConnection?)
+
+    /**
+     * Returns [connection] to the pool. [selectedFolder] describes the folder that is currently selected on the
+     * connection, or is `null` if the selected state is unknown.
+     */
+    fun releaseConnection(connection: ImapConnection?, selectedFolder: SelectedFolderState?) {
+        releaseConnection(connection)
+    }
 }
+
+/**
+ * The state of a folder that was returned by SELECT/EXAMINE and subsequently kept up to date by untagged responses.
+ */
+internal data class SelectedFolderState(
+    val serverId: String,
+    val mode: OpenMode,
+    val messageCount: Int,
+    val uidNext: Long,
+    val uidValidity: Long?,
+    val highestModSeq: Long?,
+    val canCreateKeywords: Boolean,
+    val serverOpenMode: OpenMode?,
+)
+
+internal class SelectedConnection(
+    val connection: ImapConnection,
+    val selectedFolder: SelectedFolderState,
+)
@@ -0,0 +1,149 @@
+package com.fsck.k9.mail.store.imap
+
+import com.fsck.k9.logging.Timber
+
+private const val DEFAULT_MAX_IDLE_CONNECTIONS = 4
+private const val DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000L
+private const val NANOS_PER_MILLI = 1_000_000L
+
+/**
+ * Keeps idle [ImapConnection]s together with the folder that is selected on them.
+ *
+ * Connections that already have a folder selected are preferably handed out to users of that folder, so they can skip
+ * the SELECT round trip. At most [maxIdleConnections] connections are kept; connections that have been idle for longer
+ * than [idleTimeoutMillis] are closed.
+ *
+ * [clear] starts a new [connectionGeneration]. Connections created for an older generation are no longer accepted by
+ * [offer]. Both happen under the pool's lock, so a connection released concurrently with [clear] can't end up in the
+ * pool after it has been cleared.
+ */
+internal class ImapConnectionPool(
+    private val maxIdleConnections: Int = DEFAULT_MAX_IDLE_CONNECTIONS,
+    private val idleTimeoutMillis: Long = DEFAULT_IDLE_TIMEOUT_MILLIS,
+    private val currentTimeMillis: () -> Long = { System.nanoTime() / NANOS_PER_MILLI },
+) {
+    // Ordered by release time, oldest first
+    private val idleConnections = ArrayDeque<IdleConnection>()
+    private var hitCount = 0L
+    private var missCount = 0L
+
+    @Volatile
+    var connectionGeneration = 1
+        private set
+
+    init {
+        require(maxIdleConnections > 0) { "maxIdleConnections must be positive" }
+    }
+
+    /**
+     * Removes and returns an idle connection. Connections without a selected folder are preferred, so connections
+     * with folder affinity stay available for users of those folders.
+     */
+    fun poll(): ImapConnection? {
+        return withExpiredConnectionsRemoved {
+            val index = idleConnections.indexOfFirst { it.selectedFolder == null }
+            if (index != -1) {
+                idleConnections.removeAt(index).connection
+            } else {
+                idleConnections.removeFirstOrNull()?.connection
+            }
+        }
+    }
+
+    /**
+     * Removes and returns an idle connection that has the folder [serverId] selected in [mode].
+     */
+    fun pollSelected(serverId: String, mode: OpenMode): SelectedConnection? {
+        return withExpiredConnectionsRemoved {
+            val index = idleConnections.indexOfLast { idleConnection ->
+                idleConnection.selectedFolder?.let { it.serverId == serverId && it.mode == mode } == true
+            }
+
+            if (index == -1) {
+                missCount++
+                null
+            } else {
+                hitCount++
+                val idleConnection = idleConnections.removeAt(index)
+                SelectedConnection(idleConnection.connection, idleConnection.selectedFolder!!)
+            }
+        }
+    }
+
+    /**
+     * Adds [connection] to the pool.
+     *
+     * Returns `false` without adding the connection if it was created for an older [connectionGeneration]. The caller
+     * is then responsible for closing it.
+     */
+    fun offer(connection: ImapConnection, selectedFolder: SelectedFolderState?): Boolean {
+        var accepted = false
+        val evictedConnection = withExpiredConnectionsRemoved {
+            if (connection.connectionGeneration != connectionGeneration) {
+                null
+            } else {
+                accepted = true
+                idleConnections.addLast(IdleConnection(connection, selectedFolder, currentTimeMillis()))
+
+                if (idleConnections.size > maxIdleConnections) idleConnections.removeFirst().connection else null
+            }
+        }
+
+        evictedConnection?.close()
+
+        return accepted
+    }
+
+    /**
+     * Removes all idle connections from the pool and returns them. Also starts a new [connectionGeneration].
+     */
+    fun clear(): List<ImapConnection> {
+        return synchronized(idleConnections) {
+            connectionGeneration++
+            idleConnections.map { it.connection }.also { idleConnections.clear() }
+        }
+    }
+
+    fun getStatistics(): ImapConnectionPoolStatistics {
+        return synchronized(idleConnections) {
+            ImapConnectionPoolStatistics(
+                idleConnections = idleConnections.size,
+                selectedFolderHits = hitCount,
+                selectedFolderMisses = missCount,
+            )
+        }
+    }
+
+    private inline fun <T> withExpiredConnectionsRemoved(block: () -> T): T {
+        val expiredConnections = mutableListOf<ImapConnection>()
+        val result = synchronized(idleConnections) {
+            val expirationTime = currentTimeMillis() - idleTimeoutMillis
+            while (idleConnections.firstOrNull()?.let { it.releaseTime < expirationTime } == true) {
+                expiredConnections.add(idleConnections.removeFirst().connection)
+            }
+
+            block()
+        }
+
+        if (expiredConnections.isNotEmpty()) {
+            Timber.v("Closing %d expired IMAP connection(s)", expiredConnections.size)
+            for (connection in expiredConnections) {
+                connection.close()
+            }
+        }
+
+        return result
+    }
+
+    private class IdleConnection(
+        val connection: ImapConnection,
+        val selectedFolder: SelectedFolderState?,
+        val releaseTime: Long,
+    )
+}
+
+internal data class ImapConnectionPoolStatistics(
+    val idleConnections: Int,
+    val selectedFolderHits: Long,
+    val selectedFolderMisses: Long,
+)
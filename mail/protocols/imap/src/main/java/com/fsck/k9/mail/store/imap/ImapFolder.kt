@@ -22,10 +22,27 @@ interface ImapFolder {
     @Throws(MessagingException::class)
     fun open(mode: OpenMode)
 
+    /**
+     * Opens the folder using the QRESYNC parameter to SELECT/EXAMINE (RFC 7162) if the server supports it.
+     *
+     * [uidValidity] and [highestModSeq] need to be the values saved after the last successful synchronization.
+     *
+     * @return The messages that were expunged or had their flags changed since [highestModSeq]; or `null` if the folder
+     * was opened without QRESYNC.
+     */
+    @Throws(MessagingException::class)
+    fun openWithQresync(mode: OpenMode, uidValidity: Long, highestModSeq: Long): QresyncResponse?
+
     fun close()
 
     fun getUidValidity(): Long?
 
+    /**
+     * Returns the `HIGHESTMODSEQ` value reported when the folder was opened; or `null` if the server doesn't support
+     * CONDSTORE or doesn't store mod-sequences for this folder.
+     */
+    fun getHighestModSeq(): Long?
+
     fun getMessage(uid: String): ImapMessage
 
     @Throws(MessagingException::class)
@@ -50,6 +67,15 @@ interface ImapFolder {
         maxDownloadSize: Int,
     )
 
+    /**
+     * Fetches the flags of those of [messages] whose mod-sequence is greater than [changedSince] using the CHANGEDSINCE
+     * FETCH modifier (RFC 7162).
+     *
+     * [listener] is only called for messages that were changed.
+     */
+    @Throws(MessagingException::class)
+    fun fetchChangedFlags(messages: List<ImapMessage>, changedSince: Long, listener: FetchListener?)
+
     @Throws(MessagingException::class)
     fun fetchPart(
         message: ImapMessage,
@@ -97,3 +123,16 @@ interface ImapFolder {
 interface FetchListener {
     fun onFetchResponse(message: ImapMessage, isFirstResponse: Boolean)
 }
+
+/**
+ * Changes reported by the server when a folder was opened using [ImapFolder.openWithQresync].
+ */
+class QresyncResponse(
+    private val expungedUidRanges: List<LongRange>,
+    val changedMessages: List<ImapMessage>,
+) {
+    fun isExpunged(uid: String): Boolean {
+        val numericUid = uid.toLongOrNull() ?: return false
+        return expungedUidRanges.any { numericUid in it }
+    }
+}
@@ -11,7 +11,7 @@ interface ImapFolderIdler {
         private val connectionProvider = object : ImapConnectionProvider {
             override fun getConnection(folder: ImapFolder): ImapConnection? {
                 require(folder is RealImapFolder)
-                return folder.connection
+                return folder.getConnectionForDirectUse()
             }
         }
 
@@ -35,11 +35,11 @@ class ImapList extends ArrayList<Object> {
     }
 
     public String getString(int index) {
-        return (String)get(index);
+        return toStringValue(get(index));
     }
 
     public boolean isString(int index) {
-        return inRange(index) && get(index) instanceof String;
+        return inRange(index) && (get(index) instanceof String || get(index) instanceof SpilledLiteral);
     }
 
     public boolean isLong(int index) {
@@ -102,7 +102,7 @@ class ImapList extends ArrayList<Object> {
     }
 
     public String getKeyedString(String key) {
-        return (String)getKeyedValue(key);
+        return toStringValue(getKeyedValue(key));
     }
 
     public int getKeyedNumber(String key) {
@@ -132,6 +132,14 @@ class ImapList extends ArrayList<Object> {
         throw new IllegalArgumentException("getKeyIndex() only works for keys that are in the collection.");
     }
 
+    private static String toStringValue(Object value) {
+        if (value instanceof SpilledLiteral) {
+            return ((SpilledLiteral) value).readString();
+        }
+
+        return (String) value;
+    }
+
     private boolean inRange(int index) {
         return index >= 0 && index < size();
     }
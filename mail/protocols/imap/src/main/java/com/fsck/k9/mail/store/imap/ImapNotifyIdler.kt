@@ -0,0 +1,47 @@
+package com.fsck.k9.mail.store.imap
+
+import com.fsck.k9.mail.power.WakeLock
+
+/**
+ * Listens for changes to multiple folders on a single connection using the NOTIFY extension (RFC 5465).
+ */
+interface ImapNotifyIdler {
+    /**
+     * Waits for changes to any of the folders in [folderServerIds].
+     *
+     * Returns [IdleResult.NOT_SUPPORTED] if the server doesn't support NOTIFY and IDLE. In that case callers should
+     * fall back to [ImapFolderIdler].
+     */
+    fun idle(folderServerIds: Collection<String>): NotifyIdleResult
+
+    fun refresh()
+
+    /**
+     * Ends the current call to [idle] or, if there is none, the next one.
+     */
+    fun stop()
+
+    companion object {
+        fun create(
+            idleRefreshManager: IdleRefreshManager,
+            wakeLock: WakeLock,
+            imapStore: ImapStore,
+            idleRefreshTimeoutProvider: IdleRefreshTimeoutProvider,
+        ): ImapNotifyIdler {
+            require(imapStore is RealImapStore)
+
+            return RealImapNotifyIdler(
+                idleRefreshManager = idleRefreshManager,
+                wakeLock = wakeLock,
+                connectionManager = imapStore,
+                internalImapStore = imapStore,
+                idleRefreshTimeoutProvider = idleRefreshTimeoutProvider,
+            )
+        }
+    }
+}
+
+data class NotifyIdleResult(
+    val idleResult: IdleResult,
+    val changedFolderServerIds: Set<String> = emptySet(),
+)
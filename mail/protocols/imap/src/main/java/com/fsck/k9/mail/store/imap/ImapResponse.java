@@ -1,5 +1,8 @@
 package com.fsck.k9.mail.store.imap;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Represents a single response from the IMAP server.
  *
@@ -15,6 +18,7 @@ class ImapResponse extends ImapList {
     private ImapResponseCallback callback;
     private final boolean commandContinuationRequested;
     private final String tag;
+    private transient List<SpilledLiteral> spilledLiterals;
 
 
     private ImapResponse(ImapResponseCallback callback, boolean commandContinuationRequested, String tag) {
@@ -55,6 +59,30 @@ class ImapResponse extends ImapList {
         this.callback = callback;
     }
 
+    void addSpilledLiteral(SpilledLiteral spilledLiteral) {
+        if (spilledLiterals == null) {
+            spilledLiterals = new ArrayList<>();
+        }
+        spilledLiterals.add(spilledLiteral);
+    }
+
+    /**
+     * Deletes the temporary files of all literals in this response that were spilled to disk.
+     * <p>
+     * {@link ImapResponseParser} does this when the next response is read. Call this method once the response has been
+     * handled to release the files early.
+     */
+    public void deleteSpilledLiterals() {
+        if (spilledLiterals == null) {
+            return;
+        }
+
+        for (SpilledLiteral spilledLiteral : spilledLiterals) {
+            spilledLiteral.delete();
+        }
+        spilledLiterals = null;
+    }
+
     @Override
     public String toString() {
         return "#" + (commandContinuationRequested ? "+" : tag) + "# " + super.toString();
@@ -1,7 +1,11 @@
 package com.fsck.k9.mail.store.imap;
 
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -10,19 +14,54 @@ import com.fsck.k9.logging.Timber;
 import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.filter.FixedLengthInputStream;
 import com.fsck.k9.mail.filter.PeekableInputStream;
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import okio.Buffer;
 
 import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_IMAP;
 
 
 class ImapResponseParser {
-    private PeekableInputStream inputStream;
+    /**
+     * Literals larger than this that aren't consumed by an {@link ImapResponseCallback} are written to a temporary
+     * file instead of being kept in memory. See {@link SpilledLiteral}.
+     */
+    static final int DEFAULT_LITERAL_SPILL_THRESHOLD = 256 * 1024;
+
+    private static final int INITIAL_TOKEN_BUFFER_SIZE = 128;
+    private static final int LITERAL_COPY_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Atoms that show up over and over in FETCH, SELECT, and status responses. When one of these is found the constant
+     * is returned instead of allocating a new {@code String}.
+     */
+    private static final String[] KNOWN_ATOMS = {
+            "NIL", "OK", "NO", "BAD", "BYE", "FETCH", "UID", "FLAGS", "MODSEQ", "INTERNALDATE", "RFC822.SIZE",
+            "BODYSTRUCTURE", "ENVELOPE", "BODY", "EXISTS", "RECENT", "EXPUNGE", "VANISHED", "SEARCH", "ESEARCH",
+            "\\Seen", "\\Answered", "\\Flagged", "\\Deleted", "\\Draft", "\\Recent", "$Forwarded", "$MDNSent",
+            "UIDNEXT", "UIDVALIDITY", "HIGHESTMODSEQ", "PERMANENTFLAGS", "READ-WRITE", "READ-ONLY",
+    };
+    private static final String[][] KNOWN_ATOMS_BY_LENGTH = groupByLength(KNOWN_ATOMS);
+
+    private final PeekableInputStream inputStream;
+    private final int literalSpillThreshold;
+    private boolean spillLiterals = true;
     private ImapResponse response;
+    private ImapResponse lastResponse;
     private Exception exception;
 
+    // Reused for every atom and line so reading a response doesn't allocate a new StringBuilder per token
+    private byte[] tokenBuffer = new byte[INITIAL_TOKEN_BUFFER_SIZE];
+    private final Buffer quotedBuffer = new Buffer();
+    private byte[] literalCopyBuffer;
+
 
     public ImapResponseParser(PeekableInputStream in) {
+        this(in, DEFAULT_LITERAL_SPILL_THRESHOLD);
+    }
+
+    public ImapResponseParser(PeekableInputStream in, int literalSpillThreshold) {
         this.inputStream = in;
+        this.literalSpillThreshold = literalSpillThreshold;
     }
 
     public ImapResponse readResponse() throws IOException {
@@ -31,8 +70,14 @@ class ImapResponseParser {
 
     /**
      * Reads the next response available on the stream and returns an {@code ImapResponse} object that represents it.
+     * <p>
+     * Literals spilled to disk are only valid until the next response is read. See
+     * {@link ImapResponse#deleteSpilledLiterals()}.
      */
     public ImapResponse readResponse(ImapResponseCallback callback) throws IOException {
+        deleteSpilledLiterals();
+
+        boolean success = false;
         try {
             int peek = inputStream.peek();
             if (peek == '+') {
@@ -47,13 +92,29 @@ class ImapResponseParser {
                 throw new ImapResponseParserException("readResponse(): Exception in callback method", exception);
             }
 
+            lastResponse = response;
+            success = true;
             return response;
         } finally {
+            if (!success && response != null) {
+                response.deleteSpilledLiterals();
+            }
             response = null;
             exception = null;
         }
     }
 
+    /**
+     * Deletes the temporary files of the literals in the last response returned by {@link #readResponse()} that were
+     * spilled to disk.
+     */
+    void deleteSpilledLiterals() {
+        if (lastResponse != null) {
+            lastResponse.deleteSpilledLiterals();
+            lastResponse = null;
+        }
+    }
+
     private void readContinuationRequest(ImapResponseCallback callback) throws IOException {
         parseCommandContinuationRequest();
         response = ImapResponse.newContinuationRequest(callback);
@@ -80,6 +141,19 @@ class ImapResponseParser {
     List<ImapResponse> readStatusResponse(String tag, String commandToLog, String logId,
             UntaggedHandler untaggedHandler) throws IOException, NegativeImapResponseException {
 
+        // The responses are returned to the caller as a whole, so there's no point in the response lifecycle at which
+        // spilled literals could be deleted. Keep them in memory instead.
+        spillLiterals = false;
+        try {
+            return readStatusResponses(tag, commandToLog, logId, untaggedHandler);
+        } finally {
+            spillLiterals = true;
+        }
+    }
+
+    private List<ImapResponse> readStatusResponses(String tag, String commandToLog, String logId,
+            UntaggedHandler untaggedHandler) throws IOException, NegativeImapResponseException {
+
         List<ImapResponse> responses = new ArrayList<>();
 
         ImapResponse response;
@@ -309,7 +383,7 @@ class ImapResponseParser {
     }
 
     private String parseBareString(boolean allowBrackets) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        int length = 0;
 
         int ch;
         while (true) {
@@ -322,17 +396,55 @@ class ImapResponseParser {
                     ch == '{' || ch == ' ' || ch == '"' ||
                     (ch >= 0x00 && ch <= 0x1f) || ch == 0x7f) {
 
-                if (sb.length() == 0) {
+                if (length == 0) {
                     throw new IOException(String.format("parseBareString(): (%04x %c)", ch, ch));
                 }
 
-                return sb.toString();
+                return getAtom(length);
             } else {
-                sb.append((char) inputStream.read());
+                length = appendToTokenBuffer(length, inputStream.read());
             }
         }
     }
 
+    private int appendToTokenBuffer(int length, int value) {
+        if (length == tokenBuffer.length) {
+            byte[] newBuffer = new byte[tokenBuffer.length * 2];
+            System.arraycopy(tokenBuffer, 0, newBuffer, 0, length);
+            tokenBuffer = newBuffer;
+        }
+
+        tokenBuffer[length] = (byte) value;
+        return length + 1;
+    }
+
+    private String getAtom(int length) {
+        if (length < KNOWN_ATOMS_BY_LENGTH.length) {
+            for (String knownAtom : KNOWN_ATOMS_BY_LENGTH[length]) {
+                if (tokenBufferEquals(knownAtom, length)) {
+                    return knownAtom;
+                }
+            }
+        }
+
+        return getTokenBufferString(length);
+    }
+
+    private boolean tokenBufferEquals(String value, int length) {
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != (char) (tokenBuffer[i] & 0xFF)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private String getTokenBufferString(int length) {
+        // Every byte is mapped to the char with the same value
+        return new String(tokenBuffer, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
     /**
      * A "{" has been read. Read the rest of the size string, the space and then notify the callback with an
      * {@code InputStream}.
@@ -392,6 +504,12 @@ class ImapResponseParser {
             }
         }
 
+        if (spillLiterals && size > literalSpillThreshold) {
+            SpilledLiteral spilledLiteral = spillLiteral(size);
+            response.addSpilledLiteral(spilledLiteral);
+            return spilledLiteral;
+        }
+
         byte[] data = new byte[size];
         int read = 0;
         while (read != size) {
@@ -405,10 +523,42 @@ class ImapResponseParser {
         return new String(data, "US-ASCII");
     }
 
+    /**
+     * Streams a large literal to a temporary file so it doesn't have to be held in memory twice (as byte array and as
+     * {@code String}).
+     */
+    private SpilledLiteral spillLiteral(int size) throws IOException {
+        if (literalCopyBuffer == null) {
+            literalCopyBuffer = new byte[LITERAL_COPY_BUFFER_SIZE];
+        }
+
+        File file = File.createTempFile("literal", null, BinaryTempFileBody.getTempDirectory());
+        boolean success = false;
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            int remaining = size;
+            while (remaining > 0) {
+                int count = inputStream.read(literalCopyBuffer, 0, Math.min(literalCopyBuffer.length, remaining));
+                if (count == -1) {
+                    throw new IOException("parseLiteral(): end of stream reached");
+                }
+                outputStream.write(literalCopyBuffer, 0, count);
+                remaining -= count;
+            }
+            success = true;
+        } finally {
+            if (!success && !file.delete()) {
+                Timber.w("Unable to delete temporary file %s", file);
+            }
+        }
+
+        return new SpilledLiteral(file, size);
+    }
+
     private String parseQuoted() throws IOException {
         expect('"');
 
-        Buffer buffer = new Buffer();
+        Buffer buffer = quotedBuffer;
+        buffer.clear();
         int ch;
         boolean escape = false;
         while ((ch = inputStream.read()) != -1) {
@@ -443,19 +593,19 @@ class ImapResponseParser {
     }
 
     private String readStringUntil(char end) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        int length = 0;
 
         int ch;
         while ((ch = inputStream.read()) != -1) {
             if (ch == end) {
-                return sb.toString();
+                return getTokenBufferString(length);
             } else {
-                sb.append((char) ch);
+                length = appendToTokenBuffer(length, ch);
             }
         }
 
         throw new IOException("readStringUntil(): end of stream reached. " +
-                "Read: \"" + sb.toString() + "\" while waiting for " + formatChar(end));
+                "Read: \"" + getTokenBufferString(length) + "\" while waiting for " + formatChar(end));
     }
 
     private String formatChar(char value) {
@@ -490,6 +640,28 @@ class ImapResponseParser {
 
     }
 
+    private static String[][] groupByLength(String[] values) {
+        int maxLength = 0;
+        for (String value : values) {
+            maxLength = Math.max(maxLength, value.length());
+        }
+
+        List<List<String>> lists = new ArrayList<>();
+        for (int i = 0; i <= maxLength; i++) {
+            lists.add(new ArrayList<>());
+        }
+        for (String value : values) {
+            lists.get(value.length()).add(value);
+        }
+
+        String[][] result = new String[maxLength + 1][];
+        for (int i = 0; i <= maxLength; i++) {
+            result[i] = lists.get(i).toArray(new String[0]);
+        }
+
+        return result;
+    }
+
     private void checkTokenIsString(Object token) {
         if (!(token instanceof String)) {
             throw new ImapResponseParserException("Unexpected non-string token");
@@ -5,4 +5,14 @@ interface ImapStoreConfig {
     fun isSubscribedFoldersOnly(): Boolean
     fun isExpungeImmediately(): Boolean
     fun clientInfo(): ImapClientInfo
+
+    /**
+     * Maximum number of `UID FETCH` commands that are sent before waiting for a tagged response. `1` disables
+     * pipelining.
+     */
+    fun fetchPipelineDepth(): Int = DEFAULT_FETCH_PIPELINE_DEPTH
+
+    companion object {
+        const val DEFAULT_FETCH_PIPELINE_DEPTH = 4
+    }
 }
@@ -55,6 +55,7 @@ internal class RealImapConnection(
     private var responseParser: ImapResponseParser? = null
     private var nextCommandTag = 0
     private var capabilities = emptySet<String>()
+    private var qresyncEnabled = false
     private var stacktraceForClose: Exception? = null
     private var open = false
     private var retryOAuthWithNewToken = true
@@ -98,6 +99,7 @@ internal class RealImapConnection(
 
             enableCompressionIfRequested()
             sendClientInfoIfSupported()
+            enableQresyncIfSupported()
 
             retrievePathPrefixIfNecessary()
             retrievePathDelimiterIfNecessary()
@@ -562,6 +564,26 @@ internal class RealImapConnection(
         }
     }
 
+    private fun enableQresyncIfSupported() {
+        if (!hasCapability(Capabilities.QRESYNC) || !hasCapability(Capabilities.ENABLE)) return
+
+        val responses = try {
+            executeSimpleCommand(Commands.ENABLE_QRESYNC)
+        } catch (e: NegativeImapResponseException) {
+            Timber.d(e, "Ignoring negative response to ENABLE QRESYNC command")
+            return
+        }
+
+        qresyncEnabled = responses.any { response ->
+            !response.isTagged && ImapResponseParser.equalsIgnoreCase(response[0], Responses.ENABLED) &&
+                response.drop(1).any { ImapResponseParser.equalsIgnoreCase(it, Capabilities.QRESYNC) }
+        }
+
+        if (K9MailLib.isDebug()) {
+            Timber.d("QRESYNC enabled: %b for %s", qresyncEnabled, logId)
+        }
+    }
+
     private fun enableCompression() {
         try {
             executeSimpleCommand(Commands.COMPRESS_DEFLATE)
@@ -666,8 +688,17 @@ internal class RealImapConnection(
         return capabilities.contains(capability.uppercase())
     }
 
-    private val isCondstoreCapable: Boolean
-        get() = hasCapability(Capabilities.CONDSTORE)
+    override val isCondstoreCapable: Boolean
+        get() = hasCapability(Capabilities.CONDSTORE) || hasCapability(Capabilities.QRESYNC)
+
+    override val isQresyncEnabled: Boolean
+        get() {
+            if (!open) {
+                open()
+            }
+
+            return qresyncEnabled
+        }
 
     override val isIdleCapable: Boolean
         get() {
@@ -686,6 +717,7 @@ internal class RealImapConnection(
         if (!open) return
 
         open = false
+        qresyncEnabled = false
 
         stacktraceForClose = Exception()
 
@@ -693,6 +725,8 @@ internal class RealImapConnection(
         IOUtils.closeQuietly(imapOutputStream)
         IOUtils.closeQuietly(socket)
 
+        responseParser?.deleteSpilledLiterals()
+
         inputStream = null
         imapOutputStream = null
         socket = null
@@ -24,7 +24,6 @@ import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
 import kotlin.math.max
-import kotlin.math.min
 
 internal class RealImapFolder(
     private val internalImapStore: InternalImapStore,
@@ -39,6 +38,14 @@ internal class RealImapFolder(
     private var inSearch = false
     private var canCreateKeywords = false
     private var uidValidity: Long? = null
+    private var highestModSeq: Long? = null
+    private var openedWithQresync = false
+
+    /**
+     * `true` if SELECT/EXAMINE for this folder completed successfully on [connection]. Only then the connection is
+     * returned to the pool with affinity to this folder.
+     */
+    private var isSelected = false
 
     /**
      * Specifies whether the folder was opened in read-only or read-write mode based on the tagged OK response to
@@ -63,11 +70,27 @@ internal class RealImapFolder(
     override val isOpen: Boolean
         get() = connection != null
 
+    /**
+     * Returns the connection for direct use by the caller, e.g. for IDLE.
+     *
+     * Untagged responses read by the caller are not seen by this folder. So the connection won't be returned to the
+     * pool with affinity to this folder.
+     */
+    internal fun getConnectionForDirectUse(): ImapConnection? {
+        isSelected = false
+        return connection
+    }
+
     override fun getUidValidity(): Long? {
         check(isOpen) { "ImapFolder needs to be open" }
         return uidValidity
     }
 
+    override fun getHighestModSeq(): Long? {
+        check(isOpen) { "ImapFolder needs to be open" }
+        return highestModSeq
+    }
+
     @get:Throws(MessagingException::class)
     private val prefixedName: String
         get() {
@@ -114,8 +137,51 @@ internal class RealImapFolder(
     }
 
     @Throws(MessagingException::class)
-    private fun internalOpen(mode: OpenMode): List<ImapResponse> {
-        if (isOpen && this.mode == mode) {
+    override fun openWithQresync(mode: OpenMode, uidValidity: Long, highestModSeq: Long): QresyncResponse? {
+        val qresyncParameters = String.format(Locale.US, "QRESYNC (%d %d)", uidValidity, highestModSeq)
+        val responses = internalOpen(mode, qresyncParameters)
+
+        if (messageCount == -1) {
+            throw MessagingException("Did not find message count during open")
+        }
+
+        if (!openedWithQresync) {
+            return null
+        }
+
+        val expungedUidRanges = mutableListOf<LongRange>()
+        val changedMessages = mutableListOf<ImapMessage>()
+        for (response in responses) {
+            val vanishedResponse = VanishedResponse.parse(response)
+            if (vanishedResponse != null) {
+                if (vanishedResponse.isEarlier) {
+                    expungedUidRanges.addAll(vanishedResponse.uidRanges)
+                }
+            } else if (response.isFetchResponse) {
+                val fetchList = response.getKeyedValue("FETCH") as ImapList
+                val uid = fetchList.getKeyedString("UID") ?: continue
+
+                val message = ImapMessage(uid)
+                handleFetchResponse(message, fetchList)
+                changedMessages.add(message)
+            }
+        }
+
+        if (K9MailLib.isDebug()) {
+            Timber.d(
+                "QRESYNC reported %d changed messages and %d expunged UID ranges for %s",
+                changedMessages.size,
+                expungedUidRanges.size,
+                logId,
+            )
+        }
+
+        return QresyncResponse(expungedUidRanges, changedMessages)
+    }
+
+    @Throws(MessagingException::class)
+    private fun internalOpen(mode: OpenMode, qresyncParameters: String? = null): List<ImapResponse> {
+        if (qresyncParameters == null && isOpen && this.mode == mode) {
             // Make sure the connection is valid. If it's not we'll close it down and continue on to get a new one.
             try {
                 return executeSimpleCommand(Commands.NOOP)
@@ -125,7 +191,14 @@ internal class RealImapFolder(
             }
         }
 
-        connectionManager.releaseConnection(connection)
+        releaseConnection()
+
+        if (qresyncParameters == null) {
+            val responses = openWithSelectedConnection(mode)
+            if (responses != null) {
+                return responses
+            }
+        }
 
         synchronized(this) {
             connection = connectionManager.getConnection()
@@ -135,19 +208,28 @@ internal class RealImapFolder(
             val openCommand = if (mode == OpenMode.READ_WRITE) "SELECT" else "EXAMINE"
             val encodedFolderName = folderNameCodec.encode(prefixedName)
             val escapedFolderName = ImapUtility.encodeString(encodedFolderName)
-            val command = String.format("%s %s", openCommand, escapedFolderName)
+            val useQresync = qresyncParameters != null && connection!!.isQresyncEnabled
+            val command = if (useQresync) {
+                String.format("%s %s (%s)", openCommand, escapedFolderName, qresyncParameters)
+            } else {
+                String.format("%s %s", openCommand, escapedFolderName)
+            }
+            highestModSeq = null
             val responses = executeSimpleCommand(command)
 
             this.mode = mode
+            openedWithQresync = useQresync
 
             for (response in responses) {
                 extractUidValidity(response)
+                extractHighestModSeq(response)
                 handlePermanentFlags(response)
             }
 
             handleSelectOrExamineOkResponse(ImapUtility.getLastResponse(responses))
 
             exists = true
+            isSelected = true
 
             return responses
         } catch (ioe: IOException) {
@@ -158,6 +240,85 @@ internal class RealImapFolder(
         }
     }
 
+    /**
+     * Tries to open the folder using a pooled connection that already has this folder selected in [mode].
+     *
+     * Instead of SELECT/EXAMINE only a NOOP is sent to validate the connection and pick up changes (EXISTS, EXPUNGE)
+     * that happened while the connection was idle.
+     *
+     * @return The responses to the NOOP command; or `null` if no suitable connection was available.
+     */
+    private fun openWithSelectedConnection(mode: OpenMode): List<ImapResponse>? {
+        val selectedConnection = connectionManager.getSelectedConnection(serverId, mode) ?: return null
+        val selectedFolder = selectedConnection.selectedFolder
+
+        synchronized(this) {
+            connection = selectedConnection.connection
+        }
+
+        this.mode = mode
+        messageCount = selectedFolder.messageCount
+        uidNext = selectedFolder.uidNext
+        uidValidity = selectedFolder.uidValidity
+        highestModSeq = selectedFolder.highestModSeq
+        canCreateKeywords = selectedFolder.canCreateKeywords
+        serverOpenMode = selectedFolder.serverOpenMode
+        openedWithQresync = false
+
+        return try {
+            val responses = executeSimpleCommand(Commands.NOOP)
+            for (response in responses) {
+                extractHighestModSeq(response)
+            }
+
+            exists = true
+            isSelected = true
+
+            if (K9MailLib.isDebug()) {
+                Timber.d("Reusing connection with %s already selected", logId)
+            }
+
+            responses
+        } catch (e: IOException) {
+            discardSelectedConnection(selectedConnection.connection, e)
+            null
+        } catch (e: MessagingException) {
+            discardSelectedConnection(selectedConnection.connection, e)
+            null
+        }
+    }
+
+    private fun discardSelectedConnection(connection: ImapConnection, exception: Exception) {
+        Timber.d(exception, "Pooled connection for %s is no longer usable", logId)
+        connection.close()
+
+        synchronized(this) {
+            this.connection = null
+        }
+        messageCount = -1
+    }
+
+    private fun releaseConnection() {
+        val selectedFolder = if (isSelected) createSelectedFolderState() else null
+        connectionManager.releaseConnection(connection, selectedFolder)
+        isSelected = false
+    }
+
+    private fun createSelectedFolderState(): SelectedFolderState? {
+        val mode = mode ?: return null
+
+        return SelectedFolderState(
+            serverId = serverId,
+            mode = mode,
+            messageCount = messageCount,
+            uidNext = uidNext,
+            uidValidity = uidValidity,
+            highestModSeq = highestModSeq,
+            canCreateKeywords = canCreateKeywords,
+            serverOpenMode = serverOpenMode,
+        )
+    }
+
     private fun extractUidValidity(response: ImapResponse) {
         val uidValidityResponse = UidValidityResponse.parse(response)
         if (uidValidityResponse != null) {
@@ -165,6 +326,13 @@ internal class RealImapFolder(
         }
     }
 
+    private fun extractHighestModSeq(response: ImapResponse) {
+        val highestModSeqResponse = HighestModSeqResponse.parse(response)
+        if (highestModSeqResponse != null) {
+            highestModSeq = highestModSeqResponse.highestModSeq
+        }
+    }
+
     private fun handlePermanentFlags(response: ImapResponse) {
         val permanentFlagsResponse = PermanentFlagsResponse.parse(response) ?: return
 
@@ -181,9 +349,8 @@ internal class RealImapFolder(
     }
 
     override fun close() {
-        messageCount = -1
-
         if (!isOpen) {
+            messageCount = -1
             return
         }
 
@@ -192,10 +359,13 @@ internal class RealImapFolder(
             if (inSearch && connection != null) {
                 Timber.i("IMAP search was aborted, shutting down connection.")
                 connection!!.close()
+                isSelected = false
             } else {
-                connectionManager.releaseConnection(connection)
+                releaseConnection()
             }
 
+            messageCount = -1
+
             connection = null
         }
     }
@@ -586,70 +756,171 @@ internal class RealImapFolder(
         }
 
         val spaceSeparatedFetchFields = ImapUtility.join(" ", fetchFields)
-        var windowStart = 0
-        val processedUids = mutableSetOf<String>()
-        while (windowStart < messages.size) {
-            val windowEnd = min(windowStart + FETCH_WINDOW_SIZE, messages.size)
-            val uidWindow = uids.subList(windowStart, windowEnd)
 
-            try {
-                val commaSeparatedUids = ImapUtility.join(",", uidWindow)
-                val command = String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields)
-                connection!!.sendCommand(command, false)
+        val callback = if (fetchProfile.contains(FetchProfile.Item.BODY) ||
+            fetchProfile.contains(FetchProfile.Item.BODY_SANE)
+        ) {
+            FetchBodyCallback(messageMap)
+        } else {
+            null
+        }
 
-                var callback: ImapResponseCallback? = null
-                if (fetchProfile.contains(FetchProfile.Item.BODY) ||
-                    fetchProfile.contains(FetchProfile.Item.BODY_SANE)
-                ) {
-                    callback = FetchBodyCallback(messageMap)
+        // Up to `pipelineDepth` UID FETCH commands are sent before waiting for the first tagged response. This saves
+        // a round trip per window on high-latency connections. UID FETCH commands are safe to pipeline (RFC 3501,
+        // section 5.5).
+        val pipelineDepth = internalImapStore.config.fetchPipelineDepth().coerceAtLeast(1)
+        val uidWindows = uids.chunked(FETCH_WINDOW_SIZE)
+        val pendingWindows = LinkedHashMap<String, Int>()
+        var nextWindow = 0
+        val processedUids = mutableSetOf<String>()
+        var failedResponse: ImapResponse? = null
+        try {
+            while (nextWindow < uidWindows.size || pendingWindows.isNotEmpty()) {
+                // After a failure, only wait for the commands that are already in flight
+                while (failedResponse == null && nextWindow < uidWindows.size && pendingWindows.size < pipelineDepth) {
+                    val commaSeparatedUids = ImapUtility.join(",", uidWindows[nextWindow])
+                    val command = String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields)
+                    val tag = connection!!.sendCommand(command, false)
+
+                    pendingWindows[tag] = nextWindow
+                    nextWindow++
                 }
 
                 var response: ImapResponse
                 do {
                     response = connection!!.readResponse(callback)
-                    if (response.tag == null && ImapResponseParser.equalsIgnoreCase(response[1], "FETCH")) {
-                        val fetchList = response.getKeyedValue("FETCH") as ImapList
-                        val uid = fetchList.getKeyedString("UID")
-
-                        val message = messageMap[uid]
-                        if (message == null) {
-                            if (K9MailLib.isDebug()) {
-                                Timber.d("Do not have message in messageMap for UID %s for %s", uid, logId)
-                            }
-                            handleUntaggedResponse(response)
-                            continue
+                    if (response.tag == null) {
+                        try {
+                            handleFetchLoopResponse(response, messageMap, processedUids, listener)
+                        } finally {
+                            response.deleteSpilledLiterals()
                         }
+                    }
+                } while (response.tag == null)
 
-                        val literal = handleFetchResponse(message, fetchList)
-                        if (literal != null) {
-                            when (literal) {
-                                is String -> {
-                                    val bodyStream: InputStream = literal.toByteArray().inputStream()
-                                    message.parse(bodyStream)
-                                }
-                                is Int -> {
-                                    // All the work was done in FetchBodyCallback.foundLiteral()
-                                }
-                                else -> {
-                                    // This shouldn't happen
-                                    throw MessagingException("Got FETCH response with bogus parameters")
-                                }
-                            }
-                        }
+                if (!completeFetchWindow(response, pendingWindows) && failedResponse == null) {
+                    failedResponse = response
+                }
+            }
+        } catch (ioe: IOException) {
+            throw ioExceptionHandler(connection, ioe)
+        }
 
-                        val isFirstResponse = uid !in processedUids
-                        processedUids.add(uid)
+        if (failedResponse != null) {
+            throw NegativeImapResponseException("UID FETCH failed", listOf(failedResponse))
+        }
+    }
 
-                        listener?.onFetchResponse(message, isFirstResponse)
-                    } else {
+    private fun handleFetchLoopResponse(
+        response: ImapResponse,
+        messageMap: Map<String, ImapMessage>,
+        processedUids: MutableSet<String>,
+        listener: FetchListener?,
+    ) {
+        if (!ImapResponseParser.equalsIgnoreCase(response[1], "FETCH")) {
+            handleUntaggedResponse(response)
+            return
+        }
+
+        val fetchList = response.getKeyedValue("FETCH") as ImapList
+        val uid = fetchList.getKeyedString("UID")
+
+        val message = messageMap[uid]
+        if (message == null) {
+            if (K9MailLib.isDebug()) {
+                Timber.d("Do not have message in messageMap for UID %s for %s", uid, logId)
+            }
+            handleUntaggedResponse(response)
+            return
+        }
+
+        val literal = handleFetchResponse(message, fetchList)
+        if (literal != null) {
+            when (literal) {
+                is String -> {
+                    val bodyStream: InputStream = literal.toByteArray().inputStream()
+                    message.parse(bodyStream)
+                }
+                is SpilledLiteral -> {
+                    literal.inputStream().use { message.parse(it) }
+                }
+                is Int -> {
+                    // All the work was done in FetchBodyCallback.foundLiteral()
+                }
+                else -> {
+                    // This shouldn't happen
+                    throw MessagingException("Got FETCH response with bogus parameters")
+                }
+            }
+        }
+
+        val isFirstResponse = uid !in processedUids
+        processedUids.add(uid)
+
+        listener?.onFetchResponse(message, isFirstResponse)
+    }
+
+    /**
+     * Returns `false` if the UID FETCH command completed by [response] failed.
+     *
+     * A `NO` response doesn't count as failure. Servers use it when some of the requested messages have been expunged
+     * concurrently (e.g. `NO [EXPUNGEISSUED]`). The untagged FETCH responses received for the other messages are
+     * still valid.
+     */
+    private fun completeFetchWindow(response: ImapResponse, pendingWindows: MutableMap<String, Int>): Boolean {
+        val window = pendingWindows.remove(response.tag)
+        if (window == null) {
+            // We can no longer tell which responses belong to which command
+            connection?.close()
+            throw MessagingException("Got tagged response that doesn't match any pending UID FETCH: $response")
+        }
+
+        return when {
+            ImapResponseParser.equalsIgnoreCase(response[0], Responses.OK) -> true
+            ImapResponseParser.equalsIgnoreCase(response[0], Responses.NO) -> {
+                Timber.w("UID FETCH for window %d returned NO for %s: %s", window, logId, response)
+                true
+            }
+            else -> {
+                Timber.w("UID FETCH for window %d failed for %s: %s", window, logId, response)
+                false
+            }
+        }
+    }
+
+    @Throws(MessagingException::class)
+    override fun fetchChangedFlags(messages: List<ImapMessage>, changedSince: Long, listener: FetchListener?) {
+        if (messages.isEmpty()) {
+            return
+        }
+
+        checkOpen()
+
+        val messageMap = messages.associateBy { it.uid }
+        val uids = messages.map { it.uid.toLong() }.toSet()
+        val commandSuffix = String.format(Locale.US, "(UID FLAGS) (CHANGEDSINCE %d)", changedSince)
+
+        try {
+            val imapResponses = connection!!.executeCommandWithIdSet(Commands.UID_FETCH, commandSuffix, uids)
+            for (response in imapResponses) {
+                if (response.isFetchResponse) {
+                    val fetchList = response.getKeyedValue("FETCH") as ImapList
+                    val uid = fetchList.getKeyedString("UID")
+
+                    val message = messageMap[uid]
+                    if (message == null) {
                         handleUntaggedResponse(response)
+                        continue
                     }
-                } while (response.tag == null)
-            } catch (ioe: IOException) {
-                throw ioExceptionHandler(connection, ioe)
-            }
 
-            windowStart += FETCH_WINDOW_SIZE
+                    handleFetchResponse(message, fetchList)
+                    listener?.onFetchResponse(message, isFirstResponse = true)
+                } else {
+                    handleUntaggedResponse(response)
+                }
+            }
+        } catch (ioe: IOException) {
+            throw ioExceptionHandler(connection, ioe)
         }
     }
 
@@ -680,40 +951,43 @@ internal class RealImapFolder(
             do {
                 response = connection!!.readResponse(callback)
 
-                if (response.tag == null && ImapResponseParser.equalsIgnoreCase(response[1], "FETCH")) {
-                    val fetchList = response.getKeyedValue("FETCH") as ImapList
-                    val uid = fetchList.getKeyedString("UID")
-                    if (message.uid != uid) {
-                        if (K9MailLib.isDebug()) {
-                            Timber.d("Did not ask for UID %s for %s", uid, logId)
+                try {
+                    if (response.tag == null && ImapResponseParser.equalsIgnoreCase(response[1], "FETCH")) {
+                        val fetchList = response.getKeyedValue("FETCH") as ImapList
+                        val uid = fetchList.getKeyedString("UID")
+                        if (message.uid != uid) {
+                            if (K9MailLib.isDebug()) {
+                                Timber.d("Did not ask for UID %s for %s", uid, logId)
+                            }
+                            handleUntaggedResponse(response)
+                            continue
                         }
-                        handleUntaggedResponse(response)
-                        continue
-                    }
 
-                    val literal = handleFetchResponse(message, fetchList)
-                    if (literal != null) {
-                        when (literal) {
-                            is Body -> {
-                                // Most of the work was done in FetchAttachmentCallback.foundLiteral()
-                                MimeMessageHelper.setBody(part, literal as Body?)
-                            }
-                            is String -> {
-                                val bodyStream: InputStream = literal.toByteArray().inputStream()
-                                val contentTransferEncoding =
-                                    part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)[0]
-                                val contentType = part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)[0]
-                                val body = bodyFactory.createBody(contentTransferEncoding, contentType, bodyStream)
-                                MimeMessageHelper.setBody(part, body)
-                            }
-                            else -> {
-                                // This shouldn't happen
-                                throw MessagingException("Got FETCH response with bogus parameters")
+                        val literal = handleFetchResponse(message, fetchList)
+                        if (literal != null) {
+                            when (literal) {
+                                is Body -> {
+                                    // Most of the work was done in FetchAttachmentCallback.foundLiteral()
+                                    MimeMessageHelper.setBody(part, literal as Body?)
+                                }
+                                is String -> {
+                                    val bodyStream: InputStream = literal.toByteArray().inputStream()
+                                    setBodyFromStream(part, bodyFactory, bodyStream)
+                                }
+                                is SpilledLiteral -> {
+                                    literal.inputStream().use { setBodyFromStream(part, bodyFactory, it) }
+                                }
+                                else -> {
+                                    // This shouldn't happen
+                                    throw MessagingException("Got FETCH response with bogus parameters")
+                                }
                             }
                         }
+                    } else {
+                        handleUntaggedResponse(response)
                     }
-                } else {
-                    handleUntaggedResponse(response)
+                } finally {
+                    response.deleteSpilledLiterals()
                 }
             } while (response.tag == null)
         } catch (ioe: IOException) {
@@ -721,8 +995,15 @@ internal class RealImapFolder(
         }
     }
 
-    // Returns value of body field
     @Throws(MessagingException::class)
+    private fun setBodyFromStream(part: Part, bodyFactory: BodyFactory, bodyStream: InputStream) {
+        val contentTransferEncoding = part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)[0]
+        val contentType = part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)[0]
+        val body = bodyFactory.createBody(contentTransferEncoding, contentType, bodyStream)
+        MimeMessageHelper.setBody(part, body)
+    }
+
+    // Returns value of body field
     private fun handleFetchResponse(message: ImapMessage, fetchList: ImapList): Any? {
         var result: Any? = null
         if (fetchList.containsKey("FLAGS")) {
@@ -837,6 +1118,14 @@ internal class RealImapFolder(
                     Timber.d("Got untagged EXPUNGE with messageCount %d for %s", messageCount, logId)
                 }
             }
+
+            val vanishedResponse = VanishedResponse.parse(response)
+            if (vanishedResponse != null && !vanishedResponse.isEarlier && messageCount > 0) {
+                messageCount = max(0L, messageCount - vanishedResponse.count).toInt()
+                if (K9MailLib.isDebug()) {
+                    Timber.d("Got untagged VANISHED with messageCount %d for %s", messageCount, logId)
+                }
+            }
         }
     }
 
@@ -1274,6 +1563,9 @@ private fun ImapConnection?.hasCapability(capability: String): Boolean {
     return this?.hasCapability(capability) == true
 }
 
+private val ImapResponse.isFetchResponse: Boolean
+    get() = tag == null && size > 1 && ImapResponseParser.equalsIgnoreCase(get(1), "FETCH")
+
 enum class OpenMode {
     READ_WRITE,
     READ_ONLY,
@@ -6,6 +6,7 @@ import com.fsck.k9.mail.power.WakeLock
 import java.io.IOException
 
 private const val SOCKET_EXTRA_TIMEOUT_MS = 2 * 60 * 1000L
+private const val NANOS_PER_MILLI = 1_000_000L
 
 internal class RealImapFolderIdler(
     private val idleRefreshManager: IdleRefreshManager,
@@ -14,6 +15,7 @@ internal class RealImapFolderIdler(
     private val connectionProvider: ImapConnectionProvider,
     private val folderServerId: String,
     private val idleRefreshTimeoutProvider: IdleRefreshTimeoutProvider,
+    private val currentTimeMillis: () -> Long = { System.nanoTime() / NANOS_PER_MILLI },
 ) : ImapFolderIdler {
     private val logTag = "ImapFolderIdler[$folderServerId]"
 
@@ -29,6 +31,16 @@ internal class RealImapFolderIdler(
     private var idleSent = false
     private var doneSent = false
 
+    // Written by the timer thread in idleRefresh()
+    @Volatile
+    private var refreshedByTimer = false
+
+    @Volatile
+    private var refreshedAfterSilenceMs = 0L
+
+    @Volatile
+    private var lastServerTrafficTime = 0L
+
     override fun idle(): IdleResult {
         Timber.v("%s.idle()", logTag)
 
@@ -83,8 +95,10 @@ internal class RealImapFolderIdler(
             synchronized(this) {
                 idleSent = false
                 doneSent = false
+                refreshedByTimer = false
             }
 
+            val idleTimeoutMs = idleRefreshTimeoutProvider.idleRefreshTimeoutMs
             val tag = connection.sendCommand("IDLE", false)
 
             synchronized(this) {
@@ -101,6 +115,7 @@ internal class RealImapFolderIdler(
                     receivedRelevantResponse = true
                 }
             } while (!response.isContinuationRequested)
+            lastServerTrafficTime = currentTimeMillis()
 
             if (receivedRelevantResponse) {
                 Timber.v("%s.idle(): Received a relevant untagged response right after sending IDLE command", logTag)
@@ -108,13 +123,13 @@ internal class RealImapFolderIdler(
                 stopIdle = true
                 sendDone()
             } else {
-                connection.setSocketIdleReadTimeout()
+                connection.setSocketIdleReadTimeout(idleTimeoutMs)
             }
 
             var response: ImapResponse
             do {
                 idleRefreshTimer = idleRefreshManager.startTimer(
-                    timeout = idleRefreshTimeoutProvider.idleRefreshTimeoutMs,
+                    timeout = idleTimeoutMs,
                     callback = ::idleRefresh,
                 )
 
@@ -122,6 +137,10 @@ internal class RealImapFolderIdler(
 
                 try {
                     response = connection.readResponse()
+                    lastServerTrafficTime = currentTimeMillis()
+                } catch (e: IOException) {
+                    idleRefreshTimeoutProvider.onIdleConnectionLost(e)
+                    throw e
                 } finally {
                     wakeLock.acquire()
                     idleRefreshTimer?.cancel()
@@ -140,6 +159,10 @@ internal class RealImapFolderIdler(
             if (!response.isOk) {
                 throw MessagingException("Received non-OK response to IDLE command")
             }
+
+            if (refreshedByTimer) {
+                idleRefreshTimeoutProvider.onIdleRefreshed(refreshedAfterSilenceMs)
+            }
         } while (!stopIdle)
 
         return result
@@ -155,7 +178,9 @@ internal class RealImapFolderIdler(
         }
 
         try {
+            refreshedAfterSilenceMs = currentTimeMillis() - lastServerTrafficTime
             sendDone()
+            refreshedByTimer = doneSent
         } catch (e: IOException) {
             Timber.v(e, "%s: IOException while sending DONE", logTag)
         }
@@ -175,8 +200,8 @@ internal class RealImapFolderIdler(
         }
     }
 
-    private fun ImapConnection.setSocketIdleReadTimeout() {
-        setSocketReadTimeout((idleRefreshTimeoutProvider.idleRefreshTimeoutMs + SOCKET_EXTRA_TIMEOUT_MS).toInt())
+    private fun ImapConnection.setSocketIdleReadTimeout(idleTimeoutMs: Long) {
+        setSocketReadTimeout((idleTimeoutMs + SOCKET_EXTRA_TIMEOUT_MS).toInt())
     }
 
     private val ImapResponse.isRelevant: Boolean
@@ -184,7 +209,8 @@ internal class RealImapFolderIdler(
             return if (!isTagged && size >= 2) {
                 ImapResponseParser.equalsIgnoreCase(get(1), "EXISTS") ||
                     ImapResponseParser.equalsIgnoreCase(get(1), "EXPUNGE") ||
-                    ImapResponseParser.equalsIgnoreCase(get(1), "FETCH")
+                    ImapResponseParser.equalsIgnoreCase(get(1), "FETCH") ||
+                    ImapResponseParser.equalsIgnoreCase(get(0), Responses.VANISHED)
             } else {
                 false
             }
@@ -0,0 +1,333 @@
+package com.fsck.k9.mail.store.imap
+
+import com.fsck.k9.logging.Timber
+import com.fsck.k9.mail.MessagingException
+import com.fsck.k9.mail.power.WakeLock
+import java.io.IOException
+
+private const val SOCKET_EXTRA_TIMEOUT_MS = 2 * 60 * 1000L
+private const val NANOS_PER_MILLI = 1_000_000L
+
+private const val EVENTS = "MessageNew MessageExpunge FlagChange"
+
+// Servers are allowed to reject FlagChange for mailboxes that are not selected
+private const val EVENTS_WITHOUT_FLAG_CHANGE = "MessageNew MessageExpunge"
+
+// Used to leave the selected state on servers that don't support UNSELECT
+private const val NONEXISTENT_MAILBOX = "K9MAIL-NONEXISTENT-MAILBOX-8c1fd0b7"
+
+/**
+ * Uses `NOTIFY SET` to ask the server to report changes to the watched mailboxes via untagged `STATUS` responses, then
+ * waits for those using IDLE. No mailbox is selected on the connection.
+ *
+ * The notification state is reset with `NOTIFY NONE` before the connection is returned to the pool.
+ */
+internal class RealImapNotifyIdler(
+    private val idleRefreshManager: IdleRefreshManager,
+    private val wakeLock: WakeLock,
+    private val connectionManager: ImapConnectionManager,
+    private val internalImapStore: InternalImapStore,
+    private val idleRefreshTimeoutProvider: IdleRefreshTimeoutProvider,
+    private val folderNameCodec: FolderNameCodec = FolderNameCodec(),
+    private val currentTimeMillis: () -> Long = { System.nanoTime() / NANOS_PER_MILLI },
+) : ImapNotifyIdler {
+    private val logTag = "ImapNotifyIdler[${internalImapStore.logLabel}]"
+
+    @get:Synchronized
+    @set:Synchronized
+    private var connection: ImapConnection? = null
+
+    @get:Synchronized
+    @set:Synchronized
+    private var idleRefreshTimer: IdleRefreshTimer? = null
+
+    @Volatile
+    private var stopIdle = false
+
+    private var idleSent = false
+    private var doneSent = false
+
+    // Written by the timer thread in idleRefresh()
+    @Volatile
+    private var refreshedByTimer = false
+
+    @Volatile
+    private var refreshedAfterSilenceMs = 0L
+
+    @Volatile
+    private var lastServerTrafficTime = 0L
+
+    override fun idle(folderServerIds: Collection<String>): NotifyIdleResult {
+        Timber.v("%s.idle(%s)", logTag, folderServerIds)
+
+        val connection = connectionManager.getConnection()
+        try {
+            // Connections from the pool might still have a mailbox selected
+            val isPooledConnection = connection.isConnected
+
+            connection.open()
+            if (!connection.hasCapability(Capabilities.NOTIFY) || !connection.isIdleCapable) {
+                Timber.v("%s: NOTIFY not supported by server", logTag)
+                return NotifyIdleResult(IdleResult.NOT_SUPPORTED)
+            }
+
+            if (isPooledConnection) {
+                connection.unselectMailbox()
+            }
+
+            this.connection = connection
+
+            return connection.idle(folderServerIds).also { result ->
+                Timber.v("%s.idle(): result=%s", logTag, result)
+
+                connection.executeSimpleCommand(Commands.NOTIFY_NONE)
+            }
+        } catch (e: IOException) {
+            connection.close()
+            throw e
+        } catch (e: MessagingException) {
+            connection.close()
+            throw e
+        } finally {
+            this.connection = null
+            stopIdle = false
+            connectionManager.releaseConnection(connection)
+        }
+    }
+
+    @Synchronized
+    override fun refresh() {
+        Timber.v("%s.refresh()", logTag)
+        endIdle()
+    }
+
+    @Synchronized
+    override fun stop() {
+        Timber.v("%s.stop()", logTag)
+        stopIdle = true
+        endIdle()
+    }
+
+    private fun endIdle() {
+        if (idleSent && !doneSent) {
+            idleRefreshTimer?.cancel()
+
+            try {
+                sendDone()
+            } catch (e: IOException) {
+                Timber.v(e, "%s: IOException while sending DONE", logTag)
+            }
+        }
+    }
+
+    private fun ImapConnection.idle(folderServerIds: Collection<String>): NotifyIdleResult {
+        val folderServerIdsByMailbox = folderServerIds.associateBy { folderServerId ->
+            normalizeMailboxName(getEncodedMailboxName(folderServerId))
+        }
+
+        val changedFolderServerIds = mutableSetOf<String>()
+        fun processResponse(response: ImapResponse): Boolean {
+            return if (response.isNotificationOverflow) {
+                Timber.v("%s: Server stopped sending notifications", logTag)
+                changedFolderServerIds.addAll(folderServerIds)
+                true
+            } else {
+                val folderServerId = response.statusMailboxName?.let { folderServerIdsByMailbox[it] }
+                folderServerId != null && changedFolderServerIds.add(folderServerId)
+            }
+        }
+
+        setNotifications(folderServerIdsByMailbox.keys).forEach(::processResponse)
+        if (changedFolderServerIds.isNotEmpty()) {
+            Timber.v("%s.idle(): Received STATUS responses right after sending NOTIFY command", logTag)
+            return NotifyIdleResult(IdleResult.SYNC, changedFolderServerIds)
+        }
+
+        do {
+            synchronized(this@RealImapNotifyIdler) {
+                idleSent = false
+                doneSent = false
+                refreshedByTimer = false
+            }
+
+            // A call to stop() that happened before IDLE was sent would otherwise be lost
+            if (stopIdle) break
+
+            val idleTimeoutMs = idleRefreshTimeoutProvider.idleRefreshTimeoutMs
+            val tag = sendCommand(Commands.IDLE, false)
+
+            synchronized(this@RealImapNotifyIdler) {
+                idleSent = true
+            }
+
+            do {
+                val response = readResponse()
+                if (response.tag == tag) {
+                    Timber.w("%s.idle(): IDLE command completed without a continuation request response", logTag)
+                    return NotifyIdleResult(IdleResult.NOT_SUPPORTED)
+                } else if (processResponse(response)) {
+                    Timber.v("%s.idle(): Received a relevant untagged response right after sending IDLE", logTag)
+                }
+            } while (!response.isContinuationRequested)
+            lastServerTrafficTime = currentTimeMillis()
+
+            if (changedFolderServerIds.isNotEmpty()) {
+                stopIdle = true
+                sendDone()
+            } else {
+                setSocketIdleReadTimeout(idleTimeoutMs)
+            }
+
+            var response: ImapResponse
+            do {
+                idleRefreshTimer = idleRefreshManager.startTimer(
+                    timeout = idleTimeoutMs,
+                    callback = ::idleRefresh,
+                )
+
+                wakeLock.release()
+
+                try {
+                    response = readResponse()
+                    lastServerTrafficTime = currentTimeMillis()
+                } catch (e: IOException) {
+                    idleRefreshTimeoutProvider.onIdleConnectionLost(e)
+                    throw e
+                } finally {
+                    wakeLock.acquire()
+                    idleRefreshTimer?.cancel()
+                }
+
+                if (processResponse(response) && !stopIdle) {
+                    Timber.v("%s.idle(): Received a relevant untagged response during IDLE", logTag)
+                    stopIdle = true
+                    sendDone()
+                } else if (!response.isTagged) {
+                    Timber.v("%s.idle(): Ignoring untagged response", logTag)
+                }
+            } while (response.tag != tag)
+
+            if (!response.isOk) {
+                throw MessagingException("Received non-OK response to IDLE command")
+            }
+
+            if (refreshedByTimer) {
+                idleRefreshTimeoutProvider.onIdleRefreshed(refreshedAfterSilenceMs)
+            }
+        } while (!stopIdle)
+
+        return if (changedFolderServerIds.isNotEmpty()) {
+            NotifyIdleResult(IdleResult.SYNC, changedFolderServerIds)
+        } else {
+            NotifyIdleResult(IdleResult.STOPPED)
+        }
+    }
+
+    /**
+     * Changes to the selected mailbox are reported via `EXISTS`, `EXPUNGE`, and `FETCH` responses instead of `STATUS`
+     * responses. So we make sure no mailbox is selected before sending `NOTIFY SET`.
+     */
+    private fun ImapConnection.unselectMailbox() {
+        try {
+            if (hasCapability(Capabilities.UNSELECT)) {
+                executeSimpleCommand(Commands.UNSELECT)
+            } else {
+                // A failed SELECT/EXAMINE leaves the connection without a selected mailbox (RFC 3501, section 6.3.1).
+                // Unlike CLOSE this doesn't expunge messages.
+                executeSimpleCommand("${Commands.EXAMINE} ${ImapUtility.encodeString(NONEXISTENT_MAILBOX)}")
+            }
+        } catch (e: NegativeImapResponseException) {
+            // Expected when using EXAMINE or if no mailbox was selected
+            Timber.v("%s: Mailbox deselected", logTag)
+        }
+    }
+
+    private fun ImapConnection.setNotifications(mailboxNames: Collection<String>): List<ImapResponse> {
+        val mailboxList = mailboxNames.joinToString(separator = " ", prefix = "(", postfix = ")") { mailboxName ->
+            ImapUtility.encodeString(mailboxName)
+        }
+
+        return try {
+            executeSimpleCommand("NOTIFY SET (MAILBOXES $mailboxList ($EVENTS))")
+        } catch (e: NegativeImapResponseException) {
+            if (!e.lastResponse.hasResponseCode(Responses.BADEVENT)) throw e
+
+            Timber.v("%s: Server doesn't support FlagChange events", logTag)
+            executeSimpleCommand("NOTIFY SET (MAILBOXES $mailboxList ($EVENTS_WITHOUT_FLAG_CHANGE))")
+        }
+    }
+
+    // Must only be called after the connection has been opened, so the path prefix is known
+    private fun getEncodedMailboxName(folderServerId: String): String {
+        val prefixedName = if (RealImapFolder.INBOX.equals(folderServerId, ignoreCase = true)) {
+            folderServerId
+        } else {
+            internalImapStore.getCombinedPrefix() + folderServerId
+        }
+
+        return folderNameCodec.encode(prefixedName)
+    }
+
+    @Synchronized
+    private fun idleRefresh() {
+        Timber.v("%s.idleRefresh()", logTag)
+
+        if (!idleSent || doneSent) {
+            Timber.v("%s: Connection is not in a state where it can be refreshed.", logTag)
+            return
+        }
+
+        try {
+            refreshedAfterSilenceMs = currentTimeMillis() - lastServerTrafficTime
+            sendDone()
+            refreshedByTimer = doneSent
+        } catch (e: IOException) {
+            Timber.v(e, "%s: IOException while sending DONE", logTag)
+        }
+    }
+
+    @Synchronized
+    private fun sendDone() {
+        val connection = connection ?: return
+
+        synchronized(connection) {
+            if (connection.isConnected) {
+                doneSent = true
+                connection.setSocketDefaultReadTimeout()
+                connection.sendContinuation("DONE")
+            }
+        }
+    }
+
+    private fun ImapConnection.setSocketIdleReadTimeout(idleTimeoutMs: Long) {
+        setSocketReadTimeout((idleTimeoutMs + SOCKET_EXTRA_TIMEOUT_MS).toInt())
+    }
+
+    // The name of the INBOX is case-insensitive
+    private fun normalizeMailboxName(mailboxName: String): String {
+        return if (RealImapFolder.INBOX.equals(mailboxName, ignoreCase = true)) RealImapFolder.INBOX else mailboxName
+    }
+
+    private val ImapResponse.statusMailboxName: String?
+        get() {
+            return if (!isTagged && size >= 2 && ImapResponseParser.equalsIgnoreCase(get(0), Responses.STATUS)) {
+                normalizeMailboxName(getString(1))
+            } else {
+                null
+            }
+        }
+
+    private val ImapResponse.isNotificationOverflow: Boolean
+        get() {
+            return !isTagged && ImapResponseParser.equalsIgnoreCase(firstOrNull(), Responses.OK) &&
+                hasResponseCode(Responses.NOTIFICATIONOVERFLOW)
+        }
+
+    // Unlike ResponseCodeExtractor this also matches response codes with arguments, e.g. [BADEVENT (MessageNew)]
+    private fun ImapResponse.hasResponseCode(responseCode: String): Boolean {
+        return size >= 2 && isList(1) && ImapResponseParser.equalsIgnoreCase(getList(1).firstOrNull(), responseCode)
+    }
+
+    private val ImapResponse.isOk: Boolean
+        get() = isTagged && size >= 1 && ImapResponseParser.equalsIgnoreCase(get(0), Responses.OK)
+}
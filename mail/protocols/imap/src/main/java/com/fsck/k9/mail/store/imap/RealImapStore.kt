@@ -15,14 +15,13 @@ import com.fsck.k9.mail.store.imap.ImapStoreSettings.isSendClientInfo
 import com.fsck.k9.mail.store.imap.ImapStoreSettings.isUseCompression
 import com.fsck.k9.mail.store.imap.ImapStoreSettings.pathPrefix
 import java.io.IOException
-import java.util.Deque
-import java.util.LinkedList
 
 internal open class RealImapStore(
     private val serverSettings: ServerSettings,
     override val config: ImapStoreConfig,
     private val trustedSocketFactory: TrustedSocketFactory,
     private val oauthTokenProvider: OAuth2TokenProvider?,
+    private val connectionPool: ImapConnectionPool = ImapConnectionPool(),
 ) : ImapStore, ImapConnectionManager, InternalImapStore {
     private val folderNameCodec: FolderNameCodec = FolderNameCodec()
 
@@ -33,10 +32,6 @@ internal open class RealImapStore(
     private var pathDelimiter: String? = null
 
     private val permanentFlagsIndex: MutableSet<Flag> = mutableSetOf()
-    private val connections: Deque<ImapConnection> = LinkedList()
-
-    @Volatile
-    private var connectionGeneration = 1
 
     init {
         require(serverSettings.type == "imap") { "Expected IMAP ServerSettings" }
@@ -234,7 +229,7 @@ internal open class RealImapStore(
     @Throws(MessagingException::class)
     override fun getConnection(): ImapConnection {
         while (true) {
-            val connection = pollConnection() ?: return createImapConnection()
+            val connection = connectionPool.poll() ?: return createImapConnection()
 
             try {
                 connection.executeSimpleCommand(Commands.NOOP)
@@ -247,47 +242,47 @@ internal open class RealImapStore(
         }
     }
 
-    private fun pollConnection(): ImapConnection? {
-        return synchronized(connections) {
-            connections.poll()
-        }
+    /**
+     * Returns an idle connection that still has the folder [serverId] selected in [mode].
+     *
+     * The connection is not checked; the caller is expected to issue a command (e.g. NOOP) and handle the untagged
+     * responses that were sent while the connection was idle.
+     */
+    override fun getSelectedConnection(serverId: String, mode: OpenMode): SelectedConnection? {
+        return connectionPool.pollSelected(serverId, mode)
     }
 
     override fun releaseConnection(connection: ImapConnection?) {
+        releaseConnection(connection, selectedFolder = null)
+    }
+
+    override fun releaseConnection(connection: ImapConnection?, selectedFolder: SelectedFolderState?) {
         if (connection != null && connection.isConnected) {
-            if (connection.connectionGeneration == connectionGeneration) {
-                synchronized(connections) {
-                    connections.offer(connection)
-                }
-            } else {
+            if (!connectionPool.offer(connection, selectedFolder)) {
                 connection.close()
             }
         }
     }
 
     override fun closeAllConnections() {
-        Timber.v("ImapStore.closeAllConnections()")
+        Timber.v("ImapStore.closeAllConnections() - %s", connectionPool.getStatistics())
 
-        val connectionsToClose = synchronized(connections) {
-            val connectionsToClose = connections.toList()
-
-            connectionGeneration++
-            connections.clear()
-
-            connectionsToClose
-        }
+        val connectionsToClose = connectionPool.clear()
 
         for (connection in connectionsToClose) {
             connection.close()
         }
     }
 
+    val connectionPoolStatistics: ImapConnectionPoolStatistics
+        get() = connectionPool.getStatistics()
+
     open fun createImapConnection(): ImapConnection {
         return RealImapConnection(
             StoreImapSettings(),
             trustedSocketFactory,
             oauthTokenProvider,
-            connectionGeneration,
+            connectionPool.connectionGeneration,
         )
     }
 
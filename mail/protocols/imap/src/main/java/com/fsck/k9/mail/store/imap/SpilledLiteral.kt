@@ -0,0 +1,26 @@
+package com.fsck.k9.mail.store.imap
+
+import com.fsck.k9.logging.Timber
+import java.io.File
+import java.io.InputStream
+
+/**
+ * A literal from an IMAP response that was written to a temporary file by [ImapResponseParser] because it exceeded
+ * the parser's spill threshold.
+ *
+ * The file is owned by the [ImapResponse] containing the literal. It is deleted by
+ * [ImapResponse.deleteSpilledLiterals], at the latest when the parser reads the next response.
+ */
+internal class SpilledLiteral(val file: File, val size: Int) {
+    fun inputStream(): InputStream = file.inputStream().buffered()
+
+    fun readString(): String = file.readText(Charsets.US_ASCII)
+
+    fun delete() {
+        if (!file.delete()) {
+            Timber.w("Unable to delete temporary file %s", file)
+        }
+    }
+
+    override fun toString(): String = "SpilledLiteral(size=$size)"
+}
@@ -0,0 +1,58 @@
+package com.fsck.k9.mail.store.imap
+
+import com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase
+
+/**
+ * Represents a `VANISHED` response sent by servers that have the QRESYNC extension (RFC 7162) enabled.
+ *
+ * `VANISHED (EARLIER)` responses are sent in response to a SELECT/EXAMINE command with QRESYNC parameter or a
+ * UID FETCH command with VANISHED modifier. They report messages that were expunged before the command was issued.
+ * `VANISHED` responses without the `EARLIER` tag replace untagged `EXPUNGE` responses.
+ */
+internal class VanishedResponse private constructor(
+    val isEarlier: Boolean,
+    val uidRanges: List<LongRange>,
+) {
+    val count: Long
+        get() = uidRanges.sumOf { it.last - it.first + 1 }
+
+    companion object {
+        @JvmStatic
+        fun parse(response: ImapResponse): VanishedResponse? {
+            if (response.isTagged || response.size < 2 || !equalsIgnoreCase(response[0], Responses.VANISHED)) {
+                return null
+            }
+
+            val isEarlier = response.isList(1)
+            if (isEarlier) {
+                val tagList = response.getList(1)
+                if (tagList.size != 1 || !equalsIgnoreCase(tagList[0], Responses.EARLIER)) return null
+            }
+
+            val uidSetIndex = if (isEarlier) 2 else 1
+            if (response.size != uidSetIndex + 1 || !response.isString(uidSetIndex)) return null
+
+            val uidRanges = parseUidSet(response.getString(uidSetIndex)) ?: return null
+
+            return VanishedResponse(isEarlier, uidRanges)
+        }
+
+        private fun parseUidSet(uidSet: String): List<LongRange>? {
+            return uidSet.split(',').map { item ->
+                val colonIndex = item.indexOf(':')
+                if (colonIndex == -1) {
+                    val uid = item.toUidOrNull() ?: return null
+                    uid..uid
+                } else {
+                    val first = item.substring(0, colonIndex).toUidOrNull() ?: return null
+                    val second = item.substring(colonIndex + 1).toUidOrNull() ?: return null
+                    if (first <= second) first..second else second..first
+                }
+            }
+        }
+
+        private fun String.toUidOrNull(): Long? {
+            return toLongOrNull()?.takeIf { it in 1L..0xFFFFFFFFL }
+        }
+    }
+}
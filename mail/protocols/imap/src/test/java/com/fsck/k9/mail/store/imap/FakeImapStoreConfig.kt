@@ -2,6 +2,7 @@ package com.fsck.k9.mail.store.imap
 
 class FakeImapStoreConfig : ImapStoreConfig {
     var expungeImmediately = true
+    var fetchPipelineDepth = ImapStoreConfig.DEFAULT_FETCH_PIPELINE_DEPTH
 
     override var logLabel: String = "irrelevant"
 
@@ -11,6 +12,8 @@ class FakeImapStoreConfig : ImapStoreConfig {
 
     override fun isExpungeImmediately(): Boolean = expungeImmediately
 
+    override fun fetchPipelineDepth(): Int = fetchPipelineDepth
+
     override fun clientInfo(): ImapClientInfo {
         throw UnsupportedOperationException("not implemented")
     }
@@ -0,0 +1,76 @@
+package com.fsck.k9.mail.store.imap
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isNotNull
+import assertk.assertions.isNull
+import assertk.assertions.prop
+import org.junit.Test
+
+class HighestModSeqResponseTest {
+    @Test
+    fun validResponseWithText() {
+        val response = ImapResponseHelper.createImapResponse("* OK [HIGHESTMODSEQ 715194045007] Highest")
+
+        val result = HighestModSeqResponse.parse(response)
+
+        assertThat(result).isNotNull()
+            .prop(HighestModSeqResponse::highestModSeq).isEqualTo(715194045007L)
+    }
+
+    @Test
+    fun validResponseWithoutText() {
+        val response = ImapResponseHelper.createImapResponse("* OK [HIGHESTMODSEQ 42]")
+
+        val result = HighestModSeqResponse.parse(response)
+
+        assertThat(result).isNotNull()
+            .prop(HighestModSeqResponse::highestModSeq).isEqualTo(42L)
+    }
+
+    @Test
+    fun noModSeqResponse_shouldReturnNullValue() {
+        val response = ImapResponseHelper.createImapResponse("* OK [NOMODSEQ] No permanent modsequences")
+
+        val result = HighestModSeqResponse.parse(response)
+
+        assertThat(result).isNotNull()
+            .prop(HighestModSeqResponse::highestModSeq).isNull()
+    }
+
+    @Test
+    fun taggedResponse_shouldReturnNull() {
+        assertNotValid("99 OK [HIGHESTMODSEQ 42]")
+    }
+
+    @Test
+    fun noResponse_shouldReturnNull() {
+        assertNotValid("* NO [HIGHESTMODSEQ 42]")
+    }
+
+    @Test
+    fun responseTextWithOnlyOneItem_shouldReturnNull() {
+        assertNotValid("* OK [HIGHESTMODSEQ]")
+    }
+
+    @Test
+    fun highestModSeqIsNotANumber_shouldReturnNull() {
+        assertNotValid("* OK [HIGHESTMODSEQ fourtytwo]")
+    }
+
+    @Test
+    fun negativeHighestModSeq_shouldReturnNull() {
+        assertNotValid("* OK [HIGHESTMODSEQ -1]")
+    }
+
+    @Test
+    fun otherResponseCode_shouldReturnNull() {
+        assertNotValid("* OK [UIDVALIDITY 42]")
+    }
+
+    private fun assertNotValid(response: String) {
+        val result = HighestModSeqResponse.parse(ImapResponseHelper.createImapResponse(response))
+
+        assertThat(result).isNull()
+    }
+}
@@ -0,0 +1,140 @@
+package com.fsck.k9.mail.store.imap
+
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isNotNull
+import assertk.assertions.isNull
+import assertk.assertions.isSameInstanceAs
+import assertk.assertions.isTrue
+import assertk.assertions.prop
+import org.junit.Test
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+
+private const val IDLE_TIMEOUT_MILLIS = 1000L
+
+class ImapConnectionPoolTest {
+    private var now = 0L
+    private val pool = ImapConnectionPool(
+        maxIdleConnections = 2,
+        idleTimeoutMillis = IDLE_TIMEOUT_MILLIS,
+        currentTimeMillis = { now },
+    )
+
+    @Test
+    fun `pollSelected() should return connection with matching folder and mode`() {
+        val inboxConnection = createConnection()
+        val folderConnection = createConnection()
+        pool.offer(inboxConnection, createSelectedFolderState("INBOX"))
+        pool.offer(folderConnection, createSelectedFolderState("Folder"))
+
+        val result = pool.pollSelected("Folder", OpenMode.READ_WRITE)
+
+        assertThat(result).isNotNull().prop(SelectedConnection::connection).isSameInstanceAs(folderConnection)
+        assertThat(pool.getStatistics()).isEqualTo(
+            ImapConnectionPoolStatistics(idleConnections = 1, selectedFolderHits = 1, selectedFolderMisses = 0),
+        )
+    }
+
+    @Test
+    fun `pollSelected() with different mode should count a miss`() {
+        pool.offer(createConnection(), createSelectedFolderState("Folder", OpenMode.READ_ONLY))
+
+        val result = pool.pollSelected("Folder", OpenMode.READ_WRITE)
+
+        assertThat(result).isNull()
+        assertThat(pool.getStatistics()).isEqualTo(
+            ImapConnectionPoolStatistics(idleConnections = 1, selectedFolderHits = 0, selectedFolderMisses = 1),
+        )
+    }
+
+    @Test
+    fun `poll() should prefer connections without selected folder`() {
+        val selectedConnection = createConnection()
+        val unselectedConnection = createConnection()
+        pool.offer(selectedConnection, createSelectedFolderState("Folder"))
+        pool.offer(unselectedConnection, selectedFolder = null)
+
+        assertThat(pool.poll()).isSameInstanceAs(unselectedConnection)
+        assertThat(pool.poll()).isSameInstanceAs(selectedConnection)
+        assertThat(pool.poll()).isNull()
+    }
+
+    @Test
+    fun `offer() exceeding maximum size should close oldest connection`() {
+        val connectionOne = createConnection()
+        val connectionTwo = createConnection()
+        val connectionThree = createConnection()
+
+        pool.offer(connectionOne, selectedFolder = null)
+        pool.offer(connectionTwo, selectedFolder = null)
+        pool.offer(connectionThree, selectedFolder = null)
+
+        verify(connectionOne).close()
+        verify(connectionTwo, never()).close()
+        assertThat(pool.getStatistics().idleConnections).isEqualTo(2)
+    }
+
+    @Test
+    fun `poll() should close expired connections`() {
+        val expiredConnection = createConnection()
+        val connection = createConnection()
+        pool.offer(expiredConnection, selectedFolder = null)
+        now += IDLE_TIMEOUT_MILLIS
+        pool.offer(connection, selectedFolder = null)
+        now += 1
+
+        val result = pool.poll()
+
+        verify(expiredConnection).close()
+        assertThat(result).isSameInstanceAs(connection)
+    }
+
+    @Test
+    fun `offer() after clear() should reject connection of older generation`() {
+        val oldConnection = createConnection(connectionGeneration = 1)
+        val idleConnection = createConnection(connectionGeneration = 1)
+        pool.offer(idleConnection, selectedFolder = null)
+
+        val clearedConnections = pool.clear()
+        val accepted = pool.offer(oldConnection, selectedFolder = null)
+
+        assertThat(clearedConnections).containsExactly(idleConnection)
+        assertThat(accepted).isFalse()
+        assertThat(pool.poll()).isNull()
+        verify(oldConnection, never()).close()
+    }
+
+    @Test
+    fun `offer() after clear() should accept connection of new generation`() {
+        pool.clear()
+        val connection = createConnection(connectionGeneration = pool.connectionGeneration)
+
+        val accepted = pool.offer(connection, selectedFolder = null)
+
+        assertThat(accepted).isTrue()
+        assertThat(pool.poll()).isSameInstanceAs(connection)
+    }
+
+    private fun createConnection(connectionGeneration: Int = 1): ImapConnection {
+        return mock {
+            on { this.connectionGeneration } doReturn connectionGeneration
+        }
+    }
+
+    private fun createSelectedFolderState(serverId: String, mode: OpenMode = OpenMode.READ_WRITE) =
+        SelectedFolderState(
+            serverId = serverId,
+            mode = mode,
+            messageCount = 1,
+            uidNext = 2L,
+            uidValidity = 3L,
+            highestModSeq = null,
+            canCreateKeywords = false,
+            serverOpenMode = mode,
+        )
+}
@@ -0,0 +1,134 @@
+package com.fsck.k9.mail.store.imap
+
+import com.fsck.k9.mail.AuthType
+import com.fsck.k9.mail.FetchProfile
+import com.fsck.k9.mail.Flag
+import com.fsck.k9.mail.helpers.KeyStoreProvider
+import com.fsck.k9.mail.helpers.TestTrustedSocketFactory
+import com.fsck.k9.mail.store.imap.mockserver.MockImapServer
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+private const val MESSAGE_COUNT = 5000
+private const val LATENCY_MILLIS = 50L
+private const val WINDOW_SIZE = 100
+private const val FIRST_FETCH_TAG = 5
+
+/**
+ * Benchmark for pipelined `UID FETCH` commands in [RealImapFolder.fetch].
+ *
+ * Simulates the initial sync of a folder with [MESSAGE_COUNT] messages against [MockImapServer] with
+ * [LATENCY_MILLIS] ms of latency, once for each pipeline depth. The time spent in `fetch()` is printed to stdout.
+ *
+ * Skipped unless the environment variable `IMAP_FETCH_BENCHMARK` is set, e.g.
+ * `IMAP_FETCH_BENCHMARK=1 ./gradlew :mail:protocols:imap:test --tests '*ImapFetchPipelineBenchmark'`
+ */
+class ImapFetchPipelineBenchmark {
+    @Test
+    fun `initial sync with injected latency`() {
+        assumeTrue(System.getenv("IMAP_FETCH_BENCHMARK") != null)
+
+        for (pipelineDepth in listOf(1, 2, 4, 8)) {
+            val elapsedMillis = measureInitialSync(pipelineDepth)
+
+            println(
+                "RealImapFolder.fetch(): %d messages, %d ms latency, pipeline depth %d: %d ms".format(
+                    MESSAGE_COUNT,
+                    LATENCY_MILLIS,
+                    pipelineDepth,
+                    elapsedMillis,
+                ),
+            )
+        }
+    }
+
+    private fun measureInitialSync(pipelineDepth: Int): Long {
+        val server = MockImapServer(KeyStoreProvider.getInstance(), SilentLogger)
+        server.setLatency(LATENCY_MILLIS)
+        server.openDialog()
+        server.fetchDialog()
+        server.start()
+
+        val config = FakeImapStoreConfig().apply { fetchPipelineDepth = pipelineDepth }
+        val connection = createImapConnection(server)
+        val folder = createFolder(config, connection)
+        try {
+            connection.open()
+            folder.open(OpenMode.READ_ONLY)
+
+            val messages = (1..MESSAGE_COUNT).map { ImapMessage(it.toString()) }
+            val fetchProfile = FetchProfile().apply { add(FetchProfile.Item.FLAGS) }
+
+            val startNanos = System.nanoTime()
+            folder.fetch(messages, fetchProfile, listener = null, maxDownloadSize = 0)
+            val elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000
+
+            check(messages.all { it.isSet(Flag.SEEN) })
+            return elapsedMillis
+        } finally {
+            connection.close()
+            server.verifyInteractionCompleted()
+        }
+    }
+
+    private fun MockImapServer.openDialog() {
+        output("* OK IMAP4rev1 Service Ready")
+        expect("1 CAPABILITY")
+        output("* CAPABILITY IMAP4 IMAP4REV1")
+        output("1 OK CAPABILITY")
+        expect("2 LOGIN \"user\" \"password\"")
+        output("2 OK [CAPABILITY IMAP4 IMAP4REV1] LOGIN completed")
+        expect("3 LIST \"\" \"\"")
+        output("* LIST () \"/\" foo/bar")
+        output("3 OK")
+        expect("4 EXAMINE \"INBOX\"")
+        output("* $MESSAGE_COUNT EXISTS")
+        output("4 OK [READ-ONLY] EXAMINE completed")
+    }
+
+    private fun MockImapServer.fetchDialog() {
+        (1..MESSAGE_COUNT).chunked(WINDOW_SIZE).forEachIndexed { index, uids ->
+            val tag = FIRST_FETCH_TAG + index
+            expect("$tag UID FETCH ${uids.joinToString(",")} (UID FLAGS)")
+            for (uid in uids) {
+                output("* $uid FETCH (UID $uid FLAGS (\\Seen))")
+            }
+            output("$tag OK UID FETCH completed")
+        }
+    }
+
+    private fun createImapConnection(server: MockImapServer): RealImapConnection {
+        val settings = SimpleImapSettings(
+            host = server.host,
+            port = server.port,
+            authType = AuthType.PLAIN,
+            username = "user",
+            password = "password",
+        )
+
+        return RealImapConnection(
+            settings,
+            TestTrustedSocketFactory.newInstance(),
+            oauthTokenProvider = null,
+            connectionGeneration = 1,
+            socketConnectTimeout = 10_000,
+            socketReadTimeout = 10_000,
+        )
+    }
+
+    private fun createFolder(storeConfig: ImapStoreConfig, connection: ImapConnection): RealImapFolder {
+        val internalImapStore = object : InternalImapStore {
+            override val logLabel = "Benchmark"
+            override val config = storeConfig
+            override fun getCombinedPrefix() = ""
+            override fun getPermanentFlagsIndex() = mutableSetOf<Flag>()
+        }
+
+        return RealImapFolder(internalImapStore, TestConnectionManager(connection), "INBOX", FolderNameCodec())
+    }
+
+    private object SilentLogger : MockImapServer.Logger {
+        override fun log(message: String) = Unit
+        override fun log(format: String, vararg args: Any?) = Unit
+    }
+}
@@ -0,0 +1,144 @@
+package com.fsck.k9.mail.store.imap
+
+import com.fsck.k9.mail.filter.PeekableInputStream
+import com.fsck.k9.mail.helpers.KeyStoreProvider
+import com.fsck.k9.mail.store.imap.mockserver.MockImapServer
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.FilterInputStream
+import java.io.InputStream
+import java.lang.management.ManagementFactory
+import java.net.Socket
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+private const val MESSAGE_COUNT = 500
+private const val WARMUP_ITERATIONS = 20
+private const val MEASURED_ITERATIONS = 50
+private const val FETCH_COMMAND = "1 UID FETCH 1:* (UID FLAGS INTERNALDATE RFC822.SIZE ENVELOPE BODYSTRUCTURE " +
+    "BODY.PEEK[HEADER.FIELDS (date subject from to)])"
+
+/**
+ * Microbenchmark for [ImapResponseParser].
+ *
+ * A FETCH transcript of [MESSAGE_COUNT] messages is recorded once from [MockImapServer] and then replayed through the
+ * parser. Time and allocated bytes per iteration are printed to stdout.
+ *
+ * Skipped unless the environment variable `IMAP_PARSER_BENCHMARK` is set, e.g.
+ * `IMAP_PARSER_BENCHMARK=1 ./gradlew :mail:protocols:imap:test --tests '*ImapResponseParserBenchmark'`
+ */
+class ImapResponseParserBenchmark {
+    @Test
+    fun `replay FETCH transcript`() {
+        assumeTrue(System.getenv("IMAP_PARSER_BENCHMARK") != null)
+
+        val transcript = recordFetchTranscript()
+
+        repeat(WARMUP_ITERATIONS) { parseTranscript(transcript) }
+
+        var totalNanos = 0L
+        var totalAllocatedBytes = 0L
+        repeat(MEASURED_ITERATIONS) {
+            val allocatedBytesBefore = currentThreadAllocatedBytes()
+            val startNanos = System.nanoTime()
+
+            parseTranscript(transcript)
+
+            totalNanos += System.nanoTime() - startNanos
+            totalAllocatedBytes += currentThreadAllocatedBytes() - allocatedBytesBefore
+        }
+
+        println(
+            "ImapResponseParser: %d responses (%d bytes), %.2f ms/iteration, %d KiB allocated/iteration".format(
+                MESSAGE_COUNT + 1,
+                transcript.size,
+                totalNanos / MEASURED_ITERATIONS / 1_000_000.0,
+                totalAllocatedBytes / MEASURED_ITERATIONS / 1024,
+            ),
+        )
+    }
+
+    private fun parseTranscript(transcript: ByteArray) {
+        val parser = ImapResponseParser(PeekableInputStream(ByteArrayInputStream(transcript)))
+        do {
+            val response = parser.readResponse()
+        } while (response.tag == null)
+    }
+
+    private fun recordFetchTranscript(): ByteArray {
+        val server = MockImapServer(KeyStoreProvider.getInstance(), SilentLogger)
+        server.expect(FETCH_COMMAND)
+        for (messageNumber in 1..MESSAGE_COUNT) {
+            server.outputFetchResponse(messageNumber)
+        }
+        server.output("1 OK UID FETCH completed")
+        server.start()
+
+        try {
+            Socket(server.host, server.port).use { socket ->
+                socket.getOutputStream().write("$FETCH_COMMAND\r\n".toByteArray())
+
+                val recordingInputStream = RecordingInputStream(socket.getInputStream().buffered())
+                val parser = ImapResponseParser(PeekableInputStream(recordingInputStream))
+                do {
+                    val response = parser.readResponse()
+                } while (response.tag == null)
+
+                return recordingInputStream.recording.toByteArray()
+            }
+        } finally {
+            server.verifyInteractionCompleted()
+        }
+    }
+
+    private fun MockImapServer.outputFetchResponse(messageNumber: Int) {
+        val (prefix, headers) = fetchResponseParts(messageNumber)
+        output(prefix)
+        output(headers.removeSuffix("\r\n"))
+        output(")")
+    }
+
+    private fun fetchResponseParts(messageNumber: Int): Pair<String, String> {
+        val uid = 1000 + messageNumber
+        val headers = "Date: Sat, 17 Oct 2026 10:00:00 +0000\r\n" +
+            "Subject: Message $messageNumber\r\n" +
+            "From: Alice <alice@example.org>\r\n" +
+            "To: Bob <bob@example.org>\r\n" +
+            "\r\n"
+        val prefix = "* $messageNumber FETCH (UID $uid FLAGS (\\Seen \$Forwarded) " +
+            "INTERNALDATE \"17-Oct-2026 10:00:00 +0000\" RFC822.SIZE ${4000 + messageNumber} " +
+            "ENVELOPE (\"Sat, 17 Oct 2026 10:00:00 +0000\" \"Message $messageNumber\" " +
+            "((\"Alice\" NIL \"alice\" \"example.org\")) ((\"Alice\" NIL \"alice\" \"example.org\")) " +
+            "((\"Alice\" NIL \"alice\" \"example.org\")) ((\"Bob\" NIL \"bob\" \"example.org\")) NIL NIL NIL " +
+            "\"<message$messageNumber@example.org>\") " +
+            "BODYSTRUCTURE ((\"TEXT\" \"PLAIN\" (\"CHARSET\" \"UTF-8\") NIL NIL \"QUOTED-PRINTABLE\" 1234 40 NIL " +
+            "NIL NIL NIL)(\"TEXT\" \"HTML\" (\"CHARSET\" \"UTF-8\") NIL NIL \"QUOTED-PRINTABLE\" 5678 120 NIL NIL " +
+            "NIL NIL) \"ALTERNATIVE\" (\"BOUNDARY\" \"boundary$messageNumber\") NIL NIL NIL) " +
+            "BODY[HEADER.FIELDS (DATE SUBJECT FROM TO)] {${headers.length}}"
+
+        return prefix to headers
+    }
+
+    private fun currentThreadAllocatedBytes(): Long {
+        val threadMXBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean ?: return 0L
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id)
+    }
+
+    // Keeps a copy of every byte read, i.e. exactly what the server sent
+    private class RecordingInputStream(inputStream: InputStream) : FilterInputStream(inputStream) {
+        val recording = ByteArrayOutputStream()
+
+        override fun read(): Int {
+            return super.read().also { if (it != -1) recording.write(it) }
+        }
+
+        override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+            return super.read(buffer, offset, length).also { if (it > 0) recording.write(buffer, offset, it) }
+        }
+    }
+
+    private object SilentLogger : MockImapServer.Logger {
+        override fun log(message: String) = Unit
+        override fun log(format: String, vararg args: Any?) = Unit
+    }
+}
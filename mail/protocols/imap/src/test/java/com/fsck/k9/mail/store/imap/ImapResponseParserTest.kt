@@ -9,6 +9,7 @@ import assertk.assertions.hasMessage
 import assertk.assertions.hasSize
 import assertk.assertions.index
 import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
 import assertk.assertions.isInstanceOf
 import assertk.assertions.isNotNull
 import assertk.assertions.isNull
@@ -274,6 +275,75 @@ class ImapResponseParserTest {
         }.isInstanceOf<IOException>()
     }
 
+    @Test
+    fun `readResponse() with literal exceeding spill threshold should write literal to file`() {
+        val parser = createParserWithResponses("* 1 FETCH (BODY[] {10}\r\n0123456789)", literalSpillThreshold = 4)
+
+        val response = parser.readResponse()
+
+        val fetchList = response.getList(2)
+        val literal = fetchList.getObject(2)
+        assertThat(literal).isInstanceOf<SpilledLiteral>().all {
+            prop(SpilledLiteral::size).isEqualTo(10)
+            transform { it.readString() }.isEqualTo("0123456789")
+        }
+        assertThat(fetchList.isString(2)).isTrue()
+        assertThat(fetchList.getString(2)).isEqualTo("0123456789")
+        assertThatAllInputWasConsumed()
+
+        response.deleteSpilledLiterals()
+        assertThat((literal as SpilledLiteral).file.exists()).isFalse()
+    }
+
+    @Test
+    fun `readResponse() should delete spilled literals of previous response`() {
+        val parser = createParserWithResponses(
+            "* 1 FETCH (BODY[] {10}\r\n0123456789)",
+            "* 2 EXISTS",
+            literalSpillThreshold = 4,
+        )
+        val response = parser.readResponse()
+        val literal = response.getList(2).getObject(2) as SpilledLiteral
+        assertThat(literal.file.exists()).isTrue()
+
+        parser.readResponse()
+
+        assertThat(literal.file.exists()).isFalse()
+    }
+
+    @Test
+    fun `deleteSpilledLiterals() should delete spilled literals of last response`() {
+        val parser = createParserWithResponses("* 1 FETCH (BODY[] {10}\r\n0123456789)", literalSpillThreshold = 4)
+        val response = parser.readResponse()
+        val literal = response.getList(2).getObject(2) as SpilledLiteral
+
+        parser.deleteSpilledLiterals()
+
+        assertThat(literal.file.exists()).isFalse()
+    }
+
+    @Test
+    fun `readStatusResponse() should not spill literals`() {
+        val parser = createParserWithResponses(
+            "* 1 FETCH (BODY[] {10}\r\n0123456789)",
+            "TAG OK FETCH completed",
+            literalSpillThreshold = 4,
+        )
+
+        val responses = parser.readStatusResponse("TAG", null, null, null)
+
+        assertThat(responses[0].getList(2).getObject(2)).isEqualTo("0123456789")
+    }
+
+    @Test
+    fun `readResponse() with literal not exceeding spill threshold should return String`() {
+        val parser = createParserWithResponses("* {4}\r\ntest", literalSpillThreshold = 4)
+
+        val response = parser.readResponse()
+
+        assertThat(response).containsExactly("test")
+    }
+
     @Test
     fun `readResponse() with literal should include return value of ImapResponseCallback_foundLiteral() in response`() {
         val parser = createParserWithResponses("* {4}\r\ntest")
@@ -529,6 +599,27 @@ class ImapResponseParserTest {
         assertThatAllInputWasConsumed()
     }
 
+    @Test
+    fun `readResponse() should return shared instances for common atoms`() {
+        val parser = createParserWithResponses("* 1 FETCH (UID 23 FLAGS (\\Seen))")
+
+        val response = parser.readResponse()
+
+        assertThat(response.getString(1)).isSameInstanceAs("FETCH")
+        assertThat(response.getList(2).getString(0)).isSameInstanceAs("UID")
+        assertThat(response.getList(2).getList(3).getString(0)).isSameInstanceAs("\\Seen")
+    }
+
+    @Test
+    fun `readResponse() with atom longer than initial buffer size`() {
+        val atom = "A".repeat(1000)
+        val parser = createParserWithResponses("* OK [X-LONG $atom]")
+
+        val response = parser.readResponse()
+
+        assertThat(response.getList(1).getString(1)).isEqualTo(atom)
+    }
+
     @Test
     fun `readStatusResponse() with NO response should throw`() {
         val parser = createParserWithResponses("1 NO")
@@ -549,16 +640,22 @@ class ImapResponseParserTest {
             .prop(NegativeImapResponseException::alertText).isEqualTo("Access denied")
     }
 
-    private fun createParserWithResponses(vararg responses: String): ImapResponseParser {
+    private fun createParserWithResponses(
+        vararg responses: String,
+        literalSpillThreshold: Int = ImapResponseParser.DEFAULT_LITERAL_SPILL_THRESHOLD,
+    ): ImapResponseParser {
         val response = responses.joinToString(separator = "\r\n", postfix = "\r\n")
-        return createParserWithData(response)
+        return createParserWithData(response, literalSpillThreshold)
     }
 
-    private fun createParserWithData(response: String): ImapResponseParser {
+    private fun createParserWithData(
+        response: String,
+        literalSpillThreshold: Int = ImapResponseParser.DEFAULT_LITERAL_SPILL_THRESHOLD,
+    ): ImapResponseParser {
         val byteArrayInputStream = ByteArrayInputStream(response.toByteArray(Charsets.UTF_8))
         peekableInputStream = PeekableInputStream(byteArrayInputStream)
 
-        return ImapResponseParser(peekableInputStream)
+        return ImapResponseParser(peekableInputStream, literalSpillThreshold)
     }
 
     private fun assertThatAllInputWasConsumed() {
@@ -2,7 +2,10 @@ package com.fsck.k9.mail.store.imap
 
 import assertk.assertFailure
 import assertk.assertThat
+import assertk.assertions.containsExactly
 import assertk.assertions.hasMessage
+import assertk.assertions.hasSize
+import assertk.assertions.isEmpty
 import assertk.assertions.isEqualTo
 import assertk.assertions.isFalse
 import assertk.assertions.isGreaterThan
@@ -26,9 +29,23 @@ class RealImapFolderIdlerTest {
     private val imapConnection = TestImapConnection(timeout = TEST_TIMEOUT_SECONDS)
     private val imapFolder = TestImapFolder(FOLDER_SERVER_ID, imapConnection)
     private val imapStore = TestImapStore(imapFolder)
+    private val refreshedAfterSilence = mutableListOf<Long>()
+    private val lostConnectionExceptions = mutableListOf<IOException>()
     private val idleRefreshTimeoutProvider = object : IdleRefreshTimeoutProvider {
         override val idleRefreshTimeoutMs = IDLE_TIMEOUT_MS
+
+        override fun onIdleRefreshed(silenceMs: Long) {
+            refreshedAfterSilence.add(silenceMs)
+        }
+
+        override fun onIdleConnectionLost(exception: IOException) {
+            lostConnectionExceptions.add(exception)
+        }
     }
+
+    @Volatile
+    private var currentTime = 0L
+
     private val idler = RealImapFolderIdler(
         idleRefreshManager,
         wakeLock,
@@ -36,6 +53,7 @@ class RealImapFolderIdlerTest {
         imapStore,
         FOLDER_SERVER_ID,
         idleRefreshTimeoutProvider,
+        currentTimeMillis = { currentTime },
     )
 
     @Test
@@ -133,6 +151,35 @@ class RealImapFolderIdlerTest {
         assertThat(wakeLock.isHeld).isTrue()
     }
 
+    @Test
+    fun `refresh by timer should report time since last server response`() {
+        val latch = CountDownLatch(1)
+
+        thread {
+            idler.idle()
+            latch.countDown()
+        }
+
+        imapConnection.waitForCommand("IDLE")
+        currentTime = 1000L
+        imapConnection.enqueueContinuationServerResponse()
+        wakeLock.waitForRelease()
+        currentTime = 1000L + 7 * 60 * 1000L
+        idleRefreshManager.resetTimers()
+        imapConnection.waitForCommand("DONE")
+        imapConnection.enqueueTaggedServerResponse("OK")
+
+        imapConnection.waitForCommand("IDLE")
+        imapConnection.enqueueContinuationServerResponse()
+        wakeLock.waitForRelease()
+        idler.stop()
+        imapConnection.waitForCommand("DONE")
+        imapConnection.enqueueTaggedServerResponse("OK")
+
+        latch.awaitWithTimeout()
+        assertThat(refreshedAfterSilence).containsExactly(7 * 60 * 1000L)
+    }
+
     @Test
     fun `stop ImapFolderIdler while IDLE`() {
         val latch = CountDownLatch(1)
@@ -252,6 +299,7 @@ class RealImapFolderIdlerTest {
 
         latch.awaitWithTimeout()
         assertThat(imapFolder.isOpen).isFalse()
+        assertThat(lostConnectionExceptions).isEmpty()
     }
 
     @Test
@@ -274,6 +322,7 @@ class RealImapFolderIdlerTest {
 
         latch.awaitWithTimeout()
         assertThat(imapFolder.isOpen).isFalse()
+        assertThat(lostConnectionExceptions).hasSize(1)
     }
 
     @Test
@@ -0,0 +1,128 @@
+package com.fsck.k9.mail.store.imap
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEqualTo
+import assertk.assertions.isInstanceOf
+import com.fsck.k9.mail.AuthType
+import com.fsck.k9.mail.FetchProfile
+import com.fsck.k9.mail.Flag
+import com.fsck.k9.mail.helpers.TestTrustedSocketFactory
+import com.fsck.k9.mail.store.imap.mockserver.MockImapServer
+import org.junit.After
+import org.junit.Test
+
+private const val MESSAGE_COUNT = 250
+private const val WINDOW_SIZE = 100
+
+class RealImapFolderPipelinedFetchTest {
+    private val server = MockImapServer()
+    private var connection: ImapConnection? = null
+
+    @After
+    fun tearDown() {
+        connection?.close()
+        server.verifyInteractionCompleted()
+    }
+
+    @Test
+    fun `NO response for one window should keep FETCH responses of all windows`() {
+        server.openDialog()
+        server.expect("5 UID FETCH ${uidWindow(0)} (UID FLAGS)")
+        server.expect("6 UID FETCH ${uidWindow(1)} (UID FLAGS)")
+        server.fetchResponses(1..100)
+        server.output("5 OK UID FETCH completed")
+        server.expect("7 UID FETCH ${uidWindow(2)} (UID FLAGS)")
+        server.fetchResponses((101..200).filter { it != 150 })
+        server.output("6 NO [EXPUNGEISSUED] Some messages were expunged")
+        server.fetchResponses(201..MESSAGE_COUNT)
+        server.output("7 OK UID FETCH completed")
+        val folder = startServerAndOpenFolder(fetchPipelineDepth = 2)
+        val messages = createMessages()
+
+        folder.fetch(messages, createFetchProfile(), listener = null, maxDownloadSize = 0)
+
+        assertThat(messages.filterNot { it.isSet(Flag.SEEN) }.map { it.uid }).containsExactly("150")
+    }
+
+    @Test
+    fun `BAD response for one window should throw after completing pending windows`() {
+        server.openDialog()
+        server.expect("5 UID FETCH ${uidWindow(0)} (UID FLAGS)")
+        server.expect("6 UID FETCH ${uidWindow(1)} (UID FLAGS)")
+        server.output("5 BAD Command syntax error")
+        server.fetchResponses(101..200)
+        server.output("6 OK UID FETCH completed")
+        val folder = startServerAndOpenFolder(fetchPipelineDepth = 2)
+        val messages = createMessages()
+
+        assertFailure {
+            folder.fetch(messages, createFetchProfile(), listener = null, maxDownloadSize = 0)
+        }.isInstanceOf<NegativeImapResponseException>()
+            .transform { it.lastResponse.tag }.isEqualTo("5")
+    }
+
+    private fun MockImapServer.openDialog() {
+        output("* OK IMAP4rev1 Service Ready")
+        expect("1 CAPABILITY")
+        output("* CAPABILITY IMAP4 IMAP4REV1")
+        output("1 OK CAPABILITY")
+        expect("2 LOGIN \"user\" \"password\"")
+        output("2 OK [CAPABILITY IMAP4 IMAP4REV1] LOGIN completed")
+        expect("3 LIST \"\" \"\"")
+        output("* LIST () \"/\" foo/bar")
+        output("3 OK")
+        expect("4 EXAMINE \"INBOX\"")
+        output("* $MESSAGE_COUNT EXISTS")
+        output("4 OK [READ-ONLY] EXAMINE completed")
+    }
+
+    private fun MockImapServer.fetchResponses(uids: Iterable<Int>) {
+        for (uid in uids) {
+            output("* $uid FETCH (UID $uid FLAGS (\\Seen))")
+        }
+    }
+
+    private fun uidWindow(index: Int): String {
+        return (1..MESSAGE_COUNT).chunked(WINDOW_SIZE)[index].joinToString(",")
+    }
+
+    private fun createMessages(): List<ImapMessage> {
+        return (1..MESSAGE_COUNT).map { ImapMessage(it.toString()) }
+    }
+
+    private fun createFetchProfile(): FetchProfile {
+        return FetchProfile().apply { add(FetchProfile.Item.FLAGS) }
+    }
+
+    private fun startServerAndOpenFolder(fetchPipelineDepth: Int): RealImapFolder {
+        server.start()
+
+        val settings = SimpleImapSettings(
+            host = server.host,
+            port = server.port,
+            authType = AuthType.PLAIN,
+            username = "user",
+            password = "password",
+        )
+        val connection = RealImapConnection(
+            settings,
+            TestTrustedSocketFactory.newInstance(),
+            oauthTokenProvider = null,
+            connectionGeneration = 1,
+        ).also { connection = it }
+
+        val internalImapStore = object : InternalImapStore {
+            override val logLabel = "Test"
+            override val config = FakeImapStoreConfig().apply { this.fetchPipelineDepth = fetchPipelineDepth }
+            override fun getCombinedPrefix() = ""
+            override fun getPermanentFlagsIndex() = mutableSetOf<Flag>()
+        }
+
+        connection.open()
+        return RealImapFolder(internalImapStore, TestConnectionManager(connection), "INBOX", FolderNameCodec()).apply {
+            open(OpenMode.READ_ONLY)
+        }
+    }
+}
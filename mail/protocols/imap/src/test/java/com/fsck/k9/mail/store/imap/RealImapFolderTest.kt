@@ -14,6 +14,7 @@ import assertk.assertions.isInstanceOf
 import assertk.assertions.isNotNull
 import assertk.assertions.isNull
 import assertk.assertions.isTrue
+import assertk.assertions.prop
 import assertk.fail
 import com.fsck.k9.mail.Body
 import com.fsck.k9.mail.DefaultBodyFactory
@@ -36,6 +37,7 @@ import org.apache.james.mime4j.util.MimeUtil
 import org.junit.After
 import org.junit.Before
 import org.junit.Test
+import org.mockito.ArgumentMatchers.anyBoolean
 import org.mockito.ArgumentMatchers.anySet
 import org.mockito.ArgumentMatchers.anyString
 import org.mockito.ArgumentMatchers.startsWith
@@ -48,6 +50,7 @@ import org.mockito.kotlin.argumentCaptor
 import org.mockito.kotlin.doReturn
 import org.mockito.kotlin.doThrow
 import org.mockito.kotlin.eq
+import org.mockito.kotlin.inOrder
 import org.mockito.kotlin.mock
 import org.mockito.kotlin.never
 import org.mockito.kotlin.stub
@@ -70,6 +73,9 @@ class RealImapFolderTest {
     fun setUp() {
         tempDirectory = Files.createTempDirectory("RealImapFolderTest").toFile()
         BinaryTempFileBody.setTempDirectory(tempDirectory)
+
+        // Most tests complete commands with tag "x"
+        whenever(imapConnection.sendCommand(anyString(), anyBoolean())).thenReturn("x")
     }
 
     @After
@@ -197,6 +203,123 @@ class RealImapFolderTest {
             .hasMessage("Did not find message count during open")
     }
 
+    @Test
+    fun `openWithQresync() without QRESYNC enabled should open folder normally`() {
+        val imapFolder = createFolder("Folder")
+        prepareImapFolderForOpen(OpenMode.READ_ONLY)
+
+        val result = imapFolder.openWithQresync(OpenMode.READ_ONLY, uidValidity = 1125022061L, highestModSeq = 42L)
+
+        assertThat(result).isNull()
+        assertThat(imapFolder.isOpen).isTrue()
+        assertCommandIssued("EXAMINE \"Folder\"")
+    }
+
+    @Test
+    fun `openWithQresync() should return expunged and changed messages`() {
+        val imapFolder = createFolder("Folder")
+        whenever(imapConnection.isQresyncEnabled).thenReturn(true)
+        whenever(imapConnection.executeSimpleCommand("EXAMINE \"Folder\" (QRESYNC (1125022061 715194045000))"))
+            .thenReturn(
+                createImapResponseList(
+                    "* 21 EXISTS",
+                    "* OK [UIDVALIDITY 1125022061] UIDs valid",
+                    "* OK [HIGHESTMODSEQ 715194045007] Highest",
+                    "* VANISHED (EARLIER) 41,43:45",
+                    "* 5 FETCH (UID 50 FLAGS (\\Seen \\Flagged) MODSEQ (715194045005))",
+                    "2 OK [READ-ONLY] Examine completed.",
+                ),
+            )
+
+        val result = imapFolder.openWithQresync(
+            OpenMode.READ_ONLY,
+            uidValidity = 1125022061L,
+            highestModSeq = 715194045000L,
+        )
+
+        assertThat(imapFolder.messageCount).isEqualTo(21)
+        assertThat(imapFolder.getHighestModSeq()).isEqualTo(715194045007L)
+        assertThat(result).isNotNull()
+        assertThat(result!!.isExpunged("41")).isTrue()
+        assertThat(result.isExpunged("42")).isFalse()
+        assertThat(result.isExpunged("44")).isTrue()
+        assertThat(result.changedMessages).extracting { it.uid }.containsExactly("50")
+        assertThat(result.changedMessages.first().flags).containsOnly(Flag.SEEN, Flag.FLAGGED)
+    }
+
+    @Test
+    fun `open() with NOMODSEQ response should not report HIGHESTMODSEQ`() {
+        val imapFolder = createFolder("Folder")
+        whenever(imapConnection.executeSimpleCommand("SELECT \"Folder\"")).thenReturn(
+            createImapResponseList(
+                "* 23 EXISTS",
+                "* OK [NOMODSEQ] No permanent modsequences",
+                "2 OK [READ-WRITE] Select completed.",
+            ),
+        )
+
+        imapFolder.open(OpenMode.READ_WRITE)
+
+        assertThat(imapFolder.getHighestModSeq()).isNull()
+    }
+
+    @Test
+    fun `open() with pooled connection that has the folder selected should send NOOP instead of SELECT`() {
+        val imapFolder = createFolder("Folder")
+        testConnectionManager.selectedConnection = SelectedConnection(
+            connection = imapConnection,
+            selectedFolder = createSelectedFolderState(messageCount = 23),
+        )
+        whenever(imapConnection.executeSimpleCommand(Commands.NOOP)).thenReturn(
+            createImapResponseList(
+                "* 24 EXISTS",
+                "3 OK NOOP completed",
+            ),
+        )
+
+        imapFolder.open(OpenMode.READ_WRITE)
+
+        assertThat(imapFolder.messageCount).isEqualTo(24)
+        assertThat(imapFolder.getUidValidity()).isEqualTo(1125022061L)
+        assertThat(testConnectionManager.numberOfGetConnectionCalls).isEqualTo(0)
+        verify(imapConnection, never()).executeSimpleCommand("SELECT \"Folder\"")
+    }
+
+    @Test
+    fun `open() with unusable pooled connection should close it and select folder on a new connection`() {
+        val imapFolder = createFolder("Folder")
+        val pooledConnection = mock<ImapConnection> {
+            on { executeSimpleCommand(Commands.NOOP) } doThrow IOException::class
+        }
+        testConnectionManager.selectedConnection = SelectedConnection(
+            connection = pooledConnection,
+            selectedFolder = createSelectedFolderState(messageCount = 10),
+        )
+        prepareImapFolderForOpen(OpenMode.READ_WRITE)
+
+        imapFolder.open(OpenMode.READ_WRITE)
+
+        verify(pooledConnection).close()
+        assertThat(imapFolder.messageCount).isEqualTo(23)
+        assertCommandIssued("SELECT \"Folder\"")
+    }
+
+    @Test
+    fun `close() should release connection with selected folder state`() {
+        val imapFolder = createFolder("Folder")
+        prepareImapFolderForOpen(OpenMode.READ_WRITE)
+        imapFolder.open(OpenMode.READ_WRITE)
+
+        imapFolder.close()
+
+        assertThat(testConnectionManager.releasedSelectedFolder).isNotNull().all {
+            prop(SelectedFolderState::serverId).isEqualTo("Folder")
+            prop(SelectedFolderState::mode).isEqualTo(OpenMode.READ_WRITE)
+            prop(SelectedFolderState::messageCount).isEqualTo(23)
+            prop(SelectedFolderState::uidValidity).isEqualTo(1125022061L)
+        }
+    }
+
     @Test
     fun close_shouldCloseImapFolder() {
         val imapFolder = createFolder("Folder")
@@ -824,6 +947,112 @@ class RealImapFolderTest {
         verify(imapConnection).sendCommand("UID FETCH 1 (UID BODYSTRUCTURE)", false)
     }
 
+    @Test
+    fun `fetch() should keep up to pipeline depth UID FETCH commands in flight`() {
+        imapStoreConfig.fetchPipelineDepth = 2
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(OpenMode.READ_ONLY)
+        folder.open(OpenMode.READ_ONLY)
+        val uids = (1..250).map { it.toString() }
+        val messages = createImapMessages(*uids.toTypedArray())
+        whenever(imapConnection.sendCommand(startsWith("UID FETCH"), eq(false)))
+            .thenReturn("3")
+            .thenReturn("4")
+            .thenReturn("5")
+        whenever(imapConnection.readResponse(anyOrNull()))
+            .thenReturn(createImapResponse("* 1 FETCH (UID 1 FLAGS (\\Seen))"))
+            .thenReturn(createImapResponse("3 OK"))
+            .thenReturn(createImapResponse("* 101 FETCH (UID 101 FLAGS ())"))
+            .thenReturn(createImapResponse("4 OK"))
+            .thenReturn(createImapResponse("5 OK"))
+        val fetchProfile = createFetchProfile(FetchProfile.Item.FLAGS)
+
+        folder.fetch(messages, fetchProfile, null, MAX_DOWNLOAD_SIZE)
+
+        inOrder(imapConnection) {
+            verify(imapConnection).sendCommand("UID FETCH ${uids.subList(0, 100).joinToString(",")} (UID FLAGS)", false)
+            verify(imapConnection).sendCommand(
+                "UID FETCH ${uids.subList(100, 200).joinToString(",")} (UID FLAGS)",
+                false,
+            )
+            verify(imapConnection, times(2)).readResponse(anyOrNull())
+            verify(imapConnection).sendCommand(
+                "UID FETCH ${uids.subList(200, 250).joinToString(",")} (UID FLAGS)",
+                false,
+            )
+            verify(imapConnection, times(3)).readResponse(anyOrNull())
+        }
+        verify(messages[0]).setFlag(Flag.SEEN, true)
+    }
+
+    @Test
+    fun `fetch() with pipeline depth of 1 should wait for each UID FETCH to complete`() {
+        imapStoreConfig.fetchPipelineDepth = 1
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(OpenMode.READ_ONLY)
+        folder.open(OpenMode.READ_ONLY)
+        val messages = createImapMessages(*(1..150).map { it.toString() }.toTypedArray())
+        whenever(imapConnection.sendCommand(startsWith("UID FETCH"), eq(false)))
+            .thenReturn("3")
+            .thenReturn("4")
+        whenever(imapConnection.readResponse(anyOrNull()))
+            .thenReturn(createImapResponse("3 OK"))
+            .thenReturn(createImapResponse("4 OK"))
+        val fetchProfile = createFetchProfile(FetchProfile.Item.FLAGS)
+
+        folder.fetch(messages, fetchProfile, null, MAX_DOWNLOAD_SIZE)
+
+        inOrder(imapConnection) {
+            verify(imapConnection).sendCommand(startsWith("UID FETCH 1,"), eq(false))
+            verify(imapConnection).readResponse(anyOrNull())
+            verify(imapConnection).sendCommand(startsWith("UID FETCH 101,"), eq(false))
+            verify(imapConnection).readResponse(anyOrNull())
+        }
+    }
+
+    @Test
+    fun `fetch() with BAD response should complete pending UID FETCH commands and throw`() {
+        imapStoreConfig.fetchPipelineDepth = 2
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(OpenMode.READ_ONLY)
+        folder.open(OpenMode.READ_ONLY)
+        val messages = createImapMessages(*(1..250).map { it.toString() }.toTypedArray())
+        whenever(imapConnection.sendCommand(startsWith("UID FETCH"), eq(false)))
+            .thenReturn("3")
+            .thenReturn("4")
+        whenever(imapConnection.readResponse(anyOrNull()))
+            .thenReturn(createImapResponse("3 BAD Error"))
+            .thenReturn(createImapResponse("* 101 FETCH (UID 101 FLAGS (\\Seen))"))
+            .thenReturn(createImapResponse("4 OK"))
+        val fetchProfile = createFetchProfile(FetchProfile.Item.FLAGS)
+
+        assertFailure {
+            folder.fetch(messages, fetchProfile, null, MAX_DOWNLOAD_SIZE)
+        }.isInstanceOf<NegativeImapResponseException>()
+            .transform { it.lastResponse.tag }.isEqualTo("3")
+
+        verify(imapConnection, times(2)).sendCommand(startsWith("UID FETCH"), eq(false))
+        verify(imapConnection, times(3)).readResponse(anyOrNull())
+        verify(messages[100]).setFlag(Flag.SEEN, true)
+    }
+
+    @Test
+    fun `fetch() with tagged response not matching any UID FETCH command should throw`() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(OpenMode.READ_ONLY)
+        folder.open(OpenMode.READ_ONLY)
+        val messages = createImapMessages("1")
+        whenever(imapConnection.sendCommand(startsWith("UID FETCH"), eq(false))).thenReturn("3")
+        whenever(imapConnection.readResponse(anyOrNull())).thenReturn(createImapResponse("2 OK"))
+        val fetchProfile = createFetchProfile(FetchProfile.Item.FLAGS)
+
+        assertFailure {
+            folder.fetch(messages, fetchProfile, null, MAX_DOWNLOAD_SIZE)
+        }.isInstanceOf<MessagingException>()
+
+        verify(imapConnection).close()
+    }
+
     @Test
     fun fetch_withStructureFetchProfile_shouldSetContentType() {
         val folder = createFolder("Folder")
@@ -994,6 +1223,34 @@ class RealImapFolderTest {
         verify(messages[0]).setFlag(Flag.SEEN, true)
     }
 
+    @Test
+    fun `fetchChangedFlags() should issue UID FETCH with CHANGEDSINCE modifier`() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(OpenMode.READ_ONLY)
+        folder.open(OpenMode.READ_ONLY)
+        val messages = createImapMessages("1", "2", "3")
+        whenever(
+            imapConnection.executeCommandWithIdSet(
+                eq(Commands.UID_FETCH),
+                eq("(UID FLAGS) (CHANGEDSINCE 12345)"),
+                anySet(),
+            ),
+        ).thenReturn(
+            createImapResponseList(
+                "* 2 FETCH (UID 2 FLAGS (\\Seen) MODSEQ (12350))",
+                "x OK",
+            ),
+        )
+        val listener = mock<FetchListener>()
+
+        folder.fetchChangedFlags(messages, changedSince = 12345L, listener)
+
+        assertCommandWithIdsIssued("UID FETCH 1,2,3 (UID FLAGS) (CHANGEDSINCE 12345)")
+        verify(messages[1]).setFlag(Flag.SEEN, true)
+        verify(listener).onFetchResponse(messages[1], true)
+        verifyNoMoreInteractions(listener)
+    }
+
     @Test
     fun `fetchPart() on closed folder should throw`() {
         val folder = createFolder("Folder")
@@ -1500,6 +1757,17 @@ class RealImapFolderTest {
         return RealImapFolder(internalImapStore, testConnectionManager, folderName, FolderNameCodec())
     }
 
+    private fun createSelectedFolderState(messageCount: Int) = SelectedFolderState(
+        serverId = "Folder",
+        mode = OpenMode.READ_WRITE,
+        messageCount = messageCount,
+        uidNext = 57576L,
+        uidValidity = 1125022061L,
+        highestModSeq = null,
+        canCreateKeywords = true,
+        serverOpenMode = OpenMode.READ_WRITE,
+    )
+
     private fun createImapMessage(uid: String): ImapMessage {
         return mock {
             on { this.uid } doReturn uid
@@ -1624,10 +1892,22 @@ internal class TestConnectionManager(private val connection: ImapConnection) : I
     var numberOfGetConnectionCalls = 0
         private set
 
+    var selectedConnection: SelectedConnection? = null
+    var releasedSelectedFolder: SelectedFolderState? = null
+        private set
+
     override fun getConnection(): ImapConnection {
         numberOfGetConnectionCalls++
         return connection
     }
 
+    override fun getSelectedConnection(serverId: String, mode: OpenMode): SelectedConnection? {
+        return selectedConnection.also { selectedConnection = null }
+    }
+
     override fun releaseConnection(connection: ImapConnection?) = Unit
+
+    override fun releaseConnection(connection: ImapConnection?, selectedFolder: SelectedFolderState?) {
+        releasedSelectedFolder = selectedFolder
+    }
 }
@@ -0,0 +1,242 @@
+package com.fsck.k9.mail.store.imap
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import com.fsck.k9.mail.AuthType
+import com.fsck.k9.mail.Flag
+import com.fsck.k9.mail.helpers.TestTrustedSocketFactory
+import com.fsck.k9.mail.store.imap.mockserver.MockImapServer
+import org.junit.After
+import org.junit.Test
+
+private const val TEST_TIMEOUT_SECONDS = 5L
+private const val IDLE_TIMEOUT_MS = 28 * 60 * 1000L
+
+class RealImapNotifyIdlerTest {
+    private val server = MockImapServer()
+    private val idleRefreshManager = TestIdleRefreshManager()
+    private val wakeLock = TestWakeLock(timeoutSeconds = TEST_TIMEOUT_SECONDS, isHeld = true)
+    private val idleRefreshTimeoutProvider = object : IdleRefreshTimeoutProvider {
+        override val idleRefreshTimeoutMs = IDLE_TIMEOUT_MS
+    }
+    private var connection: ImapConnection? = null
+
+    @After
+    fun tearDown() {
+        connection?.close()
+        server.verifyInteractionCompleted()
+    }
+
+    @Test
+    fun `change in one folder should only report that folder`() {
+        server.openDialog(capabilities = "IDLE NOTIFY")
+        server.expect("4 NOTIFY SET (MAILBOXES (\"INBOX\" \"Lists\" \"Work\") (MessageNew MessageExpunge FlagChange))")
+        server.output("4 OK NOTIFY completed")
+        server.expect("5 IDLE")
+        server.output("+ idling")
+        server.output("* STATUS \"Lists\" (MESSAGES 10 UIDNEXT 11)")
+        server.expect("DONE")
+        server.output("5 OK IDLE terminated")
+        server.expect("6 NOTIFY NONE")
+        server.output("6 OK NOTIFY completed")
+        val idler = startServerAndCreateIdler()
+
+        val result = idler.idle(listOf("INBOX", "Lists", "Work"))
+
+        assertThat(result).isEqualTo(NotifyIdleResult(IdleResult.SYNC, setOf("Lists")))
+    }
+
+    @Test
+    fun `changes in multiple folders should be reported together`() {
+        server.openDialog(capabilities = "IDLE NOTIFY")
+        server.expect("4 NOTIFY SET (MAILBOXES (\"INBOX\" \"Lists\" \"Work\") (MessageNew MessageExpunge FlagChange))")
+        server.output("4 OK NOTIFY completed")
+        server.expect("5 IDLE")
+        server.output("+ idling")
+        server.output("* STATUS inbox (MESSAGES 3 UIDNEXT 4)")
+        server.output("* STATUS \"Unwatched\" (MESSAGES 1 UIDNEXT 2)")
+        server.output("* STATUS \"Work\" (MESSAGES 7 UIDNEXT 9)")
+        server.expect("DONE")
+        server.output("5 OK IDLE terminated")
+        server.expect("6 NOTIFY NONE")
+        server.output("6 OK NOTIFY completed")
+        val idler = startServerAndCreateIdler()
+
+        val result = idler.idle(listOf("INBOX", "Lists", "Work"))
+
+        assertThat(result).isEqualTo(NotifyIdleResult(IdleResult.SYNC, setOf("INBOX", "Work")))
+    }
+
+    @Test
+    fun `mailbox names should include path prefix`() {
+        server.openDialog(capabilities = "IDLE NOTIFY")
+        server.expect("4 NOTIFY SET (MAILBOXES (\"INBOX\" \"INBOX.Lists\") (MessageNew MessageExpunge FlagChange))")
+        server.output("4 OK NOTIFY completed")
+        server.expect("5 IDLE")
+        server.output("+ idling")
+        server.output("* STATUS \"INBOX.Lists\" (MESSAGES 10 UIDNEXT 11)")
+        server.expect("DONE")
+        server.output("5 OK IDLE terminated")
+        server.expect("6 NOTIFY NONE")
+        server.output("6 OK NOTIFY completed")
+        val idler = startServerAndCreateIdler(combinedPrefix = "INBOX.")
+
+        val result = idler.idle(listOf("INBOX", "Lists"))
+
+        assertThat(result).isEqualTo(NotifyIdleResult(IdleResult.SYNC, setOf("Lists")))
+    }
+
+    @Test
+    fun `server rejecting FlagChange should retry without it`() {
+        server.openDialog(capabilities = "IDLE NOTIFY")
+        server.expect("4 NOTIFY SET (MAILBOXES (\"INBOX\" \"Lists\") (MessageNew MessageExpunge FlagChange))")
+        server.output("4 NO [BADEVENT (MessageNew MessageExpunge)] FlagChange not supported")
+        server.expect("5 NOTIFY SET (MAILBOXES (\"INBOX\" \"Lists\") (MessageNew MessageExpunge))")
+        server.output("5 OK NOTIFY completed")
+        server.expect("6 IDLE")
+        server.output("+ idling")
+        server.output("* STATUS \"INBOX\" (MESSAGES 3 UIDNEXT 4)")
+        server.expect("DONE")
+        server.output("6 OK IDLE terminated")
+        server.expect("7 NOTIFY NONE")
+        server.output("7 OK NOTIFY completed")
+        val idler = startServerAndCreateIdler()
+
+        val result = idler.idle(listOf("INBOX", "Lists"))
+
+        assertThat(result).isEqualTo(NotifyIdleResult(IdleResult.SYNC, setOf("INBOX")))
+    }
+
+    @Test
+    fun `notification overflow should report all folders`() {
+        server.openDialog(capabilities = "IDLE NOTIFY")
+        server.expect("4 NOTIFY SET (MAILBOXES (\"INBOX\" \"Lists\") (MessageNew MessageExpunge FlagChange))")
+        server.output("4 OK NOTIFY completed")
+        server.expect("5 IDLE")
+        server.output("+ idling")
+        server.output("* OK [NOTIFICATIONOVERFLOW] Too many events")
+        server.expect("DONE")
+        server.output("5 OK IDLE terminated")
+        server.expect("6 NOTIFY NONE")
+        server.output("6 OK NOTIFY completed")
+        val idler = startServerAndCreateIdler()
+
+        val result = idler.idle(listOf("INBOX", "Lists"))
+
+        assertThat(result).isEqualTo(NotifyIdleResult(IdleResult.SYNC, setOf("INBOX", "Lists")))
+    }
+
+    @Test
+    fun `stop() before idle() should return without sending IDLE`() {
+        server.openDialog(capabilities = "IDLE NOTIFY")
+        server.expect("4 NOTIFY SET (MAILBOXES (\"INBOX\") (MessageNew MessageExpunge FlagChange))")
+        server.output("4 OK NOTIFY completed")
+        server.expect("5 NOTIFY NONE")
+        server.output("5 OK NOTIFY completed")
+        val idler = startServerAndCreateIdler()
+        idler.stop()
+
+        val result = idler.idle(listOf("INBOX"))
+
+        assertThat(result).isEqualTo(NotifyIdleResult(IdleResult.STOPPED))
+    }
+
+    @Test
+    fun `server without NOTIFY capability should return NOT_SUPPORTED`() {
+        server.openDialog(capabilities = "IDLE")
+        val idler = startServerAndCreateIdler()
+
+        val result = idler.idle(listOf("INBOX", "Lists"))
+
+        assertThat(result).isEqualTo(NotifyIdleResult(IdleResult.NOT_SUPPORTED))
+    }
+
+    @Test
+    fun `pooled connection should be unselected before sending NOTIFY SET`() {
+        server.openDialog(capabilities = "IDLE NOTIFY UNSELECT")
+        server.expect("4 SELECT \"INBOX\"")
+        server.output("* 3 EXISTS")
+        server.output("4 OK [READ-WRITE] Select completed")
+        server.expect("5 UNSELECT")
+        server.output("5 OK Unselect completed")
+        server.expect("6 NOTIFY SET (MAILBOXES (\"INBOX\") (MessageNew MessageExpunge FlagChange))")
+        server.output("6 OK NOTIFY completed")
+        server.expect("7 NOTIFY NONE")
+        server.output("7 OK NOTIFY completed")
+        val idler = startServerAndCreateIdler()
+        connection!!.open()
+        connection!!.executeSimpleCommand("SELECT \"INBOX\"")
+        idler.stop()
+
+        val result = idler.idle(listOf("INBOX"))
+
+        assertThat(result).isEqualTo(NotifyIdleResult(IdleResult.STOPPED))
+    }
+
+    @Test
+    fun `pooled connection should be unselected using EXAMINE when server doesn't support UNSELECT`() {
+        server.openDialog(capabilities = "IDLE NOTIFY")
+        server.expect("4 SELECT \"INBOX\"")
+        server.output("* 3 EXISTS")
+        server.output("4 OK [READ-WRITE] Select completed")
+        server.expect("5 EXAMINE \"K9MAIL-NONEXISTENT-MAILBOX-8c1fd0b7\"")
+        server.output("5 NO Mailbox doesn't exist")
+        server.expect("6 NOTIFY SET (MAILBOXES (\"INBOX\") (MessageNew MessageExpunge FlagChange))")
+        server.output("6 OK NOTIFY completed")
+        server.expect("7 NOTIFY NONE")
+        server.output("7 OK NOTIFY completed")
+        val idler = startServerAndCreateIdler()
+        connection!!.open()
+        connection!!.executeSimpleCommand("SELECT \"INBOX\"")
+        idler.stop()
+
+        val result = idler.idle(listOf("INBOX"))
+
+        assertThat(result).isEqualTo(NotifyIdleResult(IdleResult.STOPPED))
+    }
+
+    private fun MockImapServer.openDialog(capabilities: String) {
+        output("* OK IMAP4rev1 Service Ready")
+        expect("1 CAPABILITY")
+        output("* CAPABILITY IMAP4 IMAP4REV1")
+        output("1 OK CAPABILITY")
+        expect("2 LOGIN \"user\" \"password\"")
+        output("2 OK [CAPABILITY IMAP4 IMAP4REV1 $capabilities] LOGIN completed")
+        expect("3 LIST \"\" \"\"")
+        output("* LIST () \".\" INBOX")
+        output("3 OK")
+    }
+
+    private fun startServerAndCreateIdler(combinedPrefix: String = ""): RealImapNotifyIdler {
+        server.start()
+
+        val settings = SimpleImapSettings(
+            host = server.host,
+            port = server.port,
+            authType = AuthType.PLAIN,
+            username = "user",
+            password = "password",
+        )
+        val connection = RealImapConnection(
+            settings,
+            TestTrustedSocketFactory.newInstance(),
+            oauthTokenProvider = null,
+            connectionGeneration = 1,
+        ).also { connection = it }
+
+        val internalImapStore = object : InternalImapStore {
+            override val logLabel = "Test"
+            override val config = FakeImapStoreConfig()
+            override fun getCombinedPrefix() = combinedPrefix
+            override fun getPermanentFlagsIndex() = mutableSetOf<Flag>()
+        }
+
+        return RealImapNotifyIdler(
+            idleRefreshManager = idleRefreshManager,
+            wakeLock = wakeLock,
+            connectionManager = TestConnectionManager(connection),
+            internalImapStore = internalImapStore,
+            idleRefreshTimeoutProvider = idleRefreshTimeoutProvider,
+        )
+    }
+}
@@ -15,6 +15,8 @@ internal open class TestImapConnection(val timeout: Long, override val connectio
     override val isUidPlusCapable: Boolean = true
     override var isIdleCapable: Boolean = true
         protected set
+    override val isCondstoreCapable: Boolean = false
+    override val isQresyncEnabled: Boolean = false
 
     val defaultSocketReadTimeout = 30 * 1000
     var currentSocketReadTimeout = defaultSocketReadTimeout
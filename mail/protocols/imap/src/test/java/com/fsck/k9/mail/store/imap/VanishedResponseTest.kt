@@ -0,0 +1,82 @@
+package com.fsck.k9.mail.store.imap
+
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isNotNull
+import assertk.assertions.isNull
+import assertk.assertions.isTrue
+import org.junit.Test
+
+class VanishedResponseTest {
+    @Test
+    fun vanishedEarlierResponse() {
+        val response = ImapResponseHelper.createImapResponse("* VANISHED (EARLIER) 41,43:116,118,120:211,214:540")
+
+        val result = VanishedResponse.parse(response)
+
+        assertThat(result).isNotNull()
+        assertThat(result!!.isEarlier).isTrue()
+        assertThat(result.uidRanges).containsExactly(41L..41L, 43L..116L, 118L..118L, 120L..211L, 214L..540L)
+        assertThat(result.count).isEqualTo(1 + 74 + 1 + 92 + 327L)
+    }
+
+    @Test
+    fun vanishedResponseWithoutEarlierTag() {
+        val response = ImapResponseHelper.createImapResponse("* VANISHED 405,407,410:412")
+
+        val result = VanishedResponse.parse(response)
+
+        assertThat(result).isNotNull()
+        assertThat(result!!.isEarlier).isFalse()
+        assertThat(result.uidRanges).containsExactly(405L..405L, 407L..407L, 410L..412L)
+        assertThat(result.count).isEqualTo(5L)
+    }
+
+    @Test
+    fun reversedRange_shouldBeNormalized() {
+        val response = ImapResponseHelper.createImapResponse("* VANISHED 12:10")
+
+        val result = VanishedResponse.parse(response)
+
+        assertThat(result).isNotNull()
+        assertThat(result!!.uidRanges).containsExactly(10L..12L)
+    }
+
+    @Test
+    fun taggedResponse_shouldReturnNull() {
+        assertNotValid("1 VANISHED 42")
+    }
+
+    @Test
+    fun expungeResponse_shouldReturnNull() {
+        assertNotValid("* 42 EXPUNGE")
+    }
+
+    @Test
+    fun missingUidSet_shouldReturnNull() {
+        assertNotValid("* VANISHED (EARLIER)")
+    }
+
+    @Test
+    fun unknownTag_shouldReturnNull() {
+        assertNotValid("* VANISHED (LATER) 42")
+    }
+
+    @Test
+    fun invalidUid_shouldReturnNull() {
+        assertNotValid("* VANISHED 1,two")
+    }
+
+    @Test
+    fun uidOutsideRange_shouldReturnNull() {
+        assertNotValid("* VANISHED 4294967296")
+    }
+
+    private fun assertNotValid(response: String) {
+        val result = VanishedResponse.parse(ImapResponseHelper.createImapResponse(response))
+
+        assertThat(result).isNull()
+    }
+}
@@ -15,8 +15,10 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.util.Deque;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
@@ -47,6 +49,7 @@ public class MockImapServer {
     private MockServerThread mockServerThread;
     private String host;
     private int port;
+    private long latencyMillis = 0L;
 
 
     public MockImapServer() {
@@ -83,6 +86,16 @@ public class MockImapServer {
         interactions.add(new CloseConnection());
     }
 
+    /**
+     * Delays every response by the given number of milliseconds to simulate network latency.
+     * <p>
+     * Commands are still read as soon as they arrive. So a client pipelining commands only pays the delay once.
+     */
+    public void setLatency(long latencyMillis) {
+        checkServerNotRunning();
+        this.latencyMillis = latencyMillis;
+    }
+
     public void start() throws IOException {
         checkServerNotRunning();
 
@@ -93,7 +106,7 @@ public class MockImapServer {
         port = serverSocket.getLocalPort();
 
         mockServerThread = new MockServerThread(serverSocket, interactions, waitForConnectionClosed,
-                waitForAllExpectedCommands, logger, keyStoreProvider);
+                waitForAllExpectedCommands, logger, keyStoreProvider, latencyMillis);
         mockServerThread.start();
     }
 
@@ -221,6 +234,17 @@ public class MockImapServer {
     private static class UpgradeToTls implements ImapInteraction {
     }
 
+    private static class DelayedResponse {
+        private final String response;
+        private final long deliveryTimeNanos;
+
+
+        public DelayedResponse(String response, long deliveryTimeNanos) {
+            this.response = response;
+            this.deliveryTimeNanos = deliveryTimeNanos;
+        }
+    }
+
     private static class UnexpectedCommandException extends Exception {
         public UnexpectedCommandException(String expectedCommand, String receivedCommand) {
             super("Expected <" + expectedCommand + ">, but received <" + receivedCommand + ">");
@@ -234,8 +258,11 @@ public class MockImapServer {
         private final CountDownLatch waitForAllExpectedCommands;
         private final Logger logger;
         private final KeyStoreProvider keyStoreProvider;
+        private final long latencyMillis;
+        private final BlockingQueue<DelayedResponse> delayedResponses = new LinkedBlockingQueue<>();
 
         private volatile boolean shouldStop = false;
+        private volatile Thread latencyThread;
         private volatile Socket clientSocket;
 
         private BufferedSource input;
@@ -245,7 +272,7 @@ public class MockImapServer {
 
         public MockServerThread(ServerSocket serverSocket, Deque<ImapInteraction> interactions,
                 CountDownLatch waitForConnectionClosed, CountDownLatch waitForAllExpectedCommands, Logger logger,
-                KeyStoreProvider keyStoreProvider) {
+                KeyStoreProvider keyStoreProvider, long latencyMillis) {
             super("MockImapServer");
             this.serverSocket = serverSocket;
             this.interactions = interactions;
@@ -253,6 +280,7 @@ public class MockImapServer {
             this.waitForAllExpectedCommands = waitForAllExpectedCommands;
             this.logger = logger;
             this.keyStoreProvider = keyStoreProvider;
+            this.latencyMillis = latencyMillis;
         }
 
         @Override
@@ -273,6 +301,10 @@ public class MockImapServer {
                 input = Okio.buffer(Okio.source(socket));
                 output = Okio.buffer(Okio.sink(socket));
 
+                if (latencyMillis > 0) {
+                    startLatencyThread();
+                }
+
                 while (!shouldStop && !interactions.isEmpty()) {
                     handleInteractions(socket);
                 }
@@ -339,11 +371,46 @@ public class MockImapServer {
             String response = cannedResponse.getResponse();
             logger.log("S: %s", response);
 
+            if (latencyMillis > 0) {
+                long deliveryTimeNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+                delayedResponses.add(new DelayedResponse(response, deliveryTimeNanos));
+            } else {
+                writeResponse(response);
+            }
+        }
+
+        private void writeResponse(String response) throws IOException {
             output.writeUtf8(response);
             output.write(CRLF);
             output.flush();
         }
 
+        private void startLatencyThread() {
+            latencyThread = new Thread("MockImapServer-latency") {
+                @Override
+                public void run() {
+                    try {
+                        while (!shouldStop) {
+                            DelayedResponse delayedResponse = delayedResponses.take();
+                            long delayNanos = delayedResponse.deliveryTimeNanos - System.nanoTime();
+                            if (delayNanos > 0) {
+                                TimeUnit.NANOSECONDS.sleep(delayNanos);
+                            }
+
+                            writeResponse(delayedResponse.response);
+                        }
+                    } catch (InterruptedException ignored) {
+                    } catch (IOException e) {
+                        if (!shouldStop) {
+                            logger.log("Exception: %s", e);
+                        }
+                    }
+                }
+            };
+            latencyThread.setDaemon(true);
+            latencyThread.start();
+        }
+
         private void enableCompression(Socket socket) throws IOException {
             InputStream inputStream = new InflaterInputStream(socket.getInputStream(), new Inflater(true));
             input = Okio.buffer(Okio.source(inputStream));
@@ -394,6 +461,9 @@ public class MockImapServer {
         public void shouldStop() {
             shouldStop = true;
 
+            if (latencyThread != null) {
+                latencyThread.interrupt();
+            }
             IOUtils.closeQuietly(clientSocket);
         }
 
@@ -3,6 +3,7 @@ package com.fsck.k9.mail.store.pop3;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -32,6 +33,8 @@ public class Pop3Folder {
     private Map<String, Pop3Message> uidToMsgMap = new HashMap<>();
     private Map<Integer, Pop3Message> msgNumToMsgMap = new HashMap<>();
     private Map<String, Integer> uidToMsgNumMap = new HashMap<>();
+    private Set<Integer> deletedMsgNums = new HashSet<>();
+    private boolean uidlSnapshotRestored;
     private String name;
     private int messageCount;
     private Pop3Connection connection;
@@ -62,6 +65,8 @@ public class Pop3Folder {
             uidToMsgMap.clear();
             msgNumToMsgMap.clear();
             uidToMsgNumMap.clear();
+            deletedMsgNums.clear();
+            uidlSnapshotRestored = false;
         } catch (IOException e) {
             handleIOException(e);
         }
@@ -159,22 +164,19 @@ public class Pop3Folder {
         if (unindexedMessageCount == 0) {
             return;
         }
-        if (unindexedMessageCount < 50 && messageCount > 5000) {
+        if (unindexedMessageCount < 50 && (messageCount > 5000 || uidlSnapshotRestored)) {
             /*
              * In extreme cases we'll do a UIDL command per message instead of a bulk
-             * download.
+             * download. The same goes for the few new messages that aren't covered by
+             * a restored UIDL snapshot.
              */
             for (int msgNum = start; msgNum <= end; msgNum++) {
                 Pop3Message message = msgNumToMsgMap.get(msgNum);
                 if (message == null) {
-                    String response = connection.executeSimpleCommand(UIDL_COMMAND + " " + msgNum);
-                    // response = "+OK msgNum msgUid"
-                    String[] uidParts = response.split(" +");
-                    if (uidParts.length < 3 || !"+OK".equals(uidParts[0])) {
-                        Timber.e("ERR response: %s", response);
+                    String msgUid = requestUid(msgNum);
+                    if (msgUid == null) {
                         return;
                     }
-                    String msgUid = uidParts[2];
                     message = new Pop3Message(msgUid);
                     indexMessage(msgNum, message);
                 }
@@ -225,6 +227,108 @@ public class Pop3Folder {
         }
     }
 
+    private String requestUid(int msgNum) throws MessagingException, IOException {
+        String response = connection.executeSimpleCommand(UIDL_COMMAND + " " + msgNum);
+        // response = "+OK msgNum msgUid"
+        String[] uidParts = response.split(" +");
+        if (uidParts.length < 3 || !"+OK".equals(uidParts[0])) {
+            Timber.e("ERR response: %s", response);
+            return null;
+        }
+        return uidParts[2];
+    }
+
+    /**
+     * Indexes the messages covered by a snapshot created at the end of a previous session.
+     *
+     * The snapshot is only used if {@code UIDL} still returns the expected unique IDs for the first and last message
+     * number covered by the snapshot. Otherwise messages were removed from the maildrop or it was reordered, and the
+     * messages are indexed using a full {@code UIDL} listing as usual.
+     *
+     * @return {@code true} if the snapshot was used.
+     */
+    public boolean restoreUidlSnapshot(Pop3UidlSnapshot snapshot) throws MessagingException {
+        if (snapshot.getLastMessageNumber() > messageCount) {
+            Timber.d("Maildrop contains fewer messages than the UIDL snapshot. Ignoring snapshot.");
+            return false;
+        }
+
+        try {
+            if (!probeUid(snapshot.getLastMessageNumber(), snapshot.getLastUid()) ||
+                    (snapshot.getFirstMessageNumber() != snapshot.getLastMessageNumber() &&
+                            !probeUid(snapshot.getFirstMessageNumber(), snapshot.getUids().get(0)))) {
+                Timber.d("Maildrop doesn't match the UIDL snapshot. Ignoring snapshot.");
+                return false;
+            }
+        } catch (IOException e) {
+            handleIOException(e);
+        }
+
+        int msgNum = snapshot.getFirstMessageNumber();
+        for (String uid : snapshot.getUids()) {
+            if (msgNumToMsgMap.get(msgNum) == null && uidToMsgMap.get(uid) == null) {
+                indexMessage(msgNum, new Pop3Message(uid));
+            }
+            msgNum++;
+        }
+        uidlSnapshotRestored = true;
+
+        return true;
+    }
+
+    private boolean probeUid(int msgNum, String expectedUid) throws MessagingException, IOException {
+        try {
+            return expectedUid.equals(requestUid(msgNum));
+        } catch (Pop3ErrorResponse e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a snapshot of the unique IDs of the newest messages indexed in this session.
+     *
+     * The snapshot starts at the highest indexed message number. Newer messages that haven't been indexed, e.g.
+     * because only a restored snapshot was used to delete a message, are left out. Messages deleted in this session
+     * are left out and the message numbers are adjusted, because the server removes them from the maildrop when the
+     * session ends.
+     *
+     * @param maxSize the maximum number of unique IDs to include in the snapshot
+     * @return {@code null} if no message has been indexed.
+     */
+    public Pop3UidlSnapshot createUidlSnapshot(int maxSize) {
+        int lastIndexedMsgNum = 0;
+        for (int msgNum : msgNumToMsgMap.keySet()) {
+            if (msgNum <= messageCount) {
+                lastIndexedMsgNum = Math.max(lastIndexedMsgNum, msgNum);
+            }
+        }
+
+        List<String> uids = new ArrayList<>();
+        for (int msgNum = lastIndexedMsgNum; msgNum >= 1 && uids.size() < maxSize; msgNum--) {
+            Pop3Message message = msgNumToMsgMap.get(msgNum);
+            if (message == null) {
+                break;
+            }
+            if (!deletedMsgNums.contains(msgNum)) {
+                uids.add(message.getUid());
+            }
+        }
+
+        if (uids.isEmpty()) {
+            return null;
+        }
+
+        int deletedMessageCount = 0;
+        for (int msgNum : deletedMsgNums) {
+            if (msgNum <= lastIndexedMsgNum) {
+                deletedMessageCount++;
+            }
+        }
+
+        Collections.reverse(uids);
+        return new Pop3UidlSnapshot(lastIndexedMsgNum - deletedMessageCount, uids);
+    }
+
     private void indexUids(List<String> uids)
     throws MessagingException, IOException {
         Set<String> unindexedUids = new HashSet<>();
@@ -495,6 +599,7 @@ public class Pop3Folder {
             open();
             try {
                 connection.executeSimpleCommand(String.format(DELE_COMMAND + " %s", msgNum));
+                deletedMsgNums.add(msgNum);
             } catch (IOException e) {
                 handleIOException(e);
             }
@@ -0,0 +1,47 @@
+package com.fsck.k9.mail.store.pop3
+
+/**
+ * The unique IDs of the newest indexed messages in a POP3 maildrop, as seen at the end of a session.
+ *
+ * [uids] contains the unique IDs of the messages with the message numbers `lastMessageNumber - uids.size + 1` to
+ * [lastMessageNumber]. Since POP3 servers only append new messages to the maildrop, these message numbers are still
+ * valid in the next session as long as the message with the number [lastMessageNumber] still has the unique ID
+ * [lastUid]. Newer messages may follow, e.g. if new messages arrived but haven't been indexed yet.
+ */
+data class Pop3UidlSnapshot(val lastMessageNumber: Int, val uids: List<String>) {
+    init {
+        require(uids.isNotEmpty()) { "uids must not be empty" }
+        require(uids.size <= lastMessageNumber) { "uids must not contain more than lastMessageNumber entries" }
+    }
+
+    val firstMessageNumber: Int
+        get() = lastMessageNumber - uids.size + 1
+
+    val lastUid: String
+        get() = uids.last()
+
+    fun serialize(): String {
+        // Unique IDs consist of printable ASCII characters excluding space (RFC 1939, section 7)
+        return buildString {
+            append(lastMessageNumber)
+            for (uid in uids) {
+                append(' ')
+                append(uid)
+            }
+        }
+    }
+
+    companion object {
+        @JvmStatic
+        fun parse(value: String?): Pop3UidlSnapshot? {
+            if (value.isNullOrEmpty()) return null
+
+            val parts = value.split(' ')
+            val lastMessageNumber = parts.first().toIntOrNull() ?: return null
+            val uids = parts.subList(1, parts.size)
+            if (uids.isEmpty() || uids.size > lastMessageNumber || uids.any { it.isEmpty() }) return null
+
+            return Pop3UidlSnapshot(lastMessageNumber, uids)
+        }
+    }
+}
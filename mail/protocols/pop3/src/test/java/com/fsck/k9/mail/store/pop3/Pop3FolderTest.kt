@@ -3,16 +3,20 @@ package com.fsck.k9.mail.store.pop3
 import assertk.assertThat
 import assertk.assertions.hasSize
 import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
 import assertk.assertions.isNotNull
 import assertk.assertions.isSameInstanceAs
+import assertk.assertions.isTrue
 import com.fsck.k9.mail.AuthenticationFailedException
 import com.fsck.k9.mail.Body
 import com.fsck.k9.mail.FetchProfile
+import com.fsck.k9.mail.Flag
 import com.fsck.k9.mail.MessageRetrievalListener
 import com.fsck.k9.mail.MessagingException
 import com.fsck.k9.mail.crlf
 import com.fsck.k9.mail.internet.BinaryTempFileBody
 import com.fsck.k9.mail.store.pop3.Pop3Commands.STAT_COMMAND
+import com.fsck.k9.mail.store.pop3.Pop3Commands.UIDL_COMMAND
 import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.IOException
@@ -242,6 +246,111 @@ class Pop3FolderTest {
         assertThat(messageList.first().body.writeToString()).isEqualTo("this is some test text.")
     }
 
+    @Test
+    fun `restoreUidlSnapshot() with matching maildrop should index messages without UIDL listing`() {
+        stubbing(connection) {
+            on { executeSimpleCommand("UIDL 8") } doReturn "+OK 8 uid8"
+            on { executeSimpleCommand("UIDL 10") } doReturn "+OK 10 uid10"
+        }
+        folder.open()
+
+        val result = folder.restoreUidlSnapshot(Pop3UidlSnapshot(10, listOf("uid8", "uid9", "uid10")))
+        val messages = folder.getMessages(8, 10, messageRetrievalListener)
+
+        assertThat(result).isTrue()
+        assertThat(messages.map { it.uid }).isEqualTo(listOf("uid8", "uid9", "uid10"))
+        verify(connection, never()).executeSimpleCommand(UIDL_COMMAND)
+        verify(connection, never()).executeSimpleCommand("UIDL 9")
+    }
+
+    @Test
+    fun `restoreUidlSnapshot() with new messages should only request unique IDs of new messages`() {
+        stubbing(connection) {
+            on { executeSimpleCommand(STAT_COMMAND) } doReturn "+OK 12 0"
+            on { executeSimpleCommand("UIDL 9") } doReturn "+OK 9 uid9"
+            on { executeSimpleCommand("UIDL 10") } doReturn "+OK 10 uid10"
+            on { executeSimpleCommand("UIDL 11") } doReturn "+OK 11 uid11"
+            on { executeSimpleCommand("UIDL 12") } doReturn "+OK 12 uid12"
+        }
+        folder.open()
+
+        folder.restoreUidlSnapshot(Pop3UidlSnapshot(10, listOf("uid9", "uid10")))
+        val messages = folder.getMessages(9, 12, messageRetrievalListener)
+
+        assertThat(messages.map { it.uid }).isEqualTo(listOf("uid9", "uid10", "uid11", "uid12"))
+        verify(connection, never()).executeSimpleCommand(UIDL_COMMAND)
+    }
+
+    @Test
+    fun `restoreUidlSnapshot() with removed messages should fall back to UIDL listing`() {
+        stubbing(connection) {
+            on { executeSimpleCommand("UIDL 10") } doReturn "+OK 10 uid11"
+            on { readLine() } doReturn "9 uid10" doReturn "10 uid11" doReturn "."
+        }
+        folder.open()
+
+        val result = folder.restoreUidlSnapshot(Pop3UidlSnapshot(10, listOf("uid9", "uid10")))
+        val messages = folder.getMessages(9, 10, messageRetrievalListener)
+
+        assertThat(result).isFalse()
+        assertThat(messages.map { it.uid }).isEqualTo(listOf("uid10", "uid11"))
+        verify(connection).executeSimpleCommand(UIDL_COMMAND)
+    }
+
+    @Test
+    fun `restoreUidlSnapshot() with message count smaller than snapshot should not probe maildrop`() {
+        folder.open()
+
+        val result = folder.restoreUidlSnapshot(Pop3UidlSnapshot(11, listOf("uid11")))
+
+        assertThat(result).isFalse()
+        verify(connection, never()).executeSimpleCommand("UIDL 11")
+    }
+
+    @Test
+    fun `createUidlSnapshot() should skip messages deleted in this session`() {
+        stubbing(connection) {
+            on { readLine() } doReturn "8 uid8" doReturn "9 uid9" doReturn "10 uid10" doReturn "."
+        }
+        folder.open()
+        val messages = folder.getMessages(8, 10, messageRetrievalListener)
+        folder.setFlags(listOf(messages[1]), setOf(Flag.DELETED), true)
+
+        val snapshot = folder.createUidlSnapshot(10)
+
+        assertThat(snapshot).isEqualTo(Pop3UidlSnapshot(9, listOf("uid8", "uid10")))
+    }
+
+    @Test
+    fun `createUidlSnapshot() with unindexed new messages should end at last indexed message`() {
+        stubbing(connection) {
+            on { executeSimpleCommand(STAT_COMMAND) } doReturn "+OK 12 0"
+            on { executeSimpleCommand("UIDL 8") } doReturn "+OK 8 uid8"
+            on { executeSimpleCommand("UIDL 10") } doReturn "+OK 10 uid10"
+        }
+        folder.open()
+        folder.restoreUidlSnapshot(Pop3UidlSnapshot(10, listOf("uid8", "uid9", "uid10")))
+        folder.setFlags(listOf(folder.getMessage("uid9")), setOf(Flag.DELETED), true)
+
+        val snapshot = folder.createUidlSnapshot(10)
+
+        assertThat(snapshot).isEqualTo(Pop3UidlSnapshot(9, listOf("uid8", "uid10")))
+        verify(connection, never()).executeSimpleCommand(UIDL_COMMAND)
+    }
+
+    @Test
+    fun `createUidlSnapshot() should only include the requested number of messages`() {
+        stubbing(connection) {
+            on { readLine() } doReturn "8 uid8" doReturn "9 uid9" doReturn "10 uid10" doReturn "."
+        }
+        folder.open()
+        folder.getMessages(8, 10, messageRetrievalListener)
+
+        val snapshot = folder.createUidlSnapshot(2)
+
+        assertThat(snapshot).isEqualTo(Pop3UidlSnapshot(10, listOf("uid9", "uid10")))
+    }
+
     private fun setupMessageFromServer(): List<Pop3Message> {
         stubbing(connection) {
             on { readLine() } doReturn "1 $MESSAGE_SERVER_ID" doReturn "."
@@ -0,0 +1,32 @@
+package com.fsck.k9.mail.store.pop3
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isNull
+import org.junit.Test
+
+class Pop3UidlSnapshotTest {
+    @Test
+    fun `serialize and parse`() {
+        val snapshot = Pop3UidlSnapshot(42, listOf("uid40", "uid41", "uid42"))
+
+        val result = Pop3UidlSnapshot.parse(snapshot.serialize())
+
+        assertThat(result).isEqualTo(snapshot)
+        assertThat(result!!.firstMessageNumber).isEqualTo(40)
+        assertThat(result.lastUid).isEqualTo("uid42")
+    }
+
+    @Test
+    fun `parse null`() {
+        assertThat(Pop3UidlSnapshot.parse(null)).isNull()
+    }
+
+    @Test
+    fun `parse invalid values`() {
+        assertThat(Pop3UidlSnapshot.parse("42")).isNull()
+        assertThat(Pop3UidlSnapshot.parse("x uid1")).isNull()
+        assertThat(Pop3UidlSnapshot.parse("1 uid1 uid2")).isNull()
+        assertThat(Pop3UidlSnapshot.parse("2 uid1  uid2")).isNull()
+    }
+}
@@ -0,0 +1,70 @@
+package com.fsck.k9.mail.transport.smtp
+
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mail.MessagingException
+import com.fsck.k9.mail.filter.EOLConvertingOutputStream
+import com.fsck.k9.mail.filter.LineWrapOutputStream
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.OutputStream
+import org.apache.commons.io.output.DeferredFileOutputStream
+
+private const val IN_MEMORY_THRESHOLD = 256 * 1024
+
+/**
+ * The encoded form of a message, ready to be sent to an SMTP server.
+ *
+ * Encoding a message with large attachments is expensive. Spooling it allows us to know the size of the message
+ * before sending it without encoding it twice. Small messages are kept in memory, larger ones are written to a
+ * temporary file that is deleted when the spool is closed.
+ */
+internal class MessageSpool private constructor(private val outputStream: DeferredFileOutputStream) : Closeable {
+    /**
+     * Size of the encoded message in bytes.
+     */
+    val size: Long
+        get() = outputStream.byteCount
+
+    fun writeTo(out: OutputStream) {
+        outputStream.writeTo(out)
+    }
+
+    override fun close() {
+        if (!outputStream.isInMemory) {
+            outputStream.file?.delete()
+        }
+    }
+
+    companion object {
+        /**
+         * Encodes [message] with CRLF line endings and lines no longer than 1000 characters.
+         */
+        @Throws(MessagingException::class)
+        fun create(message: Message, tempDirectory: File?): MessageSpool {
+            val outputStream = DeferredFileOutputStream.builder()
+                .setThreshold(IN_MEMORY_THRESHOLD)
+                .setPrefix("smtp")
+                .setSuffix(null)
+                .setDirectory(tempDirectory)
+                .get()
+
+            val messageSpool = MessageSpool(outputStream)
+            try {
+                outputStream.use {
+                    val messageOutputStream = EOLConvertingOutputStream(LineWrapOutputStream(outputStream, 1000))
+                    message.writeTo(messageOutputStream)
+                    messageOutputStream.endWithCrLfAndFlush()
+                }
+            } catch (e: IOException) {
+                messageSpool.close()
+                throw MessagingException("Unable to encode message", e)
+            } catch (e: MessagingException) {
+                messageSpool.close()
+                throw e
+            }
+
+            return messageSpool
+        }
+    }
+}
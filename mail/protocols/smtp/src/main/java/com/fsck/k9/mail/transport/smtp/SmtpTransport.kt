@@ -20,6 +20,7 @@ import com.fsck.k9.mail.filter.EOLConvertingOutputStream
 import com.fsck.k9.mail.filter.LineWrapOutputStream
 import com.fsck.k9.mail.filter.PeekableInputStream
 import com.fsck.k9.mail.filter.SmtpDataStuffing
+import com.fsck.k9.mail.internet.BinaryTempFileBody
 import com.fsck.k9.mail.oauth.OAuth2TokenProvider
 import com.fsck.k9.mail.oauth.XOAuth2ChallengeParser
 import com.fsck.k9.mail.ssl.CertificateChainExtractor
@@ -43,6 +44,9 @@ import org.jetbrains.annotations.VisibleForTesting
 
 private const val SOCKET_SEND_MESSAGE_READ_TIMEOUT = 5 * 60 * 1000 // 5 minutes
 
+// Servers may close idle connections after 5 minutes (RFC 5321, section 4.5.3.2.7). Some do so a lot sooner.
+private const val SESSION_IDLE_TIMEOUT_NANOS = 60 * 1_000_000_000L // 1 minute
+
 private const val SMTP_CONTINUE_REQUEST = 334
 private const val SMTP_AUTHENTICATION_FAILURE_ERROR_CODE = 535
 
@@ -68,6 +72,10 @@ class SmtpTransport(
     private var largestAcceptableMessage = 0
     private var retryOAuthWithNewToken = false
     private var isPipeliningSupported = false
+    private var isChunkingSupported = false
+    private var isBinaryMimeSupported = false
+    private var isSessionActive = false
+    private var lastTransactionTimeNanos = 0L
 
     private val logger: SmtpLogger = object : SmtpLogger {
         override val isRawProtocolLoggingEnabled: Boolean
@@ -106,6 +114,8 @@ class SmtpTransport(
             is8bitEncodingAllowed = extensions.containsKey("8BITMIME")
             isEnhancedStatusCodesProvided = extensions.containsKey("ENHANCEDSTATUSCODES")
             isPipeliningSupported = extensions.containsKey("PIPELINING")
+            isChunkingSupported = extensions.containsKey("CHUNKING")
+            isBinaryMimeSupported = isChunkingSupported && extensions.containsKey("BINARYMIME")
 
             if (connectionSecurity == ConnectionSecurity.STARTTLS_REQUIRED) {
                 if (extensions.containsKey("STARTTLS")) {
@@ -342,20 +352,41 @@ class SmtpTransport(
 
         message.removeHeader("Bcc")
 
-        ensureClosed()
-        open()
+        openOrReuseConnection()
 
-        // If the message has attachments and our server has told us about a limit on the size of messages, count
-        // the message's size before sending it.
-        if (largestAcceptableMessage > 0 && message.hasAttachments()) {
-            if (message.calculateSize() > largestAcceptableMessage) {
-                throw MessagingException("Message too large for server", true)
+        try {
+            // If the message has attachments and our server has told us about a limit on the size of messages, check
+            // the message's size before sending it. BDAT requires the size up front. In both cases the encoded message
+            // is spooled, so it doesn't have to be encoded a second time for sending.
+            if (isChunkingSupported || (largestAcceptableMessage > 0 && message.hasAttachments())) {
+                MessageSpool.create(message, BinaryTempFileBody.getTempDirectory()).use { messageSpool ->
+                    if (largestAcceptableMessage > 0 && messageSpool.size > largestAcceptableMessage) {
+                        throw MessagingException("Message too large for server", true)
+                    }
+
+                    sendMessageTransaction(message, addresses, messageSpool)
+                }
+            } else {
+                sendMessageTransaction(message, addresses, messageSpool = null)
+            }
+        } finally {
+            if (isSessionActive) {
+                lastTransactionTimeNanos = System.nanoTime()
+            } else {
+                close()
             }
         }
+    }
 
+    /**
+     * Sends the message using `MAIL FROM`, `RCPT TO`, and `BDAT` or `DATA`.
+     *
+     * If the server rejects the message, the connection can still be used. After other errors it is closed.
+     */
+    private fun sendMessageTransaction(message: Message, addresses: Set<String>, messageSpool: MessageSpool?) {
         var entireMessageSent = false
         try {
-            val mailFrom = constructSmtpMailFromCommand(message.from, is8bitEncodingAllowed)
+            val mailFrom = constructSmtpMailFromCommand(message.from)
             if (isPipeliningSupported) {
                 val pipelinedCommands = buildList {
                     add(mailFrom)
@@ -375,38 +406,107 @@ class SmtpTransport(
                 }
             }
 
-            executeCommand("DATA")
-
             // Sending large messages might take a long time. We're using an extended timeout while waiting for the
-            // final response to the DATA command.
+            // final response to the BDAT or DATA command.
             val socket = this.socket ?: error("socket == null")
-            socket.soTimeout = SOCKET_SEND_MESSAGE_READ_TIMEOUT
 
-            val msgOut = EOLConvertingOutputStream(
-                LineWrapOutputStream(
-                    SmtpDataStuffing(outputStream),
-                    1000,
-                ),
-            )
+            if (messageSpool != null && isChunkingSupported) {
+                // RFC 3030: The message data immediately follows the BDAT command. No dot-stuffing is necessary.
+                writeLine("BDAT ${messageSpool.size} LAST")
+                socket.soTimeout = SOCKET_SEND_MESSAGE_READ_TIMEOUT
+
+                val outputStream = this.outputStream!!
+                messageSpool.writeTo(outputStream)
+                outputStream.flush()
+
+                entireMessageSent = true
+                readResponse()
+            } else {
+                executeCommand("DATA")
+                socket.soTimeout = SOCKET_SEND_MESSAGE_READ_TIMEOUT
+
+                if (messageSpool != null) {
+                    val dataOutputStream = SmtpDataStuffing(outputStream)
+                    messageSpool.writeTo(dataOutputStream)
+                    dataOutputStream.flush()
+                } else {
+                    val msgOut = EOLConvertingOutputStream(
+                        LineWrapOutputStream(
+                            SmtpDataStuffing(outputStream),
+                            1000,
+                        ),
+                    )
 
-            message.writeTo(msgOut)
-            msgOut.endWithCrLfAndFlush()
+                    message.writeTo(msgOut)
+                    msgOut.endWithCrLfAndFlush()
+                }
 
-            // After the "\r\n." is attempted, we may have sent the message
-            entireMessageSent = true
-            executeCommand(".")
+                // After the "\r\n." is attempted, we may have sent the message
+                entireMessageSent = true
+                executeCommand(".")
+            }
+
+            socket.soTimeout = SOCKET_READ_TIMEOUT
         } catch (e: NegativeSmtpReplyException) {
             throw e
         } catch (e: Exception) {
+            close()
             throw MessagingException("Unable to send message", entireMessageSent, e)
-        } finally {
+        }
+    }
+
+    /**
+     * Keep the connection open between calls to [sendMessage] until [endSession] is called.
+     *
+     * A connection that is reused is reset with `RSET` before the next message is sent. If the connection has been
+     * idle for too long or the reset fails, e.g. because the server closed the connection, a new connection is opened.
+     */
+    fun startSession() {
+        isSessionActive = true
+    }
+
+    /**
+     * End a session started with [startSession] and close the connection.
+     */
+    fun endSession() {
+        isSessionActive = false
+
+        if (socket != null) {
+            close()
+        }
+    }
+
+    private fun openOrReuseConnection() {
+        if (isSessionActive && socket != null) {
+            val idleTimeNanos = System.nanoTime() - lastTransactionTimeNanos
+            if (idleTimeNanos < SESSION_IDLE_TIMEOUT_NANOS && resetConnection()) {
+                return
+            }
+
             close()
+        } else {
+            ensureClosed()
+        }
+
+        open()
+    }
+
+    @Suppress("TooGenericExceptionCaught")
+    private fun resetConnection(): Boolean {
+        return try {
+            executeCommand("RSET")
+            true
+        } catch (e: Exception) {
+            Timber.d(e, "Unable to reuse SMTP connection")
+            false
         }
     }
 
-    private fun constructSmtpMailFromCommand(from: Array<Address>, is8bitEncodingAllowed: Boolean): String {
+    private fun constructSmtpMailFromCommand(from: Array<Address>): String {
         val fromAddress = from.first().address
-        return if (is8bitEncodingAllowed) {
+        return if (isBinaryMimeSupported) {
+            String.format("MAIL FROM:<%s> BODY=BINARYMIME", fromAddress)
+        } else if (is8bitEncodingAllowed) {
             String.format("MAIL FROM:<%s> BODY=8BITMIME", fromAddress)
         } else {
             Timber.d("Server does not support 8-bit transfer encoding")
@@ -474,6 +574,10 @@ class SmtpTransport(
         val command = String.format(Locale.ROOT, format, *args)
         writeLine(command, sensitive)
 
+        return readResponse(sensitive)
+    }
+
+    private fun readResponse(sensitive: Boolean = false): SmtpResponse {
         val response = responseParser!!.readResponse(isEnhancedStatusCodesProvided)
         logResponse(response, sensitive)
 
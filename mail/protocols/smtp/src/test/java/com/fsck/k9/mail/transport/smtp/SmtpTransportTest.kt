@@ -680,11 +680,11 @@ class SmtpTransportTest {
 
     @Test
     fun `sendMessage() with message too large should throw`() {
+        // The encoded message "[message data]\r\n" is 16 bytes long
         val message = createDefaultMessageBuilder()
             .setHasAttachments(true)
-            .messageSize(1234L)
             .build()
-        val server = createServerAndSetupForPlainAuthentication("SIZE 1000")
+        val server = createServerAndSetupForPlainAuthentication("SIZE 10")
         val transport = startServerAndCreateSmtpTransport(server)
 
         assertFailure {
@@ -698,6 +698,79 @@ class SmtpTransportTest {
         // server.verifyConnectionClosed();
     }
 
+    @Test
+    fun `sendMessage() with message within size limit`() {
+        val message = createDefaultMessageBuilder()
+            .setHasAttachments(true)
+            .build()
+        val server = createServerAndSetupForPlainAuthentication("SIZE 16").apply {
+            expect("MAIL FROM:<user@localhost>")
+            output("250 OK")
+            expect("RCPT TO:<user2@localhost>")
+            output("250 OK")
+            expect("DATA")
+            output("354 End data with <CR><LF>.<CR><LF>")
+            expect("[message data]")
+            expect(".")
+            output("250 OK: queued as 12345")
+            expect("QUIT")
+            output("221 BYE")
+            closeConnection()
+        }
+        val transport = startServerAndCreateSmtpTransport(server)
+
+        transport.sendMessage(message)
+
+        server.verifyConnectionClosed()
+        server.verifyInteractionCompleted()
+    }
+
+    @Test
+    fun `sendMessage() with CHUNKING extension should use BDAT`() {
+        val message = createDefaultMessage()
+        val server = createServerAndSetupForPlainAuthentication("8BITMIME", "CHUNKING").apply {
+            expect("MAIL FROM:<user@localhost> BODY=8BITMIME")
+            output("250 OK")
+            expect("RCPT TO:<user2@localhost>")
+            output("250 OK")
+            expect("BDAT 16 LAST")
+            expect("[message data]")
+            output("250 OK: queued as 12345")
+            expect("QUIT")
+            output("221 BYE")
+            closeConnection()
+        }
+        val transport = startServerAndCreateSmtpTransport(server)
+
+        transport.sendMessage(message)
+
+        server.verifyConnectionClosed()
+        server.verifyInteractionCompleted()
+    }
+
+    @Test
+    fun `sendMessage() with CHUNKING and BINARYMIME extensions should use BODY=BINARYMIME`() {
+        val message = createDefaultMessage()
+        val server = createServerAndSetupForPlainAuthentication("8BITMIME", "CHUNKING", "BINARYMIME").apply {
+            expect("MAIL FROM:<user@localhost> BODY=BINARYMIME")
+            output("250 OK")
+            expect("RCPT TO:<user2@localhost>")
+            output("250 OK")
+            expect("BDAT 16 LAST")
+            expect("[message data]")
+            output("250 OK: queued as 12345")
+            expect("QUIT")
+            output("221 BYE")
+            closeConnection()
+        }
+        val transport = startServerAndCreateSmtpTransport(server)
+
+        transport.sendMessage(message)
+
+        server.verifyConnectionClosed()
+        server.verifyInteractionCompleted()
+    }
+
     @Test
     fun `sendMessage() with negative reply should throw`() {
         val message = createDefaultMessage()
@@ -728,6 +801,80 @@ class SmtpTransportTest {
         server.verifyInteractionCompleted()
     }
 
+    @Test
+    fun `sendMessage() during session should reuse connection`() {
+        val server = createServerAndSetupForPlainAuthentication().apply {
+            expect("MAIL FROM:<user@localhost>")
+            output("250 OK")
+            expect("RCPT TO:<user2@localhost>")
+            output("250 OK")
+            expect("DATA")
+            output("354 End data with <CR><LF>.<CR><LF>")
+            expect("[message data]")
+            expect(".")
+            output("250 OK: queued as 12345")
+            expect("RSET")
+            output("250 OK")
+            expect("MAIL FROM:<user@localhost>")
+            output("250 OK")
+            expect("RCPT TO:<user2@localhost>")
+            output("250 OK")
+            expect("DATA")
+            output("354 End data with <CR><LF>.<CR><LF>")
+            expect("[message data]")
+            expect(".")
+            output("250 OK: queued as 12346")
+            expect("QUIT")
+            output("221 BYE")
+            closeConnection()
+        }
+        val transport = startServerAndCreateSmtpTransport(server)
+
+        transport.startSession()
+        transport.sendMessage(createDefaultMessage())
+        transport.sendMessage(createDefaultMessage())
+        transport.endSession()
+
+        server.verifyConnectionClosed()
+        server.verifyInteractionCompleted()
+    }
+
+    @Test
+    fun `sendMessage() during session should reuse connection after negative reply`() {
+        val server = createServerAndSetupForPlainAuthentication().apply {
+            expect("MAIL FROM:<user@localhost>")
+            output("250 OK")
+            expect("RCPT TO:<user2@localhost>")
+            output("550 5.1.1 Mailbox unavailable")
+            expect("RSET")
+            output("250 OK")
+            expect("MAIL FROM:<user@localhost>")
+            output("250 OK")
+            expect("RCPT TO:<user2@localhost>")
+            output("250 OK")
+            expect("DATA")
+            output("354 End data with <CR><LF>.<CR><LF>")
+            expect("[message data]")
+            expect(".")
+            output("250 OK: queued as 12345")
+            expect("QUIT")
+            output("221 BYE")
+            closeConnection()
+        }
+        val transport = startServerAndCreateSmtpTransport(server)
+        transport.startSession()
+
+        assertFailure {
+            transport.sendMessage(createDefaultMessage())
+        }.isInstanceOf<NegativeSmtpReplyException>()
+
+        transport.sendMessage(createDefaultMessage())
+        transport.endSession()
+
+        server.verifyConnectionClosed()
+        server.verifyInteractionCompleted()
+    }
+
     @Test
     fun `sendMessage() with pipelining`() {
         val message = createDefaultMessage()